@@ -0,0 +1,68 @@
+package com.prashant.memory;
+
+import com.prashant.exception.DMFrameLimitExcededException;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Skeleton of a <code>HandleMemoryBuffer</code> over a single <code>ByteBuffer</code>.
+ * <p>
+ * A handle carries the offset and length of the payload, so reading one is the same for every allocation strategy, and freeing one goes
+ * through the same {@link EpochReclaimer} as a <code>Pointer</code> does. Implementations find the block of a handle from their own off heap
+ * metadata by implementing {@link #storeHandle(byte[])} and {@link #release(long)}.
+ * </p>
+ */
+public abstract class AbstractHandleMemoryBuffer extends AbstractMemoryBuffer implements HandleMemoryBuffer {
+
+    protected AbstractHandleMemoryBuffer(ByteBuffer buffer, int bufferNumber) {
+        super(buffer, bufferNumber);
+    }
+
+    /**
+     * A reclaimer that also releases the handles freed.
+     * 
+     * @see com.prashant.memory.AbstractMemoryBuffer#createEpochs(com.prashant.memory.EpochReclaimer.Owner)
+     */
+    EpochReclaimer createEpochs(EpochReclaimer.Owner owner) {
+        return new EpochReclaimer(owner, new EpochReclaimer.HandleOwner() {
+            public long release(long handle) {
+                return AbstractHandleMemoryBuffer.this.release(handle);
+            }
+        });
+    }
+
+    /**
+     * Gives the block of the handle back to the allocator, once no read can still see it.
+     * 
+     * @return bytes freed, 0 when the block was already free
+     */
+    protected abstract long release(long handle);
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.HandleMemoryBuffer#retrieve(long)
+     */
+    public byte[] retrieve(long handle) throws DMFrameLimitExcededException {
+        EpochReclaimer.Participant reader = epochs.enter();
+        try {
+            int offset = Handles.offset(handle);
+            int len = Handles.length(handle);
+            if ((long) offset + len <= buffer.capacity()) {
+                return read(offset, len);
+            }
+            throw new DMFrameLimitExcededException("Trying to read to a position out of bounds for this handle.", null);
+        } finally {
+            epochs.exit(reader);
+        }
+    }
+
+    /**
+     * Retired, and released right away when no read is in flight, otherwise once the reads in flight are done.
+     * 
+     * @see com.prashant.memory.HandleMemoryBuffer#free(long)
+     */
+    public long free(long handle) {
+        return epochs.retire(handle);
+    }
+}
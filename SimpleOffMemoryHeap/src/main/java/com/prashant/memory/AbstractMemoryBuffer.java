@@ -0,0 +1,890 @@
+package com.prashant.memory;
+
+import com.prashant.exception.DMBufferOverFlowException;
+import com.prashant.exception.DMFrameLimitExcededException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Skeleton of a <code>MemoryBuffer</code> over a single <code>ByteBuffer</code>, adapted from <em>Apache DirectMemory</em>'s
+ * AbstractOffHeapMemoryBuffer.
+ * <p>
+ * A block is pointed to by a <code>Pointer</code> whose <code>start</code> is the first byte of the payload and whose <code>end</code> is
+ * <code>start + capacity</code>. Reading, writing and <code>used</code> accounting are the same for every allocation strategy, so
+ * implementations only decide where a block goes by implementing {@link #allocate(int)}, {@link #release(Pointer)} and {@link #clear()}.
+ * </p>
+ * <p>
+ * Reads never lock nor allocate on the hot path. Each thread copies through its own duplicate of the buffer, and reads are optimistic
+ * against the <code>relocation</code> lock, which an implementation write locks while it moves a block, and are only retried under the
+ * read lock when a move happened meanwhile. Implementations that move blocks also read lock it around writes.
+ * </p>
+ * <p>
+ * Reads and writes announce themselves to an {@link EpochReclaimer}, so a block freed while they are in flight is only released, and so
+ * handed out again, once they are done. One that starts after the free is refused. <code>used</code> drops when the block is released.
+ * Views are not covered and stay only valid until the block is freed.
+ * </p>
+ */
+public abstract class AbstractMemoryBuffer implements MemoryBuffer {
+    protected ByteBuffer buffer;
+
+    protected final AtomicInteger used = new AtomicInteger();
+    public int bufferNumber;
+
+    /** Write locked by implementations while they move a block. */
+    protected final StampedLock relocation = new StampedLock();
+
+    /**
+     * Guards the free space of implementations that keep it in a single structure, always taken after <code>relocation</code>. Not a monitor,
+     * so a virtual thread waiting for it unmounts from its carrier instead of pinning it.
+     */
+    protected final ReentrantLock allocator = new ReentrantLock();
+
+    /** Per thread duplicate of the buffer, so bulk copies need neither a lock nor a new view. */
+    private final ThreadLocal<ByteBuffer> cursors = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return buffer.duplicate();
+        }
+    };
+
+    /** Defers the release of blocks freed while reads are in flight. */
+    final EpochReclaimer epochs = createEpochs(new EpochReclaimer.Owner() {
+        public long release(Collection<Pointer> pointers) {
+            return AbstractMemoryBuffer.this.release(pointers);
+        }
+    });
+
+    /** Waits for the allocator lock, only recorded once a <code>MeteredMemoryBuffer</code> wraps this buffer. */
+    volatile LatencyHistogram lockWaits;
+
+    /** Alignment of the blocks stored without one, see {@link #setDefaultAlignment(int)}. */
+    private volatile int defaultAlignment = 1;
+
+    protected AbstractMemoryBuffer(ByteBuffer buffer, int bufferNumber) {
+        this.buffer = buffer;
+        this.bufferNumber = bufferNumber;
+    }
+
+    /**
+     * Creates the reclaimer of the buffer while its fields are initialized, so it must not use any of them.
+     */
+    EpochReclaimer createEpochs(EpochReclaimer.Owner owner) {
+        return new EpochReclaimer(owner);
+    }
+
+    /**
+     * Reserves a block with room for <code>capacity</code> bytes, the returned <code>Pointer</code> spans <code>[start, start + capacity]</code>
+     * and is not free.
+     * 
+     * @throws DMBufferOverFlowException
+     *             when no block is large enough
+     */
+    protected abstract Pointer allocate(int capacity) throws DMBufferOverFlowException;
+
+    /**
+     * Same as {@link #allocate(int)}, with the address of the block a multiple of <code>alignment</code>, which the returned
+     * <code>Pointer</code> records. Only called with an alignment up to {@link #maxAlignment()}, so implementations that do not align blocks
+     * need not override it.
+     * 
+     * @throws DMBufferOverFlowException
+     *             when no block is large enough
+     */
+    protected Pointer allocate(int capacity, int alignment) throws DMBufferOverFlowException {
+        return allocate(capacity);
+    }
+
+    /**
+     * @return largest alignment {@link #allocate(int, int)} honours, 1 unless the implementation aligns blocks
+     */
+    protected int maxAlignment() {
+        return 1;
+    }
+
+    /**
+     * @throws IllegalArgumentException
+     *             when the alignment is not a power of two up to {@link #maxAlignment()}
+     */
+    private void checkAlignment(int alignment) {
+        if (alignment < 1 || Integer.bitCount(alignment) != 1 || alignment > maxAlignment()) {
+            throw new IllegalArgumentException(getClass().getSimpleName() + " aligns blocks to powers of two up to " + maxAlignment()
+                    + ", not " + alignment);
+        }
+    }
+
+    /**
+     * @return alignment of the blocks stored without one
+     */
+    public int getDefaultAlignment() {
+        return defaultAlignment;
+    }
+
+    /**
+     * Sets the alignment of the blocks stored from now on without one, such as 64 to give records updated by different threads a cache line
+     * each. Blocks stored through handles are never aligned.
+     * 
+     * @throws IllegalArgumentException
+     *             when the alignment is not a power of two up to what the implementation supports
+     */
+    public void setDefaultAlignment(int alignment) {
+        checkAlignment(alignment);
+        this.defaultAlignment = alignment;
+    }
+
+    /**
+     * Gives the block back to the allocator and drops <code>used</code>, once no read can still see it.
+     * 
+     * @return bytes freed, 0 when the block was already free
+     */
+    protected abstract long release(Pointer pointer2free);
+
+    /**
+     * Gives back blocks no read can see anymore, one by one unless the implementation can release them together.
+     * 
+     * @return bytes freed
+     */
+    protected long release(Collection<Pointer> pointers) {
+        long freed = 0;
+        for (Pointer pointer : pointers) {
+            freed += release(pointer);
+        }
+        return freed;
+    }
+
+    /**
+     * Releases the retired blocks no read can see anymore. Called before a store, so frees and stores rather than reads do the reclaiming.
+     * 
+     * @return number of blocks released
+     */
+    protected int reclaim() {
+        return epochs.pending() ? epochs.reclaim() : 0;
+    }
+
+    /**
+     * Allocates after reclaiming. When no block is large enough while retired blocks wait, waits for the reads holding them back and tries
+     * again, for as long as this or another thread released some meanwhile.
+     */
+    private Pointer reserveBlock(int capacity, int alignment) throws DMBufferOverFlowException {
+        reclaim();
+        while (true) {
+            long released = epochs.released();
+            try {
+                return alignment == 1 ? allocate(capacity) : allocate(capacity, alignment);
+            } catch (DMBufferOverFlowException e) {
+                // Another thread may have emptied the limbo between the failed allocation and the wait.
+                if (epochs.awaitReclaim() == 0 && epochs.released() == released) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return when the wait for the allocator lock started, 0 when lock waits are not recorded
+     */
+    protected long lockWaitStart() {
+        return lockWaits == null ? 0 : System.nanoTime();
+    }
+
+    /**
+     * Records the wait for the allocator lock, called right after it is taken.
+     */
+    protected void lockAcquired(long waitStart) {
+        LatencyHistogram waits = lockWaits;
+        if (waitStart != 0 && waits != null) {
+            waits.record(System.nanoTime() - waitStart);
+        }
+    }
+
+    /**
+     * @return this thread's duplicate of the buffer, with its limit reset
+     */
+    protected ByteBuffer cursor() {
+        ByteBuffer cursor = cursors.get();
+        cursor.clear();
+        return cursor;
+    }
+
+    /**
+     * Copies <code>len</code> bytes starting at an absolute position of the buffer into a new array.
+     */
+    protected byte[] read(int position, int len) {
+        final byte[] swp = new byte[len];
+        ByteBuffer buf = cursor();
+        buf.position(position);
+        buf.get(swp);
+        return swp;
+    }
+
+    /**
+     * Copies the payload to an absolute position of the buffer.
+     */
+    protected void write(int position, byte[] payload) {
+        ByteBuffer buf = cursor();
+        buf.position(position);
+        buf.put(payload);
+    }
+
+    /**
+     * @return absolute position of <code>len</code> bytes at <code>offset</code> within the block
+     * @throws DMFrameLimitExcededException
+     *             when they do not all lie within the block
+     */
+    protected int position(Pointer pointer, int offset, int len) throws DMFrameLimitExcededException {
+        if (offset < 0 || len < 0 || pointer.getStart() + offset + len > pointer.getEnd()) {
+            throw new DMFrameLimitExcededException("Trying to read to a position out of bounds for this pointer.", null);
+        }
+        return pointer.getStart() + offset;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#used()
+     */
+    public int used() {
+        return used.get();
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#capacity()
+     */
+    public int capacity() {
+        return buffer.capacity();
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#retrieve(com.prashant.memory.Pointer, int, int)
+     */
+    public byte[] retrieve(Pointer pointer, int offset, int len) throws DMFrameLimitExcededException {
+        EpochReclaimer.Participant reader = epochs.enter(pointer);
+        try {
+            long stamp = relocation.tryOptimisticRead();
+            try {
+                byte[] bytes = read(position(pointer, offset, len), len);
+                if (relocation.validate(stamp)) {
+                    return bytes;
+                }
+            } catch (Exception e) {
+                // Start and end read half way through a move, or a genuine error raised again below.
+            }
+            stamp = relocation.readLock();
+            try {
+                return read(position(pointer, offset, len), len);
+            } finally {
+                relocation.unlockRead(stamp);
+            }
+        } finally {
+            epochs.exit(reader);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#retrieve(com.prashant.memory.Pointer)
+     */
+    public byte[] retrieve(Pointer pointer) throws DMFrameLimitExcededException {
+        EpochReclaimer.Participant reader = epochs.enter(pointer);
+        try {
+            long stamp = relocation.tryOptimisticRead();
+            try {
+                byte[] bytes = read(pointer.getStart(), pointer.getEnd() - pointer.getStart());
+                if (relocation.validate(stamp)) {
+                    return bytes;
+                }
+            } catch (RuntimeException e) {
+                // Start and end read half way through a move.
+            }
+            stamp = relocation.readLock();
+            try {
+                return read(pointer.getStart(), pointer.getEnd() - pointer.getStart());
+            } finally {
+                relocation.unlockRead(stamp);
+            }
+        } finally {
+            epochs.exit(reader);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#retrieve(com.prashant.memory.Pointer, int, byte[], int, int)
+     */
+    public void retrieve(Pointer pointer, int offset, byte[] dst, int dstOffset, int len) throws DMFrameLimitExcededException {
+        EpochReclaimer.Participant reader = epochs.enter(pointer);
+        try {
+            long stamp = relocation.tryOptimisticRead();
+            try {
+                ByteBuffer buf = cursor();
+                buf.position(position(pointer, offset, len));
+                buf.get(dst, dstOffset, len);
+                if (relocation.validate(stamp)) {
+                    return;
+                }
+            } catch (Exception e) {
+                // Start and end read half way through a move, or a genuine error raised again below.
+            }
+            stamp = relocation.readLock();
+            try {
+                ByteBuffer buf = cursor();
+                buf.position(position(pointer, offset, len));
+                buf.get(dst, dstOffset, len);
+            } finally {
+                relocation.unlockRead(stamp);
+            }
+        } finally {
+            epochs.exit(reader);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#retrieve(com.prashant.memory.Pointer, int, java.nio.ByteBuffer)
+     */
+    public void retrieve(Pointer pointer, int offset, ByteBuffer dst) throws DMFrameLimitExcededException {
+        EpochReclaimer.Participant reader = epochs.enter(pointer);
+        try {
+            int dstPosition = dst.position();
+            int len = dst.remaining();
+            long stamp = relocation.tryOptimisticRead();
+            try {
+                ByteBuffer buf = cursor();
+                int position = position(pointer, offset, len);
+                buf.limit(position + len).position(position);
+                dst.put(buf);
+                if (relocation.validate(stamp)) {
+                    return;
+                }
+            } catch (Exception e) {
+                // Start and end read half way through a move, or a genuine error raised again below.
+            }
+            dst.position(dstPosition);
+            stamp = relocation.readLock();
+            try {
+                ByteBuffer buf = cursor();
+                int position = position(pointer, offset, len);
+                buf.limit(position + len).position(position);
+                dst.put(buf);
+            } finally {
+                relocation.unlockRead(stamp);
+            }
+        } finally {
+            epochs.exit(reader);
+        }
+    }
+
+    /**
+     * The view shares the memory of the block. It sees later updates, and it is only valid until the block is freed or moved by compaction.
+     * 
+     * @see com.prashant.memory.MemoryBuffer#view(com.prashant.memory.Pointer)
+     */
+    public ByteBuffer view(Pointer pointer) {
+        long stamp = relocation.readLock();
+        try {
+            ByteBuffer view = buffer.duplicate();
+            view.limit(pointer.getEnd()).position(pointer.getStart());
+            return view.slice().asReadOnlyBuffer();
+        } finally {
+            relocation.unlockRead(stamp);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#getByte(com.prashant.memory.Pointer, int)
+     */
+    public byte getByte(Pointer pointer, int offset) throws DMFrameLimitExcededException {
+        EpochReclaimer.Participant reader = epochs.enter(pointer);
+        try {
+            long stamp = relocation.tryOptimisticRead();
+            try {
+                byte value = buffer.get(position(pointer, offset, 1));
+                if (relocation.validate(stamp)) {
+                    return value;
+                }
+            } catch (Exception e) {
+                // Start and end read half way through a move, or a genuine error raised again below.
+            }
+            stamp = relocation.readLock();
+            try {
+                return buffer.get(position(pointer, offset, 1));
+            } finally {
+                relocation.unlockRead(stamp);
+            }
+        } finally {
+            epochs.exit(reader);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#getShort(com.prashant.memory.Pointer, int)
+     */
+    public short getShort(Pointer pointer, int offset) throws DMFrameLimitExcededException {
+        EpochReclaimer.Participant reader = epochs.enter(pointer);
+        try {
+            long stamp = relocation.tryOptimisticRead();
+            try {
+                short value = buffer.getShort(position(pointer, offset, 2));
+                if (relocation.validate(stamp)) {
+                    return value;
+                }
+            } catch (Exception e) {
+                // Start and end read half way through a move, or a genuine error raised again below.
+            }
+            stamp = relocation.readLock();
+            try {
+                return buffer.getShort(position(pointer, offset, 2));
+            } finally {
+                relocation.unlockRead(stamp);
+            }
+        } finally {
+            epochs.exit(reader);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#getInt(com.prashant.memory.Pointer, int)
+     */
+    public int getInt(Pointer pointer, int offset) throws DMFrameLimitExcededException {
+        EpochReclaimer.Participant reader = epochs.enter(pointer);
+        try {
+            long stamp = relocation.tryOptimisticRead();
+            try {
+                int value = buffer.getInt(position(pointer, offset, 4));
+                if (relocation.validate(stamp)) {
+                    return value;
+                }
+            } catch (Exception e) {
+                // Start and end read half way through a move, or a genuine error raised again below.
+            }
+            stamp = relocation.readLock();
+            try {
+                return buffer.getInt(position(pointer, offset, 4));
+            } finally {
+                relocation.unlockRead(stamp);
+            }
+        } finally {
+            epochs.exit(reader);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#getLong(com.prashant.memory.Pointer, int)
+     */
+    public long getLong(Pointer pointer, int offset) throws DMFrameLimitExcededException {
+        EpochReclaimer.Participant reader = epochs.enter(pointer);
+        try {
+            long stamp = relocation.tryOptimisticRead();
+            try {
+                long value = buffer.getLong(position(pointer, offset, 8));
+                if (relocation.validate(stamp)) {
+                    return value;
+                }
+            } catch (Exception e) {
+                // Start and end read half way through a move, or a genuine error raised again below.
+            }
+            stamp = relocation.readLock();
+            try {
+                return buffer.getLong(position(pointer, offset, 8));
+            } finally {
+                relocation.unlockRead(stamp);
+            }
+        } finally {
+            epochs.exit(reader);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#putByte(com.prashant.memory.Pointer, int, byte)
+     */
+    public void putByte(Pointer pointer, int offset, byte value) throws DMFrameLimitExcededException {
+        EpochReclaimer.Participant reader = epochs.enter(pointer);
+        try {
+            buffer.put(position(pointer, offset, 1), value);
+        } finally {
+            epochs.exit(reader);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#putShort(com.prashant.memory.Pointer, int, short)
+     */
+    public void putShort(Pointer pointer, int offset, short value) throws DMFrameLimitExcededException {
+        EpochReclaimer.Participant reader = epochs.enter(pointer);
+        try {
+            buffer.putShort(position(pointer, offset, 2), value);
+        } finally {
+            epochs.exit(reader);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#putInt(com.prashant.memory.Pointer, int, int)
+     */
+    public void putInt(Pointer pointer, int offset, int value) throws DMFrameLimitExcededException {
+        EpochReclaimer.Participant reader = epochs.enter(pointer);
+        try {
+            buffer.putInt(position(pointer, offset, 4), value);
+        } finally {
+            epochs.exit(reader);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#putLong(com.prashant.memory.Pointer, int, long)
+     */
+    public void putLong(Pointer pointer, int offset, long value) throws DMFrameLimitExcededException {
+        EpochReclaimer.Participant reader = epochs.enter(pointer);
+        try {
+            buffer.putLong(position(pointer, offset, 8), value);
+        } finally {
+            epochs.exit(reader);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#store(byte[], int)
+     */
+    public Pointer store(byte[] payload, int capacity) throws DMBufferOverFlowException {
+        return store(payload, capacity, defaultAlignment);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#store(byte[], int, int)
+     */
+    public Pointer store(byte[] payload, int capacity, int alignment) throws DMBufferOverFlowException {
+        checkAlignment(alignment);
+        if (payload.length > capacity) {
+            throw new DMBufferOverFlowException("An attempt to store more than the requested capacity", null);
+        }
+        Pointer fresh = reserveBlock(capacity, alignment);
+        if (capacity > payload.length) {
+            fresh.setReserved(capacity);
+        }
+        used.addAndGet(capacity);
+        write(fresh.getStart(), payload);
+        return fresh;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#store(byte[])
+     */
+    public Pointer store(byte[] payload) throws DMBufferOverFlowException {
+        return store(payload, payload.length);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#store(java.lang.Object)
+     */
+    public <T> Pointer store(T value) throws DMBufferOverFlowException {
+        OffHeapCodec<T> codec = OffHeapCodecs.codec(value.getClass());
+        int size = codec.size(value);
+        Pointer fresh = reserveBlock(size, defaultAlignment);
+        used.addAndGet(size);
+        ByteBuffer buf = cursor();
+        buf.limit(fresh.getEnd()).position(fresh.getStart());
+        codec.write(value, buf);
+        fresh.setClazz(codec.type());
+        return fresh;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#load(com.prashant.memory.Pointer)
+     */
+    public <T> T load(Pointer pointer) throws DMFrameLimitExcededException {
+        EpochReclaimer.Participant reader = epochs.enter(pointer);
+        try {
+            OffHeapCodec<T> codec = codec(pointer);
+            long stamp = relocation.tryOptimisticRead();
+            try {
+                ByteBuffer buf = cursor();
+                buf.limit(pointer.getEnd()).position(pointer.getStart());
+                T value = codec.read(buf);
+                if (relocation.validate(stamp)) {
+                    return value;
+                }
+            } catch (RuntimeException e) {
+                // Start and end read half way through a move, or bytes overwritten by it.
+            }
+            stamp = relocation.readLock();
+            try {
+                ByteBuffer buf = cursor();
+                buf.limit(pointer.getEnd()).position(pointer.getStart());
+                return codec.read(buf);
+            } finally {
+                relocation.unlockRead(stamp);
+            }
+        } finally {
+            epochs.exit(reader);
+        }
+    }
+
+    static <T> OffHeapCodec<T> codec(Pointer pointer) {
+        if (pointer.getClazz() == null) {
+            throw new IllegalArgumentException("The pointer records no class to load");
+        }
+        return OffHeapCodecs.codec(pointer.getClazz());
+    }
+
+    /**
+     * The block is reserved before anything is read, and freed again when reading fails.
+     * 
+     * @see com.prashant.memory.MemoryBuffer#store(java.nio.channels.ReadableByteChannel, long)
+     */
+    public Pointer store(ReadableByteChannel src, long length) throws DMBufferOverFlowException, IOException {
+        if (length < 0 || length > capacity()) {
+            throw new DMBufferOverFlowException("An attempt to store more than the buffer capacity", null);
+        }
+        Pointer fresh = reserveBlock((int) length, defaultAlignment);
+        used.addAndGet((int) length);
+        // A view of its own rather than the thread's cursor, the channel may well read from this buffer too.
+        ByteBuffer buf = buffer.duplicate();
+        buf.limit(fresh.getEnd()).position(fresh.getStart());
+        try {
+            while (buf.hasRemaining()) {
+                if (src.read(buf) < 0) {
+                    throw new EOFException("Channel ended " + buf.remaining() + " bytes short of " + length);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            free(fresh);
+            throw e;
+        }
+        return fresh;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#store(java.io.InputStream, long)
+     */
+    public Pointer store(InputStream src, long length) throws DMBufferOverFlowException, IOException {
+        return store(Channels.newChannel(src), length);
+    }
+
+    /**
+     * The block is read locked against moves for the whole transfer, as bytes already written cannot be taken back.
+     * 
+     * @see com.prashant.memory.MemoryBuffer#transferTo(com.prashant.memory.Pointer, java.nio.channels.WritableByteChannel)
+     */
+    public long transferTo(Pointer pointer, WritableByteChannel target) throws IOException {
+        EpochReclaimer.Participant reader;
+        try {
+            reader = epochs.enter(pointer);
+        } catch (DMFrameLimitExcededException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        try {
+            long stamp = relocation.readLock();
+            try {
+                ByteBuffer buf = buffer.duplicate();
+                buf.limit(pointer.getEnd()).position(pointer.getStart());
+                long written = 0;
+                while (buf.hasRemaining()) {
+                    written += target.write(buf);
+                }
+                return written;
+            } finally {
+                relocation.unlockRead(stamp);
+            }
+        } finally {
+            epochs.exit(reader);
+        }
+    }
+
+    /**
+     * Stores one payload after the other, and frees the ones already stored when one does not fit.
+     * 
+     * @see com.prashant.memory.MemoryBuffer#storeAll(byte[][])
+     */
+    public Pointer[] storeAll(byte[][] payloads) throws DMBufferOverFlowException {
+        Pointer[] pointers = new Pointer[payloads.length];
+        int i = 0;
+        try {
+            for (; i < payloads.length; i++) {
+                pointers[i] = store(payloads[i]);
+            }
+            return pointers;
+        } catch (DMBufferOverFlowException e) {
+            for (int j = 0; j < i; j++) {
+                free(pointers[j]);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Retired, and released right away when no read is in flight, otherwise once the reads in flight are done. Returns the bytes of a retired
+     * block straight away, although <code>used</code> only drops once it is released.
+     * 
+     * @see com.prashant.memory.MemoryBuffer#free(com.prashant.memory.Pointer)
+     */
+    public long free(Pointer pointer2free) {
+        return epochs.retire(pointer2free);
+    }
+
+    /**
+     * Retires all the blocks at once, so the ones released right away are released together.
+     * 
+     * @see com.prashant.memory.MemoryBuffer#freeAll(java.util.Collection)
+     */
+    public long freeAll(Collection<Pointer> pointers) {
+        return epochs.retireAll(pointers);
+    }
+
+    /**
+     * All the blocks are read under a single optimistic stamp, and read again under the read lock only when a block moved meanwhile.
+     * 
+     * @see com.prashant.memory.MemoryBuffer#retrieveAll(com.prashant.memory.Pointer[], java.nio.ByteBuffer)
+     */
+    public void retrieveAll(Pointer[] pointers, ByteBuffer dst) throws DMFrameLimitExcededException {
+        EpochReclaimer.Participant reader = epochs.enter();
+        try {
+            for (Pointer pointer : pointers) {
+                EpochReclaimer.checkLive(pointer);
+            }
+            int dstPosition = dst.position();
+            long stamp = relocation.tryOptimisticRead();
+            try {
+                gather(pointers, dst);
+                if (relocation.validate(stamp)) {
+                    return;
+                }
+            } catch (Exception e) {
+                // Start and end read half way through a move, or a genuine error raised again below.
+            }
+            dst.position(dstPosition);
+            stamp = relocation.readLock();
+            try {
+                gather(pointers, dst);
+            } finally {
+                relocation.unlockRead(stamp);
+            }
+        } finally {
+            epochs.exit(reader);
+        }
+    }
+
+    private void gather(Pointer[] pointers, ByteBuffer dst) throws DMFrameLimitExcededException {
+        long total = 0;
+        for (Pointer pointer : pointers) {
+            total += pointer.getEnd() - pointer.getStart();
+        }
+        if (total > dst.remaining()) {
+            throw new BufferOverflowException();
+        }
+        ByteBuffer buf = cursor();
+        for (Pointer pointer : pointers) {
+            int len = pointer.getEnd() - pointer.getStart();
+            int position = position(pointer, 0, len);
+            buf.limit(position + len).position(position);
+            dst.put(buf);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#update(com.prashant.memory.Pointer, byte[], int)
+     */
+    public void update(Pointer pointer, byte[] payload, int offset) throws DMFrameLimitExcededException {
+        EpochReclaimer.Participant reader = epochs.enter(pointer);
+        try {
+            // Within the capacity of the block, the byte past it may already belong to the next block or header
+            if (offset >= 0 && pointer.getStart() + offset + payload.length <= pointer.getEnd()) {
+                write(pointer.getStart() + offset, payload);
+                return;
+            }
+            throw new DMFrameLimitExcededException("Trying to write to a position out of bounds for this pointer.", null);
+        } finally {
+            epochs.exit(reader);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#update(com.prashant.memory.Pointer, byte[])
+     */
+    public Pointer update(Pointer pointer, byte[] payload) throws DMBufferOverFlowException {
+        int capacity = Math.max(payload.length, pointer.getReserved());
+        if (updateInPlace(pointer, payload, capacity)) {
+            return pointer;
+        }
+        free(pointer);
+        Pointer fresh = store(payload, capacity, pointer.getAlignment());
+        fresh.setReserved(pointer.getReserved());
+        return fresh;
+    }
+
+    /**
+     * Resizes the block where it is and writes the payload to it.
+     * 
+     * @return false when the block has to move
+     */
+    protected boolean updateInPlace(Pointer pointer, byte[] payload, int capacity) {
+        if (!resize(pointer, capacity)) {
+            return false;
+        }
+        EpochReclaimer.Participant reader = epochs.enter();
+        try {
+            write(pointer.getStart(), payload);
+        } finally {
+            epochs.exit(reader);
+        }
+        pointer.setClazz(null);
+        return true;
+    }
+
+    /**
+     * Resizes a live block to span <code>[start, start + capacity]</code> without moving it, and adjusts <code>used</code>. Only succeeds
+     * when the size is unchanged, unless the implementation can shrink or grow blocks.
+     * 
+     * @return false when the block has to move
+     */
+    protected boolean resize(Pointer pointer, int capacity) {
+        return !pointer.isFree() && !pointer.isRetired() && pointer.getEnd() - pointer.getStart() == capacity;
+    }
+}
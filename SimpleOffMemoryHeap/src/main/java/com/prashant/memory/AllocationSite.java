@@ -0,0 +1,70 @@
+package com.prashant.memory;
+
+/**
+ * Point in time copy of what the sampled stores from one stack hold, see {@link TrackingMemoryBuffer#sites(int)}. Counts are those of the
+ * sampled blocks only.
+ */
+public class AllocationSite {
+    private final StackTraceElement[] frames;
+    private final long liveBlocks;
+    private final long liveBytes;
+    private final long averageAgeMillis;
+    private final long leakedBlocks;
+    private final long leakedBytes;
+
+    AllocationSite(StackTraceElement[] frames, long liveBlocks, long liveBytes, long averageAgeMillis, long leakedBlocks, long leakedBytes) {
+        this.frames = frames;
+        this.liveBlocks = liveBlocks;
+        this.liveBytes = liveBytes;
+        this.averageAgeMillis = averageAgeMillis;
+        this.leakedBlocks = leakedBlocks;
+        this.leakedBytes = leakedBytes;
+    }
+
+    /**
+     * @return the stack of the store, innermost frame first
+     */
+    public StackTraceElement[] getFrames() {
+        return frames.clone();
+    }
+
+    /**
+     * @return blocks stored from here and not freed yet
+     */
+    public long getLiveBlocks() {
+        return liveBlocks;
+    }
+
+    public long getLiveBytes() {
+        return liveBytes;
+    }
+
+    /**
+     * @return mean time since the live blocks were stored, 0 when there are none
+     */
+    public long getAverageAgeMillis() {
+        return averageAgeMillis;
+    }
+
+    /**
+     * @return blocks stored from here whose pointer became unreachable before they were freed
+     */
+    public long getLeakedBlocks() {
+        return leakedBlocks;
+    }
+
+    public long getLeakedBytes() {
+        return leakedBytes;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("AllocationSite [liveBytes=").append(liveBytes).append(", liveBlocks=").append(liveBlocks)
+                .append(", averageAgeMillis=").append(averageAgeMillis).append(", leakedBytes=").append(leakedBytes).append(", leakedBlocks=")
+                .append(leakedBlocks).append("]");
+        for (StackTraceElement frame : frames) {
+            builder.append("\n\tat ").append(frame);
+        }
+        return builder.toString();
+    }
+}
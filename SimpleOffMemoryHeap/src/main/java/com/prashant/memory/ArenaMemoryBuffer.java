@@ -0,0 +1,299 @@
+package com.prashant.memory;
+
+import com.prashant.exception.DMBufferOverFlowException;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+/**
+ * Arena mode memory buffer, where writer threads do not serialize on a single allocator lock.
+ * <p>
+ * The buffer is cut into fixed size chunks. Each thread is mapped by its id to one of a power of two number of stripes, and a stripe bump
+ * allocates out of the chunk it currently owns, so a store only takes the lock of its own stripe. A chunk goes back to the shared pool once
+ * every block in it is freed, and empty chunks are handed back in batches to keep the pool lock cold.
+ * </p>
+ * <p>
+ * A block is freed by the stripe owning its chunk. A thread freeing a block of another stripe pushes it on that stripe's lock-free remote free
+ * queue instead, which the owner drains on its next allocation. Payloads can not exceed the chunk size.
+ * </p>
+ */
+public class ArenaMemoryBuffer extends AbstractMemoryBuffer {
+    private static final Logger logger = Logger.getAnonymousLogger();
+
+    static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    /** Empty chunks a stripe holds on to before returning them to the pool. */
+    static final int RELEASE_BATCH = 8;
+
+    private static final int NONE = -1;
+
+    private final int chunkSize;
+    private final Stripe[] stripes;
+    private final int stripeMask;
+
+    /** Stripe owning each chunk, <code>NONE</code> while pooled. */
+    private final int[] owners;
+
+    /** Stack of pooled chunks, guarded by <code>poolLock</code>. */
+    private final int[] pool;
+    private final ReentrantLock poolLock = new ReentrantLock();
+    private int pooled;
+
+    private final class Stripe {
+        final int index;
+        final ReentrantLock lock = new ReentrantLock();
+        final Queue<Pointer> remoteFrees = new ConcurrentLinkedQueue<Pointer>();
+        final int[] emptyChunks = new int[RELEASE_BATCH];
+        int empty;
+        int current = NONE;
+        int top;
+        int limit;
+
+        /** Live blocks per chunk, only touched under the stripe lock. */
+        final int[] live;
+
+        Stripe(int index, int chunks) {
+            this.index = index;
+            this.live = new int[chunks];
+        }
+    }
+
+    /**
+     * Creates new instance of ArenaMemoryBuffer with the specified capacity and bufferNumber, using 64KB chunks and one stripe per available
+     * processor.
+     * 
+     */
+    public static MemoryBuffer createNew(int capacity, int bufferNumber) {
+        int chunkSize = Math.min(DEFAULT_CHUNK_SIZE, capacity);
+        return createNew(capacity, chunkSize, Runtime.getRuntime().availableProcessors(), bufferNumber);
+    }
+
+    /**
+     * Creates new instance of ArenaMemoryBuffer with the specified capacity, chunk size, number of stripes, rounded up to a power of two, and
+     * bufferNumber
+     * 
+     */
+    public static MemoryBuffer createNew(int capacity, int chunkSize, int stripes, int bufferNumber) {
+        if (chunkSize <= 0 || capacity < chunkSize) {
+            throw new IllegalArgumentException("Capacity must hold at least one chunk of " + chunkSize + " bytes");
+        }
+        int stripeCount = stripes <= 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+        logger.info("Creating arena memory buffer of capacity :" + capacity + " chunkSize:" + chunkSize + " stripes:" + stripeCount
+                + " bufferNumber:" + bufferNumber);
+        return new ArenaMemoryBuffer(ByteBuffer.allocateDirect(capacity), chunkSize, stripeCount, bufferNumber);
+    }
+
+    private ArenaMemoryBuffer(ByteBuffer buffer, int chunkSize, int stripeCount, int bufferNumber) {
+        super(buffer, bufferNumber);
+        this.chunkSize = chunkSize;
+        int chunks = buffer.capacity() / chunkSize;
+        this.owners = new int[chunks];
+        this.pool = new int[chunks];
+        this.stripes = new Stripe[stripeCount];
+        this.stripeMask = stripeCount - 1;
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe(i, chunks);
+        }
+        reset();
+    }
+
+    private void reset() {
+        Arrays.fill(owners, NONE);
+        for (int i = 0; i < pool.length; i++) {
+            // Lowest chunks on top of the stack.
+            pool[i] = pool.length - 1 - i;
+        }
+        pooled = pool.length;
+    }
+
+    private Stripe stripe() {
+        return stripes[(int) Thread.currentThread().getId() & stripeMask];
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.AbstractMemoryBuffer#allocate(int)
+     */
+    protected Pointer allocate(int capacity) throws DMBufferOverFlowException {
+        // A block spans [start, start + capacity], inclusive.
+        if (capacity < 0 || capacity >= chunkSize) {
+            throw new DMBufferOverFlowException("An attempt to store more than the arena chunk size of " + chunkSize, null);
+        }
+        Stripe stripe = stripe();
+        int start = bumpAllocate(stripe, capacity);
+        if (start == NONE) {
+            // Chunks may be sitting empty in other stripes, get them back to the pool and try once more.
+            for (Stripe other : stripes) {
+                other.lock.lock();
+                try {
+                    drainRemoteFrees(other);
+                    releaseEmptyChunks(other);
+                } finally {
+                    other.lock.unlock();
+                }
+            }
+            start = bumpAllocate(stripe, capacity);
+            if (start == NONE) {
+                throw new DMBufferOverFlowException("did not find a suitable buffer", null);
+            }
+        }
+        Pointer fresh = new Pointer();
+        fresh.setBlockNumber(bufferNumber);
+        fresh.setStart(start);
+        fresh.setEnd(start + capacity);
+        fresh.setFree(false);
+        return fresh;
+    }
+
+    private int bumpAllocate(Stripe stripe, int capacity) {
+        stripe.lock.lock();
+        try {
+            drainRemoteFrees(stripe);
+            if (stripe.current == NONE || stripe.top + capacity >= stripe.limit) {
+                int chunk = acquireChunk(stripe);
+                if (chunk == NONE) {
+                    return NONE;
+                }
+                retireCurrent(stripe);
+                stripe.current = chunk;
+                stripe.top = chunk * chunkSize;
+                stripe.limit = stripe.top + chunkSize;
+            }
+            int start = stripe.top;
+            stripe.top += capacity + 1;
+            stripe.live[stripe.current]++;
+            return start;
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    private void retireCurrent(Stripe stripe) {
+        int chunk = stripe.current;
+        stripe.current = NONE;
+        if (chunk != NONE && stripe.live[chunk] == 0) {
+            chunkEmptied(stripe, chunk);
+        }
+    }
+
+    private int acquireChunk(Stripe stripe) {
+        if (stripe.empty > 0) {
+            return stripe.emptyChunks[--stripe.empty];
+        }
+        poolLock.lock();
+        try {
+            if (pooled == 0) {
+                return NONE;
+            }
+            int chunk = pool[--pooled];
+            owners[chunk] = stripe.index;
+            return chunk;
+        } finally {
+            poolLock.unlock();
+        }
+    }
+
+    private void chunkEmptied(Stripe stripe, int chunk) {
+        if (chunk == stripe.current) {
+            // Nothing lives in the current chunk any more, bump from its start again.
+            stripe.top = chunk * chunkSize;
+            return;
+        }
+        if (stripe.empty == RELEASE_BATCH) {
+            releaseEmptyChunks(stripe);
+        }
+        stripe.emptyChunks[stripe.empty++] = chunk;
+    }
+
+    private void releaseEmptyChunks(Stripe stripe) {
+        if (stripe.empty == 0) {
+            return;
+        }
+        poolLock.lock();
+        try {
+            for (int i = 0; i < stripe.empty; i++) {
+                owners[stripe.emptyChunks[i]] = NONE;
+                pool[pooled++] = stripe.emptyChunks[i];
+            }
+        } finally {
+            poolLock.unlock();
+        }
+        stripe.empty = 0;
+    }
+
+    private void drainRemoteFrees(Stripe stripe) {
+        Pointer pointer;
+        while ((pointer = stripe.remoteFrees.poll()) != null) {
+            localFree(stripe, pointer);
+        }
+    }
+
+    private void localFree(Stripe stripe, Pointer pointer) {
+        int chunk = pointer.getStart() / chunkSize;
+        if (--stripe.live[chunk] == 0) {
+            chunkEmptied(stripe, chunk);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.AbstractMemoryBuffer#release(com.prashant.memory.Pointer)
+     */
+    protected long release(Pointer pointer2free) {
+        // No lock is held here, of two concurrent frees of the same block only one may count it
+        if (!pointer2free.markFree()) {
+            return 0;
+        }
+        pointer2free.setClazz(null);
+        long freed = pointer2free.getEnd() - pointer2free.getStart();
+        used.addAndGet((int) -freed);
+
+        Stripe owner = stripes[owners[pointer2free.getStart() / chunkSize]];
+        if (owner == stripe()) {
+            owner.lock.lock();
+            try {
+                localFree(owner, pointer2free);
+            } finally {
+                owner.lock.unlock();
+            }
+        } else {
+            owner.remoteFrees.offer(pointer2free);
+        }
+        return freed;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#clear()
+     */
+    public void clear() {
+        epochs.discard();
+        // Stripe locks are always taken before the pool lock.
+        for (Stripe stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                stripe.remoteFrees.clear();
+                Arrays.fill(stripe.live, 0);
+                stripe.empty = 0;
+                stripe.current = NONE;
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        poolLock.lock();
+        try {
+            reset();
+        } finally {
+            poolLock.unlock();
+        }
+        buffer.clear();
+        used.set(0);
+    }
+}
@@ -0,0 +1,236 @@
+package com.prashant.memory;
+
+import com.prashant.exception.DMBufferOverFlowException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Logger;
+
+/**
+ * Hands the operations on a memory buffer to a single allocator thread, which answers them through <code>CompletableFuture</code>s.
+ * <p>
+ * Callers, typically many virtual threads, only enqueue a request and never wait for a lock of the buffer. The allocator thread takes
+ * whatever requests piled up, up to <code>maxBatch</code>, and runs them as one batch: the retrieves first, then the frees through
+ * {@link MemoryBuffer#freeAll(java.util.Collection)} and the stores through {@link MemoryBuffer#storeAll(byte[][])}, so the allocator lock is
+ * taken once per batch rather than once per request. A retrieve submitted before a free of the same block still sees the block.
+ * </p>
+ * <p>
+ * When the stores of a batch do not fit together they are retried one by one, and only the ones that still do not fit fail. Futures are
+ * completed on the allocator thread, so callers should not run long work in dependent stages without switching to their own executor.
+ * </p>
+ */
+public class AsyncMemoryBuffer {
+    private static final Logger logger = Logger.getAnonymousLogger();
+
+    public static final int DEFAULT_MAX_BATCH = 256;
+
+    private static final int STORE = 0;
+    private static final int RETRIEVE = 1;
+    private static final int FREE = 2;
+
+    private static final class Request {
+        final int kind;
+        final byte[] payload;
+        final Pointer pointer;
+        final CompletableFuture<Object> future = new CompletableFuture<Object>();
+
+        Request(int kind, byte[] payload, Pointer pointer) {
+            this.kind = kind;
+            this.payload = payload;
+            this.pointer = pointer;
+        }
+    }
+
+    /** Stands for the end of the requests, queued by {@link #stop()}. */
+    private static final Request STOP = new Request(-1, null, null);
+
+    private final MemoryBuffer delegate;
+    private final int maxBatch;
+    private final LinkedBlockingQueue<Request> requests = new LinkedBlockingQueue<Request>();
+    private final Thread allocator;
+    private volatile boolean stopped;
+
+    /**
+     * Starts the allocator thread, taking batches of up to {@link #DEFAULT_MAX_BATCH} requests.
+     */
+    public AsyncMemoryBuffer(MemoryBuffer delegate) {
+        this(delegate, DEFAULT_MAX_BATCH);
+    }
+
+    /**
+     * Starts the allocator thread.
+     * 
+     * @param maxBatch
+     *            most requests run as one batch
+     */
+    public AsyncMemoryBuffer(MemoryBuffer delegate, int maxBatch) {
+        if (maxBatch < 1) {
+            throw new IllegalArgumentException("A batch holds at least one request");
+        }
+        this.delegate = delegate;
+        this.maxBatch = maxBatch;
+        this.allocator = new Thread(new Runnable() {
+            public void run() {
+                serve();
+            }
+        }, "async-memory-buffer-allocator");
+        allocator.setDaemon(true);
+        allocator.start();
+    }
+
+    /**
+     * @return the buffer doing the actual work
+     */
+    public MemoryBuffer getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * @return completes with the pointer to the stored payload, or exceptionally with a <code>DMBufferOverFlowException</code>
+     */
+    public CompletableFuture<Pointer> storeAsync(byte[] payload) {
+        return submit(new Request(STORE, payload, null));
+    }
+
+    /**
+     * @return completes with the payload, or exceptionally with a <code>DMFrameLimitExcededException</code>
+     */
+    public CompletableFuture<byte[]> retrieveAsync(Pointer pointer) {
+        return submit(new Request(RETRIEVE, null, pointer));
+    }
+
+    /**
+     * @return completes once the block is freed
+     */
+    public CompletableFuture<Void> freeAsync(Pointer pointer) {
+        return submit(new Request(FREE, null, pointer));
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> CompletableFuture<T> submit(Request request) {
+        if (stopped) {
+            reject(request);
+        } else {
+            requests.add(request);
+            // Stopped meanwhile, the allocator thread may be gone before it saw the request.
+            if (stopped && requests.remove(request)) {
+                reject(request);
+            }
+        }
+        return (CompletableFuture<T>) (CompletableFuture<?>) request.future;
+    }
+
+    /**
+     * Runs the requests already submitted, then stops the allocator thread. Requests submitted afterwards fail with a
+     * <code>RejectedExecutionException</code>.
+     */
+    public void stop() throws InterruptedException {
+        stopped = true;
+        requests.add(STOP);
+        allocator.join();
+    }
+
+    private void serve() {
+        List<Request> batch = new ArrayList<Request>(maxBatch);
+        try {
+            while (true) {
+                batch.add(requests.take());
+                requests.drainTo(batch, maxBatch - 1);
+                int stop = batch.indexOf(STOP);
+                if (stop != -1) {
+                    run(batch.subList(0, stop));
+                    for (Request late : batch.subList(stop + 1, batch.size())) {
+                        reject(late);
+                    }
+                    break;
+                }
+                run(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            logger.fine("Allocator thread interrupted");
+        }
+        Request left;
+        while ((left = requests.poll()) != null) {
+            reject(left);
+        }
+    }
+
+    private static void reject(Request request) {
+        request.future.completeExceptionally(new RejectedExecutionException("The allocator thread is stopped"));
+    }
+
+    private void run(List<Request> batch) {
+        List<Pointer> frees = new ArrayList<Pointer>();
+        List<Request> stores = new ArrayList<Request>();
+        for (Request request : batch) {
+            if (request.kind == RETRIEVE) {
+                try {
+                    request.future.complete(delegate.retrieve(request.pointer));
+                } catch (Throwable e) {
+                    request.future.completeExceptionally(e);
+                }
+            } else if (request.kind == FREE) {
+                frees.add(request.pointer);
+            } else {
+                stores.add(request);
+            }
+        }
+        if (!frees.isEmpty()) {
+            try {
+                delegate.freeAll(frees);
+                complete(batch, FREE, null);
+            } catch (Throwable e) {
+                fail(batch, FREE, e);
+            }
+        }
+        if (!stores.isEmpty()) {
+            store(stores);
+        }
+    }
+
+    private void store(List<Request> stores) {
+        byte[][] payloads = new byte[stores.size()][];
+        for (int i = 0; i < payloads.length; i++) {
+            payloads[i] = stores.get(i).payload;
+        }
+        try {
+            Pointer[] pointers = delegate.storeAll(payloads);
+            for (int i = 0; i < pointers.length; i++) {
+                stores.get(i).future.complete(pointers[i]);
+            }
+            return;
+        } catch (DMBufferOverFlowException e) {
+            // Not all of them fit, store whichever do.
+        } catch (Throwable e) {
+            fail(stores, STORE, e);
+            return;
+        }
+        for (Request request : stores) {
+            try {
+                request.future.complete(delegate.store(request.payload));
+            } catch (Throwable e) {
+                request.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private static void complete(List<Request> batch, int kind, Object value) {
+        for (Request request : batch) {
+            if (request.kind == kind) {
+                request.future.complete(value);
+            }
+        }
+    }
+
+    private static void fail(List<Request> batch, int kind, Throwable e) {
+        for (Request request : batch) {
+            if (request.kind == kind) {
+                request.future.completeExceptionally(e);
+            }
+        }
+    }
+}
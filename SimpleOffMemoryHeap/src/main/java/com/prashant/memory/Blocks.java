@@ -0,0 +1,82 @@
+package com.prashant.memory;
+
+import com.prashant.exception.DMBufferOverFlowException;
+import com.prashant.exception.DMFrameLimitExcededException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Allocates the blocks of the off-heap collections. A block is streamed in, see {@link MemoryBuffer#store(ReadableByteChannel, long)}, from
+ * a channel that copies the old block of a growing collection and zeroes the rest, so no array the size of the block is built on heap.
+ */
+final class Blocks {
+
+    private static final byte[] ZEROS = new byte[4096];
+
+    private Blocks() {
+    }
+
+    /**
+     * @return a new block of <code>bytes</code> zeroes
+     */
+    static Pointer allocate(MemoryBuffer buffer, long bytes) throws DMBufferOverFlowException {
+        return copyOf(buffer, null, 0, bytes);
+    }
+
+    /**
+     * @return a new block of <code>bytes</code>, starting with the first <code>copied</code> bytes of <code>from</code> followed by zeroes
+     */
+    static Pointer copyOf(MemoryBuffer buffer, Pointer from, long copied, long bytes) throws DMBufferOverFlowException {
+        try {
+            return buffer.store(new Source(buffer, from, copied), bytes);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not copy a block", e);
+        }
+    }
+
+    /**
+     * Reads the bytes of a block, then zeroes.
+     */
+    private static final class Source implements ReadableByteChannel {
+        private final MemoryBuffer buffer;
+        private final Pointer from;
+        private final long copied;
+        private long position;
+
+        Source(MemoryBuffer buffer, Pointer from, long copied) {
+            this.buffer = buffer;
+            this.from = from;
+            this.copied = copied;
+        }
+
+        public int read(ByteBuffer dst) throws IOException {
+            int read = dst.remaining();
+            if (position < copied) {
+                int limit = dst.limit();
+                int len = (int) Math.min(dst.remaining(), copied - position);
+                dst.limit(dst.position() + len);
+                try {
+                    buffer.retrieve(from, (int) position, dst);
+                } catch (DMFrameLimitExcededException e) {
+                    throw new IOException("Could not read the block being copied", e);
+                } finally {
+                    dst.limit(limit);
+                }
+            }
+            while (dst.hasRemaining()) {
+                dst.put(ZEROS, 0, Math.min(dst.remaining(), ZEROS.length));
+            }
+            position += read;
+            return read;
+        }
+
+        public boolean isOpen() {
+            return true;
+        }
+
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,378 @@
+package com.prashant.memory;
+
+import com.prashant.exception.DMBufferOverFlowException;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Binary buddy allocator over a direct <code>ByteBuffer</code>.
+ * <p>
+ * The buffer is a power of two and every block is a power of two sized, power of two aligned slice of it, split in halves on allocation and
+ * merged back with its buddy on free. The buddy of a block is found from its offset alone (<code>offset ^ size</code>), so allocate and free
+ * take at most one step per order, O(log n), and never recurse. External fragmentation is bounded as any free space is always available in
+ * power of two chunks.
+ * </p>
+ * <p>
+ * Nothing is kept on heap per block. Free blocks of each order are chained through <code>next</code>/<code>prev</code> offsets written in
+ * their own first bytes, and which blocks are free is tracked in a bitmap, one bit per block per order, held in a second direct buffer.
+ * </p>
+ * <p>
+ * The buffer starts on a page boundary, so a block is aligned to its size up to a page, and an aligned store only needs a block of at least
+ * the alignment.
+ * </p>
+ */
+public class BuddyMemoryBuffer extends AbstractHandleMemoryBuffer {
+    private static final Logger logger = Logger.getAnonymousLogger();
+
+    /** Smallest block, large enough for the two free list links. */
+    static final int MIN_ORDER = 3;
+    static final int MAX_ORDER = 30;
+
+    private static final int NONE = -1;
+
+    /** Alignment of the start of the buffer, the largest alignment of a block. */
+    static final int PAGE = 4096;
+
+    private final int maxOrder;
+
+    /** Offset of the first free block of each order, guarded by <code>allocator</code>. */
+    private final int[] freeLists;
+
+    /** First bit of each order within <code>freeMap</code>. */
+    private final int[] levelBase;
+
+    /** One bit per block per order, set while the block sits in a free list. */
+    private final ByteBuffer freeMap;
+
+    /**
+     * Creates new instance of BuddyMemoryBuffer with the specified capacity, rounded up to the next power of two, and bufferNumber
+     * 
+     */
+    public static HandleMemoryBuffer createNew(int capacity, int bufferNumber) {
+        int order = orderOf(capacity);
+        if (order > MAX_ORDER) {
+            throw new IllegalArgumentException("Capacity of a buddy buffer is limited to " + (1 << MAX_ORDER) + " bytes");
+        }
+        logger.info("Creating buddy memory buffer of capacity :" + (1 << order) + " bufferNumber:" + bufferNumber);
+        int unit = Math.min(PAGE, 1 << order);
+        return new BuddyMemoryBuffer(ByteBuffer.allocateDirect((1 << order) + unit - 1).alignedSlice(unit), order, bufferNumber);
+    }
+
+    private BuddyMemoryBuffer(ByteBuffer buffer, int maxOrder, int bufferNumber) {
+        super(buffer, bufferNumber);
+        this.maxOrder = maxOrder;
+        this.freeLists = new int[maxOrder + 1];
+        this.levelBase = new int[maxOrder + 2];
+        for (int order = MIN_ORDER; order <= maxOrder; order++) {
+            levelBase[order + 1] = levelBase[order] + (1 << (maxOrder - order));
+        }
+        this.freeMap = ByteBuffer.allocateDirect((levelBase[maxOrder + 1] + 7) >>> 3);
+        reset();
+    }
+
+    /**
+     * @return smallest order whose block holds <code>size</code> bytes, never below {@link #MIN_ORDER}
+     */
+    static int orderOf(int size) {
+        if (size <= 1 << MIN_ORDER) {
+            return MIN_ORDER;
+        }
+        return 32 - Integer.numberOfLeadingZeros(size - 1);
+    }
+
+    private void reset() {
+        Arrays.fill(freeLists, NONE);
+        for (int i = 0; i < freeMap.capacity(); i++) {
+            freeMap.put(i, (byte) 0);
+        }
+        push(0, maxOrder);
+    }
+
+    private int bit(int offset, int order) {
+        return levelBase[order] + (offset >>> order);
+    }
+
+    private boolean isFree(int offset, int order) {
+        int bit = bit(offset, order);
+        return (freeMap.get(bit >>> 3) & (1 << (bit & 7))) != 0;
+    }
+
+    private void markFree(int offset, int order, boolean free) {
+        int bit = bit(offset, order);
+        byte b = freeMap.get(bit >>> 3);
+        freeMap.put(bit >>> 3, (byte) (free ? b | (1 << (bit & 7)) : b & ~(1 << (bit & 7))));
+    }
+
+    private void push(int offset, int order) {
+        int head = freeLists[order];
+        buffer.putInt(offset, head);
+        buffer.putInt(offset + 4, NONE);
+        if (head != NONE) {
+            buffer.putInt(head + 4, offset);
+        }
+        freeLists[order] = offset;
+        markFree(offset, order, true);
+    }
+
+    private void unlink(int offset, int order) {
+        int next = buffer.getInt(offset);
+        int prev = buffer.getInt(offset + 4);
+        if (prev == NONE) {
+            freeLists[order] = next;
+        } else {
+            buffer.putInt(prev, next);
+        }
+        if (next != NONE) {
+            buffer.putInt(next + 4, prev);
+        }
+        markFree(offset, order, false);
+    }
+
+    /**
+     * Takes a free block of the given order, splitting a larger one when needed.
+     * 
+     * @return offset of the block or -1 when none is left
+     */
+    int allocateBlock(int order) {
+        long waitStart = lockWaitStart();
+        allocator.lock();
+        try {
+            lockAcquired(waitStart);
+            int from = order;
+            while (from <= maxOrder && freeLists[from] == NONE) {
+                from++;
+            }
+            if (from > maxOrder) {
+                return NONE;
+            }
+            int offset = freeLists[from];
+            unlink(offset, from);
+            while (from > order) {
+                from--;
+                push(offset + (1 << from), from);
+            }
+            return offset;
+        } finally {
+            allocator.unlock();
+        }
+    }
+
+    /**
+     * Returns a block to the free lists, merging it with its buddy for as long as the buddy is free.
+     */
+    void freeBlock(int offset, int order) {
+        allocator.lock();
+        try {
+            while (order < maxOrder) {
+                int buddy = offset ^ (1 << order);
+                if (!isFree(buddy, order)) {
+                    break;
+                }
+                unlink(buddy, order);
+                offset = Math.min(offset, buddy);
+                order++;
+            }
+            push(offset, order);
+        } finally {
+            allocator.unlock();
+        }
+    }
+
+    /**
+     * @return true when the block lies within a block currently sitting in a free list, that is it was already freed
+     */
+    private boolean isFreed(int offset, int order) {
+        for (; order <= maxOrder; order++) {
+            if (isFree(offset & -(1 << order), order)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return order of the block holding <code>[start, start + capacity]</code>, at least as large as the alignment
+     */
+    private static int orderOf(int capacity, int alignment) {
+        return Math.max(orderOf(capacity + 1), Integer.numberOfTrailingZeros(alignment));
+    }
+
+    /**
+     * @return offset of a block spanning <code>[offset, offset + capacity]</code>, inclusive
+     */
+    private int reserve(int capacity, int alignment) throws DMBufferOverFlowException {
+        int offset = capacity < 0 || capacity >= buffer.capacity() ? NONE : allocateBlock(orderOf(capacity, alignment));
+        if (offset == NONE) {
+            throw new DMBufferOverFlowException("did not find a suitable buffer", null);
+        }
+        return offset;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.AbstractMemoryBuffer#allocate(int)
+     */
+    protected Pointer allocate(int capacity) throws DMBufferOverFlowException {
+        return allocate(capacity, 1);
+    }
+
+    /**
+     * Blocks are aligned to their size, so the block is simply taken at least as large as the alignment.
+     * 
+     * @see com.prashant.memory.AbstractMemoryBuffer#allocate(int, int)
+     */
+    protected Pointer allocate(int capacity, int alignment) throws DMBufferOverFlowException {
+        int offset = reserve(capacity, alignment);
+        Pointer fresh = new Pointer();
+        fresh.setBlockNumber(bufferNumber);
+        fresh.setStart(offset);
+        fresh.setEnd(offset + capacity);
+        fresh.setFree(false);
+        fresh.setAlignment(alignment);
+        return fresh;
+    }
+
+    /**
+     * Up to a page, or the capacity of a smaller buffer.
+     * 
+     * @see com.prashant.memory.AbstractMemoryBuffer#maxAlignment()
+     */
+    protected int maxAlignment() {
+        return Math.min(PAGE, buffer.capacity());
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.AbstractMemoryBuffer#release(com.prashant.memory.Pointer)
+     */
+    protected long release(Pointer pointer2free) {
+        long freed;
+        long waitStart = lockWaitStart();
+        allocator.lock();
+        try {
+            lockAcquired(waitStart);
+            if (pointer2free.isFree()) {
+                return 0;
+            }
+            pointer2free.setFree(true);
+            pointer2free.setClazz(null);
+            freed = pointer2free.getEnd() - pointer2free.getStart();
+            used.addAndGet((int) -freed);
+            freeBlock(pointer2free.getStart(), orderOf((int) freed, pointer2free.getAlignment()));
+        } finally {
+            allocator.unlock();
+        }
+        return freed;
+    }
+
+    /**
+     * Any size within the order of the block only moves its end. A block shrunk to a lower order splits its upper halves off as blocks of
+     * their own and frees them, so they only go back to the free lists, which are kept in the blocks themselves, once the reads in flight
+     * are done. Growing past the order would need the buddy, so the block moves instead.
+     * 
+     * @see com.prashant.memory.AbstractMemoryBuffer#resize(com.prashant.memory.Pointer, int)
+     */
+    protected boolean resize(Pointer pointer, int capacity) {
+        if (capacity >= buffer.capacity()) {
+            return false;
+        }
+        List<Pointer> halves = new ArrayList<Pointer>();
+        long waitStart = lockWaitStart();
+        allocator.lock();
+        try {
+            lockAcquired(waitStart);
+            if (pointer.isFree() || pointer.isRetired()) {
+                return false;
+            }
+            int span = pointer.getEnd() - pointer.getStart();
+            int order = orderOf(span, pointer.getAlignment());
+            int wanted = orderOf(capacity, pointer.getAlignment());
+            if (wanted > order) {
+                return false;
+            }
+            while (order > wanted) {
+                order--;
+                Pointer half = new Pointer();
+                half.setBlockNumber(bufferNumber);
+                half.setStart(pointer.getStart() + (1 << order));
+                half.setEnd(half.getStart() + (1 << order) - 1);
+                // The share of the half drops once it is released.
+                used.addAndGet(half.getEnd() - half.getStart());
+                halves.add(half);
+            }
+            pointer.setEnd(pointer.getStart() + capacity);
+            used.addAndGet(capacity - span);
+        } finally {
+            allocator.unlock();
+        }
+        if (!halves.isEmpty()) {
+            // Outside of the allocator lock, a release takes it after the limbo lock.
+            freeAll(halves);
+        }
+        return true;
+    }
+
+    /**
+     * Stores the payload in a buddy block without creating a <code>Pointer</code>.
+     * 
+     * @see com.prashant.memory.HandleMemoryBuffer#storeHandle(byte[])
+     */
+    public long storeHandle(byte[] payload) throws DMBufferOverFlowException {
+        if (payload.length > Handles.MAX_LENGTH) {
+            throw new DMBufferOverFlowException("An attempt to store more than a handle can address", null);
+        }
+        reclaim();
+        int offset = reserve(payload.length, 1);
+        used.addAndGet(payload.length);
+        write(offset, payload);
+        return Handles.encode(bufferNumber, offset, payload.length);
+    }
+
+    /**
+     * The order of the block follows from the length carried by the handle. Freeing a handle twice is detected through the free bitmap, as long
+     * as the block was not handed out again in between.
+     * 
+     * @see com.prashant.memory.AbstractHandleMemoryBuffer#release(long)
+     */
+    protected long release(long handle) {
+        int offset = Handles.offset(handle);
+        int length = Handles.length(handle);
+        int order = orderOf(length + 1);
+        long waitStart = lockWaitStart();
+        allocator.lock();
+        try {
+            lockAcquired(waitStart);
+            if (isFreed(offset, order)) {
+                return 0;
+            }
+            used.addAndGet(-length);
+            freeBlock(offset, order);
+        } finally {
+            allocator.unlock();
+        }
+        return length;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#clear()
+     */
+    public void clear() {
+        epochs.discard();
+        allocator.lock();
+        try {
+            reset();
+            buffer.clear();
+            used.set(0);
+        } finally {
+            allocator.unlock();
+        }
+    }
+}
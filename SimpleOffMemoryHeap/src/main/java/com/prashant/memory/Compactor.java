@@ -0,0 +1,66 @@
+package com.prashant.memory;
+
+import java.util.logging.Logger;
+
+/**
+ * Background compaction of a <code>DirectMemoryBuffer</code>.
+ * <p>
+ * A daemon thread wakes up periodically and, while the fragmentation of the buffer is above a threshold, runs
+ * {@link DirectMemoryBuffer#compact(long)} in time slices, pausing between slices so stores keep a flat latency during a pass.
+ * </p>
+ */
+public class Compactor implements Runnable {
+    private static final Logger logger = Logger.getAnonymousLogger();
+
+    private final DirectMemoryBuffer buffer;
+    private final double threshold;
+    private final long sliceNanos;
+    private final long periodMillis;
+
+    private volatile Thread thread;
+
+    /**
+     * @param threshold
+     *            fragmentation above which compaction runs, see {@link DirectMemoryBuffer#fragmentation()}
+     * @param sliceNanos
+     *            time given to each slice of compaction
+     * @param periodMillis
+     *            pause between two slices
+     */
+    public Compactor(DirectMemoryBuffer buffer, double threshold, long sliceNanos, long periodMillis) {
+        this.buffer = buffer;
+        this.threshold = threshold;
+        this.sliceNanos = sliceNanos;
+        this.periodMillis = periodMillis;
+    }
+
+    public synchronized void start() {
+        if (thread == null) {
+            thread = new Thread(this, "compactor-" + buffer.bufferNumber);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    public synchronized void stop() throws InterruptedException {
+        Thread running = thread;
+        thread = null;
+        if (running != null) {
+            running.interrupt();
+            running.join();
+        }
+    }
+
+    public void run() {
+        try {
+            while (thread == Thread.currentThread()) {
+                if (buffer.fragmentation() > threshold) {
+                    buffer.compact(sliceNanos);
+                }
+                Thread.sleep(periodMillis);
+            }
+        } catch (InterruptedException e) {
+            logger.fine("Compactor of bufferNumber:" + buffer.bufferNumber + " stopped");
+        }
+    }
+}
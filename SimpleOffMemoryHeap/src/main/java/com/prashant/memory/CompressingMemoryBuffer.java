@@ -0,0 +1,639 @@
+package com.prashant.memory;
+
+import com.prashant.exception.DMBufferOverFlowException;
+import com.prashant.exception.DMFrameLimitExcededException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compresses the payloads stored in a memory buffer it wraps, so the same capacity holds several times more compressible data.
+ * <p>
+ * Every block starts with a 9 byte header: a flag byte telling whether the payload is compressed, the length of the payload as stored by the
+ * caller, and the second, counted from the creation of this buffer, it was last read in. A payload of at least <code>threshold</code> bytes
+ * is compressed on store, and kept as is when that saves less than an eighth of it. A smaller or reserved one is kept as is, and may be
+ * compressed later by {@link #compressIfCold(Pointer, int)} once it has not been read for a while.
+ * </p>
+ * <p>
+ * Reads of a compressed block decompress all of it, so blocks read field by field are best kept below the threshold. A compressed block
+ * can only be replaced, see {@link #update(Pointer, byte[])}, writes into it throw <code>UnsupportedOperationException</code>. It hands out
+ * no handles whatever it wraps, a handle carries the stored length only.
+ * </p>
+ * <p>
+ * {@link #used()} is what the wrapped buffer holds, headers included, and {@link #logicalUsed()} the length of the payloads as stored.
+ * </p>
+ */
+public class CompressingMemoryBuffer implements MemoryBuffer {
+
+    public static final int DEFAULT_THRESHOLD = 256;
+
+    static final int HEADER = 9;
+    private static final int FLAGS = 0;
+    private static final int LENGTH = 1;
+    private static final int LAST_READ = 5;
+    private static final byte COMPRESSED = 1;
+
+    private final MemoryBuffer delegate;
+    private final Compressor compressor;
+    private final int threshold;
+    private final long created = System.nanoTime();
+    private final AtomicLong logicalUsed = new AtomicLong();
+
+    /** Per thread array the blocks are built in before they are stored. */
+    private final ThreadLocal<byte[]> scratch = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[1024];
+        }
+    };
+
+    /**
+     * Compresses with {@link Lz4Compressor} the payloads of at least {@link #DEFAULT_THRESHOLD} bytes.
+     */
+    public CompressingMemoryBuffer(MemoryBuffer delegate) {
+        this(delegate, new Lz4Compressor(), DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * @param threshold
+     *            bytes from which payloads are compressed on store
+     */
+    public CompressingMemoryBuffer(MemoryBuffer delegate, Compressor compressor, int threshold) {
+        this.delegate = delegate;
+        this.compressor = compressor;
+        this.threshold = threshold;
+    }
+
+    /**
+     * @return the buffer holding the blocks
+     */
+    public MemoryBuffer getDelegate() {
+        return delegate;
+    }
+
+    private int now() {
+        return (int) ((System.nanoTime() - created) / 1000000000L);
+    }
+
+    private byte[] scratch(int length) {
+        byte[] block = scratch.get();
+        if (block.length < length) {
+            block = new byte[Math.max(length, block.length * 2)];
+            scratch.set(block);
+        }
+        return block;
+    }
+
+    private static void putInt(byte[] block, int index, int value) {
+        block[index] = (byte) (value >>> 24);
+        block[index + 1] = (byte) (value >>> 16);
+        block[index + 2] = (byte) (value >>> 8);
+        block[index + 3] = (byte) value;
+    }
+
+    /**
+     * Builds the block of the payload, compressed when <code>compress</code> and worth it.
+     * 
+     * @return the block, exactly as long as it is stored
+     */
+    private byte[] encode(byte[] payload, int offset, int length, boolean compress) {
+        byte[] block;
+        int size;
+        if (compress) {
+            block = scratch(HEADER + compressor.maxCompressedLength(length));
+            size = HEADER + compressor.compress(payload, offset, length, block, HEADER);
+            if (size - HEADER <= length - (length >>> 3)) {
+                block[FLAGS] = COMPRESSED;
+                putInt(block, LENGTH, length);
+                putInt(block, LAST_READ, now());
+                return Arrays.copyOf(block, size);
+            }
+        }
+        block = new byte[HEADER + length];
+        System.arraycopy(payload, offset, block, HEADER, length);
+        putInt(block, LENGTH, length);
+        putInt(block, LAST_READ, now());
+        return block;
+    }
+
+    private boolean isCompressed(Pointer pointer) throws DMFrameLimitExcededException {
+        return delegate.getByte(pointer, FLAGS) == COMPRESSED;
+    }
+
+    private int length(Pointer pointer) throws DMFrameLimitExcededException {
+        return delegate.getInt(pointer, LENGTH);
+    }
+
+    /**
+     * @return length of the payload as stored, 0 once the block is freed, its header can not be read anymore then
+     */
+    private int liveLength(Pointer pointer) {
+        if (pointer.isFree() || pointer.isRetired()) {
+            return 0;
+        }
+        try {
+            return length(pointer);
+        } catch (DMFrameLimitExcededException e) {
+            if (pointer.isFree() || pointer.isRetired()) {
+                // Freed by another thread meanwhile
+                return 0;
+            }
+            throw new IllegalStateException("The block is shorter than its header", e);
+        }
+    }
+
+    /**
+     * Records the read, writing the header only once a second at most.
+     */
+    private void touch(Pointer pointer) throws DMFrameLimitExcededException {
+        int now = now();
+        if (delegate.getInt(pointer, LAST_READ) != now) {
+            delegate.putInt(pointer, LAST_READ, now);
+        }
+    }
+
+    /**
+     * @return the payload of a compressed block
+     */
+    private byte[] decode(Pointer pointer) throws DMFrameLimitExcededException {
+        int length = length(pointer);
+        byte[] compressed = delegate.retrieve(pointer, HEADER, pointer.getEnd() - pointer.getStart() - HEADER);
+        byte[] payload = new byte[length];
+        compressor.decompress(compressed, 0, compressed.length, payload, 0, length);
+        return payload;
+    }
+
+    private static void check(int offset, int len, int length) throws DMFrameLimitExcededException {
+        if (offset < 0 || len < 0 || offset + len > length) {
+            throw new DMFrameLimitExcededException("Trying to read to a position out of bounds for this pointer.", null);
+        }
+    }
+
+    private static UnsupportedOperationException writeToCompressed() {
+        return new UnsupportedOperationException("A compressed block can only be replaced");
+    }
+
+    /**
+     * @return Bytes held by the wrapped buffer, headers included
+     * @see com.prashant.memory.MemoryBuffer#used()
+     */
+    public int used() {
+        return delegate.used();
+    }
+
+    /**
+     * @return Bytes of the payloads as they were stored, before compression
+     */
+    public long logicalUsed() {
+        return logicalUsed.get();
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#capacity()
+     */
+    public int capacity() {
+        return delegate.capacity();
+    }
+
+    /**
+     * Compresses the block when it is kept as is, holds no reserved capacity and was last read at least <code>idleSeconds</code> ago. The
+     * compressed block is a new one, like after {@link #update(Pointer, byte[])}, and the old one is freed.
+     * 
+     * @return the pointer to use from now on, the same one when the block is left as it was
+     * @throws DMBufferOverFlowException
+     *             when the buffer has no room for the compressed block, the block is left as it was
+     */
+    public Pointer compressIfCold(Pointer pointer, int idleSeconds) throws DMBufferOverFlowException {
+        if (pointer.isFree() || pointer.isRetired()) {
+            return pointer;
+        }
+        byte[] payload;
+        try {
+            int length = length(pointer);
+            if (isCompressed(pointer) || pointer.getEnd() - pointer.getStart() != HEADER + length
+                    || now() - delegate.getInt(pointer, LAST_READ) < idleSeconds) {
+                return pointer;
+            }
+            payload = delegate.retrieve(pointer, HEADER, length);
+        } catch (DMFrameLimitExcededException e) {
+            throw new IllegalStateException("The block is shorter than its header", e);
+        }
+        byte[] block = encode(payload, 0, payload.length, true);
+        if (block[FLAGS] != COMPRESSED) {
+            return pointer;
+        }
+        Pointer fresh = delegate.store(block);
+        fresh.setClazz(pointer.getClazz());
+        delegate.free(pointer);
+        return fresh;
+    }
+
+    /**
+     * The payload is kept as is when <code>capacity</code> reserves room for later writes.
+     * 
+     * @see com.prashant.memory.MemoryBuffer#store(byte[], int)
+     */
+    public Pointer store(byte[] payload, int capacity) throws DMBufferOverFlowException {
+        if (payload.length > capacity) {
+            throw new DMBufferOverFlowException("An attempt to store more than the requested capacity", null);
+        }
+        Pointer pointer;
+        if (capacity > payload.length) {
+            pointer = delegate.store(encode(payload, 0, payload.length, false), HEADER + capacity);
+        } else {
+            pointer = delegate.store(encode(payload, 0, payload.length, payload.length >= threshold));
+        }
+        logicalUsed.addAndGet(payload.length);
+        return pointer;
+    }
+
+    /**
+     * The payload follows the header of the block, so only an alignment of 1 is supported.
+     * 
+     * @see com.prashant.memory.MemoryBuffer#store(byte[], int, int)
+     */
+    public Pointer store(byte[] payload, int capacity, int alignment) throws DMBufferOverFlowException {
+        if (alignment != 1) {
+            throw new IllegalArgumentException("The payload of a compressing buffer follows a header and cannot be aligned to " + alignment);
+        }
+        return store(payload, capacity);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#store(byte[])
+     */
+    public Pointer store(byte[] payload) throws DMBufferOverFlowException {
+        return store(payload, payload.length);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#store(java.lang.Object)
+     */
+    public <T> Pointer store(T value) throws DMBufferOverFlowException {
+        OffHeapCodec<T> codec = OffHeapCodecs.codec(value.getClass());
+        byte[] payload = new byte[codec.size(value)];
+        codec.write(value, ByteBuffer.wrap(payload));
+        Pointer pointer = store(payload);
+        pointer.setClazz(codec.type());
+        return pointer;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#load(com.prashant.memory.Pointer)
+     */
+    public <T> T load(Pointer pointer) throws DMFrameLimitExcededException {
+        OffHeapCodec<T> codec = AbstractMemoryBuffer.codec(pointer);
+        return codec.read(ByteBuffer.wrap(retrieve(pointer)));
+    }
+
+    /**
+     * The payload is read on heap first, to be compressed.
+     * 
+     * @see com.prashant.memory.MemoryBuffer#store(java.nio.channels.ReadableByteChannel, long)
+     */
+    public Pointer store(ReadableByteChannel src, long length) throws DMBufferOverFlowException, IOException {
+        if (length < 0 || length > capacity()) {
+            throw new DMBufferOverFlowException("An attempt to store more than the buffer capacity", null);
+        }
+        ByteBuffer payload = ByteBuffer.allocate((int) length);
+        while (payload.hasRemaining()) {
+            if (src.read(payload) < 0) {
+                throw new EOFException("Channel ended " + payload.remaining() + " bytes short of " + length);
+            }
+        }
+        return store(payload.array());
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#store(java.io.InputStream, long)
+     */
+    public Pointer store(InputStream src, long length) throws DMBufferOverFlowException, IOException {
+        return store(Channels.newChannel(src), length);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#transferTo(com.prashant.memory.Pointer, java.nio.channels.WritableByteChannel)
+     */
+    public long transferTo(Pointer pointer, WritableByteChannel target) throws IOException {
+        ByteBuffer payload;
+        try {
+            payload = ByteBuffer.wrap(retrieve(pointer));
+        } catch (DMFrameLimitExcededException e) {
+            throw new IOException("Could not read the block", e);
+        }
+        long written = 0;
+        while (payload.hasRemaining()) {
+            written += target.write(payload);
+        }
+        return written;
+    }
+
+    /**
+     * Stores one payload after the other, and frees the ones already stored when one does not fit.
+     * 
+     * @see com.prashant.memory.MemoryBuffer#storeAll(byte[][])
+     */
+    public Pointer[] storeAll(byte[][] payloads) throws DMBufferOverFlowException {
+        Pointer[] pointers = new Pointer[payloads.length];
+        int i = 0;
+        try {
+            for (; i < payloads.length; i++) {
+                pointers[i] = store(payloads[i]);
+            }
+            return pointers;
+        } catch (DMBufferOverFlowException e) {
+            for (int j = 0; j < i; j++) {
+                free(pointers[j]);
+            }
+            throw e;
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#freeAll(java.util.Collection)
+     */
+    public long freeAll(Collection<Pointer> pointers) {
+        long freed = 0;
+        for (Pointer pointer : pointers) {
+            freed += free(pointer);
+        }
+        return freed;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#retrieveAll(com.prashant.memory.Pointer[], java.nio.ByteBuffer)
+     */
+    public void retrieveAll(Pointer[] pointers, ByteBuffer dst) throws DMFrameLimitExcededException {
+        byte[][] payloads = new byte[pointers.length][];
+        long total = 0;
+        for (int i = 0; i < pointers.length; i++) {
+            payloads[i] = retrieve(pointers[i]);
+            total += payloads[i].length;
+        }
+        if (total > dst.remaining()) {
+            throw new BufferOverflowException();
+        }
+        for (byte[] payload : payloads) {
+            dst.put(payload);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#retrieve(com.prashant.memory.Pointer, int, int)
+     */
+    public byte[] retrieve(Pointer pointer, int offset, int len) throws DMFrameLimitExcededException {
+        touch(pointer);
+        if (!isCompressed(pointer)) {
+            return delegate.retrieve(pointer, HEADER + offset, len);
+        }
+        byte[] payload = decode(pointer);
+        check(offset, len, payload.length);
+        return Arrays.copyOfRange(payload, offset, offset + len);
+    }
+
+    /**
+     * Returns the whole capacity of a block stored with room to spare, like the wrapped buffer.
+     * 
+     * @see com.prashant.memory.MemoryBuffer#retrieve(com.prashant.memory.Pointer)
+     */
+    public byte[] retrieve(Pointer pointer) throws DMFrameLimitExcededException {
+        touch(pointer);
+        if (!isCompressed(pointer)) {
+            return delegate.retrieve(pointer, HEADER, pointer.getEnd() - pointer.getStart() - HEADER);
+        }
+        return decode(pointer);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#retrieve(com.prashant.memory.Pointer, int, byte[], int, int)
+     */
+    public void retrieve(Pointer pointer, int offset, byte[] dst, int dstOffset, int len) throws DMFrameLimitExcededException {
+        touch(pointer);
+        if (!isCompressed(pointer)) {
+            delegate.retrieve(pointer, HEADER + offset, dst, dstOffset, len);
+            return;
+        }
+        byte[] payload = decode(pointer);
+        check(offset, len, payload.length);
+        System.arraycopy(payload, offset, dst, dstOffset, len);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#retrieve(com.prashant.memory.Pointer, int, java.nio.ByteBuffer)
+     */
+    public void retrieve(Pointer pointer, int offset, ByteBuffer dst) throws DMFrameLimitExcededException {
+        touch(pointer);
+        if (!isCompressed(pointer)) {
+            delegate.retrieve(pointer, HEADER + offset, dst);
+            return;
+        }
+        byte[] payload = decode(pointer);
+        check(offset, dst.remaining(), payload.length);
+        dst.put(payload, offset, dst.remaining());
+    }
+
+    /**
+     * The view of a compressed block is a copy of its payload, and does not see later updates.
+     * 
+     * @see com.prashant.memory.MemoryBuffer#view(com.prashant.memory.Pointer)
+     */
+    public ByteBuffer view(Pointer pointer) {
+        try {
+            touch(pointer);
+            if (isCompressed(pointer)) {
+                return ByteBuffer.wrap(decode(pointer)).asReadOnlyBuffer();
+            }
+        } catch (DMFrameLimitExcededException e) {
+            throw new IllegalStateException("The block is shorter than its header", e);
+        }
+        ByteBuffer view = delegate.view(pointer);
+        view.position(HEADER);
+        return view.slice();
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#getByte(com.prashant.memory.Pointer, int)
+     */
+    public byte getByte(Pointer pointer, int offset) throws DMFrameLimitExcededException {
+        if (!isCompressed(pointer)) {
+            return delegate.getByte(pointer, HEADER + offset);
+        }
+        return ByteBuffer.wrap(retrieve(pointer, offset, 1)).get();
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#getShort(com.prashant.memory.Pointer, int)
+     */
+    public short getShort(Pointer pointer, int offset) throws DMFrameLimitExcededException {
+        if (!isCompressed(pointer)) {
+            return delegate.getShort(pointer, HEADER + offset);
+        }
+        return ByteBuffer.wrap(retrieve(pointer, offset, 2)).getShort();
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#getInt(com.prashant.memory.Pointer, int)
+     */
+    public int getInt(Pointer pointer, int offset) throws DMFrameLimitExcededException {
+        if (!isCompressed(pointer)) {
+            return delegate.getInt(pointer, HEADER + offset);
+        }
+        return ByteBuffer.wrap(retrieve(pointer, offset, 4)).getInt();
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#getLong(com.prashant.memory.Pointer, int)
+     */
+    public long getLong(Pointer pointer, int offset) throws DMFrameLimitExcededException {
+        if (!isCompressed(pointer)) {
+            return delegate.getLong(pointer, HEADER + offset);
+        }
+        return ByteBuffer.wrap(retrieve(pointer, offset, 8)).getLong();
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#putByte(com.prashant.memory.Pointer, int, byte)
+     */
+    public void putByte(Pointer pointer, int offset, byte value) throws DMFrameLimitExcededException {
+        if (isCompressed(pointer)) {
+            throw writeToCompressed();
+        }
+        delegate.putByte(pointer, HEADER + offset, value);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#putShort(com.prashant.memory.Pointer, int, short)
+     */
+    public void putShort(Pointer pointer, int offset, short value) throws DMFrameLimitExcededException {
+        if (isCompressed(pointer)) {
+            throw writeToCompressed();
+        }
+        delegate.putShort(pointer, HEADER + offset, value);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#putInt(com.prashant.memory.Pointer, int, int)
+     */
+    public void putInt(Pointer pointer, int offset, int value) throws DMFrameLimitExcededException {
+        if (isCompressed(pointer)) {
+            throw writeToCompressed();
+        }
+        delegate.putInt(pointer, HEADER + offset, value);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#putLong(com.prashant.memory.Pointer, int, long)
+     */
+    public void putLong(Pointer pointer, int offset, long value) throws DMFrameLimitExcededException {
+        if (isCompressed(pointer)) {
+            throw writeToCompressed();
+        }
+        delegate.putLong(pointer, HEADER + offset, value);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#update(com.prashant.memory.Pointer, byte[], int)
+     */
+    public void update(Pointer pointer, byte[] payload, int offset) throws DMFrameLimitExcededException {
+        if (isCompressed(pointer)) {
+            throw writeToCompressed();
+        }
+        delegate.update(pointer, payload, HEADER + offset);
+    }
+
+    /**
+     * The new block is encoded like a store would, kept as is when the block has room to spare, and resized in place by the wrapped buffer
+     * whenever it can be.
+     * 
+     * @see com.prashant.memory.MemoryBuffer#update(com.prashant.memory.Pointer, byte[])
+     */
+    public Pointer update(Pointer pointer, byte[] payload) throws DMBufferOverFlowException {
+        int length = liveLength(pointer);
+        boolean compress = pointer.getReserved() == 0 && payload.length >= threshold;
+        Pointer updated;
+        try {
+            updated = delegate.update(pointer, encode(payload, 0, payload.length, compress));
+        } catch (DMBufferOverFlowException e) {
+            // The old block is freed all the same.
+            logicalUsed.addAndGet(-length);
+            throw e;
+        }
+        logicalUsed.addAndGet(payload.length - length);
+        return updated;
+    }
+
+    /**
+     * @return Bytes freed in the wrapped buffer
+     * @see com.prashant.memory.MemoryBuffer#free(com.prashant.memory.Pointer)
+     */
+    public long free(Pointer pointer2free) {
+        if (pointer2free.isFree() || pointer2free.isRetired()) {
+            return 0;
+        }
+        int length = liveLength(pointer2free);
+        long freed = delegate.free(pointer2free);
+        if (freed > 0) {
+            logicalUsed.addAndGet(-length);
+        }
+        return freed;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#clear()
+     */
+    public void clear() {
+        delegate.clear();
+        logicalUsed.set(0);
+    }
+}
@@ -0,0 +1,36 @@
+package com.prashant.memory;
+
+/**
+ * Compresses the payloads of a <code>CompressingMemoryBuffer</code>. An
+ * implementation must be thread safe, and must decompress exactly what it
+ * compressed.
+ */
+public interface Compressor {
+
+	/**
+	 * @return Largest number of bytes {@link #compress(byte[], int, int, byte[], int)}
+	 *         may put for <code>length</code> bytes
+	 */
+	public abstract int maxCompressedLength(int length);
+
+	/**
+	 * Compresses <code>length</code> bytes of <code>src</code> from
+	 * <code>srcOffset</code>.
+	 * 
+	 * @param dst
+	 *            with room for {@link #maxCompressedLength(int)} bytes from
+	 *            <code>dstOffset</code>
+	 * @return number of bytes put into <code>dst</code>
+	 */
+	public abstract int compress(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset);
+
+	/**
+	 * Decompresses <code>length</code> bytes of <code>src</code> from
+	 * <code>srcOffset</code>, which decompress to exactly
+	 * <code>originalLength</code> bytes.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             when the bytes are not compressed by this compressor
+	 */
+	public abstract void decompress(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset, int originalLength);
+}
@@ -3,11 +3,10 @@ package com.prashant.memory;
 import com.prashant.exception.DMBufferOverFlowException;
 import com.prashant.exception.DMFrameLimitExcededException;
 
-import java.nio.BufferOverflowException;
+import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.Queue;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Collection;
 import java.util.logging.Logger;
 
 /**
@@ -21,38 +20,37 @@ import java.util.logging.Logger;
  * We would need this as some applications requires frequent memory allocation and deallocation which can cause a significant overhead and thus become
  * a bottle neck while scaling.
  * </p>
+ * <p>
+ * Blocks can be moved towards the start of the buffer by {@link #compact(long)} to undo fragmentation. A <code>Pointer</code> is the indirection
+ * that keeps a moved block reachable, its <code>start</code> and <code>end</code> are updated in place, so callers must always go through this
+ * buffer rather than cache offsets. Pinned blocks, such as the region of an {@link OffHeapRingBuffer}, are never moved.
+ * </p>
+ * <p>
+ * An aligned block is carved from a free block at the first aligned address, the bytes before it go back to the free bins and merge with
+ * the block again once it is freed. Compaction only moves an aligned block to an address aligned alike.
+ * </p>
  * 
  * 
  * @see <a href="http://incubator.apache.org/projects/directmemory.html">Apache DirectMemory</a>
  */
-public class DirectMemoryBuffer implements MemoryBuffer {
+public class DirectMemoryBuffer extends AbstractMemoryBuffer implements FreeSpace {
     private static final Logger logger = Logger.getAnonymousLogger();
-    protected ByteBuffer buffer;
 
-    /** List of pointers to blocks of memory */
-    // public List<Pointer> pointers = new ArrayList<Pointer>();
-    public Queue<Pointer> pointers = new LinkedBlockingQueue<Pointer>();
+    /** Blocks larger than this are never moved by compaction, to bound the pause of a step. */
+    static final int MAX_MOVE = 64 * 1024;
 
-    AtomicInteger used = new AtomicInteger();
-    public int bufferNumber;
+    /** Blocks a compaction step looks at before giving the locks back. */
+    static final int STEP_SCAN = 64;
 
-    /*
-     * (non-Javadoc)
-     * 
-     * @see com.prashant.memory.MemoryBuffer#used()
-     */
-    public int used() {
-        return used.get();
-    }
+    /** Free blocks of memory, binned by size, guarded by <code>allocator</code>. */
+    private final SizeClassFreeList freeBlocks = new SizeClassFreeList();
 
-    /*
-     * (non-Javadoc)
-     * 
-     * @see com.prashant.memory.MemoryBuffer#capacity()
-     */
-    public int capacity() {
-        return buffer.capacity();
-    }
+    /** First block of the address ordered list. */
+    private Pointer head;
+
+    /** Where the running compaction pass resumes, null to start a new pass. */
+    private Pointer cursor;
+    private final byte[] scratch = new byte[8 * 1024];
 
     /**
      * Creates new instance of OffHeapMemoryBuffer with the specified capacity
@@ -65,8 +63,7 @@ public class DirectMemoryBuffer implements MemoryBuffer {
     }
 
     private DirectMemoryBuffer(ByteBuffer buffer, int bufferNumber) {
-        this.buffer = buffer;
-        this.bufferNumber = bufferNumber;
+        super(buffer, bufferNumber);
         buffer.order(); // Please configure ByteOrder.BIG_ENDIAN :
                         // ByteOrder.LITTLE_ENDIAN
         createAndAddFirstPointer();
@@ -74,217 +71,676 @@ public class DirectMemoryBuffer implements MemoryBuffer {
 
     private Pointer createAndAddFirstPointer() {
         Pointer first = new Pointer();
-        first.setBlockNumber(0);
+        first.setBlockNumber(bufferNumber);
         first.setStart(0);
         first.setFree(true);
         first.setEnd(buffer.capacity() - 1);
         first.setNext(null);
         first.setPrev(null);
-        pointers.add(first);
+        freeBlocks.add(first);
+        head = first;
+        cursor = null;
         return first;
     }
 
     /**
-     * Resize an existing block to new capacity by slicing the <code>Pointer</code> pointed to by existing pointer. The new <code>Pointer</code> is a
-     * slice present before the existing.
+     * Carves a block of the requested capacity from the start of an existing free block. The new <code>Pointer</code> takes the place of the
+     * slice in the address ordered list and whatever is left of the existing block goes back to the free bins.
+     * <p>
+     * A freed <code>Pointer</code> is never handed out again, an exact fit gets a fresh one too, so a stale or repeated <code>free</code> on it
+     * stays harmless.
+     * </p>
      * 
      * @param existing
-     *            points to existing Pointer(referring existing block).
+     *            points to existing Pointer(referring existing block), already taken out of the free bins.
      * @param capacity
      *            to be resized to.
      * @return Pointer to resized block.
      */
     private Pointer slice(Pointer existing, int capacity) {
-        if ((existing.getEnd() - existing.getStart()) == capacity + 1 && existing.isFree()) {
-            return existing;
+        Pointer fresh = carve(existing, capacity);
+        if (fresh.getNext() == existing) {
+            freeBlocks.add(existing);
         }
+        return fresh;
+    }
+
+    /**
+     * Same as {@link #slice(Pointer, int)} except that the rest of the existing block, if any, is left out of the free bins, so several
+     * blocks can be carved from it in a row.
+     */
+    private Pointer carve(Pointer existing, int capacity) {
         Pointer fresh = new Pointer();
         fresh.setBlockNumber(existing.getBlockNumber());
         fresh.setStart(existing.getStart());
         fresh.setEnd(fresh.getStart() + capacity);
         fresh.setFree(true);
         fresh.setPrev(existing.getPrev());
-        existing.setPrev(fresh);
-        fresh.setNext(existing);
-        existing.setStart(existing.getStart() + (capacity + 1));
+        if (fresh.getPrev() != null) {
+            fresh.getPrev().setNext(fresh);
+        } else {
+            head = fresh;
+        }
+        if (existing.getEnd() == fresh.getEnd()) {
+            // Exact fit, the existing block is dropped from the list.
+            fresh.setNext(existing.getNext());
+            if (fresh.getNext() != null) {
+                fresh.getNext().setPrev(fresh);
+            }
+            existing.setPrev(null);
+            existing.setNext(null);
+        } else {
+            fresh.setNext(existing);
+            existing.setPrev(fresh);
+            existing.setStart(fresh.getEnd() + 1);
+        }
         return fresh;
     }
 
     /**
-     * Returns the block of size equal or greater than current size for
-     * reallocation which is marked as free.
+     * Returns the smallest block marked as free whose size is equal or greater than the requested capacity, after taking it out of the free
+     * bins. Callers hold <code>allocator</code>.
      * 
      * @param capacity
      * @return null when it fails to search a valid sized block
      */
-    private Pointer firstMatch(int capacity) {
-        synchronized (pointers) {
-            
-            for (Pointer ptr : pointers) {
-                // Find a frame with right size. Comapaction problems to be dealt.
-                if (ptr.isFree() && (ptr.getEnd() - ptr.getStart()) > capacity) {
-                    return ptr;
-                }
+    private Pointer bestMatch(int capacity) {
+        return freeBlocks.take(capacity);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.AbstractMemoryBuffer#release(com.prashant.memory.Pointer)
+     */
+    protected long release(Pointer pointer2free) {
+        long waitStart = lockWaitStart();
+        allocator.lock();
+        try {
+            lockAcquired(waitStart);
+            if (pointer2free.isFree()) {
+                // Already freed, possibly merged into a neighbour since.
+                return 0;
+            }
+            long freed = pointer2free.getEnd() - pointer2free.getStart();
+            used.addAndGet((int) -freed);
+            freeAndMerge(pointer2free);
+            return freed;
+        } finally {
+            allocator.unlock();
+        }
+    }
+
+    /**
+     * Marks the block free and merges it with free adjacent blocks. An easiest way to somewhat address fragmentation problem. Neighbours are
+     * reached through the address ordered <code>Pointer</code> links and looked up in the free bins directly, so a free costs the same however
+     * many blocks the buffer holds. Callers hold <code>allocator</code>.
+     * 
+     * @param pointer2free
+     */
+    private void freeAndMerge(Pointer pointer2free) {
+        pointer2free.setFree(true);
+        pointer2free.setClazz(null);
+
+        Pointer prev = pointer2free.getPrev();
+        if (null != prev && prev.isFree()) {
+            // Merge previous
+            freeBlocks.remove(prev);
+            pointer2free.setStart(prev.getStart());
+            pointer2free.setPrev(prev.getPrev());
+            if (null != pointer2free.getPrev()) {
+                pointer2free.getPrev().setNext(pointer2free);
+            } else {
+                head = pointer2free;
+            }
+            prev.setPrev(null);
+            prev.setNext(null);
+        }
+
+        Pointer next = pointer2free.getNext();
+        if (null != next && next.isFree()) {
+            // Merge Next
+            freeBlocks.remove(next);
+            pointer2free.setEnd(next.getEnd());
+            pointer2free.setNext(next.getNext());
+            if (null != pointer2free.getNext()) {
+                pointer2free.getNext().setPrev(pointer2free);
+            }
+            next.setPrev(null);
+            next.setNext(null);
+        }
+        freeBlocks.add(pointer2free);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#clear()
+     */
+    public void clear() {
+        epochs.discard();
+        long stamp = relocation.writeLock();
+        try {
+            allocator.lock();
+            try {
+                freeBlocks.clear();
+                createAndAddFirstPointer();
+                buffer.clear();
+                used.set(0);
+            } finally {
+                allocator.unlock();
             }
+        } finally {
+            relocation.unlockWrite(stamp);
         }
-        return null;
     }
 
     /*
      * (non-Javadoc)
      * 
-     * @see com.prashant.memory.MemoryBuffer#retrieve(com.prashant.memory.Pointer, int, int)
+     * @see com.prashant.memory.AbstractMemoryBuffer#allocate(int)
+     */
+    protected Pointer allocate(int capacity) throws DMBufferOverFlowException {
+        long waitStart = lockWaitStart();
+        allocator.lock();
+        try {
+            lockAcquired(waitStart);
+            // Best match is the smallest block that has capacity equal or
+            // greater than payload.
+            Pointer goodOne = bestMatch(capacity);
+            if (goodOne == null) {
+                throw new DMBufferOverFlowException("did not find a suitable buffer", null);
+            }
+            Pointer fresh = slice(goodOne, capacity);
+            fresh.setFree(false);
+            return fresh;
+        } finally {
+            allocator.unlock();
+        }
+    }
+
+    /**
+     * Takes a free block with room for the block and the padding up to the first aligned address in it, the padding is carved off and goes
+     * back to the free bins on its own.
+     * 
+     * @see com.prashant.memory.AbstractMemoryBuffer#allocate(int, int)
      */
-    public byte[] retrieve(Pointer pointer, int offset, int len) throws DMFrameLimitExcededException {
-        int checkLength = pointer.getStart() + offset + len;
-        ByteBuffer buf = null;
-        if (checkLength <= pointer.getEnd()) {
-            synchronized (buffer) {
-                buf = buffer.duplicate();
+    protected Pointer allocate(int capacity, int alignment) throws DMBufferOverFlowException {
+        long waitStart = lockWaitStart();
+        allocator.lock();
+        try {
+            lockAcquired(waitStart);
+            Pointer goodOne = capacity > Integer.MAX_VALUE - alignment ? null : bestMatch(capacity + alignment - 1);
+            if (goodOne == null) {
+                throw new DMBufferOverFlowException("did not find a suitable buffer", null);
+            }
+            int pad = (alignment - buffer.alignmentOffset(goodOne.getStart(), alignment)) & (alignment - 1);
+            if (pad > 0) {
+                freeBlocks.add(carve(goodOne, pad - 1));
             }
-            buf.position(pointer.getStart() + offset);
-            final byte[] swp = new byte[len];
-            buf.get(swp);
-            return swp;
+            Pointer fresh = slice(goodOne, capacity);
+            fresh.setFree(false);
+            fresh.setAlignment(alignment);
+            return fresh;
+        } finally {
+            allocator.unlock();
+        }
+    }
+
+    /**
+     * Any power of two up to the capacity, addresses are those of the direct buffer.
+     * 
+     * @see com.prashant.memory.AbstractMemoryBuffer#maxAlignment()
+     */
+    protected int maxAlignment() {
+        return Integer.highestOneBit(buffer.capacity());
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.AbstractMemoryBuffer#store(byte[], int, int)
+     */
+    public Pointer store(byte[] payload, int capacity, int alignment) throws DMBufferOverFlowException {
+        // The block must not move between its allocation and the copy of the payload.
+        long stamp = relocation.readLock();
+        try {
+            return super.store(payload, capacity, alignment);
+        } finally {
+            relocation.unlockRead(stamp);
         }
-        throw new DMFrameLimitExcededException("Trying to read to a position out of bounds for this pointer.", null);
     }
 
     /*
      * (non-Javadoc)
      * 
-     * @see com.prashant.memory.MemoryBuffer#retrieve(com.prashant.memory.Pointer)
+     * @see com.prashant.memory.AbstractMemoryBuffer#store(java.lang.Object)
      */
-    public byte[] retrieve(Pointer pointer) throws DMFrameLimitExcededException {
-        return retrieve(pointer, 0, pointer.getEnd() - pointer.getStart());
+    public <T> Pointer store(T value) throws DMBufferOverFlowException {
+        long stamp = relocation.readLock();
+        try {
+            return super.store(value);
+        } finally {
+            relocation.unlockRead(stamp);
+        }
     }
 
     /*
      * (non-Javadoc)
      * 
-     * @see com.prashant.memory.MemoryBuffer#free(com.prashant.memory.Pointer)
+     * @see com.prashant.memory.AbstractMemoryBuffer#store(java.nio.channels.ReadableByteChannel, long)
      */
-    public long free(Pointer pointer2free) {
-        used.addAndGet(-(pointer2free.getEnd() - pointer2free.getStart()));
-        freeAndMerge(pointer2free);
-        return pointer2free.getEnd() - pointer2free.getStart();
+    public Pointer store(ReadableByteChannel src, long length) throws DMBufferOverFlowException, IOException {
+        long stamp = relocation.readLock();
+        try {
+            return super.store(src, length);
+        } finally {
+            relocation.unlockRead(stamp);
+        }
     }
 
     /**
-     * It is synchronized as it does merging of adjacent blocks. An easiest way
-     * to somewhat address fragmentation problem.
+     * Reserves all the blocks under a single acquisition of the allocator lock, one after the other in a single free block when one is large
+     * enough, so the payloads also end up next to each other. Payloads are stored one by one instead when blocks are aligned by default.
      * 
-     * @param pointer2free
+     * @see com.prashant.memory.AbstractMemoryBuffer#storeAll(byte[][])
      */
-    private void freeAndMerge(Pointer pointer2free) {
-        synchronized (pointers) {
-            
-            pointers.remove(pointer2free);
-            // merge adjacent blocks
-            if (null != pointer2free.getPrev() && pointer2free.getPrev().isFree()) {
-                // Merge previous
-                pointers.remove(pointer2free.getPrev());
-                pointer2free.setStart(pointer2free.getPrev().getStart());
-                pointer2free.setPrev(pointer2free.getPrev().getPrev());
-                // Recursive call
-                freeAndMerge(pointer2free);
+    public Pointer[] storeAll(byte[][] payloads) throws DMBufferOverFlowException {
+        if (getDefaultAlignment() > 1) {
+            return super.storeAll(payloads);
+        }
+        reclaim();
+        long stamp = relocation.readLock();
+        try {
+            Pointer[] pointers = allocateAll(payloads);
+            int total = 0;
+            for (int i = 0; i < payloads.length; i++) {
+                total += payloads[i].length;
+            }
+            used.addAndGet(total);
+            for (int i = 0; i < payloads.length; i++) {
+                write(pointers[i].getStart(), payloads[i]);
             }
+            return pointers;
+        } finally {
+            relocation.unlockRead(stamp);
+        }
+    }
 
-            if (null != pointer2free.getNext() && pointer2free.getNext().isFree()) {
-                // Merge Next
-                pointers.remove(pointer2free.getNext());
-                pointer2free.setEnd(pointer2free.getNext().getEnd());
-                pointer2free.setNext(pointer2free.getNext().getNext());
-                // Recursive call
-                freeAndMerge(pointer2free);
+    private Pointer[] allocateAll(byte[][] payloads) throws DMBufferOverFlowException {
+        Pointer[] pointers = new Pointer[payloads.length];
+        long span = -1;
+        for (byte[] payload : payloads) {
+            span += payload.length + 1;
+        }
+        long waitStart = lockWaitStart();
+        allocator.lock();
+        try {
+            lockAcquired(waitStart);
+            Pointer run = payloads.length > 0 && span < Integer.MAX_VALUE ? freeBlocks.take((int) span) : null;
+            if (run != null) {
+                Pointer fresh = null;
+                for (int i = 0; i < payloads.length; i++) {
+                    fresh = carve(run, payloads[i].length);
+                    fresh.setFree(false);
+                    pointers[i] = fresh;
+                }
+                if (fresh.getNext() == run) {
+                    freeBlocks.add(run);
+                }
+                return pointers;
             }
-            if (!pointer2free.isFree()) {
-                pointer2free.setFree(true);
-                pointer2free.setClazz(null);
-                pointers.add(pointer2free);
+            // No free block holds them all, fall back to a block each.
+            for (int i = 0; i < payloads.length; i++) {
+                Pointer goodOne = bestMatch(payloads[i].length);
+                if (goodOne == null) {
+                    for (int j = 0; j < i; j++) {
+                        freeAndMerge(pointers[j]);
+                    }
+                    throw new DMBufferOverFlowException("did not find a suitable buffer", null);
+                }
+                pointers[i] = slice(goodOne, payloads[i].length);
+                pointers[i].setFree(false);
             }
+            return pointers;
+        } finally {
+            allocator.unlock();
         }
     }
 
+    /**
+     * Releases all the blocks, each merged with its free neighbours, under a single acquisition of the allocator lock.
+     * 
+     * @see com.prashant.memory.AbstractMemoryBuffer#release(java.util.Collection)
+     */
+    protected long release(Collection<Pointer> pointers) {
+        long freed = 0;
+        long waitStart = lockWaitStart();
+        allocator.lock();
+        try {
+            lockAcquired(waitStart);
+            for (Pointer pointer : pointers) {
+                if (!pointer.isFree()) {
+                    freed += pointer.getEnd() - pointer.getStart();
+                    freeAndMerge(pointer);
+                }
+            }
+        } finally {
+            allocator.unlock();
+        }
+        used.addAndGet((int) -freed);
+        return freed;
+    }
+
     /*
      * (non-Javadoc)
      * 
-     * @see com.prashant.memory.MemoryBuffer#clear()
+     * @see com.prashant.memory.AbstractMemoryBuffer#putByte(com.prashant.memory.Pointer, int, byte)
      */
-    public void clear() {
-        pointers.clear();
-        createAndAddFirstPointer();
-        buffer.clear();
-        used.set(0);
+    public void putByte(Pointer pointer, int offset, byte value) throws DMFrameLimitExcededException {
+        long stamp = relocation.readLock();
+        try {
+            super.putByte(pointer, offset, value);
+        } finally {
+            relocation.unlockRead(stamp);
+        }
     }
 
     /*
      * (non-Javadoc)
      * 
-     * @see com.prashant.memory.MemoryBuffer#store(byte[], int)
+     * @see com.prashant.memory.AbstractMemoryBuffer#putShort(com.prashant.memory.Pointer, int, short)
      */
-    public synchronized Pointer store(byte[] payload, int capacity) throws DMBufferOverFlowException {
-        // First good match is page that has capacity equal or greater than
-        // payload.
-        Pointer goodOne = firstMatch(capacity);
-        if (goodOne == null) {
-            RuntimeException e = new NullPointerException();
-            // logger.error("Did not find a suitable buffer");
-            throw new DMBufferOverFlowException("did not find a suitable buffer", e.getCause());
-        }
-
-        Pointer fresh = slice(goodOne, capacity);
-
-        fresh.setFree(false);
-        used.addAndGet(payload.length);
-        ByteBuffer buf = buffer.slice();
-        buf.position(fresh.getStart());
+    public void putShort(Pointer pointer, int offset, short value) throws DMFrameLimitExcededException {
+        long stamp = relocation.readLock();
         try {
-            buf.put(payload);
-        } catch (BufferOverflowException e) {
-            goodOne.setStart(fresh.getStart());
-            goodOne.setEnd(buffer.limit());
-            // return null; //Uncomment incase we want to ignore this exception.
-            throw new DMBufferOverFlowException("An attempt to store more than the configured capacity", e.getCause());
-        }
-        pointers.add(fresh);
-        return fresh;
+            super.putShort(pointer, offset, value);
+        } finally {
+            relocation.unlockRead(stamp);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.AbstractMemoryBuffer#putInt(com.prashant.memory.Pointer, int, int)
+     */
+    public void putInt(Pointer pointer, int offset, int value) throws DMFrameLimitExcededException {
+        long stamp = relocation.readLock();
+        try {
+            super.putInt(pointer, offset, value);
+        } finally {
+            relocation.unlockRead(stamp);
+        }
     }
 
     /*
      * (non-Javadoc)
      * 
-     * @see com.prashant.memory.MemoryBuffer#store(byte[])
+     * @see com.prashant.memory.AbstractMemoryBuffer#putLong(com.prashant.memory.Pointer, int, long)
      */
-    public synchronized Pointer store(byte[] payload) throws DMBufferOverFlowException {
-        return store(payload, payload.length);
+    public void putLong(Pointer pointer, int offset, long value) throws DMFrameLimitExcededException {
+        long stamp = relocation.readLock();
+        try {
+            super.putLong(pointer, offset, value);
+        } finally {
+            relocation.unlockRead(stamp);
+        }
     }
 
     /*
      * (non-Javadoc)
      * 
-     * @see com.prashant.memory.MemoryBuffer#update(com.prashant.memory.Pointer, byte[], int)
+     * @see com.prashant.memory.AbstractMemoryBuffer#update(com.prashant.memory.Pointer, byte[], int)
      */
     public void update(Pointer pointer, byte[] payload, int offset) throws DMFrameLimitExcededException {
-        if (pointer.getStart() + offset + payload.length - 1 <= pointer.getEnd()) {
-            ByteBuffer buf;
-            synchronized (buffer) {
-                buf = buffer.duplicate();
+        long stamp = relocation.readLock();
+        try {
+            super.update(pointer, payload, offset);
+        } finally {
+            relocation.unlockRead(stamp);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.AbstractMemoryBuffer#updateInPlace(com.prashant.memory.Pointer, byte[], int)
+     */
+    protected boolean updateInPlace(Pointer pointer, byte[] payload, int capacity) {
+        // The block must not move between its resize and the copy of the payload.
+        long stamp = relocation.readLock();
+        try {
+            return super.updateInPlace(pointer, payload, capacity);
+        } finally {
+            relocation.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Shrinks the block by splitting its tail off as a block of its own and freeing that, so the tail is only handed out again once the reads
+     * in flight are done, or grows it into the next block when that one is free and large enough. The block keeps its start, and so its
+     * alignment.
+     * 
+     * @see com.prashant.memory.AbstractMemoryBuffer#resize(com.prashant.memory.Pointer, int)
+     */
+    protected boolean resize(Pointer pointer, int capacity) {
+        Pointer tail = null;
+        long waitStart = lockWaitStart();
+        allocator.lock();
+        try {
+            lockAcquired(waitStart);
+            if (pointer.isFree() || pointer.isRetired()) {
+                return false;
+            }
+            int span = pointer.getEnd() - pointer.getStart();
+            if (capacity < span) {
+                tail = new Pointer();
+                tail.setBlockNumber(pointer.getBlockNumber());
+                tail.setStart(pointer.getStart() + capacity + 1);
+                tail.setEnd(pointer.getEnd());
+                tail.setPrev(pointer);
+                tail.setNext(pointer.getNext());
+                if (tail.getNext() != null) {
+                    tail.getNext().setPrev(tail);
+                }
+                pointer.setNext(tail);
+                pointer.setEnd(tail.getStart() - 1);
+                // The share of the tail drops once it is released.
+                used.addAndGet(tail.getEnd() - tail.getStart());
+            } else if (capacity > span) {
+                int extra = capacity - span;
+                Pointer next = pointer.getNext();
+                if (next == null || !next.isFree() || next.getEnd() - next.getStart() + 1 < extra) {
+                    return false;
+                }
+                freeBlocks.remove(next);
+                if (next.getEnd() - next.getStart() + 1 == extra) {
+                    // Takes the whole free block, which is dropped from the list.
+                    pointer.setNext(next.getNext());
+                    if (pointer.getNext() != null) {
+                        pointer.getNext().setPrev(pointer);
+                    }
+                    next.setPrev(null);
+                    next.setNext(null);
+                } else {
+                    next.setStart(next.getStart() + extra);
+                    freeBlocks.add(next);
+                }
+                pointer.setEnd(pointer.getEnd() + extra);
             }
-            buf.position(pointer.getStart() + offset);
-            buf.put(payload);
-            return;
+            used.addAndGet(capacity - span);
+        } finally {
+            allocator.unlock();
+        }
+        if (tail != null) {
+            // Outside of the allocator lock, a release takes it after the limbo lock.
+            free(tail);
         }
-        throw new DMFrameLimitExcededException("Trying to write to a position out of bounds for this pointer.", null);
+        return true;
     }
 
     /*
      * (non-Javadoc)
      * 
-     * @see com.prashant.memory.MemoryBuffer#update(com.prashant.memory.Pointer, byte[])
+     * @see com.prashant.memory.FreeSpace#freeBlockCount()
      */
-    public Pointer update(Pointer pointer, byte[] payload) throws DMBufferOverFlowException {
-        free(pointer);
-        return store(payload);
+    public int freeBlockCount() {
+        allocator.lock();
+        try {
+            return freeBlocks.count();
+        } finally {
+            allocator.unlock();
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.FreeSpace#largestFreeBlock()
+     */
+    public int largestFreeBlock() {
+        allocator.lock();
+        try {
+            return freeBlocks.largestSpan() + 1;
+        } finally {
+            allocator.unlock();
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.FreeSpace#fragmentation()
+     */
+    public double fragmentation() {
+        allocator.lock();
+        try {
+            long free = freeBlocks.freeBytes();
+            if (free == 0) {
+                return 0;
+            }
+            return 1 - (freeBlocks.largestSpan() + 1) / (double) free;
+        } finally {
+            allocator.unlock();
+        }
+    }
+
+    /**
+     * Runs compaction for about <code>budgetNanos</code>, one step at a time. Each step moves at most one live block down into the free block
+     * right before it, then gives both locks back so stores and reads interleave with the pass. The pass resumes where the previous call
+     * stopped and starts over once it reaches the end of the buffer.
+     * 
+     * @param budgetNanos
+     *            time slice, at least one step runs
+     * @return number of blocks moved
+     */
+    public int compact(long budgetNanos) {
+        long begin = System.nanoTime();
+        int moves = 0;
+        int result;
+        do {
+            long stamp = relocation.writeLock();
+            try {
+                allocator.lock();
+                try {
+                    result = compactStep();
+                } finally {
+                    allocator.unlock();
+                }
+            } finally {
+                relocation.unlockWrite(stamp);
+            }
+            if (result > 0) {
+                moves++;
+            }
+        } while (result >= 0 && System.nanoTime() - begin < budgetNanos);
+        return moves;
+    }
+
+    /**
+     * Looks at up to {@link #STEP_SCAN} blocks from the cursor for a free block followed by a live one, and swaps the two. An aligned block
+     * stays where it is unless the free block starts at an address aligned alike.
+     * 
+     * @return 1 when a block moved, 0 when none did yet, -1 when the pass reached the end of the buffer
+     */
+    private int compactStep() {
+        Pointer free = cursor;
+        if (free == null || (free != head && free.getPrev() == null)) {
+            // New pass, or the cursor was merged away since.
+            free = head;
+        }
+        for (int scanned = 0; scanned < STEP_SCAN; scanned++) {
+            if (free == null) {
+                cursor = null;
+                return -1;
+            }
+            Pointer live = free.getNext();
+            if (free.isFree() && live != null && !live.isFree() && !live.isPinned() && live.getEnd() - live.getStart() < MAX_MOVE
+                    && buffer.alignmentOffset(free.getStart(), live.getAlignment()) == 0) {
+                moveDown(free, live);
+                return 1;
+            }
+            free = live;
+        }
+        cursor = free;
+        return 0;
+    }
+
+    /**
+     * Copies the live block to the start of the free block before it and puts the free block after it, merged with the next one if free.
+     */
+    private void moveDown(Pointer free, Pointer live) {
+        freeBlocks.remove(free);
+        int span = live.getEnd() - live.getStart();
+        int freeEnd = live.getEnd();
+        move(live.getStart(), free.getStart(), span + 1);
+        live.setStart(free.getStart());
+        live.setEnd(free.getStart() + span);
+        free.setStart(live.getEnd() + 1);
+        free.setEnd(freeEnd);
+
+        Pointer prev = free.getPrev();
+        Pointer next = live.getNext();
+        live.setPrev(prev);
+        if (prev != null) {
+            prev.setNext(live);
+        } else {
+            head = live;
+        }
+        live.setNext(free);
+        free.setPrev(live);
+        free.setNext(next);
+        if (next != null) {
+            next.setPrev(free);
+            if (next.isFree()) {
+                freeBlocks.remove(next);
+                free.setEnd(next.getEnd());
+                free.setNext(next.getNext());
+                if (free.getNext() != null) {
+                    free.getNext().setPrev(free);
+                }
+                next.setPrev(null);
+                next.setNext(null);
+            }
+        }
+        freeBlocks.add(free);
+        cursor = free;
+    }
+
+    /**
+     * Copies bytes towards the start of the buffer, front to back through a scratch array, which is safe when the two ranges overlap.
+     */
+    private void move(int from, int to, int len) {
+        ByteBuffer src = buffer.duplicate();
+        ByteBuffer dst = buffer.duplicate();
+        src.position(from);
+        dst.position(to);
+        while (len > 0) {
+            int chunk = Math.min(len, scratch.length);
+            src.get(scratch, 0, chunk);
+            dst.put(scratch, 0, chunk);
+            len -= chunk;
+        }
     }
 }
\ No newline at end of file
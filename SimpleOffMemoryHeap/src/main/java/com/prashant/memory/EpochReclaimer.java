@@ -0,0 +1,337 @@
+package com.prashant.memory;
+
+import com.prashant.exception.DMFrameLimitExcededException;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Epoch based reclamation of the blocks of a memory buffer, so a free never waits for reads and a read never sees its
+ * block handed out again half way through.
+ * <p>
+ * A read announces the global epoch it started in and withdraws it when done. A freed block is retired: it waits, tagged with the epoch it
+ * was freed in, until the global epoch has moved two ahead. The epoch only moves once every read in flight has announced the current one,
+ * so by then no read that started before the free can still see the block. When no read is in flight the epoch moves on at once and the
+ * block is released by the free itself, which keeps frees cheap for single threaded use.
+ * </p>
+ * <p>
+ * A read that starts after the free may announce an epoch the block is already safe in, so a <code>Pointer</code> stays marked retired
+ * from the free on, released or not, and reads check the mark once announced.
+ * </p>
+ * <p>
+ * Each thread announces in its own <code>Participant</code>, so reads write nothing shared. Retiring and releasing happen under the limbo
+ * lock, outside of any allocator lock.
+ * </p>
+ */
+final class EpochReclaimer {
+
+    /** Epoch of a participant outside of any read */
+    private static final long IDLE = -1;
+
+    /** Epoch announcement of one thread. */
+    static final class Participant {
+        private volatile long epoch = IDLE;
+        // Reads nest when a read path calls another one, only the outermost announces.
+        private int depth;
+    }
+
+    /** Gives blocks no read can see anymore back to the allocator of the buffer. */
+    interface Owner {
+        /**
+         * @return bytes freed
+         */
+        long release(Collection<Pointer> pointers);
+    }
+
+    /** Gives blocks freed by handle back to the allocator of a buffer handing out handles. */
+    interface HandleOwner {
+        /**
+         * @return bytes freed, 0 when the block was already free
+         */
+        long release(long handle);
+    }
+
+    /** A block waiting for the reads that may still see it, either a <code>Pointer</code> or a handle. */
+    private static final class Retired {
+        final long epoch;
+        final Pointer pointer;
+        final long handle;
+        // Bytes the release of a handle freed, -1 until it is released
+        volatile long freed = -1;
+
+        Retired(long epoch, Pointer pointer, long handle) {
+            this.epoch = epoch;
+            this.pointer = pointer;
+            this.handle = handle;
+        }
+    }
+
+    private final Owner owner;
+    private final HandleOwner handles;
+    private final AtomicLong epoch = new AtomicLong();
+
+    /** Weakly held so the participants of threads that ended go away with them */
+    private final Queue<WeakReference<Participant>> participants = new ConcurrentLinkedQueue<WeakReference<Participant>>();
+
+    private final ThreadLocal<Participant> local = new ThreadLocal<Participant>() {
+        @Override
+        protected Participant initialValue() {
+            Participant participant = new Participant();
+            participants.add(new WeakReference<Participant>(participant));
+            return participant;
+        }
+    };
+
+    private final Queue<Retired> limbo = new ConcurrentLinkedQueue<Retired>();
+
+    /** Orders retiring against releasing, a ReentrantLock so a virtual thread waiting for it does not pin its carrier. */
+    private final ReentrantLock limboLock = new ReentrantLock();
+
+    /** Blocks released so far, by any thread, only written under <code>limboLock</code>. */
+    private volatile long released;
+
+    EpochReclaimer(Owner owner) {
+        this(owner, null);
+    }
+
+    /**
+     * @param handles
+     *            releases the handles retired by {@link #retire(long)}, for buffers handing them out
+     */
+    EpochReclaimer(Owner owner, HandleOwner handles) {
+        this.owner = owner;
+        this.handles = handles;
+    }
+
+    /**
+     * Announces a read of this thread, to be withdrawn with {@link #exit(Participant)} in a <code>finally</code> block.
+     */
+    Participant enter() {
+        Participant participant = local.get();
+        if (participant.depth++ == 0) {
+            long current;
+            do {
+                current = epoch.get();
+                participant.epoch = current;
+                // Read the epoch again, an advance that missed the announcement must not go unnoticed.
+            } while (epoch.get() != current);
+        }
+        return participant;
+    }
+
+    /**
+     * Announces a read or write of the block, to be withdrawn with {@link #exit(Participant)} in a <code>finally</code> block. The block is
+     * checked once announced: a free from then on waits for the read, one before may have released it already.
+     * 
+     * @throws DMFrameLimitExcededException
+     *             when the block was freed
+     */
+    Participant enter(Pointer pointer) throws DMFrameLimitExcededException {
+        Participant participant = enter();
+        try {
+            checkLive(pointer);
+        } catch (DMFrameLimitExcededException e) {
+            exit(participant);
+            throw e;
+        }
+        return participant;
+    }
+
+    /**
+     * @throws DMFrameLimitExcededException
+     *             when the block was freed
+     */
+    static void checkLive(Pointer pointer) throws DMFrameLimitExcededException {
+        if (pointer.isRetired() || pointer.isFree()) {
+            throw new DMFrameLimitExcededException("Trying to access a freed block.", null);
+        }
+    }
+
+    void exit(Participant participant) {
+        if (--participant.depth == 0) {
+            participant.epoch = IDLE;
+        }
+    }
+
+    /**
+     * @return true when blocks wait to be released
+     */
+    boolean pending() {
+        return !limbo.isEmpty();
+    }
+
+    /**
+     * Retires a freed block, and releases it right away when no read is in flight.
+     * 
+     * @return bytes freed, 0 when the block was already freed or retired
+     */
+    long retire(Pointer pointer) {
+        long freed;
+        limboLock.lock();
+        try {
+            freed = enqueue(pointer);
+        } finally {
+            limboLock.unlock();
+        }
+        reclaim();
+        return freed;
+    }
+
+    /**
+     * Retires freed blocks under a single acquisition of the limbo lock, so the ones released right away are released together.
+     * 
+     * @return bytes freed, not counting blocks already freed or retired
+     */
+    long retireAll(Collection<Pointer> pointers) {
+        long freed = 0;
+        limboLock.lock();
+        try {
+            for (Pointer pointer : pointers) {
+                freed += enqueue(pointer);
+            }
+        } finally {
+            limboLock.unlock();
+        }
+        reclaim();
+        return freed;
+    }
+
+    /**
+     * Marks the block retired, before any epoch moves on, and queues it. Callers hold <code>limboLock</code>.
+     */
+    private long enqueue(Pointer pointer) {
+        if (pointer.isFree() || pointer.isRetired()) {
+            return 0;
+        }
+        pointer.setRetired(true);
+        limbo.add(new Retired(epoch.get(), pointer, 0));
+        return pointer.getEnd() - pointer.getStart();
+    }
+
+    /**
+     * Retires a freed handle, and releases it right away when no read is in flight. A handle retired twice is only detected when it is
+     * released. Only for a reclaimer created with a <code>HandleOwner</code>.
+     * 
+     * @return bytes freed, 0 when released right away and the handle was already free
+     */
+    long retire(long handle) {
+        Retired retired;
+        limboLock.lock();
+        try {
+            retired = new Retired(epoch.get(), null, handle);
+            limbo.add(retired);
+        } finally {
+            limboLock.unlock();
+        }
+        reclaim();
+        return retired.freed >= 0 ? retired.freed : Handles.length(handle);
+    }
+
+    /**
+     * Moves the epoch on as far as the reads in flight allow, and releases the blocks no read can still see.
+     * 
+     * @return number of blocks released
+     */
+    int reclaim() {
+        if (limbo.isEmpty()) {
+            return 0;
+        }
+        int released = 0;
+        limboLock.lock();
+        try {
+            // Twice, so retired blocks are released right away once the reads that were in flight are done.
+            tryAdvance();
+            tryAdvance();
+            long safe = epoch.get() - 2;
+            List<Pointer> pointers = new ArrayList<Pointer>();
+            // Blocks are only retired under the lock too, so the limbo is in epoch order and nobody else takes from it.
+            for (Retired retired : limbo) {
+                if (retired.epoch > safe) {
+                    break;
+                }
+                if (retired.pointer != null) {
+                    // Stays marked retired, a read starting from now on must still find it freed.
+                    pointers.add(retired.pointer);
+                } else {
+                    retired.freed = handles.release(retired.handle);
+                }
+                released++;
+            }
+            if (!pointers.isEmpty()) {
+                owner.release(pointers);
+            }
+            // Counted before they leave the limbo, a store that finds it empty must find the blocks released as well.
+            this.released += released;
+            for (int i = 0; i < released; i++) {
+                limbo.poll();
+            }
+        } finally {
+            limboLock.unlock();
+        }
+        return released;
+    }
+
+    /**
+     * @return number of retired blocks released so far, by any thread
+     */
+    long released() {
+        return released;
+    }
+
+    /**
+     * Waits for the reads in flight to be done, until some retired block is released or none is left. Reads are short copies, so the wait is
+     * too, unless a read of this very thread is in flight, which is not waited for.
+     * 
+     * @return number of blocks released
+     */
+    int awaitReclaim() {
+        if (local.get().depth > 0) {
+            return reclaim();
+        }
+        int released;
+        while ((released = reclaim()) == 0 && pending()) {
+            Thread.yield();
+        }
+        return released;
+    }
+
+    private boolean tryAdvance() {
+        long current = epoch.get();
+        for (Iterator<WeakReference<Participant>> it = participants.iterator(); it.hasNext();) {
+            Participant participant = it.next().get();
+            if (participant == null) {
+                it.remove();
+            } else {
+                long announced = participant.epoch;
+                if (announced != IDLE && announced != current) {
+                    return false;
+                }
+            }
+        }
+        return epoch.compareAndSet(current, current + 1);
+    }
+
+    /**
+     * Forgets the retired blocks, called when the owner is cleared and every block is free anyway.
+     */
+    void discard() {
+        limboLock.lock();
+        try {
+            for (Retired retired : limbo) {
+                if (retired.pointer != null) {
+                    retired.pointer.setRetired(false);
+                }
+            }
+            limbo.clear();
+        } finally {
+            limboLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.prashant.memory;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Codec of a flat class, one whose instance fields are all primitives or strings, read and written through reflection.
+ * <p>
+ * The fields of the class and its superclasses are written one after the other, ordered by name so the layout does not depend on the order
+ * reflection lists them in. Primitives take their size and a string an <code>int</code> byte count, -1 for <code>null</code>, followed by
+ * its UTF-8 bytes. Static and transient fields are skipped, and loading creates the object through its no argument constructor, which
+ * does not need to be public.
+ * </p>
+ */
+public class FlatCodec<T> implements OffHeapCodec<T> {
+
+    private final Class<T> type;
+    private final Constructor<T> constructor;
+    private final Field[] fields;
+    /** Bytes of the primitive fields, strings add their length to it. */
+    private final int fixedSize;
+
+    /**
+     * @throws IllegalArgumentException
+     *             when the class is not flat or has no argument constructor
+     */
+    public static <T> FlatCodec<T> of(Class<T> type) {
+        return new FlatCodec<T>(type);
+    }
+
+    private FlatCodec(Class<T> type) {
+        this.type = type;
+        try {
+            this.constructor = type.getDeclaredConstructor();
+        } catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException(type + " has no argument constructor", e);
+        }
+        constructor.setAccessible(true);
+        List<Field> flat = new ArrayList<Field>();
+        for (Class<?> c = type; c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                if ((field.getModifiers() & (Modifier.STATIC | Modifier.TRANSIENT)) != 0) {
+                    continue;
+                }
+                if (!field.getType().isPrimitive() && field.getType() != String.class) {
+                    throw new IllegalArgumentException(type + " is not flat, field " + field.getName() + " is a " + field.getType());
+                }
+                field.setAccessible(true);
+                flat.add(field);
+            }
+        }
+        this.fields = flat.toArray(new Field[flat.size()]);
+        Arrays.sort(fields, new Comparator<Field>() {
+            public int compare(Field a, Field b) {
+                int byName = a.getName().compareTo(b.getName());
+                return byName != 0 ? byName : a.getDeclaringClass().getName().compareTo(b.getDeclaringClass().getName());
+            }
+        });
+        int size = 0;
+        for (Field field : fields) {
+            size += sizeOf(field.getType());
+        }
+        this.fixedSize = size;
+    }
+
+    private static int sizeOf(Class<?> type) {
+        if (type == long.class || type == double.class) {
+            return 8;
+        } else if (type == int.class || type == float.class || type == String.class) {
+            return 4;
+        } else if (type == short.class || type == char.class) {
+            return 2;
+        }
+        return 1;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.OffHeapCodec#type()
+     */
+    public Class<T> type() {
+        return type;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.OffHeapCodec#size(java.lang.Object)
+     */
+    public int size(T value) {
+        int size = fixedSize;
+        try {
+            for (Field field : fields) {
+                if (field.getType() == String.class) {
+                    String s = (String) field.get(value);
+                    size += s == null ? 0 : OffHeapCodecs.utf8Length(s);
+                }
+            }
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+        return size;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.OffHeapCodec#write(java.lang.Object, java.nio.ByteBuffer)
+     */
+    public void write(T value, ByteBuffer dst) {
+        try {
+            for (Field field : fields) {
+                Class<?> t = field.getType();
+                if (t == long.class) {
+                    dst.putLong(field.getLong(value));
+                } else if (t == int.class) {
+                    dst.putInt(field.getInt(value));
+                } else if (t == double.class) {
+                    dst.putDouble(field.getDouble(value));
+                } else if (t == float.class) {
+                    dst.putFloat(field.getFloat(value));
+                } else if (t == short.class) {
+                    dst.putShort(field.getShort(value));
+                } else if (t == char.class) {
+                    dst.putChar(field.getChar(value));
+                } else if (t == byte.class) {
+                    dst.put(field.getByte(value));
+                } else if (t == boolean.class) {
+                    dst.put(field.getBoolean(value) ? (byte) 1 : (byte) 0);
+                } else {
+                    String s = (String) field.get(value);
+                    if (s == null) {
+                        dst.putInt(-1);
+                    } else {
+                        dst.putInt(OffHeapCodecs.utf8Length(s));
+                        OffHeapCodecs.putUtf8(s, dst);
+                    }
+                }
+            }
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.OffHeapCodec#read(java.nio.ByteBuffer)
+     */
+    public T read(ByteBuffer src) {
+        try {
+            T value = constructor.newInstance();
+            for (Field field : fields) {
+                Class<?> t = field.getType();
+                if (t == long.class) {
+                    field.setLong(value, src.getLong());
+                } else if (t == int.class) {
+                    field.setInt(value, src.getInt());
+                } else if (t == double.class) {
+                    field.setDouble(value, src.getDouble());
+                } else if (t == float.class) {
+                    field.setFloat(value, src.getFloat());
+                } else if (t == short.class) {
+                    field.setShort(value, src.getShort());
+                } else if (t == char.class) {
+                    field.setChar(value, src.getChar());
+                } else if (t == byte.class) {
+                    field.setByte(value, src.get());
+                } else if (t == boolean.class) {
+                    field.setBoolean(value, src.get() != 0);
+                } else {
+                    int length = src.getInt();
+                    if (length > src.remaining()) {
+                        throw new BufferUnderflowException();
+                    }
+                    field.set(value, length < 0 ? null : OffHeapCodecs.getUtf8(src, length));
+                }
+            }
+            return value;
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.prashant.memory;
+
+/**
+ * Implemented by memory buffers that index their free blocks, to report how scattered the free space is.
+ */
+public interface FreeSpace {
+
+	/**
+	 * @return Number of free blocks
+	 */
+	public abstract int freeBlockCount();
+
+	/**
+	 * @return Bytes of the largest free block, 0 when there is none
+	 */
+	public abstract int largestFreeBlock();
+
+	/**
+	 * @return 1 - largest free block / total free bytes. Zero when all the
+	 *         free space is in one block, close to one when it is scattered in
+	 *         many small ones.
+	 */
+	public abstract double fragmentation();
+}
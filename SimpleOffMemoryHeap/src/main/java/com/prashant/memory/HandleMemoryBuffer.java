@@ -0,0 +1,39 @@
+package com.prashant.memory;
+
+import com.prashant.exception.DMBufferOverFlowException;
+import com.prashant.exception.DMFrameLimitExcededException;
+
+/**
+ * Implemented by memory buffers whose block metadata lives off heap, so a
+ * block can be stored and found again without a <code>Pointer</code>, by a
+ * handle, see <code>Handles</code>.
+ */
+public interface HandleMemoryBuffer extends MemoryBuffer {
+
+	/**
+	 * Stores the payload without creating a <code>Pointer</code>.
+	 * 
+	 * @param payload
+	 *            to be stored as byte array.
+	 * 
+	 * @return handle encoding the segment, offset and length of the block, see
+	 *         <code>Handles</code>
+	 * @throws DMBufferOverFlowException
+	 */
+	public abstract long storeHandle(byte[] payload) throws DMBufferOverFlowException;
+
+	/**
+	 * Retrieves the bytes of the block identified by a handle.
+	 * 
+	 * @throws DMFrameLimitExcededException
+	 */
+	public abstract byte[] retrieve(long handle) throws DMFrameLimitExcededException;
+
+	/**
+	 * Releases the block identified by a handle and reduces the total
+	 * <code>used</code> bytes.
+	 * 
+	 * @return bytes removed
+	 */
+	public abstract long free(long handle);
+}
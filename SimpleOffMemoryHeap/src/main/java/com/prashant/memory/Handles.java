@@ -0,0 +1,45 @@
+package com.prashant.memory;
+
+/**
+ * Packs the location of a block into a primitive <code>long</code>, the compact alternative to a <code>Pointer</code>.
+ * <p>
+ * From the most significant bit down a handle holds the segment (the <code>bufferNumber</code> of the buffer the block belongs to) in 8 bits,
+ * the offset of the block in 31 bits and the payload length in 25 bits. A handle costs nothing on heap, so keeping millions of them in a
+ * <code>long[]</code> or an off-heap index does not grow the work of the garbage collector.
+ * </p>
+ */
+public final class Handles {
+
+    public static final int SEGMENT_BITS = 8;
+    public static final int OFFSET_BITS = 31;
+    public static final int LENGTH_BITS = 25;
+
+    public static final int MAX_SEGMENT = (1 << SEGMENT_BITS) - 1;
+    public static final int MAX_LENGTH = (1 << LENGTH_BITS) - 1;
+
+    private Handles() {
+    }
+
+    /**
+     * @throws IllegalArgumentException
+     *             when a field does not fit in its bits
+     */
+    public static long encode(int segment, int offset, int length) {
+        if (segment < 0 || segment > MAX_SEGMENT || offset < 0 || length < 0 || length > MAX_LENGTH) {
+            throw new IllegalArgumentException("Can not encode segment:" + segment + " offset:" + offset + " length:" + length);
+        }
+        return ((long) segment << (OFFSET_BITS + LENGTH_BITS)) | ((long) offset << LENGTH_BITS) | length;
+    }
+
+    public static int segment(long handle) {
+        return (int) (handle >>> (OFFSET_BITS + LENGTH_BITS));
+    }
+
+    public static int offset(long handle) {
+        return (int) (handle >>> LENGTH_BITS) & Integer.MAX_VALUE;
+    }
+
+    public static int length(long handle) {
+        return (int) handle & MAX_LENGTH;
+    }
+}
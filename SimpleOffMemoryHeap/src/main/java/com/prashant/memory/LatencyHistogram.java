@@ -0,0 +1,94 @@
+package com.prashant.memory;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of durations in nanoseconds with a bounded relative error, in the spirit of HdrHistogram.
+ * <p>
+ * Values below 16 get a bucket each, above that every power of two is split in 8 linear buckets, so a recorded value is known within
+ * 12.5% whatever its magnitude, with a fixed 488 buckets covering all of <code>long</code>. Recording is an index computation and an
+ * atomic increment, never a lock nor an allocation.
+ * </p>
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 3;
+    private static final int LINEAR = 2 << SUB_BITS;
+    static final int BUCKETS = ((62 - SUB_BITS) << SUB_BITS) + LINEAR;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+
+    static int bucket(long value) {
+        if (value < LINEAR) {
+            return (int) Math.max(0, value);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        return ((exponent - SUB_BITS) << SUB_BITS) + (int) (value >>> (exponent - SUB_BITS));
+    }
+
+    /**
+     * @return smallest value falling in the bucket
+     */
+    static long lowest(int bucket) {
+        if (bucket < LINEAR) {
+            return bucket;
+        }
+        int exponent = (bucket >>> SUB_BITS) + SUB_BITS - 1;
+        return (long) ((bucket & ((1 << SUB_BITS) - 1)) | (1 << SUB_BITS)) << (exponent - SUB_BITS);
+    }
+
+    public void record(long nanos) {
+        counts.incrementAndGet(bucket(nanos));
+        total.add(nanos);
+    }
+
+    /**
+     * @return Number of values recorded
+     */
+    public long count() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * @return Sum of the values recorded
+     */
+    public long total() {
+        return total.sum();
+    }
+
+    /**
+     * @param percentile
+     *            between 0 and 100
+     * @return lowest value of the bucket holding the percentile, 0 when nothing was recorded
+     */
+    public long percentile(double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        long rank = (long) Math.ceil(count * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= Math.max(1, rank)) {
+                return lowest(i);
+            }
+        }
+        return 0;
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        total.reset();
+    }
+}
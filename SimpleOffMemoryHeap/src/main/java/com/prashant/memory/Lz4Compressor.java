@@ -0,0 +1,187 @@
+package com.prashant.memory;
+
+import java.util.Arrays;
+
+/**
+ * Compressor writing the LZ4 block format, fast enough to compress on every store and faster still to decompress.
+ * <p>
+ * A block is a run of sequences, each a token byte holding a literal length and a match length of 4 bits each, the literals, a 2 byte little
+ * endian offset back to the match and longer lengths continued in extra bytes of 255. Matches are found through a hash table of the last
+ * position of every 4 byte sequence, one table per thread. The block ends with literals only, as the format requires.
+ * </p>
+ * 
+ * @see <a href="https://github.com/lz4/lz4/blob/dev/doc/lz4_Block_format.md">LZ4 Block Format</a>
+ */
+public class Lz4Compressor implements Compressor {
+
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_OFFSET = 65535;
+    /** The last match starts at least this many bytes before the end. */
+    private static final int MF_LIMIT = 12;
+    /** The last bytes are always literals. */
+    private static final int LAST_LITERALS = 5;
+    private static final int HASH_BITS = 12;
+    /** Misses after which the search steps over more than one byte, so incompressible payloads are skipped quickly. */
+    private static final int SKIP_TRIGGER = 6;
+
+    private static final ThreadLocal<int[]> TABLES = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[1 << HASH_BITS];
+        }
+    };
+
+    private static int readInt(byte[] src, int i) {
+        return (src[i] & 0xFF) | (src[i + 1] & 0xFF) << 8 | (src[i + 2] & 0xFF) << 16 | (src[i + 3] & 0xFF) << 24;
+    }
+
+    private static int hash(int sequence) {
+        return (sequence * -1640531535) >>> (32 - HASH_BITS);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.Compressor#maxCompressedLength(int)
+     */
+    public int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.Compressor#compress(byte[], int, int, byte[], int)
+     */
+    public int compress(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset) {
+        int end = srcOffset + length;
+        int anchor = srcOffset;
+        int d = dstOffset;
+        if (length > MF_LIMIT) {
+            int[] table = TABLES.get();
+            Arrays.fill(table, -1);
+            int matchLimit = end - LAST_LITERALS;
+            int searchLimit = end - MF_LIMIT;
+            int p = srcOffset;
+            int misses = 1 << SKIP_TRIGGER;
+            while (p < searchLimit) {
+                int sequence = readInt(src, p);
+                int h = hash(sequence);
+                int ref = table[h];
+                table[h] = p;
+                if (ref < 0 || p - ref > MAX_OFFSET || readInt(src, ref) != sequence) {
+                    p += misses++ >>> SKIP_TRIGGER;
+                    continue;
+                }
+                misses = 1 << SKIP_TRIGGER;
+                while (p > anchor && ref > srcOffset && src[p - 1] == src[ref - 1]) {
+                    p--;
+                    ref--;
+                }
+                int matchLength = MIN_MATCH;
+                while (p + matchLength < matchLimit && src[p + matchLength] == src[ref + matchLength]) {
+                    matchLength++;
+                }
+                d = sequence(src, anchor, p - anchor, p - ref, matchLength, dst, d);
+                p += matchLength;
+                anchor = p;
+                if (p - 2 < searchLimit) {
+                    table[hash(readInt(src, p - 2))] = p - 2;
+                }
+            }
+        }
+        int literals = end - anchor;
+        int token = d++;
+        dst[token] = (byte) (Math.min(literals, 15) << 4);
+        d = length(literals, dst, d);
+        System.arraycopy(src, anchor, dst, d, literals);
+        return d + literals - dstOffset;
+    }
+
+    private static int sequence(byte[] src, int anchor, int literals, int offset, int matchLength, byte[] dst, int d) {
+        int token = d++;
+        dst[token] = (byte) (Math.min(literals, 15) << 4 | Math.min(matchLength - MIN_MATCH, 15));
+        d = length(literals, dst, d);
+        System.arraycopy(src, anchor, dst, d, literals);
+        d += literals;
+        dst[d++] = (byte) offset;
+        dst[d++] = (byte) (offset >>> 8);
+        return length(matchLength - MIN_MATCH, dst, d);
+    }
+
+    /**
+     * Puts what the 4 bits of a token do not hold of a length.
+     */
+    private static int length(int length, byte[] dst, int d) {
+        if (length >= 15) {
+            int rest = length - 15;
+            for (; rest >= 255; rest -= 255) {
+                dst[d++] = (byte) 255;
+            }
+            dst[d++] = (byte) rest;
+        }
+        return d;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.Compressor#decompress(byte[], int, int, byte[], int, int)
+     */
+    public void decompress(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset, int originalLength) {
+        int s = srcOffset;
+        int srcEnd = srcOffset + length;
+        int d = dstOffset;
+        int dstEnd = dstOffset + originalLength;
+        while (s < srcEnd) {
+            int token = src[s++] & 0xFF;
+            int literals = token >>> 4;
+            if (literals == 15) {
+                int b;
+                do {
+                    check(s < srcEnd);
+                    b = src[s++] & 0xFF;
+                    literals += b;
+                } while (b == 255);
+            }
+            check(literals <= srcEnd - s && literals <= dstEnd - d);
+            System.arraycopy(src, s, dst, d, literals);
+            s += literals;
+            d += literals;
+            if (s == srcEnd) {
+                break;
+            }
+            check(srcEnd - s >= 2);
+            int offset = (src[s] & 0xFF) | (src[s + 1] & 0xFF) << 8;
+            s += 2;
+            int matchLength = token & 15;
+            if (matchLength == 15) {
+                int b;
+                do {
+                    check(s < srcEnd);
+                    b = src[s++] & 0xFF;
+                    matchLength += b;
+                } while (b == 255);
+            }
+            matchLength += MIN_MATCH;
+            int ref = d - offset;
+            check(offset > 0 && ref >= dstOffset && matchLength <= dstEnd - d);
+            if (offset >= matchLength) {
+                System.arraycopy(dst, ref, dst, d, matchLength);
+            } else {
+                // The match overlaps the bytes it produces, a run.
+                for (int i = 0; i < matchLength; i++) {
+                    dst[d + i] = dst[ref + i];
+                }
+            }
+            d += matchLength;
+        }
+        check(d == dstEnd);
+    }
+
+    private static void check(boolean valid) {
+        if (!valid) {
+            throw new IllegalArgumentException("Malformed LZ4 block");
+        }
+    }
+}
@@ -0,0 +1,471 @@
+package com.prashant.memory;
+
+import com.prashant.exception.DMBufferOverFlowException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Memory buffer backed by a memory mapped file, which outlives the process.
+ * <p>
+ * All the block metadata lives in the file. A file header is followed by blocks laid end to end, each with an 8 byte block header holding
+ * the size of its body and either the capacity it was stored with or a free marker. Free blocks also end with their size, so the block
+ * before a freed one is found without a scan, and every block header carries a flag telling whether the block before it is free.
+ * </p>
+ * <p>
+ * Opening an existing file walks the block headers once to rebuild the free list and the used bytes, nothing is copied, the payloads are
+ * paged in by the operating system when they are first read. Stored blocks are found again through {@link #blocks()} or through a root block
+ * recorded in the file header with {@link #setRoot(Pointer)}, typically the index of the application.
+ * </p>
+ * <p>
+ * Writes reach the file whenever the operating system flushes the page cache, {@link #force()} waits for them. A file bigger than physical
+ * memory is fine, only the pages in use stay resident. A single mapping is limited to 2GB, a <code>MemoryPool</code> of mapped segments
+ * goes beyond.
+ * </p>
+ */
+public class MappedMemoryBuffer extends AbstractMemoryBuffer implements FreeSpace {
+    private static final Logger logger = Logger.getAnonymousLogger();
+
+    private static final long MAGIC = 0x534f4d484d415031L; // "SOMHMAP1"
+    private static final int VERSION = 1;
+
+    /** File header: magic, version, capacity and the root block. */
+    static final int FILE_HEADER = 64;
+    private static final int VERSION_OFFSET = 8;
+    private static final int CAPACITY_OFFSET = 12;
+    private static final int ROOT_OFFSET = 16;
+
+    /** Block header: body size with the previous free flag, then the capacity stored or <code>FREE</code>. */
+    static final int BLOCK_HEADER = 8;
+    static final int ALIGNMENT = 8;
+    private static final int PREV_FREE = 1;
+    private static final int FREE = -1;
+    private static final int NONE = -1;
+
+    private final File file;
+    private final RandomAccessFile raf;
+
+    /** Free blocks binned by size, spanning header and body, guarded by <code>allocator</code>. */
+    private final SizeClassFreeList freeBlocks = new SizeClassFreeList();
+
+    /** Free blocks by start offset, to merge neighbours. */
+    private final Map<Integer, Pointer> freeAt = new HashMap<Integer, Pointer>();
+
+    /**
+     * Opens the buffer stored in <code>file</code>, or creates it with the specified capacity when the file does not exist or is empty. An
+     * existing file keeps the capacity it was created with.
+     * 
+     * @throws IOException
+     *             when the file can not be mapped or is not a memory buffer file
+     */
+    public static MappedMemoryBuffer open(File file, int capacity, int bufferNumber) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            boolean existing = raf.length() > 0;
+            if (existing) {
+                if (raf.length() < FILE_HEADER || raf.readLong() != MAGIC) {
+                    throw new IOException(file + " is not a memory buffer file");
+                }
+                if (raf.readInt() != VERSION) {
+                    throw new IOException(file + " was written by an unsupported version");
+                }
+                capacity = raf.readInt();
+                logger.info("Reopening mapped memory buffer " + file + " of capacity :" + capacity + " bufferNumber:" + bufferNumber);
+            } else {
+                if (capacity < FILE_HEADER + BLOCK_HEADER + ALIGNMENT) {
+                    throw new IllegalArgumentException("Capacity of a mapped buffer must be at least " + (FILE_HEADER + BLOCK_HEADER + ALIGNMENT));
+                }
+                capacity &= -ALIGNMENT;
+                raf.setLength(capacity);
+                logger.info("Creating mapped memory buffer " + file + " of capacity :" + capacity + " bufferNumber:" + bufferNumber);
+            }
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            return new MappedMemoryBuffer(file, raf, buffer, existing, bufferNumber);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        } catch (RuntimeException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    private MappedMemoryBuffer(File file, RandomAccessFile raf, MappedByteBuffer buffer, boolean existing, int bufferNumber) {
+        super(buffer, bufferNumber);
+        this.file = file;
+        this.raf = raf;
+        allocator.lock();
+        try {
+            if (existing) {
+                recover();
+            } else {
+                format();
+            }
+        } finally {
+            allocator.unlock();
+        }
+    }
+
+    /**
+     * Writes a fresh file header and a single free block over the rest of the file.
+     */
+    private void format() {
+        buffer.putLong(0, MAGIC);
+        buffer.putInt(VERSION_OFFSET, VERSION);
+        buffer.putInt(CAPACITY_OFFSET, buffer.capacity());
+        buffer.putInt(ROOT_OFFSET, NONE);
+        freeBlocks.clear();
+        freeAt.clear();
+        used.set(0);
+        addFree(FILE_HEADER, buffer.capacity() - FILE_HEADER - BLOCK_HEADER, false);
+    }
+
+    /**
+     * Rebuilds the free list and the used bytes from the block headers, merging free neighbours. A header that does not make sense, as left
+     * by a crash half way through a write, ends the walk and everything after it is given up as free.
+     */
+    private void recover() {
+        int live = 0;
+        long usedBytes = 0;
+        int freeStart = NONE;
+        int block = FILE_HEADER;
+        while (block < buffer.capacity()) {
+            int size = bodySize(block);
+            int state = buffer.getInt(block + 4);
+            if (size < ALIGNMENT || size % ALIGNMENT != 0 || (long) block + BLOCK_HEADER + size > buffer.capacity() || state < FREE || state > size) {
+                logger.warning("Corrupt block header at " + block + " in " + file + ", dropping the rest of the file");
+                if (freeStart == NONE) {
+                    freeStart = block;
+                }
+                block = buffer.capacity();
+                break;
+            }
+            if (state == FREE) {
+                if (freeStart == NONE) {
+                    freeStart = block;
+                }
+            } else {
+                if (freeStart != NONE) {
+                    addFree(freeStart, block - freeStart - BLOCK_HEADER, false);
+                    freeStart = NONE;
+                } else {
+                    setPrevFree(block, false);
+                }
+                live++;
+                usedBytes += state;
+            }
+            block = next(block);
+        }
+        if (freeStart != NONE) {
+            addFree(freeStart, block - freeStart - BLOCK_HEADER, false);
+        }
+        used.set((int) usedBytes);
+        logger.info("Recovered " + live + " blocks, " + usedBytes + " bytes used, from " + file);
+    }
+
+    private int bodySize(int block) {
+        return buffer.getInt(block) & ~PREV_FREE;
+    }
+
+    private int next(int block) {
+        return block + BLOCK_HEADER + bodySize(block);
+    }
+
+    private boolean isPrevFree(int block) {
+        return block != FILE_HEADER && (buffer.getInt(block) & PREV_FREE) != 0;
+    }
+
+    private void setPrevFree(int block, boolean prevFree) {
+        if (block < buffer.capacity()) {
+            buffer.putInt(block, bodySize(block) | (prevFree ? PREV_FREE : 0));
+        }
+    }
+
+    /**
+     * Writes the headers of a free block, tells the next block about it and indexes it.
+     */
+    private void addFree(int block, int size, boolean prevFree) {
+        buffer.putInt(block, size | (prevFree ? PREV_FREE : 0));
+        buffer.putInt(block + 4, FREE);
+        buffer.putInt(block + BLOCK_HEADER + size - 4, size);
+        setPrevFree(block + BLOCK_HEADER + size, true);
+        Pointer pointer = new Pointer();
+        pointer.setStart(block);
+        pointer.setEnd(block + BLOCK_HEADER + size - 1);
+        pointer.setFree(true);
+        freeBlocks.add(pointer);
+        freeAt.put(block, pointer);
+    }
+
+    private void removeFree(int block) {
+        freeBlocks.remove(freeAt.remove(block));
+    }
+
+    private static int bodyFor(int capacity) {
+        return Math.max(ALIGNMENT, (capacity + ALIGNMENT - 1) & -ALIGNMENT);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.AbstractMemoryBuffer#allocate(int)
+     */
+    protected Pointer allocate(int capacity) throws DMBufferOverFlowException {
+        int block;
+        long waitStart = lockWaitStart();
+        allocator.lock();
+        try {
+            lockAcquired(waitStart);
+            int body = capacity < 0 || capacity > buffer.capacity() ? NONE : bodyFor(capacity);
+            Pointer free = body == NONE ? null : freeBlocks.take(BLOCK_HEADER + body - 1);
+            if (free == null) {
+                throw new DMBufferOverFlowException("did not find a suitable buffer", null);
+            }
+            block = free.getStart();
+            freeAt.remove(block);
+            boolean prevFree = isPrevFree(block);
+            int available = free.getEnd() - block + 1 - BLOCK_HEADER;
+            if (available - body >= BLOCK_HEADER + ALIGNMENT) {
+                // Write the remainder first, a crash in between leaves a free block that is merely too large.
+                addFree(block + BLOCK_HEADER + body, available - body - BLOCK_HEADER, false);
+            } else {
+                body = available;
+                setPrevFree(block + BLOCK_HEADER + body, false);
+            }
+            buffer.putInt(block, body | (prevFree ? PREV_FREE : 0));
+            buffer.putInt(block + 4, capacity);
+        } finally {
+            allocator.unlock();
+        }
+        return pointerTo(block, capacity);
+    }
+
+    private Pointer pointerTo(int block, int capacity) {
+        Pointer pointer = new Pointer();
+        pointer.setBlockNumber(bufferNumber);
+        pointer.setStart(block + BLOCK_HEADER);
+        pointer.setEnd(block + BLOCK_HEADER + capacity);
+        pointer.setFree(false);
+        return pointer;
+    }
+
+    /**
+     * Marks the block free in the file before retiring it, so it is free as soon as the free returns and a reopened buffer does not bring it
+     * back. Only putting it back in the free list waits for the reads in flight. The block header decides whether the block is live, so a
+     * block freed through another <code>Pointer</code> to it, as returned by {@link #blocks()}, is not freed twice.
+     * 
+     * @see com.prashant.memory.AbstractMemoryBuffer#free(com.prashant.memory.Pointer)
+     */
+    public long free(Pointer pointer2free) {
+        int block = pointer2free.getStart() - BLOCK_HEADER;
+        long waitStart = lockWaitStart();
+        allocator.lock();
+        try {
+            lockAcquired(waitStart);
+            if (pointer2free.isFree() || pointer2free.isRetired() || buffer.getInt(block + 4) == FREE) {
+                return 0;
+            }
+            buffer.putInt(block + 4, FREE);
+            if (buffer.getInt(ROOT_OFFSET) == block) {
+                buffer.putInt(ROOT_OFFSET, NONE);
+            }
+        } finally {
+            allocator.unlock();
+        }
+        return epochs.retire(pointer2free);
+    }
+
+    /**
+     * Each block is marked free in the file, and retired, one by one.
+     * 
+     * @see com.prashant.memory.AbstractMemoryBuffer#freeAll(java.util.Collection)
+     */
+    public long freeAll(Collection<Pointer> pointers) {
+        long freed = 0;
+        for (Pointer pointer : pointers) {
+            freed += free(pointer);
+        }
+        return freed;
+    }
+
+    /**
+     * Puts a block already marked free in the file back in the free list, merged with its free neighbours. A neighbour only counts as free
+     * once it is in the free list itself, a retired one may still be read.
+     * 
+     * @see com.prashant.memory.AbstractMemoryBuffer#release(com.prashant.memory.Pointer)
+     */
+    protected long release(Pointer pointer2free) {
+        int block = pointer2free.getStart() - BLOCK_HEADER;
+        long freed;
+        long waitStart = lockWaitStart();
+        allocator.lock();
+        try {
+            lockAcquired(waitStart);
+            if (pointer2free.isFree()) {
+                return 0;
+            }
+            pointer2free.setFree(true);
+            pointer2free.setClazz(null);
+            freed = pointer2free.getEnd() - pointer2free.getStart();
+            used.addAndGet((int) -freed);
+
+            int start = block;
+            int end = next(block);
+            boolean prevFree = isPrevFree(block);
+            if (prevFree) {
+                start = block - BLOCK_HEADER - buffer.getInt(block - 4);
+                prevFree = isPrevFree(start);
+                removeFree(start);
+            }
+            if (freeAt.containsKey(end)) {
+                int after = next(end);
+                removeFree(end);
+                end = after;
+            }
+            addFree(start, end - start - BLOCK_HEADER, prevFree);
+        } finally {
+            allocator.unlock();
+        }
+        return freed;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.FreeSpace#freeBlockCount()
+     */
+    public int freeBlockCount() {
+        allocator.lock();
+        try {
+            return freeBlocks.count();
+        } finally {
+            allocator.unlock();
+        }
+    }
+
+    /**
+     * @return Bytes a store can take from the largest free block, without its block header
+     * @see com.prashant.memory.FreeSpace#largestFreeBlock()
+     */
+    public int largestFreeBlock() {
+        allocator.lock();
+        try {
+            return Math.max(0, freeBlocks.largestSpan() + 1 - BLOCK_HEADER);
+        } finally {
+            allocator.unlock();
+        }
+    }
+
+    /**
+     * Block headers count as free space here, so a single free block gives zero.
+     * 
+     * @see com.prashant.memory.FreeSpace#fragmentation()
+     */
+    public double fragmentation() {
+        allocator.lock();
+        try {
+            long free = freeBlocks.freeBytes();
+            if (free == 0) {
+                return 0;
+            }
+            return 1 - (freeBlocks.largestSpan() + 1) / (double) free;
+        } finally {
+            allocator.unlock();
+        }
+    }
+
+    /**
+     * @return every block stored in the file, in address order, including the ones stored before it was reopened
+     */
+    public List<Pointer> blocks() {
+        List<Pointer> blocks = new ArrayList<Pointer>();
+        allocator.lock();
+        try {
+            for (int block = FILE_HEADER; block < buffer.capacity(); block = next(block)) {
+                int state = buffer.getInt(block + 4);
+                if (state != FREE) {
+                    blocks.add(pointerTo(block, state));
+                }
+            }
+        } finally {
+            allocator.unlock();
+        }
+        return blocks;
+    }
+
+    /**
+     * Records a block in the file header, to be found again with {@link #getRoot()} after the file is reopened. Freeing the block clears the
+     * root.
+     * 
+     * @param pointer
+     *            a block of this buffer, or null to clear the root
+     */
+    public void setRoot(Pointer pointer) {
+        allocator.lock();
+        try {
+            buffer.putInt(ROOT_OFFSET, pointer == null ? NONE : pointer.getStart() - BLOCK_HEADER);
+        } finally {
+            allocator.unlock();
+        }
+    }
+
+    /**
+     * @return the block recorded by {@link #setRoot(Pointer)}, or null
+     */
+    public Pointer getRoot() {
+        allocator.lock();
+        try {
+            int block = buffer.getInt(ROOT_OFFSET);
+            return block == NONE ? null : pointerTo(block, buffer.getInt(block + 4));
+        } finally {
+            allocator.unlock();
+        }
+    }
+
+    /**
+     * Waits until all the changes are written to the file.
+     */
+    public void force() {
+        ((MappedByteBuffer) buffer).force();
+    }
+
+    /**
+     * Forces the changes to the file and closes it. The mapping itself is only released once the buffer is garbage collected, it must not be
+     * used any more.
+     */
+    public void close() throws IOException {
+        force();
+        raf.close();
+    }
+
+    /**
+     * @return the file backing this buffer
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#clear()
+     */
+    public void clear() {
+        epochs.discard();
+        allocator.lock();
+        try {
+            format();
+        } finally {
+            allocator.unlock();
+        }
+    }
+}
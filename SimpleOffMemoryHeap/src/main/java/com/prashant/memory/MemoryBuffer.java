@@ -3,6 +3,13 @@ package com.prashant.memory;
 import com.prashant.exception.DMBufferOverFlowException;
 import com.prashant.exception.DMFrameLimitExcededException;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collection;
+
 public interface MemoryBuffer {
 
 	/**
@@ -29,6 +36,80 @@ public interface MemoryBuffer {
 	 */
 	public abstract byte[] retrieve(Pointer pointer) throws DMFrameLimitExcededException;
 
+	/**
+	 * Copies <code>len</code> bytes at <code>offset</code> within the block
+	 * into the caller's array, without allocating.
+	 * 
+	 * @throws DMFrameLimitExcededException
+	 */
+	public abstract void retrieve(Pointer pointer, int offset, byte[] dst, int dstOffset, int len) throws DMFrameLimitExcededException;
+
+	/**
+	 * Copies bytes at <code>offset</code> within the block into the
+	 * remaining space of the caller's buffer, without allocating.
+	 * 
+	 * @throws DMFrameLimitExcededException
+	 */
+	public abstract void retrieve(Pointer pointer, int offset, ByteBuffer dst) throws DMFrameLimitExcededException;
+
+	/**
+	 * Read only view of the bytes pointed to by <code>Pointer</code>, nothing
+	 * is copied. The view is valid until the pointer is freed.
+	 */
+	public abstract ByteBuffer view(Pointer pointer);
+
+	/**
+	 * @return byte at <code>offset</code> within the block
+	 * @throws DMFrameLimitExcededException
+	 */
+	public abstract byte getByte(Pointer pointer, int offset) throws DMFrameLimitExcededException;
+
+	/**
+	 * @return short at <code>offset</code> within the block, big endian
+	 * @throws DMFrameLimitExcededException
+	 */
+	public abstract short getShort(Pointer pointer, int offset) throws DMFrameLimitExcededException;
+
+	/**
+	 * @return int at <code>offset</code> within the block, big endian
+	 * @throws DMFrameLimitExcededException
+	 */
+	public abstract int getInt(Pointer pointer, int offset) throws DMFrameLimitExcededException;
+
+	/**
+	 * @return long at <code>offset</code> within the block, big endian
+	 * @throws DMFrameLimitExcededException
+	 */
+	public abstract long getLong(Pointer pointer, int offset) throws DMFrameLimitExcededException;
+
+	/**
+	 * Writes a byte at <code>offset</code> within the block.
+	 * 
+	 * @throws DMFrameLimitExcededException
+	 */
+	public abstract void putByte(Pointer pointer, int offset, byte value) throws DMFrameLimitExcededException;
+
+	/**
+	 * Writes a short at <code>offset</code> within the block, big endian.
+	 * 
+	 * @throws DMFrameLimitExcededException
+	 */
+	public abstract void putShort(Pointer pointer, int offset, short value) throws DMFrameLimitExcededException;
+
+	/**
+	 * Writes a int at <code>offset</code> within the block, big endian.
+	 * 
+	 * @throws DMFrameLimitExcededException
+	 */
+	public abstract void putInt(Pointer pointer, int offset, int value) throws DMFrameLimitExcededException;
+
+	/**
+	 * Writes a long at <code>offset</code> within the block, big endian.
+	 * 
+	 * @throws DMFrameLimitExcededException
+	 */
+	public abstract void putLong(Pointer pointer, int offset, long value) throws DMFrameLimitExcededException;
+
 	/**
 	 * Marks the pointer as free and reduces the total <code>used</code> bytes.
 	 * 
@@ -47,12 +128,30 @@ public interface MemoryBuffer {
 	/**
 	 * @param payload
 	 *            to be stored as byte array.
+	 * @param capacity
+	 *            bytes reserved for the block, counted as used, and kept
+	 *            when the block is updated with a smaller payload later
 	 * 
 	 * @return The <code>Pointer</code> object which points to stored bytes.
 	 * @throws DMBufferOverFlowException
 	 */
 	public abstract Pointer store(byte[] payload, int capacity) throws DMBufferOverFlowException;
 
+	/**
+	 * Same as {@link #store(byte[], int)}, with the block starting at an
+	 * address that is a multiple of <code>alignment</code>, so records
+	 * updated by different threads do not share a cache line, or a page.
+	 * 
+	 * @param alignment
+	 *            a power of two, 1 for no alignment
+	 * @return The <code>Pointer</code> object which points to stored bytes.
+	 * @throws DMBufferOverFlowException
+	 * @throws IllegalArgumentException
+	 *             when the alignment is not a power of two or larger than
+	 *             the implementation can align blocks to
+	 */
+	public abstract Pointer store(byte[] payload, int capacity, int alignment) throws DMBufferOverFlowException;
+
 	/**
 	 * @param payload
 	 *            to be stored as byte array.
@@ -62,6 +161,89 @@ public interface MemoryBuffer {
 	 */
 	public abstract Pointer store(byte[] payload) throws DMBufferOverFlowException;
 
+	/**
+	 * Stores the value with the codec registered for its class in
+	 * <code>OffHeapCodecs</code>, which writes it straight into the buffer.
+	 * 
+	 * @return The <code>Pointer</code> object which points to stored bytes,
+	 *         with the class of the value as its <code>clazz</code>.
+	 * @throws DMBufferOverFlowException
+	 * @throws IllegalArgumentException
+	 *             when no codec is registered for the class
+	 */
+	public abstract <T> Pointer store(T value) throws DMBufferOverFlowException;
+
+	/**
+	 * Reads back a value stored with {@link #store(Object)}, with the codec of
+	 * the <code>clazz</code> of the pointer.
+	 * 
+	 * @throws DMFrameLimitExcededException
+	 * @throws IllegalArgumentException
+	 *             when the pointer records no class or no codec is registered
+	 *             for it
+	 */
+	public abstract <T> T load(Pointer pointer) throws DMFrameLimitExcededException;
+
+	/**
+	 * Stores <code>length</code> bytes read from the channel straight into
+	 * the buffer, without copying them on heap.
+	 * 
+	 * @return The <code>Pointer</code> object which points to stored bytes.
+	 * @throws DMBufferOverFlowException
+	 *             when there is no room, nothing is read then
+	 * @throws java.io.EOFException
+	 *             when the channel ends before <code>length</code> bytes,
+	 *             nothing is stored then
+	 * @throws IOException
+	 */
+	public abstract Pointer store(ReadableByteChannel src, long length) throws DMBufferOverFlowException, IOException;
+
+	/**
+	 * Stores <code>length</code> bytes read from the stream, which are copied
+	 * through a small buffer rather than as a whole.
+	 * 
+	 * @see #store(ReadableByteChannel, long)
+	 */
+	public abstract Pointer store(InputStream src, long length) throws DMBufferOverFlowException, IOException;
+
+	/**
+	 * Writes the bytes pointed to by <code>Pointer</code> to the channel
+	 * straight from the buffer, without copying them on heap. A non blocking
+	 * channel is written to until it took all the bytes.
+	 * 
+	 * @return bytes written
+	 * @throws IOException
+	 */
+	public abstract long transferTo(Pointer pointer, WritableByteChannel target) throws IOException;
+
+	/**
+	 * Stores all the payloads at once, or none of them.
+	 * 
+	 * @return the <code>Pointer</code>s to the stored bytes, in the order of
+	 *         the payloads
+	 * @throws DMBufferOverFlowException
+	 *             when they do not all fit, nothing is stored then
+	 */
+	public abstract Pointer[] storeAll(byte[][] payloads) throws DMBufferOverFlowException;
+
+	/**
+	 * Frees all the pointers at once.
+	 * 
+	 * @return bytes removed
+	 */
+	public abstract long freeAll(Collection<Pointer> pointers);
+
+	/**
+	 * Copies the bytes pointed to by each <code>Pointer</code>, one after the
+	 * other, into the remaining space of the caller's buffer.
+	 * 
+	 * @throws DMFrameLimitExcededException
+	 * @throws java.nio.BufferOverflowException
+	 *             when they do not all fit in <code>dst</code>, nothing is
+	 *             copied then
+	 */
+	public abstract void retrieveAll(Pointer[] pointers, ByteBuffer dst) throws DMFrameLimitExcededException;
+
 	/**
 	 * Faster
 	 * 
@@ -70,8 +252,12 @@ public interface MemoryBuffer {
 	public abstract void update(Pointer pointer, byte[] payload, int offset) throws DMFrameLimitExcededException;
 
 	/**
-	 * Costly operation
+	 * Replaces the bytes of the block with the payload. The block is resized
+	 * where it is whenever it can be, shrunk or grown into the free space
+	 * right after it, never below the capacity it was stored with. Otherwise
+	 * it is freed and the payload stored anew, which is costly.
 	 * 
+	 * @return the same <code>Pointer</code>, unless the block had to move
 	 * @throws DMBufferOverFlowException
 	 */
 	public abstract Pointer update(Pointer pointer, byte[] payload) throws DMBufferOverFlowException;
@@ -0,0 +1,95 @@
+package com.prashant.memory;
+
+/**
+ * Management interface of a <code>MeteredMemoryBuffer</code>, registered with the platform MBean server by
+ * {@link MeteredMemoryBuffer#register(String)}.
+ */
+public interface MemoryBufferMXBean {
+
+	public abstract int getUsed();
+
+	public abstract int getCapacity();
+
+	public abstract long getStores();
+
+	public abstract long getRetrieves();
+
+	public abstract long getFrees();
+
+	public abstract long getUpdates();
+
+	/**
+	 * @return Number of stores that failed for lack of space
+	 */
+	public abstract long getOverflows();
+
+	public abstract long getStoredBytes();
+
+	public abstract long getFreedBytes();
+
+	/**
+	 * @return Number of free blocks, -1 when the buffer does not report it
+	 */
+	public abstract int getFreeBlockCount();
+
+	/**
+	 * @return Bytes of the largest free block, -1 when the buffer does not
+	 *         report it
+	 */
+	public abstract int getLargestFreeBlock();
+
+	/**
+	 * @return see {@link FreeSpace#fragmentation()}, -1 when the buffer does
+	 *         not report it
+	 */
+	public abstract double getFragmentation();
+
+	/**
+	 * @return Number of times the allocator lock was taken
+	 */
+	public abstract long getLockWaits();
+
+	/**
+	 * @return Total time spent waiting for the allocator lock
+	 */
+	public abstract long getLockWaitNanos();
+
+	/**
+	 * @return 50th, 99th and 99.9th percentiles of the store latency
+	 */
+	public abstract long[] getStoreLatencyNanos();
+
+	/**
+	 * @return 50th, 99th and 99.9th percentiles of the retrieve latency
+	 */
+	public abstract long[] getRetrieveLatencyNanos();
+
+	/**
+	 * @return 50th, 99th and 99.9th percentiles of the free latency
+	 */
+	public abstract long[] getFreeLatencyNanos();
+
+	/**
+	 * @return 50th, 99th and 99.9th percentiles of the update latency
+	 */
+	public abstract long[] getUpdateLatencyNanos();
+
+	/**
+	 * @return Number of stores by payload size, element <code>i</code>
+	 *         counting sizes below <code>2^i</code> and at least
+	 *         <code>2^(i-1)</code>
+	 */
+	public abstract long[] getSizeDistribution();
+
+	public abstract boolean isEnabled();
+
+	/**
+	 * Turns recording on or off, the buffer works the same either way.
+	 */
+	public abstract void setEnabled(boolean enabled);
+
+	/**
+	 * Sets all the counters and histograms back to zero.
+	 */
+	public abstract void reset();
+}
@@ -0,0 +1,144 @@
+package com.prashant.memory;
+
+import java.util.Arrays;
+
+/**
+ * Point in time copy of the metrics of a <code>MeteredMemoryBuffer</code>, see {@link MeteredMemoryBuffer#snapshot()}. The attributes
+ * have the meaning given in <code>MemoryBufferMXBean</code>.
+ */
+public class MemoryBufferStats {
+    private final long timestamp;
+    private final int used;
+    private final int capacity;
+    private final long stores;
+    private final long retrieves;
+    private final long frees;
+    private final long updates;
+    private final long overflows;
+    private final long storedBytes;
+    private final long freedBytes;
+    private final int freeBlockCount;
+    private final int largestFreeBlock;
+    private final double fragmentation;
+    private final long lockWaits;
+    private final long lockWaitNanos;
+    private final long[] storeLatencyNanos;
+    private final long[] retrieveLatencyNanos;
+    private final long[] freeLatencyNanos;
+    private final long[] updateLatencyNanos;
+    private final long[] sizeDistribution;
+
+    MemoryBufferStats(MemoryBufferMXBean metrics) {
+        this.timestamp = System.currentTimeMillis();
+        this.used = metrics.getUsed();
+        this.capacity = metrics.getCapacity();
+        this.stores = metrics.getStores();
+        this.retrieves = metrics.getRetrieves();
+        this.frees = metrics.getFrees();
+        this.updates = metrics.getUpdates();
+        this.overflows = metrics.getOverflows();
+        this.storedBytes = metrics.getStoredBytes();
+        this.freedBytes = metrics.getFreedBytes();
+        this.freeBlockCount = metrics.getFreeBlockCount();
+        this.largestFreeBlock = metrics.getLargestFreeBlock();
+        this.fragmentation = metrics.getFragmentation();
+        this.lockWaits = metrics.getLockWaits();
+        this.lockWaitNanos = metrics.getLockWaitNanos();
+        this.storeLatencyNanos = metrics.getStoreLatencyNanos();
+        this.retrieveLatencyNanos = metrics.getRetrieveLatencyNanos();
+        this.freeLatencyNanos = metrics.getFreeLatencyNanos();
+        this.updateLatencyNanos = metrics.getUpdateLatencyNanos();
+        this.sizeDistribution = metrics.getSizeDistribution();
+    }
+
+    /**
+     * @return when the snapshot was taken, in milliseconds since the epoch
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public int getUsed() {
+        return used;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getStores() {
+        return stores;
+    }
+
+    public long getRetrieves() {
+        return retrieves;
+    }
+
+    public long getFrees() {
+        return frees;
+    }
+
+    public long getUpdates() {
+        return updates;
+    }
+
+    public long getOverflows() {
+        return overflows;
+    }
+
+    public long getStoredBytes() {
+        return storedBytes;
+    }
+
+    public long getFreedBytes() {
+        return freedBytes;
+    }
+
+    public int getFreeBlockCount() {
+        return freeBlockCount;
+    }
+
+    public int getLargestFreeBlock() {
+        return largestFreeBlock;
+    }
+
+    public double getFragmentation() {
+        return fragmentation;
+    }
+
+    public long getLockWaits() {
+        return lockWaits;
+    }
+
+    public long getLockWaitNanos() {
+        return lockWaitNanos;
+    }
+
+    public long[] getStoreLatencyNanos() {
+        return storeLatencyNanos.clone();
+    }
+
+    public long[] getRetrieveLatencyNanos() {
+        return retrieveLatencyNanos.clone();
+    }
+
+    public long[] getFreeLatencyNanos() {
+        return freeLatencyNanos.clone();
+    }
+
+    public long[] getUpdateLatencyNanos() {
+        return updateLatencyNanos.clone();
+    }
+
+    public long[] getSizeDistribution() {
+        return sizeDistribution.clone();
+    }
+
+    @Override
+    public String toString() {
+        return "MemoryBufferStats [used=" + used + ", capacity=" + capacity + ", stores=" + stores + ", retrieves=" + retrieves + ", frees="
+                + frees + ", updates=" + updates + ", overflows=" + overflows + ", freeBlockCount=" + freeBlockCount + ", largestFreeBlock="
+                + largestFreeBlock + ", fragmentation=" + fragmentation + ", lockWaitNanos=" + lockWaitNanos + ", storeLatencyNanos="
+                + Arrays.toString(storeLatencyNanos) + ", retrieveLatencyNanos=" + Arrays.toString(retrieveLatencyNanos) + "]";
+    }
+}
@@ -0,0 +1,673 @@
+package com.prashant.memory;
+
+import com.prashant.exception.DMBufferOverFlowException;
+import com.prashant.exception.DMFrameLimitExcededException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Logger;
+
+/**
+ * Growable pool of memory buffer segments, to hold more than the 2GB a single <code>ByteBuffer</code> can address.
+ * <p>
+ * Segments are created on demand, up to a configured total limit, and each allocation goes to the best fitting segment, the one with the
+ * least free bytes that still has room for it, so segments fill up one after the other and the emptiest ones get the chance to drain. A
+ * segment left with nothing stored in it is released, except for the first one.
+ * </p>
+ * <p>
+ * The <code>bufferNumber</code> of a segment is its slot in the pool, and it is carried by every <code>Pointer</code> as its
+ * <code>blockNumber</code> and by every handle as its segment, which is how retrieve, update and free find their way back.
+ * </p>
+ * <p>
+ * A pool of segments that are <code>HandleMemoryBuffer</code>s is one as well, and stores by handle into the best fitting segment too.
+ * </p>
+ */
+public class MemoryPool implements MemoryBuffer {
+    private static final Logger logger = Logger.getAnonymousLogger();
+
+    /**
+     * Creates the segments of a pool, all of the same kind.
+     */
+    public interface SegmentFactory {
+        MemoryBuffer create(int capacity, int bufferNumber);
+    }
+
+    public static final SegmentFactory DIRECT = new SegmentFactory() {
+        public MemoryBuffer create(int capacity, int bufferNumber) {
+            return DirectMemoryBuffer.createNew(capacity, bufferNumber);
+        }
+    };
+
+    private final SegmentFactory factory;
+    private final int segmentSize;
+    private final AtomicReferenceArray<MemoryBuffer> segments;
+
+    /** Read locked to use segments, write locked to add or release one. */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private int segmentCount;
+
+    /**
+     * Creates new pool of <code>DirectMemoryBuffer</code> segments of the specified size, holding at most <code>maxBytes</code> in total.
+     * 
+     */
+    public static MemoryPool createNew(int segmentSize, long maxBytes) {
+        return createNew(segmentSize, maxBytes, DIRECT);
+    }
+
+    /**
+     * Creates new pool of segments of the specified size made by the factory, holding at most <code>maxBytes</code> in total.
+     * 
+     */
+    public static MemoryPool createNew(int segmentSize, long maxBytes, SegmentFactory factory) {
+        long maxSegments = Math.min(Handles.MAX_SEGMENT + 1, maxBytes / segmentSize);
+        if (maxSegments < 1) {
+            throw new IllegalArgumentException("The pool limit of " + maxBytes + " bytes can not hold a segment of " + segmentSize);
+        }
+        logger.info("Creating memory pool of segmentSize :" + segmentSize + " segments:" + maxSegments);
+        MemoryBuffer first = factory.create(segmentSize, 0);
+        if (first instanceof HandleMemoryBuffer) {
+            return new WithHandles(segmentSize, (int) maxSegments, factory, first);
+        }
+        return new MemoryPool(segmentSize, (int) maxSegments, factory, first);
+    }
+
+    private MemoryPool(int segmentSize, int maxSegments, SegmentFactory factory, MemoryBuffer first) {
+        this.segmentSize = segmentSize;
+        this.factory = factory;
+        this.segments = new AtomicReferenceArray<MemoryBuffer>(maxSegments);
+        segments.set(0, first);
+        segmentCount = 1;
+    }
+
+    /**
+     * @return Number of segments currently allocated
+     */
+    public int segments() {
+        lock.readLock().lock();
+        try {
+            return segmentCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return Total used bytes across all segments
+     */
+    public long usedBytes() {
+        long total = 0;
+        for (int i = 0; i < segments.length(); i++) {
+            MemoryBuffer segment = segments.get(i);
+            if (segment != null) {
+                total += segment.used();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * @return Total capacity of the segments currently allocated
+     */
+    public long capacityBytes() {
+        long total = 0;
+        for (int i = 0; i < segments.length(); i++) {
+            MemoryBuffer segment = segments.get(i);
+            if (segment != null) {
+                total += segment.capacity();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * @return Total used bytes, saturated at <code>Integer.MAX_VALUE</code>, see {@link #usedBytes()}
+     */
+    public int used() {
+        return (int) Math.min(Integer.MAX_VALUE, usedBytes());
+    }
+
+    /**
+     * @return Total capacity, saturated at <code>Integer.MAX_VALUE</code>, see {@link #capacityBytes()}
+     */
+    public int capacity() {
+        return (int) Math.min(Integer.MAX_VALUE, capacityBytes());
+    }
+
+    MemoryBuffer segment(int bufferNumber) {
+        return segments.get(bufferNumber);
+    }
+
+    MemoryBuffer segment(Pointer pointer) {
+        return segments.get(pointer.getBlockNumber());
+    }
+
+    /**
+     * Finds the segment with the least free bytes that still has room for <code>need</code> bytes, skipping the ones already tried.
+     * 
+     * @return -1 when none is left
+     */
+    private int bestFit(int need, boolean[] tried) {
+        int best = -1;
+        int bestFree = Integer.MAX_VALUE;
+        for (int i = 0; i < segments.length(); i++) {
+            MemoryBuffer segment = segments.get(i);
+            if (segment == null || tried[i]) {
+                continue;
+            }
+            int free = segment.capacity() - segment.used();
+            if (free > need && free < bestFree) {
+                best = i;
+                bestFree = free;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Adds a segment in the first empty slot, unless another thread changed the segments since the caller looked at them.
+     * 
+     * @param seen
+     *            number of segments the caller tried
+     * @return false when the pool is at its limit
+     */
+    private boolean grow(int seen) {
+        lock.writeLock().lock();
+        try {
+            if (segmentCount != seen) {
+                return true;
+            }
+            for (int i = 0; i < segments.length(); i++) {
+                if (segments.get(i) == null) {
+                    segments.set(i, factory.create(segmentSize, i));
+                    segmentCount++;
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Releases a segment once nothing is stored in it any more, the first segment always stays.
+     */
+    void releaseIfEmpty(int bufferNumber) {
+        MemoryBuffer candidate = segments.get(bufferNumber);
+        if (bufferNumber == 0 || candidate == null || candidate.used() != 0) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            MemoryBuffer segment = segments.get(bufferNumber);
+            // Check again, now that no store can be running on it.
+            if (segment != null && segment.used() == 0) {
+                segments.set(bufferNumber, null);
+                segmentCount--;
+                logger.info("Released memory pool segment bufferNumber:" + bufferNumber);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#store(byte[], int)
+     */
+    public Pointer store(byte[] payload, int capacity) throws DMBufferOverFlowException {
+        return place(payload, capacity, 0);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#store(byte[], int, int)
+     */
+    public Pointer store(byte[] payload, int capacity, int alignment) throws DMBufferOverFlowException {
+        if (alignment < 1) {
+            throw new IllegalArgumentException("Alignment must be a power of two, not " + alignment);
+        }
+        return place(payload, capacity, alignment);
+    }
+
+    /**
+     * Stores in the best fitting segment, growing the pool when none has room.
+     * 
+     * @param alignment
+     *            0 for the default alignment of the segments
+     */
+    private Pointer place(byte[] payload, int capacity, int alignment) throws DMBufferOverFlowException {
+        boolean[] tried = new boolean[segments.length()];
+        while (true) {
+            int seen;
+            lock.readLock().lock();
+            try {
+                seen = segmentCount;
+                for (int i = bestFit(capacity, tried); i != -1; i = bestFit(capacity, tried)) {
+                    tried[i] = true;
+                    try {
+                        MemoryBuffer segment = segments.get(i);
+                        return alignment == 0 ? segment.store(payload, capacity) : segment.store(payload, capacity, alignment);
+                    } catch (DMBufferOverFlowException e) {
+                        // Fragmented, try the next best segment.
+                    }
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+            if (!grow(seen)) {
+                throw new DMBufferOverFlowException("did not find a suitable buffer in any of the pool segments", null);
+            }
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#store(byte[])
+     */
+    public Pointer store(byte[] payload) throws DMBufferOverFlowException {
+        return store(payload, payload.length);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#store(java.lang.Object)
+     */
+    public <T> Pointer store(T value) throws DMBufferOverFlowException {
+        OffHeapCodec<T> codec = OffHeapCodecs.codec(value.getClass());
+        int size = codec.size(value);
+        boolean[] tried = new boolean[segments.length()];
+        while (true) {
+            int seen;
+            lock.readLock().lock();
+            try {
+                seen = segmentCount;
+                for (int i = bestFit(size, tried); i != -1; i = bestFit(size, tried)) {
+                    tried[i] = true;
+                    try {
+                        return segments.get(i).store(value);
+                    } catch (DMBufferOverFlowException e) {
+                        // Fragmented, try the next best segment.
+                    }
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+            if (!grow(seen)) {
+                throw new DMBufferOverFlowException("did not find a suitable buffer in any of the pool segments", null);
+            }
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#load(com.prashant.memory.Pointer)
+     */
+    public <T> T load(Pointer pointer) throws DMFrameLimitExcededException {
+        return segment(pointer).load(pointer);
+    }
+
+    /**
+     * A segment only overflows before it reads from the channel, so the next best one can still be tried.
+     * 
+     * @see com.prashant.memory.MemoryBuffer#store(java.nio.channels.ReadableByteChannel, long)
+     */
+    public Pointer store(ReadableByteChannel src, long length) throws DMBufferOverFlowException, IOException {
+        if (length < 0 || length > segmentSize) {
+            throw new DMBufferOverFlowException("An attempt to store more than a pool segment holds", null);
+        }
+        boolean[] tried = new boolean[segments.length()];
+        while (true) {
+            int seen;
+            lock.readLock().lock();
+            try {
+                seen = segmentCount;
+                for (int i = bestFit((int) length, tried); i != -1; i = bestFit((int) length, tried)) {
+                    tried[i] = true;
+                    try {
+                        return segments.get(i).store(src, length);
+                    } catch (DMBufferOverFlowException e) {
+                        // Fragmented, try the next best segment.
+                    }
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+            if (!grow(seen)) {
+                throw new DMBufferOverFlowException("did not find a suitable buffer in any of the pool segments", null);
+            }
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#store(java.io.InputStream, long)
+     */
+    public Pointer store(InputStream src, long length) throws DMBufferOverFlowException, IOException {
+        return store(Channels.newChannel(src), length);
+    }
+
+    /**
+     * Stores one payload after the other, each in its best fitting segment, and frees the ones already stored when one does not fit.
+     * 
+     * @see com.prashant.memory.MemoryBuffer#storeAll(byte[][])
+     */
+    public Pointer[] storeAll(byte[][] payloads) throws DMBufferOverFlowException {
+        Pointer[] pointers = new Pointer[payloads.length];
+        int i = 0;
+        try {
+            for (; i < payloads.length; i++) {
+                pointers[i] = store(payloads[i]);
+            }
+            return pointers;
+        } catch (DMBufferOverFlowException e) {
+            for (int j = 0; j < i; j++) {
+                free(pointers[j]);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Stores by handle in the best fitting segment, growing the pool when none has room. Only called once the segments are known to be
+     * <code>HandleMemoryBuffer</code>s.
+     */
+    long placeHandle(byte[] payload) throws DMBufferOverFlowException {
+        boolean[] tried = new boolean[segments.length()];
+        while (true) {
+            int seen;
+            lock.readLock().lock();
+            try {
+                seen = segmentCount;
+                for (int i = bestFit(payload.length, tried); i != -1; i = bestFit(payload.length, tried)) {
+                    tried[i] = true;
+                    try {
+                        return ((HandleMemoryBuffer) segments.get(i)).storeHandle(payload);
+                    } catch (DMBufferOverFlowException e) {
+                        // Fragmented, try the next best segment.
+                    }
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+            if (!grow(seen)) {
+                throw new DMBufferOverFlowException("did not find a suitable buffer in any of the pool segments", null);
+            }
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#retrieve(com.prashant.memory.Pointer, int, int)
+     */
+    public byte[] retrieve(Pointer pointer, int offset, int len) throws DMFrameLimitExcededException {
+        return segment(pointer).retrieve(pointer, offset, len);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#retrieve(com.prashant.memory.Pointer)
+     */
+    public byte[] retrieve(Pointer pointer) throws DMFrameLimitExcededException {
+        return segment(pointer).retrieve(pointer);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#retrieve(com.prashant.memory.Pointer, int, byte[], int, int)
+     */
+    public void retrieve(Pointer pointer, int offset, byte[] dst, int dstOffset, int len) throws DMFrameLimitExcededException {
+        segment(pointer).retrieve(pointer, offset, dst, dstOffset, len);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#retrieve(com.prashant.memory.Pointer, int, java.nio.ByteBuffer)
+     */
+    public void retrieve(Pointer pointer, int offset, ByteBuffer dst) throws DMFrameLimitExcededException {
+        segment(pointer).retrieve(pointer, offset, dst);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#view(com.prashant.memory.Pointer)
+     */
+    public ByteBuffer view(Pointer pointer) {
+        return segment(pointer).view(pointer);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#getByte(com.prashant.memory.Pointer, int)
+     */
+    public byte getByte(Pointer pointer, int offset) throws DMFrameLimitExcededException {
+        return segment(pointer).getByte(pointer, offset);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#getShort(com.prashant.memory.Pointer, int)
+     */
+    public short getShort(Pointer pointer, int offset) throws DMFrameLimitExcededException {
+        return segment(pointer).getShort(pointer, offset);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#getInt(com.prashant.memory.Pointer, int)
+     */
+    public int getInt(Pointer pointer, int offset) throws DMFrameLimitExcededException {
+        return segment(pointer).getInt(pointer, offset);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#getLong(com.prashant.memory.Pointer, int)
+     */
+    public long getLong(Pointer pointer, int offset) throws DMFrameLimitExcededException {
+        return segment(pointer).getLong(pointer, offset);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#putByte(com.prashant.memory.Pointer, int, byte)
+     */
+    public void putByte(Pointer pointer, int offset, byte value) throws DMFrameLimitExcededException {
+        segment(pointer).putByte(pointer, offset, value);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#putShort(com.prashant.memory.Pointer, int, short)
+     */
+    public void putShort(Pointer pointer, int offset, short value) throws DMFrameLimitExcededException {
+        segment(pointer).putShort(pointer, offset, value);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#putInt(com.prashant.memory.Pointer, int, int)
+     */
+    public void putInt(Pointer pointer, int offset, int value) throws DMFrameLimitExcededException {
+        segment(pointer).putInt(pointer, offset, value);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#putLong(com.prashant.memory.Pointer, int, long)
+     */
+    public void putLong(Pointer pointer, int offset, long value) throws DMFrameLimitExcededException {
+        segment(pointer).putLong(pointer, offset, value);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#retrieveAll(com.prashant.memory.Pointer[], java.nio.ByteBuffer)
+     */
+    public void retrieveAll(Pointer[] pointers, ByteBuffer dst) throws DMFrameLimitExcededException {
+        long total = 0;
+        for (Pointer pointer : pointers) {
+            total += pointer.getEnd() - pointer.getStart();
+        }
+        if (total > dst.remaining()) {
+            throw new BufferOverflowException();
+        }
+        int limit = dst.limit();
+        try {
+            for (Pointer pointer : pointers) {
+                dst.limit(dst.position() + pointer.getEnd() - pointer.getStart());
+                segment(pointer).retrieve(pointer, 0, dst);
+            }
+        } finally {
+            dst.limit(limit);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#transferTo(com.prashant.memory.Pointer, java.nio.channels.WritableByteChannel)
+     */
+    public long transferTo(Pointer pointer, WritableByteChannel target) throws IOException {
+        return segment(pointer).transferTo(pointer, target);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#free(com.prashant.memory.Pointer)
+     */
+    public long free(Pointer pointer2free) {
+        long freed = segment(pointer2free).free(pointer2free);
+        releaseIfEmpty(pointer2free.getBlockNumber());
+        return freed;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#freeAll(java.util.Collection)
+     */
+    public long freeAll(Collection<Pointer> pointers) {
+        long freed = 0;
+        for (Pointer pointer : pointers) {
+            freed += free(pointer);
+        }
+        return freed;
+    }
+
+    /**
+     * Clears the first segment and releases all the others.
+     * 
+     * @see com.prashant.memory.MemoryBuffer#clear()
+     */
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            segments.get(0).clear();
+            for (int i = 1; i < segments.length(); i++) {
+                segments.set(i, null);
+            }
+            segmentCount = 1;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#update(com.prashant.memory.Pointer, byte[], int)
+     */
+    public void update(Pointer pointer, byte[] payload, int offset) throws DMFrameLimitExcededException {
+        segment(pointer).update(pointer, payload, offset);
+    }
+
+    /**
+     * Resized within its segment when possible, otherwise stored in whichever segment fits best.
+     * 
+     * @see com.prashant.memory.MemoryBuffer#update(com.prashant.memory.Pointer, byte[])
+     */
+    public Pointer update(Pointer pointer, byte[] payload) throws DMBufferOverFlowException {
+        try {
+            return segment(pointer).update(pointer, payload);
+        } catch (DMBufferOverFlowException e) {
+            // Freed, but its segment has no room left for the payload.
+            releaseIfEmpty(pointer.getBlockNumber());
+            Pointer fresh = place(payload, Math.max(payload.length, pointer.getReserved()), pointer.getAlignment());
+            fresh.setReserved(pointer.getReserved());
+            return fresh;
+        }
+    }
+
+    /**
+     * Pool of segments that store by handle.
+     */
+    private static final class WithHandles extends MemoryPool implements HandleMemoryBuffer {
+
+        WithHandles(int segmentSize, int maxSegments, SegmentFactory factory, MemoryBuffer first) {
+            super(segmentSize, maxSegments, factory, first);
+        }
+
+        private HandleMemoryBuffer handles(long handle) {
+            return (HandleMemoryBuffer) segment(Handles.segment(handle));
+        }
+
+        /*
+         * (non-Javadoc)
+         * 
+         * @see com.prashant.memory.HandleMemoryBuffer#storeHandle(byte[])
+         */
+        public long storeHandle(byte[] payload) throws DMBufferOverFlowException {
+            return placeHandle(payload);
+        }
+
+        /*
+         * (non-Javadoc)
+         * 
+         * @see com.prashant.memory.HandleMemoryBuffer#retrieve(long)
+         */
+        public byte[] retrieve(long handle) throws DMFrameLimitExcededException {
+            return handles(handle).retrieve(handle);
+        }
+
+        /*
+         * (non-Javadoc)
+         * 
+         * @see com.prashant.memory.HandleMemoryBuffer#free(long)
+         */
+        public long free(long handle) {
+            long freed = handles(handle).free(handle);
+            releaseIfEmpty(Handles.segment(handle));
+            return freed;
+        }
+    }
+}
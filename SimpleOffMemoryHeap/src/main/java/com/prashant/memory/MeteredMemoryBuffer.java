@@ -0,0 +1,748 @@
+package com.prashant.memory;
+
+import com.prashant.exception.DMBufferOverFlowException;
+import com.prashant.exception.DMFrameLimitExcededException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Records metrics of the operations on a memory buffer it wraps.
+ * <p>
+ * Operation counts and bytes go to <code>LongAdder</code>s, latencies of store, retrieve, free and update to
+ * <code>LatencyHistogram</code>s, and the payload sizes of stores to a power of two histogram, so recording neither locks nor allocates.
+ * When the wrapped buffer is an <code>AbstractMemoryBuffer</code> the time its threads wait for the allocator lock is recorded as well, and
+ * when it implements <code>FreeSpace</code> the free blocks are reported. A <code>HandleMemoryBuffer</code> is wrapped in a
+ * {@link WithHandles}, which meters stores, reads and frees by handle like the others.
+ * </p>
+ * <p>
+ * Batch and streaming operations are counted but not timed, their latency says nothing about a single operation or depends on the
+ * channel.
+ * </p>
+ * <p>
+ * Metrics are read through {@link #snapshot()} or through JMX once {@link #register(String)}ed. A buffer that is not wrapped pays nothing,
+ * and a wrapped one stops paying for all but a flag check once recording is turned off with {@link #setEnabled(boolean)}.
+ * </p>
+ */
+public class MeteredMemoryBuffer implements MemoryBuffer, MemoryBufferMXBean {
+
+    private static final double[] PERCENTILES = { 50, 99, 99.9 };
+
+    private final MemoryBuffer delegate;
+    private volatile boolean enabled = true;
+    private ObjectName name;
+
+    private final LongAdder stores = new LongAdder();
+    private final LongAdder retrieves = new LongAdder();
+    private final LongAdder frees = new LongAdder();
+    private final LongAdder updates = new LongAdder();
+    private final LongAdder overflows = new LongAdder();
+    private final LongAdder storedBytes = new LongAdder();
+    private final LongAdder freedBytes = new LongAdder();
+
+    private final LatencyHistogram storeLatency = new LatencyHistogram();
+    private final LatencyHistogram retrieveLatency = new LatencyHistogram();
+    private final LatencyHistogram freeLatency = new LatencyHistogram();
+    private final LatencyHistogram updateLatency = new LatencyHistogram();
+    private final LatencyHistogram lockWaits = new LatencyHistogram();
+    private final AtomicLongArray sizes = new AtomicLongArray(32);
+
+    public MeteredMemoryBuffer(MemoryBuffer delegate) {
+        this.delegate = delegate;
+        attachLockWaits(true);
+    }
+
+    /**
+     * @return the buffer doing the actual work
+     */
+    public MemoryBuffer getDelegate() {
+        return delegate;
+    }
+
+    private void attachLockWaits(boolean attach) {
+        if (delegate instanceof AbstractMemoryBuffer) {
+            ((AbstractMemoryBuffer) delegate).lockWaits = attach ? lockWaits : null;
+        }
+    }
+
+    /**
+     * Registers this buffer with the platform MBean server as <code>com.prashant.memory:type=MemoryBuffer,name=</code><em>name</em>.
+     * 
+     * @throws JMException
+     *             when the name is taken or invalid
+     */
+    public synchronized void register(String name) throws JMException {
+        ObjectName objectName = new ObjectName("com.prashant.memory:type=MemoryBuffer,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        this.name = objectName;
+    }
+
+    /**
+     * Undoes {@link #register(String)}, if it was called.
+     * 
+     * @throws JMException
+     */
+    public synchronized void unregister() throws JMException {
+        if (name != null) {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            name = null;
+        }
+    }
+
+    /**
+     * @return a copy of all the metrics as they are now
+     */
+    public MemoryBufferStats snapshot() {
+        return new MemoryBufferStats(this);
+    }
+
+    private void stored(int length) {
+        stores.increment();
+        storedBytes.add(length);
+        sizes.incrementAndGet(32 - Integer.numberOfLeadingZeros(length));
+    }
+
+    private void freed(long length) {
+        frees.increment();
+        freedBytes.add(length);
+    }
+
+    private static long[] percentiles(LatencyHistogram histogram) {
+        long[] values = new long[PERCENTILES.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = histogram.percentile(PERCENTILES[i]);
+        }
+        return values;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#store(byte[], int)
+     */
+    public Pointer store(byte[] payload, int capacity) throws DMBufferOverFlowException {
+        if (!enabled) {
+            return delegate.store(payload, capacity);
+        }
+        long begin = System.nanoTime();
+        try {
+            Pointer pointer = delegate.store(payload, capacity);
+            stored(payload.length);
+            return pointer;
+        } catch (DMBufferOverFlowException e) {
+            overflows.increment();
+            throw e;
+        } finally {
+            storeLatency.record(System.nanoTime() - begin);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#store(byte[], int, int)
+     */
+    public Pointer store(byte[] payload, int capacity, int alignment) throws DMBufferOverFlowException {
+        if (!enabled) {
+            return delegate.store(payload, capacity, alignment);
+        }
+        long begin = System.nanoTime();
+        try {
+            Pointer pointer = delegate.store(payload, capacity, alignment);
+            stored(payload.length);
+            return pointer;
+        } catch (DMBufferOverFlowException e) {
+            overflows.increment();
+            throw e;
+        } finally {
+            storeLatency.record(System.nanoTime() - begin);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#store(byte[])
+     */
+    public Pointer store(byte[] payload) throws DMBufferOverFlowException {
+        return store(payload, payload.length);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#store(java.lang.Object)
+     */
+    public <T> Pointer store(T value) throws DMBufferOverFlowException {
+        if (!enabled) {
+            return delegate.store(value);
+        }
+        long begin = System.nanoTime();
+        try {
+            Pointer pointer = delegate.store(value);
+            stored(pointer.getEnd() - pointer.getStart());
+            return pointer;
+        } catch (DMBufferOverFlowException e) {
+            overflows.increment();
+            throw e;
+        } finally {
+            storeLatency.record(System.nanoTime() - begin);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#load(com.prashant.memory.Pointer)
+     */
+    public <T> T load(Pointer pointer) throws DMFrameLimitExcededException {
+        if (!enabled) {
+            return delegate.load(pointer);
+        }
+        long begin = System.nanoTime();
+        try {
+            return delegate.load(pointer);
+        } finally {
+            retrieves.increment();
+            retrieveLatency.record(System.nanoTime() - begin);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#store(java.nio.channels.ReadableByteChannel, long)
+     */
+    public Pointer store(ReadableByteChannel src, long length) throws DMBufferOverFlowException, IOException {
+        try {
+            Pointer pointer = delegate.store(src, length);
+            if (enabled) {
+                stored((int) length);
+            }
+            return pointer;
+        } catch (DMBufferOverFlowException e) {
+            if (enabled) {
+                overflows.increment();
+            }
+            throw e;
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#store(java.io.InputStream, long)
+     */
+    public Pointer store(InputStream src, long length) throws DMBufferOverFlowException, IOException {
+        try {
+            Pointer pointer = delegate.store(src, length);
+            if (enabled) {
+                stored((int) length);
+            }
+            return pointer;
+        } catch (DMBufferOverFlowException e) {
+            if (enabled) {
+                overflows.increment();
+            }
+            throw e;
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#transferTo(com.prashant.memory.Pointer, java.nio.channels.WritableByteChannel)
+     */
+    public long transferTo(Pointer pointer, WritableByteChannel target) throws IOException {
+        long written = delegate.transferTo(pointer, target);
+        if (enabled) {
+            retrieves.increment();
+        }
+        return written;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#storeAll(byte[][])
+     */
+    public Pointer[] storeAll(byte[][] payloads) throws DMBufferOverFlowException {
+        if (!enabled) {
+            return delegate.storeAll(payloads);
+        }
+        try {
+            Pointer[] pointers = delegate.storeAll(payloads);
+            for (byte[] payload : payloads) {
+                stored(payload.length);
+            }
+            return pointers;
+        } catch (DMBufferOverFlowException e) {
+            overflows.increment();
+            throw e;
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#freeAll(java.util.Collection)
+     */
+    public long freeAll(Collection<Pointer> pointers) {
+        long freed = delegate.freeAll(pointers);
+        if (enabled) {
+            frees.add(pointers.size());
+            freedBytes.add(freed);
+        }
+        return freed;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#retrieveAll(com.prashant.memory.Pointer[], java.nio.ByteBuffer)
+     */
+    public void retrieveAll(Pointer[] pointers, ByteBuffer dst) throws DMFrameLimitExcededException {
+        delegate.retrieveAll(pointers, dst);
+        if (enabled) {
+            retrieves.add(pointers.length);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#retrieve(com.prashant.memory.Pointer, int, int)
+     */
+    public byte[] retrieve(Pointer pointer, int offset, int len) throws DMFrameLimitExcededException {
+        if (!enabled) {
+            return delegate.retrieve(pointer, offset, len);
+        }
+        long begin = System.nanoTime();
+        try {
+            return delegate.retrieve(pointer, offset, len);
+        } finally {
+            retrieves.increment();
+            retrieveLatency.record(System.nanoTime() - begin);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#retrieve(com.prashant.memory.Pointer)
+     */
+    public byte[] retrieve(Pointer pointer) throws DMFrameLimitExcededException {
+        if (!enabled) {
+            return delegate.retrieve(pointer);
+        }
+        long begin = System.nanoTime();
+        try {
+            return delegate.retrieve(pointer);
+        } finally {
+            retrieves.increment();
+            retrieveLatency.record(System.nanoTime() - begin);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#retrieve(com.prashant.memory.Pointer, int, byte[], int, int)
+     */
+    public void retrieve(Pointer pointer, int offset, byte[] dst, int dstOffset, int len) throws DMFrameLimitExcededException {
+        if (!enabled) {
+            delegate.retrieve(pointer, offset, dst, dstOffset, len);
+            return;
+        }
+        long begin = System.nanoTime();
+        try {
+            delegate.retrieve(pointer, offset, dst, dstOffset, len);
+        } finally {
+            retrieves.increment();
+            retrieveLatency.record(System.nanoTime() - begin);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#retrieve(com.prashant.memory.Pointer, int, java.nio.ByteBuffer)
+     */
+    public void retrieve(Pointer pointer, int offset, ByteBuffer dst) throws DMFrameLimitExcededException {
+        if (!enabled) {
+            delegate.retrieve(pointer, offset, dst);
+            return;
+        }
+        long begin = System.nanoTime();
+        try {
+            delegate.retrieve(pointer, offset, dst);
+        } finally {
+            retrieves.increment();
+            retrieveLatency.record(System.nanoTime() - begin);
+        }
+    }
+
+    /**
+     * Not metered, a view costs next to nothing.
+     * 
+     * @see com.prashant.memory.MemoryBuffer#view(com.prashant.memory.Pointer)
+     */
+    public ByteBuffer view(Pointer pointer) {
+        return delegate.view(pointer);
+    }
+
+    /**
+     * Not metered, timing would cost more than the read.
+     * 
+     * @see com.prashant.memory.MemoryBuffer#getByte(com.prashant.memory.Pointer, int)
+     */
+    public byte getByte(Pointer pointer, int offset) throws DMFrameLimitExcededException {
+        return delegate.getByte(pointer, offset);
+    }
+
+    /**
+     * Not metered, timing would cost more than the read.
+     * 
+     * @see com.prashant.memory.MemoryBuffer#getShort(com.prashant.memory.Pointer, int)
+     */
+    public short getShort(Pointer pointer, int offset) throws DMFrameLimitExcededException {
+        return delegate.getShort(pointer, offset);
+    }
+
+    /**
+     * Not metered, timing would cost more than the read.
+     * 
+     * @see com.prashant.memory.MemoryBuffer#getInt(com.prashant.memory.Pointer, int)
+     */
+    public int getInt(Pointer pointer, int offset) throws DMFrameLimitExcededException {
+        return delegate.getInt(pointer, offset);
+    }
+
+    /**
+     * Not metered, timing would cost more than the read.
+     * 
+     * @see com.prashant.memory.MemoryBuffer#getLong(com.prashant.memory.Pointer, int)
+     */
+    public long getLong(Pointer pointer, int offset) throws DMFrameLimitExcededException {
+        return delegate.getLong(pointer, offset);
+    }
+
+    /**
+     * Not metered, timing would cost more than the write.
+     * 
+     * @see com.prashant.memory.MemoryBuffer#putByte(com.prashant.memory.Pointer, int, byte)
+     */
+    public void putByte(Pointer pointer, int offset, byte value) throws DMFrameLimitExcededException {
+        delegate.putByte(pointer, offset, value);
+    }
+
+    /**
+     * Not metered, timing would cost more than the write.
+     * 
+     * @see com.prashant.memory.MemoryBuffer#putShort(com.prashant.memory.Pointer, int, short)
+     */
+    public void putShort(Pointer pointer, int offset, short value) throws DMFrameLimitExcededException {
+        delegate.putShort(pointer, offset, value);
+    }
+
+    /**
+     * Not metered, timing would cost more than the write.
+     * 
+     * @see com.prashant.memory.MemoryBuffer#putInt(com.prashant.memory.Pointer, int, int)
+     */
+    public void putInt(Pointer pointer, int offset, int value) throws DMFrameLimitExcededException {
+        delegate.putInt(pointer, offset, value);
+    }
+
+    /**
+     * Not metered, timing would cost more than the write.
+     * 
+     * @see com.prashant.memory.MemoryBuffer#putLong(com.prashant.memory.Pointer, int, long)
+     */
+    public void putLong(Pointer pointer, int offset, long value) throws DMFrameLimitExcededException {
+        delegate.putLong(pointer, offset, value);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#free(com.prashant.memory.Pointer)
+     */
+    public long free(Pointer pointer2free) {
+        if (!enabled) {
+            return delegate.free(pointer2free);
+        }
+        long begin = System.nanoTime();
+        long freed = delegate.free(pointer2free);
+        freeLatency.record(System.nanoTime() - begin);
+        freed(freed);
+        return freed;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#update(com.prashant.memory.Pointer, byte[], int)
+     */
+    public void update(Pointer pointer, byte[] payload, int offset) throws DMFrameLimitExcededException {
+        if (!enabled) {
+            delegate.update(pointer, payload, offset);
+            return;
+        }
+        long begin = System.nanoTime();
+        try {
+            delegate.update(pointer, payload, offset);
+        } finally {
+            updates.increment();
+            updateLatency.record(System.nanoTime() - begin);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#update(com.prashant.memory.Pointer, byte[])
+     */
+    public Pointer update(Pointer pointer, byte[] payload) throws DMBufferOverFlowException {
+        if (!enabled) {
+            return delegate.update(pointer, payload);
+        }
+        long begin = System.nanoTime();
+        try {
+            return delegate.update(pointer, payload);
+        } catch (DMBufferOverFlowException e) {
+            overflows.increment();
+            throw e;
+        } finally {
+            updates.increment();
+            updateLatency.record(System.nanoTime() - begin);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#clear()
+     */
+    public void clear() {
+        delegate.clear();
+    }
+
+    public int getUsed() {
+        return delegate.used();
+    }
+
+    public int getCapacity() {
+        return delegate.capacity();
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#used()
+     */
+    public int used() {
+        return delegate.used();
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#capacity()
+     */
+    public int capacity() {
+        return delegate.capacity();
+    }
+
+    public long getStores() {
+        return stores.sum();
+    }
+
+    public long getRetrieves() {
+        return retrieves.sum();
+    }
+
+    public long getFrees() {
+        return frees.sum();
+    }
+
+    public long getUpdates() {
+        return updates.sum();
+    }
+
+    public long getOverflows() {
+        return overflows.sum();
+    }
+
+    public long getStoredBytes() {
+        return storedBytes.sum();
+    }
+
+    public long getFreedBytes() {
+        return freedBytes.sum();
+    }
+
+    public int getFreeBlockCount() {
+        return delegate instanceof FreeSpace ? ((FreeSpace) delegate).freeBlockCount() : -1;
+    }
+
+    public int getLargestFreeBlock() {
+        return delegate instanceof FreeSpace ? ((FreeSpace) delegate).largestFreeBlock() : -1;
+    }
+
+    public double getFragmentation() {
+        return delegate instanceof FreeSpace ? ((FreeSpace) delegate).fragmentation() : -1;
+    }
+
+    public long getLockWaits() {
+        return lockWaits.count();
+    }
+
+    public long getLockWaitNanos() {
+        return lockWaits.total();
+    }
+
+    public long[] getStoreLatencyNanos() {
+        return percentiles(storeLatency);
+    }
+
+    public long[] getRetrieveLatencyNanos() {
+        return percentiles(retrieveLatency);
+    }
+
+    public long[] getFreeLatencyNanos() {
+        return percentiles(freeLatency);
+    }
+
+    public long[] getUpdateLatencyNanos() {
+        return percentiles(updateLatency);
+    }
+
+    public long[] getSizeDistribution() {
+        long[] distribution = new long[sizes.length()];
+        for (int i = 0; i < distribution.length; i++) {
+            distribution[i] = sizes.get(i);
+        }
+        return distribution;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        attachLockWaits(enabled);
+    }
+
+    public void reset() {
+        for (LongAdder adder : new LongAdder[] { stores, retrieves, frees, updates, overflows, storedBytes, freedBytes }) {
+            adder.reset();
+        }
+        for (LatencyHistogram histogram : new LatencyHistogram[] { storeLatency, retrieveLatency, freeLatency, updateLatency, lockWaits }) {
+            histogram.reset();
+        }
+        for (int i = 0; i < sizes.length(); i++) {
+            sizes.set(i, 0);
+        }
+    }
+
+    /**
+     * Metered store by handle, see {@link WithHandles}.
+     */
+    long storeHandle(HandleMemoryBuffer target, byte[] payload) throws DMBufferOverFlowException {
+        if (!enabled) {
+            return target.storeHandle(payload);
+        }
+        long begin = System.nanoTime();
+        try {
+            long handle = target.storeHandle(payload);
+            stored(payload.length);
+            return handle;
+        } catch (DMBufferOverFlowException e) {
+            overflows.increment();
+            throw e;
+        } finally {
+            storeLatency.record(System.nanoTime() - begin);
+        }
+    }
+
+    /**
+     * Metered read by handle, see {@link WithHandles}.
+     */
+    byte[] retrieve(HandleMemoryBuffer target, long handle) throws DMFrameLimitExcededException {
+        if (!enabled) {
+            return target.retrieve(handle);
+        }
+        long begin = System.nanoTime();
+        try {
+            return target.retrieve(handle);
+        } finally {
+            retrieves.increment();
+            retrieveLatency.record(System.nanoTime() - begin);
+        }
+    }
+
+    /**
+     * Metered free by handle, see {@link WithHandles}.
+     */
+    long free(HandleMemoryBuffer target, long handle) {
+        if (!enabled) {
+            return target.free(handle);
+        }
+        long begin = System.nanoTime();
+        long freed = target.free(handle);
+        freeLatency.record(System.nanoTime() - begin);
+        freed(freed);
+        return freed;
+    }
+
+    /**
+     * Records metrics of the operations on a <code>HandleMemoryBuffer</code>, by handle included.
+     */
+    public static class WithHandles extends MeteredMemoryBuffer implements HandleMemoryBuffer {
+        private final HandleMemoryBuffer handles;
+
+        public WithHandles(HandleMemoryBuffer delegate) {
+            super(delegate);
+            this.handles = delegate;
+        }
+
+        /*
+         * (non-Javadoc)
+         * 
+         * @see com.prashant.memory.HandleMemoryBuffer#storeHandle(byte[])
+         */
+        public long storeHandle(byte[] payload) throws DMBufferOverFlowException {
+            return storeHandle(handles, payload);
+        }
+
+        /*
+         * (non-Javadoc)
+         * 
+         * @see com.prashant.memory.HandleMemoryBuffer#retrieve(long)
+         */
+        public byte[] retrieve(long handle) throws DMFrameLimitExcededException {
+            return retrieve(handles, handle);
+        }
+
+        /*
+         * (non-Javadoc)
+         * 
+         * @see com.prashant.memory.HandleMemoryBuffer#free(long)
+         */
+        public long free(long handle) {
+            return free(handles, handle);
+        }
+    }
+}
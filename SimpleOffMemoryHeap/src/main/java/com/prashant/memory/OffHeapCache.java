@@ -0,0 +1,320 @@
+package com.prashant.memory;
+
+import com.prashant.exception.DMBufferOverFlowException;
+import com.prashant.exception.DMFrameLimitExcededException;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+/**
+ * Key value cache whose keys, values and index all live off heap.
+ * <p>
+ * Each entry is a single block of the underlying buffer, stored through a handle, holding the key length, the key and the value. The index is
+ * an open addressing hash table with linear probing in a direct <code>ByteBuffer</code>, one slot per entry holding its handle, expiry time,
+ * key hash and a reference bit. Removal shifts the following slots back instead of leaving tombstones, so lookups never slow down with churn.
+ * </p>
+ * <p>
+ * When the buffer or the index is full a put evicts with the CLOCK algorithm: a hand sweeps the index, expired entries go right away, recently
+ * read entries lose their reference bit and get a second chance, the others are evicted. Entries with a time to live are also dropped when a
+ * read finds them expired. A put only fails when the entry would not fit in the empty buffer.
+ * </p>
+ * <p>
+ * The buffer stores by handle, such as a <code>BuddyMemoryBuffer</code> or a <code>MemoryPool</code> of them, and must not be used
+ * for anything else. All operations hold a single lock.
+ * </p>
+ */
+public class OffHeapCache {
+    private static final Logger logger = Logger.getAnonymousLogger();
+
+    /** Slot: handle, expiry time, key hash, reference bit. */
+    static final int SLOT_SIZE = 24;
+    private static final int EXPIRES = 8;
+    private static final int HASH = 16;
+    private static final int REFERENCED = 20;
+
+    /** No handle is 0, a record holds at least its key length. */
+    private static final long EMPTY = 0;
+    private static final long NEVER = 0;
+
+    private final HandleMemoryBuffer buffer;
+    private final int maxEntries;
+    private final int mask;
+
+    /** The index, guarded by <code>lock</code>. */
+    private final ByteBuffer index;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private int size;
+    private int hand;
+    private long evictions;
+
+    /**
+     * Creates new cache over a buddy buffer of the specified capacity, holding at most <code>maxEntries</code> entries.
+     * 
+     */
+    public static OffHeapCache createNew(int capacity, int maxEntries) {
+        return new OffHeapCache(BuddyMemoryBuffer.createNew(capacity, 0), maxEntries);
+    }
+
+    /**
+     * Creates new cache over a buffer storing by handle, holding at most <code>maxEntries</code> entries.
+     * 
+     */
+    public OffHeapCache(HandleMemoryBuffer buffer, int maxEntries) {
+        if (maxEntries < 1 || maxEntries > 1 << 29) {
+            throw new IllegalArgumentException("A cache holds between 1 and " + (1 << 29) + " entries");
+        }
+        // At most half full, so probe sequences stay short.
+        int slots = Integer.highestOneBit(maxEntries * 2 - 1) << 1;
+        logger.info("Creating off heap cache of maxEntries :" + maxEntries + " slots:" + slots);
+        this.buffer = buffer;
+        this.maxEntries = maxEntries;
+        this.mask = slots - 1;
+        this.index = ByteBuffer.allocateDirect(slots * SLOT_SIZE);
+    }
+
+    private static int hash(byte[] key) {
+        int h = Arrays.hashCode(key);
+        return h ^ (h >>> 16);
+    }
+
+    private static int slot(int i) {
+        return i * SLOT_SIZE;
+    }
+
+    private long handle(int i) {
+        return index.getLong(slot(i));
+    }
+
+    private boolean expired(int i, long now) {
+        long expires = index.getLong(slot(i) + EXPIRES);
+        return expires != NEVER && expires <= now;
+    }
+
+    /**
+     * @return slot holding the key, or -1
+     */
+    private int find(byte[] key, int hash) {
+        for (int i = hash & mask; handle(i) != EMPTY; i = (i + 1) & mask) {
+            if (index.getInt(slot(i) + HASH) == hash && matches(handle(i), key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean matches(long handle, byte[] key) {
+        if (Handles.length(handle) - 4 < key.length) {
+            return false;
+        }
+        ByteBuffer record = ByteBuffer.wrap(read(handle));
+        if (record.getInt() != key.length) {
+            return false;
+        }
+        for (int k = 0; k < key.length; k++) {
+            if (record.get() != key[k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private byte[] read(long handle) {
+        try {
+            return buffer.retrieve(handle);
+        } catch (DMFrameLimitExcededException e) {
+            throw new IllegalStateException("The cache index points outside of its buffer", e);
+        }
+    }
+
+    /**
+     * Frees the entry of a slot and shifts the following slots of its probe sequence back into the hole.
+     */
+    private void remove(int i) {
+        buffer.free(handle(i));
+        size--;
+        for (int j = (i + 1) & mask; handle(j) != EMPTY; j = (j + 1) & mask) {
+            int home = index.getInt(slot(j) + HASH) & mask;
+            // Move the slot back unless its home lies cyclically within (i, j].
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                for (int b = 0; b < SLOT_SIZE; b += 8) {
+                    index.putLong(slot(i) + b, index.getLong(slot(j) + b));
+                }
+                i = j;
+            }
+        }
+        index.putLong(slot(i), EMPTY);
+    }
+
+    /**
+     * Advances the clock hand until it evicts an entry.
+     * 
+     * @return false when the cache is empty
+     */
+    private boolean evict() {
+        if (size == 0) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        while (true) {
+            int i = hand;
+            hand = (hand + 1) & mask;
+            if (handle(i) == EMPTY) {
+                continue;
+            }
+            if (index.getInt(slot(i) + REFERENCED) != 0 && !expired(i, now)) {
+                index.putInt(slot(i) + REFERENCED, 0);
+                continue;
+            }
+            remove(i);
+            evictions++;
+            // The shift may have moved an unvisited slot under the hand.
+            hand = i;
+            return true;
+        }
+    }
+
+    /**
+     * @return the value stored for the key, or null when it is missing or expired
+     */
+    public byte[] get(byte[] key) {
+        int hash = hash(key);
+        lock.lock();
+        try {
+            int i = find(key, hash);
+            if (i == -1) {
+                return null;
+            }
+            if (expired(i, System.currentTimeMillis())) {
+                remove(i);
+                return null;
+            }
+            index.putInt(slot(i) + REFERENCED, 1);
+            byte[] record = read(handle(i));
+            return Arrays.copyOfRange(record, 4 + key.length, record.length);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stores the value for the key, without expiry.
+     * 
+     * @return false when the entry does not fit in the buffer even once empty
+     */
+    public boolean put(byte[] key, byte[] value) {
+        return put(key, value, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stores the value for the key, replacing any previous one, evicting other entries when out of space.
+     * 
+     * @param ttl
+     *            time to live, 0 for no expiry
+     * @return false when the entry does not fit in the buffer even once empty
+     */
+    public boolean put(byte[] key, byte[] value, long ttl, TimeUnit unit) {
+        int hash = hash(key);
+        long expires = ttl > 0 ? System.currentTimeMillis() + unit.toMillis(ttl) : NEVER;
+        byte[] record = new byte[4 + key.length + value.length];
+        ByteBuffer.wrap(record).putInt(key.length).put(key).put(value);
+        if (record.length > Handles.MAX_LENGTH || record.length >= buffer.capacity()) {
+            return false;
+        }
+        lock.lock();
+        try {
+            int previous = find(key, hash);
+            if (previous != -1) {
+                remove(previous);
+            }
+            if (size == maxEntries) {
+                evict();
+            }
+            long handle;
+            while (true) {
+                try {
+                    handle = buffer.storeHandle(record);
+                    break;
+                } catch (DMBufferOverFlowException e) {
+                    if (!evict()) {
+                        return false;
+                    }
+                }
+            }
+            int i = hash & mask;
+            while (handle(i) != EMPTY) {
+                i = (i + 1) & mask;
+            }
+            index.putLong(slot(i), handle);
+            index.putLong(slot(i) + EXPIRES, expires);
+            index.putInt(slot(i) + HASH, hash);
+            index.putInt(slot(i) + REFERENCED, 0);
+            size++;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return true when the key was present
+     */
+    public boolean remove(byte[] key) {
+        int hash = hash(key);
+        lock.lock();
+        try {
+            int i = find(key, hash);
+            if (i == -1) {
+                return false;
+            }
+            remove(i);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Number of entries, including expired ones not dropped yet
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Number of entries evicted to make room since the cache was created
+     */
+    public long evictions() {
+        lock.lock();
+        try {
+            return evictions;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes all the entries.
+     */
+    public void clear() {
+        lock.lock();
+        try {
+            buffer.clear();
+            for (int i = 0; i <= mask; i++) {
+                index.putLong(slot(i), EMPTY);
+            }
+            size = 0;
+            hand = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.prashant.memory;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Writes objects of one class straight into a memory buffer and reads them
+ * back, see {@link MemoryBuffer#store(Object)} and
+ * {@link MemoryBuffer#load(Pointer)}. Codecs are looked up by class in
+ * <code>OffHeapCodecs</code>.
+ */
+public interface OffHeapCodec<T> {
+
+	/**
+	 * @return the class of the objects, which a stored <code>Pointer</code>
+	 *         records as its <code>clazz</code>
+	 */
+	public abstract Class<T> type();
+
+	/**
+	 * @return Exact number of bytes {@link #write(Object, ByteBuffer)} puts
+	 */
+	public abstract int size(T value);
+
+	/**
+	 * Puts the value at the position of <code>dst</code> with relative puts.
+	 * 
+	 * @param dst
+	 *            positioned at the first byte of the block, with exactly
+	 *            {@link #size(Object)} bytes remaining
+	 */
+	public abstract void write(T value, ByteBuffer dst);
+
+	/**
+	 * Gets a value with relative gets.
+	 * 
+	 * @param src
+	 *            positioned at the first byte of the block, limited to its end
+	 */
+	public abstract T read(ByteBuffer src);
+}
@@ -0,0 +1,293 @@
+package com.prashant.memory;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the codecs used by {@link MemoryBuffer#store(Object)} and {@link MemoryBuffer#load(Pointer)}, with the built-in codecs of the
+ * boxed primitives and of <code>String</code> already registered.
+ * <p>
+ * A string is encoded as UTF-8 one character at a time, straight into the buffer, and takes its whole block so it needs no length. Flat
+ * classes of primitive and string fields are registered with {@link #register(OffHeapCodec)} of a {@link FlatCodec}.
+ * </p>
+ */
+public final class OffHeapCodecs {
+
+    private static final ConcurrentHashMap<Class<?>, OffHeapCodec<?>> codecs = new ConcurrentHashMap<Class<?>, OffHeapCodec<?>>();
+
+    public static final OffHeapCodec<Byte> BYTE = new OffHeapCodec<Byte>() {
+        public Class<Byte> type() {
+            return Byte.class;
+        }
+
+        public int size(Byte value) {
+            return 1;
+        }
+
+        public void write(Byte value, ByteBuffer dst) {
+            dst.put(value);
+        }
+
+        public Byte read(ByteBuffer src) {
+            return src.get();
+        }
+    };
+
+    public static final OffHeapCodec<Boolean> BOOLEAN = new OffHeapCodec<Boolean>() {
+        public Class<Boolean> type() {
+            return Boolean.class;
+        }
+
+        public int size(Boolean value) {
+            return 1;
+        }
+
+        public void write(Boolean value, ByteBuffer dst) {
+            dst.put(value ? (byte) 1 : (byte) 0);
+        }
+
+        public Boolean read(ByteBuffer src) {
+            return src.get() != 0;
+        }
+    };
+
+    public static final OffHeapCodec<Short> SHORT = new OffHeapCodec<Short>() {
+        public Class<Short> type() {
+            return Short.class;
+        }
+
+        public int size(Short value) {
+            return 2;
+        }
+
+        public void write(Short value, ByteBuffer dst) {
+            dst.putShort(value);
+        }
+
+        public Short read(ByteBuffer src) {
+            return src.getShort();
+        }
+    };
+
+    public static final OffHeapCodec<Character> CHAR = new OffHeapCodec<Character>() {
+        public Class<Character> type() {
+            return Character.class;
+        }
+
+        public int size(Character value) {
+            return 2;
+        }
+
+        public void write(Character value, ByteBuffer dst) {
+            dst.putChar(value);
+        }
+
+        public Character read(ByteBuffer src) {
+            return src.getChar();
+        }
+    };
+
+    public static final OffHeapCodec<Integer> INT = new OffHeapCodec<Integer>() {
+        public Class<Integer> type() {
+            return Integer.class;
+        }
+
+        public int size(Integer value) {
+            return 4;
+        }
+
+        public void write(Integer value, ByteBuffer dst) {
+            dst.putInt(value);
+        }
+
+        public Integer read(ByteBuffer src) {
+            return src.getInt();
+        }
+    };
+
+    public static final OffHeapCodec<Float> FLOAT = new OffHeapCodec<Float>() {
+        public Class<Float> type() {
+            return Float.class;
+        }
+
+        public int size(Float value) {
+            return 4;
+        }
+
+        public void write(Float value, ByteBuffer dst) {
+            dst.putFloat(value);
+        }
+
+        public Float read(ByteBuffer src) {
+            return src.getFloat();
+        }
+    };
+
+    public static final OffHeapCodec<Long> LONG = new OffHeapCodec<Long>() {
+        public Class<Long> type() {
+            return Long.class;
+        }
+
+        public int size(Long value) {
+            return 8;
+        }
+
+        public void write(Long value, ByteBuffer dst) {
+            dst.putLong(value);
+        }
+
+        public Long read(ByteBuffer src) {
+            return src.getLong();
+        }
+    };
+
+    public static final OffHeapCodec<Double> DOUBLE = new OffHeapCodec<Double>() {
+        public Class<Double> type() {
+            return Double.class;
+        }
+
+        public int size(Double value) {
+            return 8;
+        }
+
+        public void write(Double value, ByteBuffer dst) {
+            dst.putDouble(value);
+        }
+
+        public Double read(ByteBuffer src) {
+            return src.getDouble();
+        }
+    };
+
+    public static final OffHeapCodec<String> STRING = new OffHeapCodec<String>() {
+        public Class<String> type() {
+            return String.class;
+        }
+
+        public int size(String value) {
+            return utf8Length(value);
+        }
+
+        public void write(String value, ByteBuffer dst) {
+            putUtf8(value, dst);
+        }
+
+        public String read(ByteBuffer src) {
+            return getUtf8(src, src.remaining());
+        }
+    };
+
+    static {
+        register(BYTE);
+        register(BOOLEAN);
+        register(SHORT);
+        register(CHAR);
+        register(INT);
+        register(FLOAT);
+        register(LONG);
+        register(DOUBLE);
+        register(STRING);
+    }
+
+    private OffHeapCodecs() {
+    }
+
+    /**
+     * Registers the codec for its type, replacing any codec registered before.
+     */
+    public static <T> void register(OffHeapCodec<T> codec) {
+        codecs.put(codec.type(), codec);
+    }
+
+    /**
+     * @return the codec registered for exactly that class
+     * @throws IllegalArgumentException
+     *             when there is none
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> OffHeapCodec<T> codec(Class<?> type) {
+        OffHeapCodec<T> codec = (OffHeapCodec<T>) codecs.get(type);
+        if (codec == null) {
+            throw new IllegalArgumentException("No off heap codec registered for " + type);
+        }
+        return codec;
+    }
+
+    /**
+     * @return bytes of the string encoded as UTF-8, an unpaired surrogate taking one byte as it is replaced by '?'
+     */
+    static int utf8Length(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Puts the string encoded as UTF-8, see {@link #utf8Length(String)}.
+     */
+    static void putUtf8(String value, ByteBuffer dst) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                dst.put((byte) c);
+            } else if (c < 0x800) {
+                dst.put((byte) (0xC0 | c >> 6));
+                dst.put((byte) (0x80 | c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, value.charAt(++i));
+                dst.put((byte) (0xF0 | cp >> 18));
+                dst.put((byte) (0x80 | cp >> 12 & 0x3F));
+                dst.put((byte) (0x80 | cp >> 6 & 0x3F));
+                dst.put((byte) (0x80 | cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                dst.put((byte) '?');
+            } else {
+                dst.put((byte) (0xE0 | c >> 12));
+                dst.put((byte) (0x80 | c >> 6 & 0x3F));
+                dst.put((byte) (0x80 | c & 0x3F));
+            }
+        }
+    }
+
+    /**
+     * Gets a string of <code>length</code> bytes encoded as UTF-8, a malformed sequence decoding to U+FFFD.
+     */
+    static String getUtf8(ByteBuffer src, int length) {
+        char[] chars = new char[length];
+        int count = 0;
+        int end = src.position() + length;
+        while (src.position() < end) {
+            int b = src.get() & 0xFF;
+            int more = b < 0x80 ? 0 : b >= 0xF0 ? 3 : b >= 0xE0 ? 2 : b >= 0xC0 ? 1 : -1;
+            if (more < 0 || src.position() + more > end) {
+                chars[count++] = '\uFFFD';
+                continue;
+            }
+            int cp = more == 0 ? b : b & (0x3F >> more);
+            for (int k = 0; k < more; k++) {
+                cp = cp << 6 | src.get() & 0x3F;
+            }
+            if (cp >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+                chars[count++] = Character.highSurrogate(cp);
+                chars[count++] = Character.lowSurrogate(cp);
+            } else {
+                chars[count++] = (char) cp;
+            }
+        }
+        return new String(chars, 0, count);
+    }
+}
@@ -0,0 +1,107 @@
+package com.prashant.memory;
+
+import com.prashant.exception.DMBufferOverFlowException;
+import com.prashant.exception.DMFrameLimitExcededException;
+
+/**
+ * Growable list of <code>int</code>s held in a single block of a memory buffer, so a large list costs nothing on heap.
+ * <p>
+ * When the block is full an add stores a block half as large again, copies the elements over and frees the old block. The list is not
+ * thread safe, and {@link #free()} gives the block back once the list is no longer needed.
+ * </p>
+ */
+public class OffHeapIntList {
+    private static final int MAX_CAPACITY = Integer.MAX_VALUE / 4;
+
+    private final MemoryBuffer buffer;
+    private Pointer block;
+    private int capacity;
+    private int size;
+
+    /**
+     * Creates new empty list with room for <code>initialCapacity</code> elements in a block of the buffer.
+     * 
+     * @throws DMBufferOverFlowException
+     *             when the buffer has no room for it
+     */
+    public OffHeapIntList(MemoryBuffer buffer, int initialCapacity) throws DMBufferOverFlowException {
+        if (initialCapacity < 0 || initialCapacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("Can not create a list of capacity " + initialCapacity);
+        }
+        this.buffer = buffer;
+        this.block = Blocks.allocate(buffer, (long) initialCapacity * 4);
+        this.capacity = initialCapacity;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return Number of elements the current block holds
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    private void check(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+        }
+    }
+
+    public int get(int index) {
+        check(index);
+        try {
+            return buffer.getInt(block, index * 4);
+        } catch (DMFrameLimitExcededException e) {
+            throw new IllegalStateException("The list is larger than its block", e);
+        }
+    }
+
+    public void set(int index, int value) {
+        check(index);
+        try {
+            buffer.putInt(block, index * 4, value);
+        } catch (DMFrameLimitExcededException e) {
+            throw new IllegalStateException("The list is larger than its block", e);
+        }
+    }
+
+    /**
+     * Appends the value, growing the block when it is full.
+     * 
+     * @throws DMBufferOverFlowException
+     *             when the buffer has no room for a larger block, the list is left as it was
+     */
+    public void add(int value) throws DMBufferOverFlowException {
+        if (size == capacity) {
+            if (capacity == MAX_CAPACITY) {
+                throw new DMBufferOverFlowException("An off heap list holds at most " + MAX_CAPACITY + " elements", null);
+            }
+            int grown = Math.min(MAX_CAPACITY, Math.max(8, capacity + (capacity >> 1)));
+            Pointer larger = Blocks.copyOf(buffer, block, (long) size * 4, (long) grown * 4);
+            buffer.free(block);
+            block = larger;
+            capacity = grown;
+        }
+        size++;
+        set(size - 1, value);
+    }
+
+    /**
+     * Empties the list, keeping its block.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Frees the block of the list, which must not be used afterwards.
+     */
+    public void free() {
+        buffer.free(block);
+        size = 0;
+        capacity = 0;
+    }
+}
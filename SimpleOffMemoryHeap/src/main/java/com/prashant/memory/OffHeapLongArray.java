@@ -0,0 +1,84 @@
+package com.prashant.memory;
+
+import com.prashant.exception.DMBufferOverFlowException;
+import com.prashant.exception.DMFrameLimitExcededException;
+
+/**
+ * Array of <code>long</code>s held in a single block of a memory buffer, so a large array costs nothing on heap.
+ * <p>
+ * Elements start at zero. The array is resized by storing a new block, copying the elements over and freeing the old block. It is not
+ * thread safe, and {@link #free()} gives the block back once the array is no longer needed.
+ * </p>
+ */
+public class OffHeapLongArray {
+    private final MemoryBuffer buffer;
+    private Pointer block;
+    private int length;
+
+    /**
+     * Creates new array of <code>length</code> zeroes in a block of the buffer.
+     * 
+     * @throws DMBufferOverFlowException
+     *             when the buffer has no room for it
+     */
+    public OffHeapLongArray(MemoryBuffer buffer, int length) throws DMBufferOverFlowException {
+        if (length < 0 || length > Integer.MAX_VALUE / 8) {
+            throw new IllegalArgumentException("Can not create an array of length " + length);
+        }
+        this.buffer = buffer;
+        this.block = Blocks.allocate(buffer, (long) length * 8);
+        this.length = length;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    private void check(int index) {
+        if (index < 0 || index >= length) {
+            throw new ArrayIndexOutOfBoundsException("Index " + index + " out of bounds for length " + length);
+        }
+    }
+
+    public long get(int index) {
+        check(index);
+        try {
+            return buffer.getLong(block, index * 8);
+        } catch (DMFrameLimitExcededException e) {
+            throw new IllegalStateException("The array is larger than its block", e);
+        }
+    }
+
+    public void set(int index, long value) {
+        check(index);
+        try {
+            buffer.putLong(block, index * 8, value);
+        } catch (DMFrameLimitExcededException e) {
+            throw new IllegalStateException("The array is larger than its block", e);
+        }
+    }
+
+    /**
+     * Changes the length, elements past the old length are zero.
+     * 
+     * @throws DMBufferOverFlowException
+     *             when the buffer has no room for the new block, the array is left as it was
+     */
+    public void resize(int newLength) throws DMBufferOverFlowException {
+        if (newLength < 0 || newLength > Integer.MAX_VALUE / 8) {
+            throw new IllegalArgumentException("Can not resize an array to length " + newLength);
+        }
+        Pointer grown = Blocks.copyOf(buffer, block, (long) Math.min(length, newLength) * 8, (long) newLength * 8);
+        buffer.free(block);
+        block = grown;
+        length = newLength;
+    }
+
+    /**
+     * Frees the block of the array, which must not be used afterwards.
+     */
+    public void free() {
+        buffer.free(block);
+        length = 0;
+    }
+}
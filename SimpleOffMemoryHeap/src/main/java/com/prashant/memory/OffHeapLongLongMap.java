@@ -0,0 +1,235 @@
+package com.prashant.memory;
+
+import com.prashant.exception.DMBufferOverFlowException;
+import com.prashant.exception.DMFrameLimitExcededException;
+
+/**
+ * Map of <code>long</code> keys to <code>long</code> values held in a single block of a memory buffer, so a large index costs nothing on
+ * heap and nothing is boxed.
+ * <p>
+ * The block is an open addressing hash table with linear probing, one 16 byte slot of key and value per entry. An empty slot holds the
+ * key 0, so the entry of the key 0 itself is kept aside in fields. Removal shifts the following slots back instead of leaving tombstones.
+ * The table is kept at most half full, doubling by storing a new block, inserting the entries again and freeing the old block. The map is
+ * not thread safe, and {@link #free()} gives the block back once the map is no longer needed.
+ * </p>
+ */
+public class OffHeapLongLongMap {
+    private static final int SLOT_SIZE = 16;
+    private static final int VALUE = 8;
+    private static final int MAX_SLOTS = 1 << 26;
+
+    /** Visits the entries of a map. */
+    public interface EntryVisitor {
+        void visit(long key, long value);
+    }
+
+    private final MemoryBuffer buffer;
+    private Pointer table;
+    private int mask;
+    private int size;
+
+    private boolean hasZeroKey;
+    private long zeroValue;
+
+    /**
+     * Creates new empty map with room for <code>expectedSize</code> entries before it grows, in a block of the buffer.
+     * 
+     * @throws DMBufferOverFlowException
+     *             when the buffer has no room for it
+     */
+    public OffHeapLongLongMap(MemoryBuffer buffer, int expectedSize) throws DMBufferOverFlowException {
+        if (expectedSize < 0 || expectedSize > MAX_SLOTS / 2) {
+            throw new IllegalArgumentException("Can not create a map of " + expectedSize + " entries");
+        }
+        int slots = Math.max(8, Integer.highestOneBit(Math.max(1, expectedSize * 2 - 1)) << 1);
+        this.buffer = buffer;
+        this.table = Blocks.allocate(buffer, (long) slots * SLOT_SIZE);
+        this.mask = slots - 1;
+    }
+
+    private static int hash(long key) {
+        // Finalizer of MurmurHash3, so keys that only differ in their high bits still spread.
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    private long key(int i) {
+        return read(i * SLOT_SIZE);
+    }
+
+    private long value(int i) {
+        return read(i * SLOT_SIZE + VALUE);
+    }
+
+    private long read(int offset) {
+        try {
+            return buffer.getLong(table, offset);
+        } catch (DMFrameLimitExcededException e) {
+            throw new IllegalStateException("The map is larger than its block", e);
+        }
+    }
+
+    private void write(int offset, long value) {
+        try {
+            buffer.putLong(table, offset, value);
+        } catch (DMFrameLimitExcededException e) {
+            throw new IllegalStateException("The map is larger than its block", e);
+        }
+    }
+
+    /**
+     * @return slot holding the key, or the empty slot ending its probe sequence
+     */
+    private int find(long key) {
+        int i = hash(key) & mask;
+        for (long k = key(i); k != 0 && k != key; k = key(i)) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean containsKey(long key) {
+        if (key == 0) {
+            return hasZeroKey;
+        }
+        return key(find(key)) != 0;
+    }
+
+    /**
+     * @return the value of the key, or <code>defaultValue</code> when it is missing
+     */
+    public long get(long key, long defaultValue) {
+        if (key == 0) {
+            return hasZeroKey ? zeroValue : defaultValue;
+        }
+        int i = find(key);
+        return key(i) != 0 ? value(i) : defaultValue;
+    }
+
+    /**
+     * Maps the key to the value, growing the table when it gets more than half full.
+     * 
+     * @throws DMBufferOverFlowException
+     *             when the buffer has no room for a larger table, the map is left as it was
+     */
+    public void put(long key, long value) throws DMBufferOverFlowException {
+        if (key == 0) {
+            if (!hasZeroKey) {
+                hasZeroKey = true;
+                size++;
+            }
+            zeroValue = value;
+            return;
+        }
+        int i = find(key);
+        if (key(i) == 0) {
+            if ((size + 1) * 2 > mask + 1) {
+                grow();
+                i = find(key);
+            }
+            write(i * SLOT_SIZE, key);
+            size++;
+        }
+        write(i * SLOT_SIZE + VALUE, value);
+    }
+
+    /**
+     * @return false when the key was missing
+     */
+    public boolean remove(long key) {
+        if (key == 0) {
+            if (!hasZeroKey) {
+                return false;
+            }
+            hasZeroKey = false;
+            size--;
+            return true;
+        }
+        int i = find(key);
+        if (key(i) == 0) {
+            return false;
+        }
+        size--;
+        for (int j = (i + 1) & mask; key(j) != 0; j = (j + 1) & mask) {
+            int home = hash(key(j)) & mask;
+            // Move the slot back unless its home lies cyclically within (i, j].
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                write(i * SLOT_SIZE, key(j));
+                write(i * SLOT_SIZE + VALUE, value(j));
+                i = j;
+            }
+        }
+        write(i * SLOT_SIZE, 0);
+        return true;
+    }
+
+    private void grow() throws DMBufferOverFlowException {
+        int slots = (mask + 1) * 2;
+        if (slots > MAX_SLOTS) {
+            throw new DMBufferOverFlowException("An off heap map holds at most " + MAX_SLOTS / 2 + " entries", null);
+        }
+        Pointer old = table;
+        int oldSlots = mask + 1;
+        table = Blocks.allocate(buffer, (long) slots * SLOT_SIZE);
+        mask = slots - 1;
+        for (int s = 0; s < oldSlots; s++) {
+            long key;
+            long value;
+            try {
+                key = buffer.getLong(old, s * SLOT_SIZE);
+                value = buffer.getLong(old, s * SLOT_SIZE + VALUE);
+            } catch (DMFrameLimitExcededException e) {
+                throw new IllegalStateException("The map is larger than its block", e);
+            }
+            if (key != 0) {
+                int i = find(key);
+                write(i * SLOT_SIZE, key);
+                write(i * SLOT_SIZE + VALUE, value);
+            }
+        }
+        buffer.free(old);
+    }
+
+    /**
+     * Visits every entry, in no particular order. The map must not be changed during the visit.
+     */
+    public void forEach(EntryVisitor visitor) {
+        if (hasZeroKey) {
+            visitor.visit(0, zeroValue);
+        }
+        for (int i = 0; i <= mask; i++) {
+            long key = key(i);
+            if (key != 0) {
+                visitor.visit(key, value(i));
+            }
+        }
+    }
+
+    /**
+     * Removes every entry, keeping the table.
+     */
+    public void clear() {
+        for (int i = 0; i <= mask; i++) {
+            write(i * SLOT_SIZE, 0);
+        }
+        hasZeroKey = false;
+        size = 0;
+    }
+
+    /**
+     * Frees the block of the map, which must not be used afterwards.
+     */
+    public void free() {
+        buffer.free(table);
+        size = 0;
+        hasZeroKey = false;
+    }
+}
@@ -0,0 +1,319 @@
+package com.prashant.memory;
+
+import com.prashant.exception.DMBufferOverFlowException;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Queue of variable length records in a single block of a memory buffer, handing messages from producer threads to one consumer thread
+ * without a lock, and without a <code>Pointer</code> or any other object per message.
+ * <p>
+ * The block holds a ring of <code>capacity</code> bytes, a power of two, followed by a trailer with the sequences: the tail producers claim
+ * space from, and the head the consumer has read up to. Sequences only grow, a record lives at its sequence modulo the capacity. Each record
+ * is framed by an 8 byte header and padded to 8 bytes. The first int of the header is the length of the frame, written last with release
+ * semantics so a non zero frame tells the consumer the record is complete, or negative for the padding that skips the end of the ring when a
+ * record does not fit before it. The second int keeps the claimed frame length until it is published.
+ * </p>
+ * <p>
+ * A single producer claims by moving the tail with an ordered write, several producers with a compare and set of it. The consumer reads a
+ * batch of records, then zeroes their bytes and moves the head once for the whole batch. The block is pinned so compaction never moves it,
+ * and {@link #free()} gives it back once the ring is no longer needed.
+ * </p>
+ */
+public class OffHeapRingBuffer {
+    private static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    static final int HEADER = 8;
+    private static final int CLAIMED = 4;
+
+    /** Each sequence of the trailer on a cache line of its own, away from the records as well. */
+    private static final int TAIL = 64;
+    private static final int HEAD_CACHE = 128;
+    private static final int HEAD = 192;
+    private static final int TRAILER = 256;
+
+    /**
+     * Receives the records of a batch.
+     */
+    public interface RecordHandler {
+        /**
+         * @param records
+         *            read only view of the ring, the record is only valid during the call
+         * @param offset
+         *            of the payload within <code>records</code>
+         * @param length
+         *            bytes of the payload
+         */
+        void onRecord(ByteBuffer records, int offset, int length);
+    }
+
+    private final MemoryBuffer buffer;
+    private final Pointer block;
+    private final boolean multiProducer;
+    private final int capacity;
+    private final int mask;
+
+    /** The ring and its trailer, aligned to 8 bytes. */
+    private final ByteBuffer region;
+    private final ByteBuffer records;
+
+    /** Per producer duplicate of the region, for bulk copies at an absolute position. */
+    private final ThreadLocal<ByteBuffer> cursors = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return region.duplicate();
+        }
+    };
+
+    /**
+     * Creates new empty ring of <code>capacity</code> bytes in a block of the buffer.
+     * 
+     * @param capacity
+     *            bytes of the ring, a power of two of at least 64
+     * @param multiProducer
+     *            whether several threads may offer at once, a single producer saves the compare and set of the tail
+     * @throws DMBufferOverFlowException
+     *             when the buffer has no room for it
+     * @throws IllegalArgumentException
+     *             when the buffer does not hand out its memory, such as a <code>ForeignMemoryBuffer</code>
+     */
+    public OffHeapRingBuffer(MemoryBuffer buffer, int capacity, boolean multiProducer) throws DMBufferOverFlowException {
+        if (capacity < 64 || Integer.bitCount(capacity) != 1 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("Can not create a ring of " + capacity + " bytes, it takes a power of two from 64 to 2^30");
+        }
+        this.buffer = buffer;
+        this.block = Blocks.allocate(buffer, (long) capacity + TRAILER + 7);
+        ByteBuffer memory;
+        try {
+            memory = memoryOf(buffer, block);
+        } catch (IllegalArgumentException e) {
+            buffer.free(block);
+            throw e;
+        }
+        block.setPinned(true);
+        this.multiProducer = multiProducer;
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+
+        ByteBuffer view = memory.duplicate();
+        int skew = view.alignmentOffset(block.getStart(), 8);
+        int start = skew == 0 ? block.getStart() : block.getStart() + 8 - skew;
+        view.limit(start + capacity + TRAILER).position(start);
+        this.region = view.slice().order(ByteOrder.nativeOrder());
+        this.records = region.asReadOnlyBuffer().order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * @return the buffer the block lies in
+     */
+    private static ByteBuffer memoryOf(MemoryBuffer buffer, Pointer block) {
+        while (buffer instanceof MeteredMemoryBuffer) {
+            buffer = ((MeteredMemoryBuffer) buffer).getDelegate();
+        }
+        if (buffer instanceof MemoryPool) {
+            buffer = ((MemoryPool) buffer).segment(block);
+        } else if (buffer instanceof StripedMemoryBuffer) {
+            buffer = ((StripedMemoryBuffer) buffer).shard(block);
+        }
+        if (buffer instanceof AbstractMemoryBuffer) {
+            return ((AbstractMemoryBuffer) buffer).buffer;
+        }
+        throw new IllegalArgumentException(buffer.getClass().getSimpleName() + " does not hand out its memory to a ring");
+    }
+
+    private static int align(int bytes) {
+        return (bytes + 7) & ~7;
+    }
+
+    /**
+     * @return Bytes of the ring
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return Longest payload a record can hold
+     */
+    public int maxLength() {
+        return capacity / 2 - HEADER;
+    }
+
+    /**
+     * Reserves room for a record of <code>length</code> bytes, to be written into {@link #buffer()} and then published with
+     * {@link #publish(int)}. The consumer stops at a claimed record until it is published, so it must be published soon after.
+     * 
+     * @return offset of the payload within {@link #buffer()}, -1 when the ring has no room for it now
+     * @throws IllegalArgumentException
+     *             when the length is longer than {@link #maxLength()}
+     */
+    public int claim(int length) {
+        if (length < 0 || length > maxLength()) {
+            throw new IllegalArgumentException("A record of " + length + " bytes does not fit a ring of " + capacity + " bytes");
+        }
+        int frame = HEADER + length;
+        int need = align(frame);
+        long head = (long) LONGS.getVolatile(region, capacity + HEAD_CACHE);
+        while (true) {
+            long tail = (long) LONGS.getVolatile(region, capacity + TAIL);
+            int index = (int) tail & mask;
+            int pad = need > capacity - index ? capacity - index : 0;
+            if (tail + pad + need - head > capacity) {
+                head = (long) LONGS.getVolatile(region, capacity + HEAD);
+                if (tail + pad + need - head > capacity) {
+                    return -1;
+                }
+                LONGS.setRelease(region, capacity + HEAD_CACHE, head);
+            }
+            if (!multiProducer) {
+                LONGS.setRelease(region, capacity + TAIL, tail + pad + need);
+            } else if (!LONGS.compareAndSet(region, capacity + TAIL, tail, tail + pad + need)) {
+                continue;
+            }
+            if (pad > 0) {
+                INTS.setRelease(region, index, -pad);
+                index = 0;
+            }
+            region.putInt(index + CLAIMED, frame);
+            return index + HEADER;
+        }
+    }
+
+    /**
+     * Publishes a record claimed with {@link #claim(int)}, making it visible to the consumer.
+     */
+    public void publish(int offset) {
+        int index = offset - HEADER;
+        INTS.setRelease(region, index, region.getInt(index + CLAIMED));
+    }
+
+    /**
+     * @return the ring, to write claimed records into at absolute positions
+     */
+    public ByteBuffer buffer() {
+        return region;
+    }
+
+    /**
+     * Copies the payload into a new record.
+     * 
+     * @return false when the ring has no room for it now
+     */
+    public boolean offer(byte[] payload) {
+        return offer(payload, 0, payload.length);
+    }
+
+    /**
+     * Copies <code>length</code> bytes of <code>src</code> from <code>offset</code> into a new record.
+     * 
+     * @return false when the ring has no room for it now
+     */
+    public boolean offer(byte[] src, int offset, int length) {
+        int at = claim(length);
+        if (at < 0) {
+            return false;
+        }
+        ByteBuffer cursor = cursors.get();
+        cursor.clear();
+        cursor.position(at);
+        cursor.put(src, offset, length);
+        publish(at);
+        return true;
+    }
+
+    /**
+     * Copies the remaining bytes of <code>src</code> into a new record, advancing its position when it fits.
+     * 
+     * @return false when the ring has no room for it now
+     */
+    public boolean offer(ByteBuffer src) {
+        int at = claim(src.remaining());
+        if (at < 0) {
+            return false;
+        }
+        ByteBuffer cursor = cursors.get();
+        cursor.clear();
+        cursor.position(at);
+        cursor.put(src);
+        publish(at);
+        return true;
+    }
+
+    /**
+     * Hands up to <code>limit</code> published records to the handler, in the order they were claimed, then frees their room in one go. Only
+     * one thread may consume. A record whose handler throws is consumed all the same.
+     * 
+     * @return number of records handled
+     */
+    public int drain(RecordHandler handler, int limit) {
+        long head = (long) LONGS.getOpaque(region, capacity + HEAD);
+        int consumed = 0;
+        int count = 0;
+        try {
+            while (count < limit && consumed < capacity) {
+                int index = (int) (head + consumed) & mask;
+                int frame = (int) INTS.getAcquire(region, index);
+                if (frame == 0) {
+                    break;
+                }
+                if (frame < 0) {
+                    consumed += -frame;
+                    continue;
+                }
+                consumed += align(frame);
+                count++;
+                handler.onRecord(records, index + HEADER, frame - HEADER);
+            }
+        } finally {
+            if (consumed > 0) {
+                release(head, consumed);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return payload of the next record, null when none is published
+     */
+    public byte[] poll() {
+        final byte[][] payload = new byte[1][];
+        drain(new RecordHandler() {
+            public void onRecord(ByteBuffer records, int offset, int length) {
+                payload[0] = new byte[length];
+                ByteBuffer view = records.duplicate();
+                view.position(offset);
+                view.get(payload[0]);
+            }
+        }, 1);
+        return payload[0];
+    }
+
+    /**
+     * Zeroes consumed bytes, so a frame only ever reads non zero once published, then hands them back to the producers.
+     */
+    private void release(long head, int consumed) {
+        for (int i = 0; i < consumed; i += 8) {
+            region.putLong((int) (head + i) & mask, 0);
+        }
+        LONGS.setRelease(region, capacity + HEAD, head + consumed);
+    }
+
+    /**
+     * @return true when no record is claimed nor published
+     */
+    public boolean isEmpty() {
+        return (long) LONGS.getVolatile(region, capacity + HEAD) == (long) LONGS.getVolatile(region, capacity + TAIL);
+    }
+
+    /**
+     * Frees the block of the ring, which must not be used afterwards.
+     */
+    public void free() {
+        block.setPinned(false);
+        buffer.free(block);
+    }
+}
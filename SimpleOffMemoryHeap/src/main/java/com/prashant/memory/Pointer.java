@@ -1,15 +1,49 @@
 package com.prashant.memory;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
 public class Pointer {
+	private static final VarHandle FREE;
+
+	static {
+		try {
+			FREE = MethodHandles.lookup().findVarHandle(Pointer.class, "free", boolean.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	// Offset that start and end are relative to, only ever set by buffers larger than 2GB
+	private long base;
 	private int start;
 	private int end;
 	private boolean free;
+	// Freed through the epochs, set from the free on, also once released, so reads starting late find it freed
+	private boolean retired;
+	// Never moved by compaction, set while raw views of the block are handed out
+	private boolean pinned;
+	// The address of the block is a multiple of it, wherever it moves
+	private int alignment = 1;
+	// Capacity reserved by the store, an update never shrinks the block below it, 0 when stored without room to spare
+	private int reserved;
 	private int blockNumber;
 	// To enable traversing as a Doubly linked list
 	private Pointer next;
 	private Pointer prev;
+	// Links within the size class bin while the block is free
+	private Pointer nextFree;
+	private Pointer prevFree;
 	private Class<? extends Object> clazz;
 
+	public long getBase() {
+		return base;
+	}
+
+	public void setBase(long base) {
+		this.base = base;
+	}
+
 	public int getStart() {
 		return start;
 	}
@@ -34,6 +68,48 @@ public class Pointer {
 		this.free = free;
 	}
 
+	/**
+	 * Marks the block free, atomically, for buffers that release blocks
+	 * without holding an allocator lock.
+	 * 
+	 * @return false when it was free already
+	 */
+	boolean markFree() {
+		return FREE.compareAndSet(this, false, true);
+	}
+
+	boolean isRetired() {
+		return retired;
+	}
+
+	void setRetired(boolean retired) {
+		this.retired = retired;
+	}
+
+	public int getAlignment() {
+		return alignment;
+	}
+
+	void setAlignment(int alignment) {
+		this.alignment = alignment;
+	}
+
+	public int getReserved() {
+		return reserved;
+	}
+
+	void setReserved(int reserved) {
+		this.reserved = reserved;
+	}
+
+	boolean isPinned() {
+		return pinned;
+	}
+
+	void setPinned(boolean pinned) {
+		this.pinned = pinned;
+	}
+
 	public int getBlockNumber() {
 		return blockNumber;
 	}
@@ -58,6 +134,22 @@ public class Pointer {
 		this.prev = prev;
 	}
 
+	Pointer getNextFree() {
+		return nextFree;
+	}
+
+	void setNextFree(Pointer nextFree) {
+		this.nextFree = nextFree;
+	}
+
+	Pointer getPrevFree() {
+		return prevFree;
+	}
+
+	void setPrevFree(Pointer prevFree) {
+		this.prevFree = prevFree;
+	}
+
 	public Class<? extends Object> getClazz() {
 		return clazz;
 	}
@@ -0,0 +1,151 @@
+package com.prashant.memory;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Segregated index of the free blocks of a <code>DirectMemoryBuffer</code> or a <code>MappedMemoryBuffer</code>.
+ * <p>
+ * Blocks are keyed by their span (<code>end - start</code>). Small spans get an exact size bin each, kept as an intrusive doubly linked list
+ * through the <code>Pointer</code> free links, with a bitmap of the non empty bins so the smallest fitting bin is found with a handful of word
+ * scans. Larger spans go to a best-fit tree ordered by span and then start offset.
+ * </p>
+ * <p>
+ * Adding, removing and taking a block are O(1) for the small bins and O(log n) for the tree. Not thread safe, callers hold the allocator lock.
+ * </p>
+ */
+class SizeClassFreeList {
+
+    /** Spans below this are kept in exact size bins */
+    static final int SMALL_BINS = 1024;
+
+    private final Pointer[] bins = new Pointer[SMALL_BINS];
+    private final long[] nonEmpty = new long[SMALL_BINS / 64];
+    private final TreeMap<Long, Pointer> large = new TreeMap<Long, Pointer>();
+
+    private int count;
+    private long freeBytes;
+
+    private static long key(int span, int start) {
+        return ((long) span << 32) | start;
+    }
+
+    private static int span(Pointer pointer) {
+        return pointer.getEnd() - pointer.getStart();
+    }
+
+    /**
+     * Indexes a free block. The block must not be modified until it is removed again.
+     */
+    void add(Pointer pointer) {
+        int span = span(pointer);
+        if (span < SMALL_BINS) {
+            Pointer head = bins[span];
+            pointer.setPrevFree(null);
+            pointer.setNextFree(head);
+            if (head != null) {
+                head.setPrevFree(pointer);
+            }
+            bins[span] = pointer;
+            nonEmpty[span >>> 6] |= 1L << span;
+        } else {
+            large.put(key(span, pointer.getStart()), pointer);
+        }
+        count++;
+        freeBytes += span + 1;
+    }
+
+    /**
+     * Removes a block previously passed to {@link #add(Pointer)}.
+     */
+    void remove(Pointer pointer) {
+        int span = span(pointer);
+        if (span < SMALL_BINS) {
+            Pointer prev = pointer.getPrevFree();
+            Pointer next = pointer.getNextFree();
+            if (prev == null) {
+                bins[span] = next;
+                if (next == null) {
+                    nonEmpty[span >>> 6] &= ~(1L << span);
+                }
+            } else {
+                prev.setNextFree(next);
+            }
+            if (next != null) {
+                next.setPrevFree(prev);
+            }
+            pointer.setPrevFree(null);
+            pointer.setNextFree(null);
+        } else {
+            large.remove(key(span, pointer.getStart()));
+        }
+        count--;
+        freeBytes -= span + 1;
+    }
+
+    /**
+     * Removes and returns the smallest free block whose span is at least <code>minSpan</code>.
+     * 
+     * @return null when no block is large enough
+     */
+    Pointer take(int minSpan) {
+        Pointer found = null;
+        if (minSpan < SMALL_BINS) {
+            int word = minSpan >>> 6;
+            long bits = nonEmpty[word] & (-1L << minSpan);
+            while (bits == 0 && ++word < nonEmpty.length) {
+                bits = nonEmpty[word];
+            }
+            if (bits != 0) {
+                found = bins[(word << 6) + Long.numberOfTrailingZeros(bits)];
+            }
+        }
+        if (found == null) {
+            Map.Entry<Long, Pointer> entry = large.ceilingEntry(key(Math.max(minSpan, SMALL_BINS), 0));
+            if (entry == null) {
+                return null;
+            }
+            found = entry.getValue();
+        }
+        remove(found);
+        return found;
+    }
+
+    /**
+     * @return Number of free blocks
+     */
+    int count() {
+        return count;
+    }
+
+    /**
+     * @return Total bytes held by free blocks
+     */
+    long freeBytes() {
+        return freeBytes;
+    }
+
+    /**
+     * @return Span of the largest free block, -1 when there is none
+     */
+    int largestSpan() {
+        if (!large.isEmpty()) {
+            return (int) (large.lastKey() >>> 32);
+        }
+        for (int word = nonEmpty.length - 1; word >= 0; word--) {
+            if (nonEmpty[word] != 0) {
+                return (word << 6) + 63 - Long.numberOfLeadingZeros(nonEmpty[word]);
+            }
+        }
+        return -1;
+    }
+
+    void clear() {
+        Arrays.fill(bins, null);
+        Arrays.fill(nonEmpty, 0L);
+        large.clear();
+        count = 0;
+        freeBytes = 0;
+    }
+}
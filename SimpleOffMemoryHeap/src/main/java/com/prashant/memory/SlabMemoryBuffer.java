@@ -0,0 +1,316 @@
+package com.prashant.memory;
+
+import com.prashant.exception.DMBufferOverFlowException;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+/**
+ * Slab allocator for fixed size records.
+ * <p>
+ * The buffer is split evenly between the configured record sizes, and each share into slots of exactly one record size. Which slots are
+ * taken is tracked in a bitmap held in a second direct buffer, one bit per slot, so nothing is kept on heap per record. A slot is taken or
+ * released with a single compare and set of its bitmap word, without any lock. Each size remembers the last word it found room in, so
+ * allocation finds a free slot right away unless the slab is close to full.
+ * </p>
+ * <p>
+ * A payload goes to the smallest record size that holds it, or to a larger one once that slab is full. Records are best stored through
+ * handles, see {@link #storeHandle(byte[])}, which skip the <code>Pointer</code> as well. All the live records can be scanned in address
+ * order with {@link #forEach(RecordVisitor)}.
+ * </p>
+ */
+public class SlabMemoryBuffer extends AbstractHandleMemoryBuffer {
+    private static final Logger logger = Logger.getAnonymousLogger();
+
+    private static final VarHandle WORDS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    /**
+     * Receives the live records of a scan.
+     */
+    public interface RecordVisitor {
+        /**
+         * @param records
+         *            read only view of the whole buffer, only valid during the call
+         * @param offset
+         *            of the record within <code>records</code>
+         * @param recordSize
+         *            bytes of the slot holding the record
+         */
+        void visit(ByteBuffer records, int offset, int recordSize);
+    }
+
+    /** Record sizes, ascending. */
+    private final int[] recordSizes;
+    /** First byte of the slab of each record size, the last element is the end of the last slab. */
+    private final int[] slabBase;
+    private final int[] slots;
+    /** First bitmap word of each slab. */
+    private final int[] wordBase;
+    /** Word of each slab where a slot was last found or released, a hint read and written without synchronization. */
+    private final int[] hints;
+
+    private final ByteBuffer bitmap;
+
+    /**
+     * Creates new instance of SlabMemoryBuffer with the specified capacity shared evenly between the record sizes, and bufferNumber
+     * 
+     */
+    public static SlabMemoryBuffer createNew(int capacity, int[] recordSizes, int bufferNumber) {
+        int[] sizes = recordSizes.clone();
+        Arrays.sort(sizes);
+        if (sizes.length == 0 || sizes[0] < 1) {
+            throw new IllegalArgumentException("A slab buffer needs record sizes of at least one byte");
+        }
+        logger.info("Creating slab memory buffer of capacity :" + capacity + " recordSizes:" + Arrays.toString(sizes) + " bufferNumber:"
+                + bufferNumber);
+        return new SlabMemoryBuffer(ByteBuffer.allocateDirect(capacity), sizes, bufferNumber);
+    }
+
+    private SlabMemoryBuffer(ByteBuffer buffer, int[] recordSizes, int bufferNumber) {
+        super(buffer, bufferNumber);
+        int count = recordSizes.length;
+        this.recordSizes = recordSizes;
+        this.slabBase = new int[count + 1];
+        this.slots = new int[count];
+        this.wordBase = new int[count + 1];
+        this.hints = new int[count];
+        int share = buffer.capacity() / count;
+        for (int c = 0; c < count; c++) {
+            slots[c] = share / recordSizes[c];
+            slabBase[c + 1] = slabBase[c] + slots[c] * recordSizes[c];
+            wordBase[c + 1] = wordBase[c] + (slots[c] + 63) / 64;
+        }
+        // Atomic access to the words needs them aligned in memory, not only within the buffer.
+        this.bitmap = ByteBuffer.allocateDirect(wordBase[count] * 8 + 7).alignedSlice(8).order(ByteOrder.nativeOrder());
+        reset();
+    }
+
+    /**
+     * Clears the bitmap, except for the bits past the last slot of each slab which stay set so they are never handed out.
+     */
+    private void reset() {
+        for (int w = 0; w < wordBase[recordSizes.length]; w++) {
+            bitmap.putLong(w * 8, 0L);
+        }
+        for (int c = 0; c < recordSizes.length; c++) {
+            int tail = slots[c] & 63;
+            if (tail != 0) {
+                bitmap.putLong((wordBase[c + 1] - 1) * 8, -1L << tail);
+            }
+            hints[c] = 0;
+        }
+    }
+
+    /**
+     * @return the record sizes, ascending
+     */
+    public int[] recordSizes() {
+        return recordSizes.clone();
+    }
+
+    /**
+     * @return Number of slots of the record size
+     */
+    public int slots(int recordSize) {
+        return slots[slabOf(recordSize)];
+    }
+
+    private int slabOf(int recordSize) {
+        int c = Arrays.binarySearch(recordSizes, recordSize);
+        if (c < 0) {
+            throw new IllegalArgumentException("No slab of record size " + recordSize);
+        }
+        return c;
+    }
+
+    /**
+     * @return slab holding the offset
+     */
+    private int slabAt(int offset) {
+        int c = 0;
+        while (c < recordSizes.length - 1 && offset >= slabBase[c + 1]) {
+            c++;
+        }
+        return c;
+    }
+
+    /**
+     * Takes a free slot of the slab.
+     * 
+     * @return offset of the slot or -1 when the slab is full
+     */
+    private int takeSlot(int c) {
+        int words = wordBase[c + 1] - wordBase[c];
+        int start = hints[c];
+        for (int n = 0; n < words; n++) {
+            int w = start + n < words ? start + n : start + n - words;
+            int index = (wordBase[c] + w) * 8;
+            long bits = (long) WORDS.getVolatile(bitmap, index);
+            while (bits != -1L) {
+                int bit = Long.numberOfTrailingZeros(~bits);
+                if (WORDS.compareAndSet(bitmap, index, bits, bits | (1L << bit))) {
+                    hints[c] = w;
+                    return slabBase[c] + (w * 64 + bit) * recordSizes[c];
+                }
+                bits = (long) WORDS.getVolatile(bitmap, index);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Releases the slot at the offset.
+     * 
+     * @return false when it was not taken
+     */
+    private boolean releaseSlot(int offset) {
+        if (offset < 0 || offset >= slabBase[recordSizes.length]) {
+            return false;
+        }
+        int c = slabAt(offset);
+        if ((offset - slabBase[c]) % recordSizes[c] != 0) {
+            return false;
+        }
+        int slot = (offset - slabBase[c]) / recordSizes[c];
+        int w = slot >>> 6;
+        int index = (wordBase[c] + w) * 8;
+        long mask = 1L << (slot & 63);
+        long bits;
+        do {
+            bits = (long) WORDS.getVolatile(bitmap, index);
+            if ((bits & mask) == 0) {
+                return false;
+            }
+        } while (!WORDS.compareAndSet(bitmap, index, bits, bits & ~mask));
+        hints[c] = w;
+        return true;
+    }
+
+    /**
+     * @return offset of a slot of the smallest record size holding <code>capacity</code> bytes that still has room
+     */
+    private int reserve(int capacity) throws DMBufferOverFlowException {
+        for (int c = 0; c < recordSizes.length; c++) {
+            if (recordSizes[c] >= capacity) {
+                int offset = takeSlot(c);
+                if (offset != -1) {
+                    return offset;
+                }
+            }
+        }
+        throw new DMBufferOverFlowException("did not find a suitable buffer", null);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.AbstractMemoryBuffer#allocate(int)
+     */
+    protected Pointer allocate(int capacity) throws DMBufferOverFlowException {
+        int offset = reserve(capacity);
+        Pointer fresh = new Pointer();
+        fresh.setBlockNumber(bufferNumber);
+        fresh.setStart(offset);
+        fresh.setEnd(offset + capacity);
+        fresh.setFree(false);
+        return fresh;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.AbstractMemoryBuffer#release(com.prashant.memory.Pointer)
+     */
+    protected long release(Pointer pointer2free) {
+        if (pointer2free.isFree() || !releaseSlot(pointer2free.getStart())) {
+            return 0;
+        }
+        pointer2free.setFree(true);
+        pointer2free.setClazz(null);
+        long freed = pointer2free.getEnd() - pointer2free.getStart();
+        used.addAndGet((int) -freed);
+        return freed;
+    }
+
+    /**
+     * Stores the payload in a slot without creating a <code>Pointer</code>.
+     * 
+     * @see com.prashant.memory.HandleMemoryBuffer#storeHandle(byte[])
+     */
+    public long storeHandle(byte[] payload) throws DMBufferOverFlowException {
+        if (payload.length > Handles.MAX_LENGTH) {
+            throw new DMBufferOverFlowException("An attempt to store more than a handle can address", null);
+        }
+        reclaim();
+        int offset = reserve(payload.length);
+        used.addAndGet(payload.length);
+        write(offset, payload);
+        return Handles.encode(bufferNumber, offset, payload.length);
+    }
+
+    /**
+     * Freeing a handle twice is detected through the bitmap, as long as the slot was not handed out again in between.
+     * 
+     * @see com.prashant.memory.AbstractHandleMemoryBuffer#release(long)
+     */
+    protected long release(long handle) {
+        if (!releaseSlot(Handles.offset(handle))) {
+            return 0;
+        }
+        int length = Handles.length(handle);
+        used.addAndGet(-length);
+        return length;
+    }
+
+    /**
+     * Visits the live records of every record size, in address order. Records stored or freed during the scan may or may not be visited.
+     */
+    public void forEach(RecordVisitor visitor) {
+        for (int c = 0; c < recordSizes.length; c++) {
+            scan(c, visitor);
+        }
+    }
+
+    /**
+     * Visits the live records of one record size, in address order.
+     */
+    public void forEach(int recordSize, RecordVisitor visitor) {
+        scan(slabOf(recordSize), visitor);
+    }
+
+    private void scan(int c, RecordVisitor visitor) {
+        ByteBuffer records = buffer.asReadOnlyBuffer();
+        EpochReclaimer.Participant reader = epochs.enter();
+        try {
+            for (int w = 0; w < wordBase[c + 1] - wordBase[c]; w++) {
+                long bits = (long) WORDS.getVolatile(bitmap, (wordBase[c] + w) * 8);
+                if (w == wordBase[c + 1] - wordBase[c] - 1 && (slots[c] & 63) != 0) {
+                    bits &= ~(-1L << (slots[c] & 63));
+                }
+                while (bits != 0) {
+                    int bit = Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                    visitor.visit(records, slabBase[c] + (w * 64 + bit) * recordSizes[c], recordSizes[c]);
+                }
+            }
+        } finally {
+            epochs.exit(reader);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#clear()
+     */
+    public void clear() {
+        epochs.discard();
+        reset();
+        buffer.clear();
+        used.set(0);
+    }
+}
@@ -0,0 +1,549 @@
+package com.prashant.memory;
+
+import com.prashant.exception.DMBufferOverFlowException;
+import com.prashant.exception.DMFrameLimitExcededException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Memory buffer split into independent shards, so threads storing at the same time do not contend on the locks and counters of a single
+ * buffer.
+ * <p>
+ * Each thread stores into its home shard, picked from its thread id, and spills over to the next shards in turn when that one is full. The
+ * <code>bufferNumber</code> of a shard is its index, carried by every <code>Pointer</code> as its <code>blockNumber</code> and by every
+ * handle as its segment, so retrieve, update and free go straight to the shard the block is in, whichever thread calls them.
+ * </p>
+ * <p>
+ * Nothing is shared between the shards: {@link #used()} adds up the shards when it is called, and the capacity is fixed at creation.
+ * </p>
+ * <p>
+ * A striped buffer of shards that are <code>HandleMemoryBuffer</code>s is one as well, and spills stores by handle the same way.
+ * </p>
+ */
+public class StripedMemoryBuffer implements MemoryBuffer {
+    private static final Logger logger = Logger.getAnonymousLogger();
+
+    final MemoryBuffer[] shards;
+    private final int capacity;
+
+    /**
+     * Creates new striped buffer of <code>DirectMemoryBuffer</code> shards, one per available processor, sharing the specified capacity.
+     * 
+     */
+    public static StripedMemoryBuffer createNew(int capacity) {
+        return createNew(capacity, Math.min(Runtime.getRuntime().availableProcessors(), Handles.MAX_SEGMENT + 1));
+    }
+
+    /**
+     * Creates new striped buffer of as many <code>DirectMemoryBuffer</code> shards as specified, sharing the specified capacity.
+     * 
+     */
+    public static StripedMemoryBuffer createNew(int capacity, int shards) {
+        return createNew(capacity, shards, MemoryPool.DIRECT);
+    }
+
+    /**
+     * Creates new striped buffer of as many shards made by the factory as specified, sharing the specified capacity.
+     * 
+     */
+    public static StripedMemoryBuffer createNew(int capacity, int shards, MemoryPool.SegmentFactory factory) {
+        if (shards < 1 || shards > Handles.MAX_SEGMENT + 1 || capacity / shards < 1) {
+            throw new IllegalArgumentException("Can not split " + capacity + " bytes into " + shards + " shards");
+        }
+        logger.info("Creating striped memory buffer of capacity :" + capacity + " shards:" + shards);
+        MemoryBuffer[] created = new MemoryBuffer[shards];
+        boolean handles = true;
+        for (int i = 0; i < shards; i++) {
+            created[i] = factory.create(capacity / shards, i);
+            handles &= created[i] instanceof HandleMemoryBuffer;
+        }
+        return handles ? new WithHandles(created) : new StripedMemoryBuffer(created);
+    }
+
+    private StripedMemoryBuffer(MemoryBuffer[] shards) {
+        this.shards = shards;
+        int total = 0;
+        for (MemoryBuffer shard : shards) {
+            total += shard.capacity();
+        }
+        this.capacity = total;
+    }
+
+    /**
+     * @return Number of shards
+     */
+    public int shards() {
+        return shards.length;
+    }
+
+    MemoryBuffer shard(Pointer pointer) {
+        return shards[pointer.getBlockNumber()];
+    }
+
+    /**
+     * @return Index of the shard the current thread stores into first
+     */
+    int home() {
+        return (int) (Thread.currentThread().getId() % shards.length);
+    }
+
+    /**
+     * @return Index of the shard to try after <code>tried</code> others, counted from the home shard, or -1 to skip it as it does not have
+     *         <code>need</code> free bytes. The home shard is always tried.
+     */
+    int spill(int home, int tried, int need) {
+        int i = (home + tried) % shards.length;
+        return tried == 0 || shards[i].capacity() - shards[i].used() >= need ? i : -1;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#used()
+     */
+    public int used() {
+        int used = 0;
+        for (MemoryBuffer shard : shards) {
+            used += shard.used();
+        }
+        return used;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#capacity()
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#store(byte[], int)
+     */
+    public Pointer store(byte[] payload, int capacity) throws DMBufferOverFlowException {
+        return place(payload, capacity, 0);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#store(byte[], int, int)
+     */
+    public Pointer store(byte[] payload, int capacity, int alignment) throws DMBufferOverFlowException {
+        if (alignment < 1) {
+            throw new IllegalArgumentException("Alignment must be a power of two, not " + alignment);
+        }
+        return place(payload, capacity, alignment);
+    }
+
+    /**
+     * Stores in the home shard, spilling to the others when it is full.
+     * 
+     * @param alignment
+     *            0 for the default alignment of the shards
+     */
+    private Pointer place(byte[] payload, int capacity, int alignment) throws DMBufferOverFlowException {
+        int home = home();
+        for (int tried = 0; tried < shards.length; tried++) {
+            int i = spill(home, tried, capacity);
+            if (i == -1) {
+                continue;
+            }
+            try {
+                return alignment == 0 ? shards[i].store(payload, capacity) : shards[i].store(payload, capacity, alignment);
+            } catch (DMBufferOverFlowException e) {
+                // Full or fragmented, spill to the next shard.
+            }
+        }
+        throw new DMBufferOverFlowException("did not find a suitable buffer in any of the shards", null);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#store(byte[])
+     */
+    public Pointer store(byte[] payload) throws DMBufferOverFlowException {
+        return store(payload, payload.length);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#store(java.lang.Object)
+     */
+    public <T> Pointer store(T value) throws DMBufferOverFlowException {
+        int size = OffHeapCodecs.codec(value.getClass()).size(value);
+        int home = home();
+        for (int tried = 0; tried < shards.length; tried++) {
+            int i = spill(home, tried, size);
+            if (i == -1) {
+                continue;
+            }
+            try {
+                return shards[i].store(value);
+            } catch (DMBufferOverFlowException e) {
+                // Full or fragmented, spill to the next shard.
+            }
+        }
+        throw new DMBufferOverFlowException("did not find a suitable buffer in any of the shards", null);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#load(com.prashant.memory.Pointer)
+     */
+    public <T> T load(Pointer pointer) throws DMFrameLimitExcededException {
+        return shard(pointer).load(pointer);
+    }
+
+    /**
+     * A shard only overflows before it reads from the channel, so the next one can still be tried.
+     * 
+     * @see com.prashant.memory.MemoryBuffer#store(java.nio.channels.ReadableByteChannel, long)
+     */
+    public Pointer store(ReadableByteChannel src, long length) throws DMBufferOverFlowException, IOException {
+        if (length < 0 || length > shards[0].capacity()) {
+            throw new DMBufferOverFlowException("An attempt to store more than a shard holds", null);
+        }
+        int home = home();
+        for (int tried = 0; tried < shards.length; tried++) {
+            int i = spill(home, tried, (int) length);
+            if (i == -1) {
+                continue;
+            }
+            try {
+                return shards[i].store(src, length);
+            } catch (DMBufferOverFlowException e) {
+                // Full or fragmented, spill to the next shard.
+            }
+        }
+        throw new DMBufferOverFlowException("did not find a suitable buffer in any of the shards", null);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#store(java.io.InputStream, long)
+     */
+    public Pointer store(InputStream src, long length) throws DMBufferOverFlowException, IOException {
+        return store(Channels.newChannel(src), length);
+    }
+
+    /**
+     * Stores the whole batch in the home shard in one go. When it does not fit there, stores one payload after the other, spilling as
+     * needed, and frees the ones already stored when one does not fit anywhere.
+     * 
+     * @see com.prashant.memory.MemoryBuffer#storeAll(byte[][])
+     */
+    public Pointer[] storeAll(byte[][] payloads) throws DMBufferOverFlowException {
+        try {
+            return shards[home()].storeAll(payloads);
+        } catch (DMBufferOverFlowException e) {
+            // Spill payload by payload.
+        }
+        Pointer[] pointers = new Pointer[payloads.length];
+        int i = 0;
+        try {
+            for (; i < payloads.length; i++) {
+                pointers[i] = store(payloads[i]);
+            }
+            return pointers;
+        } catch (DMBufferOverFlowException e) {
+            for (int j = 0; j < i; j++) {
+                free(pointers[j]);
+            }
+            throw e;
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#retrieve(com.prashant.memory.Pointer, int, int)
+     */
+    public byte[] retrieve(Pointer pointer, int offset, int len) throws DMFrameLimitExcededException {
+        return shard(pointer).retrieve(pointer, offset, len);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#retrieve(com.prashant.memory.Pointer)
+     */
+    public byte[] retrieve(Pointer pointer) throws DMFrameLimitExcededException {
+        return shard(pointer).retrieve(pointer);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#retrieve(com.prashant.memory.Pointer, int, byte[], int, int)
+     */
+    public void retrieve(Pointer pointer, int offset, byte[] dst, int dstOffset, int len) throws DMFrameLimitExcededException {
+        shard(pointer).retrieve(pointer, offset, dst, dstOffset, len);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#retrieve(com.prashant.memory.Pointer, int, java.nio.ByteBuffer)
+     */
+    public void retrieve(Pointer pointer, int offset, ByteBuffer dst) throws DMFrameLimitExcededException {
+        shard(pointer).retrieve(pointer, offset, dst);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#view(com.prashant.memory.Pointer)
+     */
+    public ByteBuffer view(Pointer pointer) {
+        return shard(pointer).view(pointer);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#getByte(com.prashant.memory.Pointer, int)
+     */
+    public byte getByte(Pointer pointer, int offset) throws DMFrameLimitExcededException {
+        return shard(pointer).getByte(pointer, offset);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#getShort(com.prashant.memory.Pointer, int)
+     */
+    public short getShort(Pointer pointer, int offset) throws DMFrameLimitExcededException {
+        return shard(pointer).getShort(pointer, offset);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#getInt(com.prashant.memory.Pointer, int)
+     */
+    public int getInt(Pointer pointer, int offset) throws DMFrameLimitExcededException {
+        return shard(pointer).getInt(pointer, offset);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#getLong(com.prashant.memory.Pointer, int)
+     */
+    public long getLong(Pointer pointer, int offset) throws DMFrameLimitExcededException {
+        return shard(pointer).getLong(pointer, offset);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#putByte(com.prashant.memory.Pointer, int, byte)
+     */
+    public void putByte(Pointer pointer, int offset, byte value) throws DMFrameLimitExcededException {
+        shard(pointer).putByte(pointer, offset, value);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#putShort(com.prashant.memory.Pointer, int, short)
+     */
+    public void putShort(Pointer pointer, int offset, short value) throws DMFrameLimitExcededException {
+        shard(pointer).putShort(pointer, offset, value);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#putInt(com.prashant.memory.Pointer, int, int)
+     */
+    public void putInt(Pointer pointer, int offset, int value) throws DMFrameLimitExcededException {
+        shard(pointer).putInt(pointer, offset, value);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#putLong(com.prashant.memory.Pointer, int, long)
+     */
+    public void putLong(Pointer pointer, int offset, long value) throws DMFrameLimitExcededException {
+        shard(pointer).putLong(pointer, offset, value);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#retrieveAll(com.prashant.memory.Pointer[], java.nio.ByteBuffer)
+     */
+    public void retrieveAll(Pointer[] pointers, ByteBuffer dst) throws DMFrameLimitExcededException {
+        long total = 0;
+        for (Pointer pointer : pointers) {
+            total += pointer.getEnd() - pointer.getStart();
+        }
+        if (total > dst.remaining()) {
+            throw new BufferOverflowException();
+        }
+        int limit = dst.limit();
+        try {
+            for (Pointer pointer : pointers) {
+                dst.limit(dst.position() + pointer.getEnd() - pointer.getStart());
+                shard(pointer).retrieve(pointer, 0, dst);
+            }
+        } finally {
+            dst.limit(limit);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#transferTo(com.prashant.memory.Pointer, java.nio.channels.WritableByteChannel)
+     */
+    public long transferTo(Pointer pointer, WritableByteChannel target) throws IOException {
+        return shard(pointer).transferTo(pointer, target);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#free(com.prashant.memory.Pointer)
+     */
+    public long free(Pointer pointer2free) {
+        return shard(pointer2free).free(pointer2free);
+    }
+
+    /**
+     * Frees the pointers of each shard as one batch.
+     * 
+     * @see com.prashant.memory.MemoryBuffer#freeAll(java.util.Collection)
+     */
+    public long freeAll(Collection<Pointer> pointers) {
+        List<List<Pointer>> byShard = new ArrayList<List<Pointer>>(shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            byShard.add(null);
+        }
+        for (Pointer pointer : pointers) {
+            List<Pointer> batch = byShard.get(pointer.getBlockNumber());
+            if (batch == null) {
+                batch = new ArrayList<Pointer>();
+                byShard.set(pointer.getBlockNumber(), batch);
+            }
+            batch.add(pointer);
+        }
+        long freed = 0;
+        for (int i = 0; i < shards.length; i++) {
+            if (byShard.get(i) != null) {
+                freed += shards[i].freeAll(byShard.get(i));
+            }
+        }
+        return freed;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#clear()
+     */
+    public void clear() {
+        for (MemoryBuffer shard : shards) {
+            shard.clear();
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#update(com.prashant.memory.Pointer, byte[], int)
+     */
+    public void update(Pointer pointer, byte[] payload, int offset) throws DMFrameLimitExcededException {
+        shard(pointer).update(pointer, payload, offset);
+    }
+
+    /**
+     * Resized within its shard when possible. When the shard has no room left, the new block goes to the home shard of the calling thread, or
+     * spills like any store.
+     * 
+     * @see com.prashant.memory.MemoryBuffer#update(com.prashant.memory.Pointer, byte[])
+     */
+    public Pointer update(Pointer pointer, byte[] payload) throws DMBufferOverFlowException {
+        try {
+            return shard(pointer).update(pointer, payload);
+        } catch (DMBufferOverFlowException e) {
+            // Freed, but its shard has no room left for the payload.
+            Pointer fresh = place(payload, Math.max(payload.length, pointer.getReserved()), pointer.getAlignment());
+            fresh.setReserved(pointer.getReserved());
+            return fresh;
+        }
+    }
+
+    /**
+     * Striped buffer of shards that store by handle.
+     */
+    private static final class WithHandles extends StripedMemoryBuffer implements HandleMemoryBuffer {
+
+        WithHandles(MemoryBuffer[] shards) {
+            super(shards);
+        }
+
+        private HandleMemoryBuffer handles(long handle) {
+            return (HandleMemoryBuffer) shards[Handles.segment(handle)];
+        }
+
+        /*
+         * (non-Javadoc)
+         * 
+         * @see com.prashant.memory.HandleMemoryBuffer#storeHandle(byte[])
+         */
+        public long storeHandle(byte[] payload) throws DMBufferOverFlowException {
+            int home = home();
+            for (int tried = 0; tried < shards.length; tried++) {
+                int i = spill(home, tried, payload.length);
+                if (i == -1) {
+                    continue;
+                }
+                try {
+                    return ((HandleMemoryBuffer) shards[i]).storeHandle(payload);
+                } catch (DMBufferOverFlowException e) {
+                    // Full or fragmented, spill to the next shard.
+                }
+            }
+            throw new DMBufferOverFlowException("did not find a suitable buffer in any of the shards", null);
+        }
+
+        /*
+         * (non-Javadoc)
+         * 
+         * @see com.prashant.memory.HandleMemoryBuffer#retrieve(long)
+         */
+        public byte[] retrieve(long handle) throws DMFrameLimitExcededException {
+            return handles(handle).retrieve(handle);
+        }
+
+        /*
+         * (non-Javadoc)
+         * 
+         * @see com.prashant.memory.HandleMemoryBuffer#free(long)
+         */
+        public long free(long handle) {
+            return handles(handle).free(handle);
+        }
+    }
+}
@@ -0,0 +1,870 @@
+package com.prashant.memory;
+
+import com.prashant.exception.DMBufferOverFlowException;
+import com.prashant.exception.DMFrameLimitExcededException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Samples the stores on a memory buffer it wraps, to tell where the off heap memory goes and which blocks are never freed.
+ * <p>
+ * A fraction of the stores, the sample rate, records the stack of the caller. The pointer of a sampled store is handed out wrapped and
+ * registered with a <code>Cleaner</code>, so when the caller drops it without freeing the block the block is counted as leaked, and the first
+ * leak of each stack is logged. The wrapper is what becomes unreachable, buffers link their live blocks to each other. A store that is not
+ * sampled costs a random draw and returns the pointer of the wrapped buffer as it is, a sample rate of 1% can be left on in production.
+ * </p>
+ * <p>
+ * Sampled blocks are summed up by the stack they were stored from, see {@link #sites(int)}, which {@link #startReporting(long, int)} logs
+ * periodically. Counts are those of the sampled blocks, divided by the sample rate they estimate all of them. A
+ * <code>HandleMemoryBuffer</code> is wrapped in a {@link WithHandles}, whose blocks stored by handle are counted while live but cannot be
+ * found leaking, a handle is a number.
+ * </p>
+ */
+public class TrackingMemoryBuffer implements MemoryBuffer {
+    private static final Logger logger = Logger.getAnonymousLogger();
+    private static final Cleaner cleaner = Cleaner.create();
+    private static final StackWalker walker = StackWalker.getInstance(StackWalker.Option.RETAIN_CLASS_REFERENCE);
+
+    public static final double DEFAULT_SAMPLE_RATE = 0.01;
+    public static final int DEFAULT_DEPTH = 8;
+
+    /**
+     * Blocks stored from one stack.
+     */
+    private static final class Site {
+        final StackTraceElement[] frames;
+        final LongAdder liveBlocks = new LongAdder();
+        final LongAdder liveBytes = new LongAdder();
+        // Sum of the times the live blocks were stored at, for their mean age
+        final LongAdder bornMillis = new LongAdder();
+        final LongAdder leakedBlocks = new LongAdder();
+        final LongAdder leakedBytes = new LongAdder();
+        final AtomicBoolean logged = new AtomicBoolean();
+
+        Site(StackTraceElement[] frames) {
+            this.frames = frames;
+        }
+    }
+
+    /**
+     * A sampled block, released once whether it is freed, moved, cleared or found leaking.
+     */
+    private final class Allocation implements Runnable {
+        final Site site;
+        final Pointer pointer;
+        final long born;
+        final AtomicBoolean released = new AtomicBoolean();
+        volatile int bytes;
+        Cleaner.Cleanable cleanable;
+
+        Allocation(Site site, Pointer pointer, int bytes, long born) {
+            this.site = site;
+            this.pointer = pointer;
+            this.bytes = bytes;
+            this.born = born;
+            site.liveBlocks.increment();
+            site.liveBytes.add(bytes);
+            site.bornMillis.add(born);
+            live.add(this);
+        }
+
+        void resize(int bytes) {
+            if (!released.get()) {
+                site.liveBytes.add(bytes - this.bytes);
+                this.bytes = bytes;
+            }
+        }
+
+        boolean release() {
+            if (!released.compareAndSet(false, true)) {
+                return false;
+            }
+            site.liveBlocks.decrement();
+            site.liveBytes.add(-bytes);
+            site.bornMillis.add(-born);
+            live.remove(this);
+            return true;
+        }
+
+        /**
+         * Runs on the thread of the cleaner once the wrapper became unreachable, or when it is freed.
+         */
+        public void run() {
+            if (!release()) {
+                return;
+            }
+            // Freed before the leak is counted, so whoever sees the count sees the block freed or kept for good
+            if (freeLeaks) {
+                delegate.free(pointer);
+            }
+            site.leakedBlocks.increment();
+            site.leakedBytes.add(bytes);
+            leaks.increment();
+            if (site.logged.compareAndSet(false, true)) {
+                logger.warning("Block of " + bytes + " bytes never freed, stored " + Arrays.toString(site.frames));
+            }
+        }
+    }
+
+    /**
+     * The pointer handed out for a sampled store, reading and writing through to the pointer of the wrapped buffer.
+     */
+    private static final class TrackedPointer extends Pointer {
+        final Pointer pointer;
+        final Allocation allocation;
+
+        TrackedPointer(Pointer pointer, Allocation allocation) {
+            this.pointer = pointer;
+            this.allocation = allocation;
+        }
+
+        @Override
+        public long getBase() {
+            return pointer.getBase();
+        }
+
+        @Override
+        public void setBase(long base) {
+            pointer.setBase(base);
+        }
+
+        @Override
+        public int getStart() {
+            return pointer.getStart();
+        }
+
+        @Override
+        public void setStart(int start) {
+            pointer.setStart(start);
+        }
+
+        @Override
+        public int getEnd() {
+            return pointer.getEnd();
+        }
+
+        @Override
+        public void setEnd(int end) {
+            pointer.setEnd(end);
+        }
+
+        @Override
+        public boolean isFree() {
+            return pointer.isFree();
+        }
+
+        @Override
+        public void setFree(boolean free) {
+            pointer.setFree(free);
+        }
+
+        @Override
+        public int getAlignment() {
+            return pointer.getAlignment();
+        }
+
+        @Override
+        public int getReserved() {
+            return pointer.getReserved();
+        }
+
+        @Override
+        public int getBlockNumber() {
+            return pointer.getBlockNumber();
+        }
+
+        @Override
+        public void setBlockNumber(int blockNumber) {
+            pointer.setBlockNumber(blockNumber);
+        }
+
+        @Override
+        public Pointer getNext() {
+            return pointer.getNext();
+        }
+
+        @Override
+        public void setNext(Pointer next) {
+            pointer.setNext(next);
+        }
+
+        @Override
+        public Pointer getPrev() {
+            return pointer.getPrev();
+        }
+
+        @Override
+        public void setPrev(Pointer prev) {
+            pointer.setPrev(prev);
+        }
+
+        @Override
+        public Class<? extends Object> getClazz() {
+            return pointer.getClazz();
+        }
+
+        @Override
+        public void setClazz(Class<? extends Object> clazz) {
+            pointer.setClazz(clazz);
+        }
+    }
+
+    private final MemoryBuffer delegate;
+    private final int depth;
+    private final long origin = System.nanoTime();
+    private volatile double sampleRate;
+    private volatile boolean freeLeaks;
+
+    private final ConcurrentHashMap<List<Object>, Site> sites = new ConcurrentHashMap<List<Object>, Site>();
+    private final Set<Allocation> live = ConcurrentHashMap.newKeySet();
+    private final ConcurrentHashMap<Long, Allocation> byHandle = new ConcurrentHashMap<Long, Allocation>();
+    private final LongAdder leaks = new LongAdder();
+
+    private volatile Thread reporter;
+
+    /**
+     * Walks only as many frames as kept, far cheaper than filling in the whole stack of a <code>Throwable</code>.
+     */
+    private final Function<Stream<StackWalker.StackFrame>, List<StackWalker.StackFrame>> caller = new Function<
+            Stream<StackWalker.StackFrame>, List<StackWalker.StackFrame>>() {
+        public List<StackWalker.StackFrame> apply(Stream<StackWalker.StackFrame> stack) {
+            List<StackWalker.StackFrame> frames = new ArrayList<StackWalker.StackFrame>(depth);
+            Iterator<StackWalker.StackFrame> iterator = stack.iterator();
+            while (iterator.hasNext() && frames.size() < depth) {
+                StackWalker.StackFrame frame = iterator.next();
+                Class<?> declaring = frame.getDeclaringClass();
+                if (!frames.isEmpty() || (declaring != TrackingMemoryBuffer.class && declaring != WithHandles.class)) {
+                    frames.add(frame);
+                }
+            }
+            return frames;
+        }
+    };
+
+    /**
+     * Samples {@link #DEFAULT_SAMPLE_RATE} of the stores, keeping {@link #DEFAULT_DEPTH} frames of their stack.
+     */
+    public TrackingMemoryBuffer(MemoryBuffer delegate) {
+        this(delegate, DEFAULT_SAMPLE_RATE, DEFAULT_DEPTH);
+    }
+
+    /**
+     * @param sampleRate
+     *            fraction of the stores sampled, between 0 and 1
+     * @param depth
+     *            frames kept of the stack of a sampled store, the ones of the caller
+     */
+    public TrackingMemoryBuffer(MemoryBuffer delegate, double sampleRate, int depth) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("A site is at least one frame deep");
+        }
+        this.delegate = delegate;
+        this.depth = depth;
+        setSampleRate(sampleRate);
+    }
+
+    /**
+     * @return the buffer doing the actual work
+     */
+    public MemoryBuffer getDelegate() {
+        return delegate;
+    }
+
+    public double getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * Takes effect for the stores to come, blocks already sampled stay tracked. 0 stops sampling.
+     */
+    public void setSampleRate(double sampleRate) {
+        if (!(sampleRate >= 0 && sampleRate <= 1)) {
+            throw new IllegalArgumentException("Sample rate " + sampleRate + " is not between 0 and 1");
+        }
+        this.sampleRate = sampleRate;
+    }
+
+    public boolean isFreeLeaks() {
+        return freeLeaks;
+    }
+
+    /**
+     * @param freeLeaks
+     *            whether a leaked block is freed once found, rather than only counted
+     */
+    public void setFreeLeaks(boolean freeLeaks) {
+        this.freeLeaks = freeLeaks;
+    }
+
+    /**
+     * @return sampled blocks found leaking so far
+     */
+    public long leaks() {
+        return leaks.sum();
+    }
+
+    /**
+     * @return the sites holding most, live bytes and leaked bytes together, the oldest first among equals
+     */
+    public List<AllocationSite> sites(int top) {
+        long now = now();
+        List<AllocationSite> snapshot = new ArrayList<AllocationSite>();
+        for (Site site : sites.values()) {
+            long liveBlocks = site.liveBlocks.sum();
+            long liveBytes = site.liveBytes.sum();
+            long leakedBytes = site.leakedBytes.sum();
+            if (liveBytes + leakedBytes > 0) {
+                long age = liveBlocks > 0 ? now - site.bornMillis.sum() / liveBlocks : 0;
+                snapshot.add(new AllocationSite(site.frames, liveBlocks, liveBytes, age, site.leakedBlocks.sum(), leakedBytes));
+            }
+        }
+        Collections.sort(snapshot, new Comparator<AllocationSite>() {
+            public int compare(AllocationSite one, AllocationSite other) {
+                int held = Long.compare(other.getLiveBytes() + other.getLeakedBytes(), one.getLiveBytes() + one.getLeakedBytes());
+                return held != 0 ? held : Long.compare(other.getAverageAgeMillis(), one.getAverageAgeMillis());
+            }
+        });
+        return snapshot.subList(0, Math.min(top, snapshot.size()));
+    }
+
+    /**
+     * @return {@link #sites(int)} as text
+     */
+    public String report(int top) {
+        StringBuilder report = new StringBuilder("Top allocation sites, sampled at ").append(sampleRate).append(", ").append(leaks())
+                .append(" leaked blocks");
+        for (AllocationSite site : sites(top)) {
+            report.append('\n').append(site);
+        }
+        return report.toString();
+    }
+
+    /**
+     * Starts a daemon thread logging the {@link #report(int)} every period.
+     */
+    public synchronized void startReporting(final long periodMillis, final int top) {
+        if (reporter == null) {
+            reporter = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        while (reporter == Thread.currentThread()) {
+                            Thread.sleep(periodMillis);
+                            logger.info(report(top));
+                        }
+                    } catch (InterruptedException e) {
+                        logger.fine("Allocation report stopped");
+                    }
+                }
+            }, "allocation-report");
+            reporter.setDaemon(true);
+            reporter.start();
+        }
+    }
+
+    public synchronized void stopReporting() throws InterruptedException {
+        Thread running = reporter;
+        reporter = null;
+        if (running != null) {
+            running.interrupt();
+            running.join();
+        }
+    }
+
+    private long now() {
+        return (System.nanoTime() - origin) / 1000000;
+    }
+
+    private boolean sampled() {
+        double rate = sampleRate;
+        return rate > 0 && ThreadLocalRandom.current().nextDouble() < rate;
+    }
+
+    /**
+     * @return the site of the caller, the frames of this class left out
+     */
+    private Site site() {
+        List<StackWalker.StackFrame> frames = walker.walk(caller);
+        // Class, method and bytecode index identify a frame, its file and line are only looked up for a new site
+        List<Object> key = new ArrayList<Object>(frames.size() * 3);
+        for (StackWalker.StackFrame frame : frames) {
+            key.add(frame.getDeclaringClass());
+            key.add(frame.getMethodName());
+            key.add(frame.getByteCodeIndex());
+        }
+        Site site = sites.get(key);
+        if (site == null) {
+            StackTraceElement[] elements = new StackTraceElement[frames.size()];
+            for (int i = 0; i < elements.length; i++) {
+                elements[i] = frames.get(i).toStackTraceElement();
+            }
+            Site fresh = new Site(elements);
+            site = sites.putIfAbsent(key, fresh);
+            if (site == null) {
+                site = fresh;
+            }
+        }
+        return site;
+    }
+
+    private Pointer track(Pointer pointer, Site site, long born) {
+        Allocation allocation = new Allocation(site, pointer, pointer.getEnd() - pointer.getStart(), born);
+        TrackedPointer tracked = new TrackedPointer(pointer, allocation);
+        allocation.cleanable = cleaner.register(tracked, allocation);
+        return tracked;
+    }
+
+    private static Pointer unwrap(Pointer pointer) {
+        return pointer instanceof TrackedPointer ? ((TrackedPointer) pointer).pointer : pointer;
+    }
+
+    /**
+     * Releases a sampled block without counting it as leaked.
+     */
+    private static void release(Pointer pointer) {
+        if (pointer instanceof TrackedPointer) {
+            Allocation allocation = ((TrackedPointer) pointer).allocation;
+            allocation.release();
+            allocation.cleanable.clean();
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#store(byte[], int)
+     */
+    public Pointer store(byte[] payload, int capacity) throws DMBufferOverFlowException {
+        if (!sampled()) {
+            return delegate.store(payload, capacity);
+        }
+        Site site = site();
+        return track(delegate.store(payload, capacity), site, now());
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#store(byte[], int, int)
+     */
+    public Pointer store(byte[] payload, int capacity, int alignment) throws DMBufferOverFlowException {
+        if (!sampled()) {
+            return delegate.store(payload, capacity, alignment);
+        }
+        Site site = site();
+        return track(delegate.store(payload, capacity, alignment), site, now());
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#store(byte[])
+     */
+    public Pointer store(byte[] payload) throws DMBufferOverFlowException {
+        if (!sampled()) {
+            return delegate.store(payload);
+        }
+        Site site = site();
+        return track(delegate.store(payload), site, now());
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#store(java.lang.Object)
+     */
+    public <T> Pointer store(T value) throws DMBufferOverFlowException {
+        if (!sampled()) {
+            return delegate.store(value);
+        }
+        Site site = site();
+        return track(delegate.store(value), site, now());
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#load(com.prashant.memory.Pointer)
+     */
+    public <T> T load(Pointer pointer) throws DMFrameLimitExcededException {
+        return delegate.load(unwrap(pointer));
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#store(java.nio.channels.ReadableByteChannel, long)
+     */
+    public Pointer store(ReadableByteChannel src, long length) throws DMBufferOverFlowException, IOException {
+        if (!sampled()) {
+            return delegate.store(src, length);
+        }
+        Site site = site();
+        return track(delegate.store(src, length), site, now());
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#store(java.io.InputStream, long)
+     */
+    public Pointer store(InputStream src, long length) throws DMBufferOverFlowException, IOException {
+        if (!sampled()) {
+            return delegate.store(src, length);
+        }
+        Site site = site();
+        return track(delegate.store(src, length), site, now());
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#transferTo(com.prashant.memory.Pointer, java.nio.channels.WritableByteChannel)
+     */
+    public long transferTo(Pointer pointer, WritableByteChannel target) throws IOException {
+        return delegate.transferTo(unwrap(pointer), target);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#storeAll(byte[][])
+     */
+    public Pointer[] storeAll(byte[][] payloads) throws DMBufferOverFlowException {
+        Pointer[] pointers = delegate.storeAll(payloads);
+        Site site = null;
+        for (int i = 0; i < pointers.length; i++) {
+            if (sampled()) {
+                if (site == null) {
+                    site = site();
+                }
+                pointers[i] = track(pointers[i], site, now());
+            }
+        }
+        return pointers;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#freeAll(java.util.Collection)
+     */
+    public long freeAll(Collection<Pointer> pointers) {
+        List<Pointer> unwrapped = new ArrayList<Pointer>(pointers.size());
+        for (Pointer pointer : pointers) {
+            unwrapped.add(unwrap(pointer));
+        }
+        long freed = delegate.freeAll(unwrapped);
+        for (Pointer pointer : pointers) {
+            release(pointer);
+        }
+        return freed;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#retrieveAll(com.prashant.memory.Pointer[], java.nio.ByteBuffer)
+     */
+    public void retrieveAll(Pointer[] pointers, ByteBuffer dst) throws DMFrameLimitExcededException {
+        Pointer[] unwrapped = pointers;
+        for (int i = 0; i < pointers.length; i++) {
+            if (pointers[i] instanceof TrackedPointer) {
+                if (unwrapped == pointers) {
+                    unwrapped = pointers.clone();
+                }
+                unwrapped[i] = unwrap(pointers[i]);
+            }
+        }
+        delegate.retrieveAll(unwrapped, dst);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#retrieve(com.prashant.memory.Pointer, int, int)
+     */
+    public byte[] retrieve(Pointer pointer, int offset, int len) throws DMFrameLimitExcededException {
+        return delegate.retrieve(unwrap(pointer), offset, len);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#retrieve(com.prashant.memory.Pointer)
+     */
+    public byte[] retrieve(Pointer pointer) throws DMFrameLimitExcededException {
+        return delegate.retrieve(unwrap(pointer));
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#retrieve(com.prashant.memory.Pointer, int, byte[], int, int)
+     */
+    public void retrieve(Pointer pointer, int offset, byte[] dst, int dstOffset, int len) throws DMFrameLimitExcededException {
+        delegate.retrieve(unwrap(pointer), offset, dst, dstOffset, len);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#retrieve(com.prashant.memory.Pointer, int, java.nio.ByteBuffer)
+     */
+    public void retrieve(Pointer pointer, int offset, ByteBuffer dst) throws DMFrameLimitExcededException {
+        delegate.retrieve(unwrap(pointer), offset, dst);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#view(com.prashant.memory.Pointer)
+     */
+    public ByteBuffer view(Pointer pointer) {
+        return delegate.view(unwrap(pointer));
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#getByte(com.prashant.memory.Pointer, int)
+     */
+    public byte getByte(Pointer pointer, int offset) throws DMFrameLimitExcededException {
+        return delegate.getByte(unwrap(pointer), offset);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#getShort(com.prashant.memory.Pointer, int)
+     */
+    public short getShort(Pointer pointer, int offset) throws DMFrameLimitExcededException {
+        return delegate.getShort(unwrap(pointer), offset);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#getInt(com.prashant.memory.Pointer, int)
+     */
+    public int getInt(Pointer pointer, int offset) throws DMFrameLimitExcededException {
+        return delegate.getInt(unwrap(pointer), offset);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#getLong(com.prashant.memory.Pointer, int)
+     */
+    public long getLong(Pointer pointer, int offset) throws DMFrameLimitExcededException {
+        return delegate.getLong(unwrap(pointer), offset);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#putByte(com.prashant.memory.Pointer, int, byte)
+     */
+    public void putByte(Pointer pointer, int offset, byte value) throws DMFrameLimitExcededException {
+        delegate.putByte(unwrap(pointer), offset, value);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#putShort(com.prashant.memory.Pointer, int, short)
+     */
+    public void putShort(Pointer pointer, int offset, short value) throws DMFrameLimitExcededException {
+        delegate.putShort(unwrap(pointer), offset, value);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#putInt(com.prashant.memory.Pointer, int, int)
+     */
+    public void putInt(Pointer pointer, int offset, int value) throws DMFrameLimitExcededException {
+        delegate.putInt(unwrap(pointer), offset, value);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#putLong(com.prashant.memory.Pointer, int, long)
+     */
+    public void putLong(Pointer pointer, int offset, long value) throws DMFrameLimitExcededException {
+        delegate.putLong(unwrap(pointer), offset, value);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#free(com.prashant.memory.Pointer)
+     */
+    public long free(Pointer pointer2free) {
+        long freed = delegate.free(unwrap(pointer2free));
+        release(pointer2free);
+        return freed;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#update(com.prashant.memory.Pointer, byte[], int)
+     */
+    public void update(Pointer pointer, byte[] payload, int offset) throws DMFrameLimitExcededException {
+        delegate.update(unwrap(pointer), payload, offset);
+    }
+
+    /**
+     * A sampled block keeps its site and age when it is resized or moved.
+     * 
+     * @see com.prashant.memory.MemoryBuffer#update(com.prashant.memory.Pointer, byte[])
+     */
+    public Pointer update(Pointer pointer, byte[] payload) throws DMBufferOverFlowException {
+        if (!(pointer instanceof TrackedPointer)) {
+            return delegate.update(pointer, payload);
+        }
+        TrackedPointer tracked = (TrackedPointer) pointer;
+        Pointer updated;
+        try {
+            updated = delegate.update(tracked.pointer, payload);
+        } catch (DMBufferOverFlowException e) {
+            // The block may be freed already, or retired while a read is open, when it did not fit anywhere else
+            if (tracked.pointer.isFree() || tracked.pointer.isRetired()) {
+                release(tracked);
+            }
+            throw e;
+        }
+        if (updated == tracked.pointer) {
+            tracked.allocation.resize(updated.getEnd() - updated.getStart());
+            return tracked;
+        }
+        release(tracked);
+        return track(updated, tracked.allocation.site, tracked.allocation.born);
+    }
+
+    /**
+     * The blocks sampled so far are released, not leaked.
+     * 
+     * @see com.prashant.memory.MemoryBuffer#clear()
+     */
+    public void clear() {
+        delegate.clear();
+        for (Allocation allocation : live) {
+            allocation.release();
+        }
+        byHandle.clear();
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#used()
+     */
+    public int used() {
+        return delegate.used();
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#capacity()
+     */
+    public int capacity() {
+        return delegate.capacity();
+    }
+
+    /**
+     * Sampled store by handle, see {@link WithHandles}.
+     */
+    long storeHandle(HandleMemoryBuffer target, byte[] payload) throws DMBufferOverFlowException {
+        if (!sampled()) {
+            return target.storeHandle(payload);
+        }
+        Site site = site();
+        long handle = target.storeHandle(payload);
+        byHandle.put(handle, new Allocation(site, null, payload.length, now()));
+        return handle;
+    }
+
+    /**
+     * Free by handle, which stops tracking a sampled block, see {@link WithHandles}.
+     */
+    long free(HandleMemoryBuffer target, long handle) {
+        long freed = target.free(handle);
+        Allocation allocation = byHandle.remove(handle);
+        if (allocation != null) {
+            allocation.release();
+        }
+        return freed;
+    }
+
+    /**
+     * Samples the stores on a <code>HandleMemoryBuffer</code>, by handle included.
+     */
+    public static class WithHandles extends TrackingMemoryBuffer implements HandleMemoryBuffer {
+        private final HandleMemoryBuffer handles;
+
+        /**
+         * Samples {@link #DEFAULT_SAMPLE_RATE} of the stores, keeping {@link #DEFAULT_DEPTH} frames of their stack.
+         */
+        public WithHandles(HandleMemoryBuffer delegate) {
+            this(delegate, DEFAULT_SAMPLE_RATE, DEFAULT_DEPTH);
+        }
+
+        /**
+         * @see TrackingMemoryBuffer#TrackingMemoryBuffer(MemoryBuffer, double, int)
+         */
+        public WithHandles(HandleMemoryBuffer delegate, double sampleRate, int depth) {
+            super(delegate, sampleRate, depth);
+            this.handles = delegate;
+        }
+
+        /*
+         * (non-Javadoc)
+         * 
+         * @see com.prashant.memory.HandleMemoryBuffer#storeHandle(byte[])
+         */
+        public long storeHandle(byte[] payload) throws DMBufferOverFlowException {
+            return storeHandle(handles, payload);
+        }
+
+        /*
+         * (non-Javadoc)
+         * 
+         * @see com.prashant.memory.HandleMemoryBuffer#retrieve(long)
+         */
+        public byte[] retrieve(long handle) throws DMFrameLimitExcededException {
+            return handles.retrieve(handle);
+        }
+
+        /*
+         * (non-Javadoc)
+         * 
+         * @see com.prashant.memory.HandleMemoryBuffer#free(long)
+         */
+        public long free(long handle) {
+            return free(handles, handle);
+        }
+    }
+}
@@ -0,0 +1,777 @@
+package com.prashant.memory;
+
+import com.prashant.exception.DMBufferOverFlowException;
+import com.prashant.exception.DMFrameLimitExcededException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+/**
+ * Memory buffer over a <code>MemorySegment</code> of the foreign memory API, addressed with <code>long</code> offsets so a single buffer
+ * can be larger than 2GB. Only built on JDK 22 and later, see the <code>java22</code> profile of the pom.
+ * <p>
+ * The memory belongs to a shared <code>Arena</code> and is given back to the operating system as soon as the buffer is {@link #close()}d,
+ * rather than whenever the garbage collector gets to a direct <code>ByteBuffer</code>. Any access after that fails with an
+ * <code>IllegalStateException</code>. Reads and writes go through the bounds checked accessors of the segment, which compile down to plain
+ * loads and stores, and no <code>ByteBuffer</code> view is created except for channels and {@link #view(Pointer)}.
+ * </p>
+ * <p>
+ * A <code>Pointer</code> only holds <code>int</code> offsets, so the buffer is divided into windows and a block is addressed by the
+ * <code>base</code> of its window plus its <code>start</code> within it. Blocks never move. Free space is kept as runs of 8 byte aligned
+ * blocks, indexed by address to merge neighbours and by size for a best fit, under a single allocator lock.
+ * </p>
+ * <p>
+ * Reads and writes announce themselves to an {@link EpochReclaimer}, as those of an <code>AbstractMemoryBuffer</code> do, so a block
+ * freed while they are in flight is only handed out again once they are done, and one that starts after the free is refused.
+ * </p>
+ */
+public class ForeignMemoryBuffer implements MemoryBuffer, AutoCloseable {
+    private static final Logger logger = Logger.getAnonymousLogger();
+
+    /** Size of the windows of the default buffer. */
+    public static final int WINDOW_BITS = 30;
+
+    private static final int ALIGNMENT = 8;
+
+    private static final ValueLayout.OfShort SHORT = ValueLayout.JAVA_SHORT_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+    private static final ValueLayout.OfInt INT = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+    private static final ValueLayout.OfLong LONG = ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+
+    /** Free runs as <code>{size, start}</code>, smallest first. */
+    private static final Comparator<long[]> BY_SIZE = new Comparator<long[]>() {
+        public int compare(long[] a, long[] b) {
+            int bySize = Long.compare(a[0], b[0]);
+            return bySize != 0 ? bySize : Long.compare(a[1], b[1]);
+        }
+    };
+
+    private final Arena arena;
+    private final MemorySegment segment;
+    private final long window;
+    /** Largest block whose end still fits in an <code>int</code> relative to its window. */
+    private final int maxBlock;
+    private final int bufferNumber;
+
+    private final AtomicLong used = new AtomicLong();
+
+    /** Size of each free run by its start, guarded by <code>allocator</code>. */
+    private final TreeMap<Long, Long> freeRuns = new TreeMap<Long, Long>();
+    private final TreeSet<long[]> freeBySize = new TreeSet<long[]>(BY_SIZE);
+
+    /** Not a monitor, so a virtual thread waiting for it does not pin its carrier. */
+    private final ReentrantLock allocator = new ReentrantLock();
+
+    /** Defers the release of blocks freed while reads are in flight. */
+    final EpochReclaimer epochs = new EpochReclaimer(new EpochReclaimer.Owner() {
+        public long release(Collection<Pointer> pointers) {
+            return releaseAll(pointers);
+        }
+    });
+
+    /**
+     * Creates new instance of ForeignMemoryBuffer with the specified capacity, rounded up to a multiple of 8, and bufferNumber
+     * 
+     */
+    public static ForeignMemoryBuffer createNew(long capacity, int bufferNumber) {
+        return createNew(capacity, bufferNumber, WINDOW_BITS);
+    }
+
+    /**
+     * Creates new instance of ForeignMemoryBuffer with windows of <code>2^windowBits</code> bytes, which limits a block to
+     * <code>2^31 - 2^windowBits</code> bytes.
+     * 
+     */
+    public static ForeignMemoryBuffer createNew(long capacity, int bufferNumber, int windowBits) {
+        if (windowBits < 3 || windowBits > 30) {
+            throw new IllegalArgumentException("Windows of 2^" + windowBits + " bytes are not supported");
+        }
+        logger.info("Creating foreign memory buffer of capacity :" + capacity + " bufferNumber:" + bufferNumber);
+        return new ForeignMemoryBuffer(Arena.ofShared(), capacity, bufferNumber, windowBits);
+    }
+
+    private ForeignMemoryBuffer(Arena arena, long capacity, int bufferNumber, int windowBits) {
+        this.arena = arena;
+        this.segment = arena.allocate(align(capacity), 64);
+        this.window = 1L << windowBits;
+        this.maxBlock = (int) (Integer.MAX_VALUE - window + 1);
+        this.bufferNumber = bufferNumber;
+        clear();
+    }
+
+    private static long align(long capacity) {
+        return Math.max(ALIGNMENT, (capacity + ALIGNMENT - 1) & -ALIGNMENT);
+    }
+
+    private static long address(Pointer pointer) {
+        return pointer.getBase() + pointer.getStart();
+    }
+
+    /**
+     * @return absolute address of <code>len</code> bytes at <code>offset</code> within the block
+     * @throws DMFrameLimitExcededException
+     *             when they do not all lie within the block
+     */
+    private static long address(Pointer pointer, int offset, int len) throws DMFrameLimitExcededException {
+        if (offset < 0 || len < 0 || (long) pointer.getStart() + offset + len > pointer.getEnd()) {
+            throw new DMFrameLimitExcededException("Trying to read to a position out of bounds for this pointer.", null);
+        }
+        return address(pointer) + offset;
+    }
+
+    private Pointer pointer(long address, int capacity) {
+        Pointer fresh = new Pointer();
+        fresh.setBlockNumber(bufferNumber);
+        fresh.setBase(address & -window);
+        fresh.setStart((int) (address & (window - 1)));
+        fresh.setEnd(fresh.getStart() + capacity);
+        fresh.setFree(false);
+        return fresh;
+    }
+
+    private void addRun(long start, long size) {
+        freeRuns.put(start, size);
+        freeBySize.add(new long[] { size, start });
+    }
+
+    private void removeRun(long start, long size) {
+        freeRuns.remove(start);
+        freeBySize.remove(new long[] { size, start });
+    }
+
+    /**
+     * Takes the smallest free run that holds the block, the caller holds the allocator lock.
+     * 
+     * @return address of the block
+     */
+    private long reserve(int capacity, int alignment) throws DMBufferOverFlowException {
+        if (capacity < 0 || capacity > maxBlock) {
+            throw new DMBufferOverFlowException("An attempt to store more than a block of this buffer holds", null);
+        }
+        long size = align(capacity);
+        // Runs start 8 byte aligned, so at most alignment - 8 bytes are skipped to the first aligned address.
+        long need = size + Math.max(0, alignment - ALIGNMENT);
+        long[] run = freeBySize.ceiling(new long[] { need, Long.MIN_VALUE });
+        if (run == null) {
+            throw new DMBufferOverFlowException("did not find a suitable buffer", null);
+        }
+        removeRun(run[1], run[0]);
+        long pad = -(segment.address() + run[1]) & (alignment - 1);
+        if (pad > 0) {
+            addRun(run[1], pad);
+        }
+        if (run[0] > pad + size) {
+            addRun(run[1] + pad + size, run[0] - pad - size);
+        }
+        return run[1] + pad;
+    }
+
+    /**
+     * Gives the block back and merges it with the free runs on either side, the caller holds the allocator lock.
+     * 
+     * @return bytes removed
+     */
+    private long release(Pointer pointer) {
+        if (pointer.isFree()) {
+            return 0;
+        }
+        pointer.setFree(true);
+        pointer.setClazz(null);
+        long start = address(pointer);
+        long size = align(pointer.getEnd() - pointer.getStart());
+        Map.Entry<Long, Long> before = freeRuns.floorEntry(start);
+        if (before != null && before.getKey() + before.getValue() == start) {
+            removeRun(before.getKey(), before.getValue());
+            start = before.getKey();
+            size += before.getValue();
+        }
+        Long after = freeRuns.get(start + size);
+        if (after != null) {
+            removeRun(start + size, after);
+            size += after;
+        }
+        addRun(start, size);
+        return pointer.getEnd() - pointer.getStart();
+    }
+
+    /**
+     * Allocates after reclaiming. When no free run is large enough while freed blocks wait, waits for the reads holding them back and tries
+     * again, for as long as this or another thread released some meanwhile.
+     */
+    private Pointer allocate(int capacity, int alignment) throws DMBufferOverFlowException {
+        if (alignment < 1 || Integer.bitCount(alignment) != 1 || alignment > segment.byteSize()) {
+            throw new IllegalArgumentException("Alignment must be a power of two up to the capacity, not " + alignment);
+        }
+        epochs.reclaim();
+        while (true) {
+            long released = epochs.released();
+            try {
+                return take(capacity, alignment);
+            } catch (DMBufferOverFlowException e) {
+                // Another thread may have emptied the limbo between the failed allocation and the wait.
+                if (epochs.awaitReclaim() == 0 && epochs.released() == released) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private Pointer take(int capacity, int alignment) throws DMBufferOverFlowException {
+        allocator.lock();
+        try {
+            Pointer fresh = pointer(reserve(capacity, alignment), capacity);
+            fresh.setAlignment(alignment);
+            return fresh;
+        } finally {
+            allocator.unlock();
+        }
+    }
+
+    /**
+     * @return Total used bytes
+     */
+    public long usedBytes() {
+        return used.get();
+    }
+
+    /**
+     * @return Total capacity
+     */
+    public long capacityBytes() {
+        return segment.byteSize();
+    }
+
+    /**
+     * @return Total used bytes, saturated at <code>Integer.MAX_VALUE</code>, see {@link #usedBytes()}
+     */
+    public int used() {
+        return (int) Math.min(Integer.MAX_VALUE, usedBytes());
+    }
+
+    /**
+     * @return Total capacity, saturated at <code>Integer.MAX_VALUE</code>, see {@link #capacityBytes()}
+     */
+    public int capacity() {
+        return (int) Math.min(Integer.MAX_VALUE, capacityBytes());
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#retrieve(com.prashant.memory.Pointer, int, int)
+     */
+    public byte[] retrieve(Pointer pointer, int offset, int len) throws DMFrameLimitExcededException {
+        EpochReclaimer.Participant reader = epochs.enter(pointer);
+        try {
+            byte[] bytes = new byte[len];
+            MemorySegment.copy(segment, ValueLayout.JAVA_BYTE, address(pointer, offset, len), bytes, 0, len);
+            return bytes;
+        } finally {
+            epochs.exit(reader);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#retrieve(com.prashant.memory.Pointer)
+     */
+    public byte[] retrieve(Pointer pointer) throws DMFrameLimitExcededException {
+        return retrieve(pointer, 0, pointer.getEnd() - pointer.getStart());
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#retrieve(com.prashant.memory.Pointer, int, byte[], int, int)
+     */
+    public void retrieve(Pointer pointer, int offset, byte[] dst, int dstOffset, int len) throws DMFrameLimitExcededException {
+        EpochReclaimer.Participant reader = epochs.enter(pointer);
+        try {
+            MemorySegment.copy(segment, ValueLayout.JAVA_BYTE, address(pointer, offset, len), dst, dstOffset, len);
+        } finally {
+            epochs.exit(reader);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#retrieve(com.prashant.memory.Pointer, int, java.nio.ByteBuffer)
+     */
+    public void retrieve(Pointer pointer, int offset, ByteBuffer dst) throws DMFrameLimitExcededException {
+        EpochReclaimer.Participant reader = epochs.enter(pointer);
+        try {
+            int len = dst.remaining();
+            MemorySegment.copy(segment, address(pointer, offset, len), MemorySegment.ofBuffer(dst), 0, len);
+            dst.position(dst.position() + len);
+        } finally {
+            epochs.exit(reader);
+        }
+    }
+
+    /**
+     * The view shares the memory of the block. It sees later updates, and it is only valid until the block is freed or the buffer closed.
+     * 
+     * @see com.prashant.memory.MemoryBuffer#view(com.prashant.memory.Pointer)
+     */
+    public ByteBuffer view(Pointer pointer) {
+        return segment.asSlice(address(pointer), pointer.getEnd() - pointer.getStart()).asReadOnly().asByteBuffer();
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#getByte(com.prashant.memory.Pointer, int)
+     */
+    public byte getByte(Pointer pointer, int offset) throws DMFrameLimitExcededException {
+        EpochReclaimer.Participant reader = epochs.enter(pointer);
+        try {
+            return segment.get(ValueLayout.JAVA_BYTE, address(pointer, offset, 1));
+        } finally {
+            epochs.exit(reader);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#getShort(com.prashant.memory.Pointer, int)
+     */
+    public short getShort(Pointer pointer, int offset) throws DMFrameLimitExcededException {
+        EpochReclaimer.Participant reader = epochs.enter(pointer);
+        try {
+            return segment.get(SHORT, address(pointer, offset, 2));
+        } finally {
+            epochs.exit(reader);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#getInt(com.prashant.memory.Pointer, int)
+     */
+    public int getInt(Pointer pointer, int offset) throws DMFrameLimitExcededException {
+        EpochReclaimer.Participant reader = epochs.enter(pointer);
+        try {
+            return segment.get(INT, address(pointer, offset, 4));
+        } finally {
+            epochs.exit(reader);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#getLong(com.prashant.memory.Pointer, int)
+     */
+    public long getLong(Pointer pointer, int offset) throws DMFrameLimitExcededException {
+        EpochReclaimer.Participant reader = epochs.enter(pointer);
+        try {
+            return segment.get(LONG, address(pointer, offset, 8));
+        } finally {
+            epochs.exit(reader);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#putByte(com.prashant.memory.Pointer, int, byte)
+     */
+    public void putByte(Pointer pointer, int offset, byte value) throws DMFrameLimitExcededException {
+        EpochReclaimer.Participant reader = epochs.enter(pointer);
+        try {
+            segment.set(ValueLayout.JAVA_BYTE, address(pointer, offset, 1), value);
+        } finally {
+            epochs.exit(reader);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#putShort(com.prashant.memory.Pointer, int, short)
+     */
+    public void putShort(Pointer pointer, int offset, short value) throws DMFrameLimitExcededException {
+        EpochReclaimer.Participant reader = epochs.enter(pointer);
+        try {
+            segment.set(SHORT, address(pointer, offset, 2), value);
+        } finally {
+            epochs.exit(reader);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#putInt(com.prashant.memory.Pointer, int, int)
+     */
+    public void putInt(Pointer pointer, int offset, int value) throws DMFrameLimitExcededException {
+        EpochReclaimer.Participant reader = epochs.enter(pointer);
+        try {
+            segment.set(INT, address(pointer, offset, 4), value);
+        } finally {
+            epochs.exit(reader);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#putLong(com.prashant.memory.Pointer, int, long)
+     */
+    public void putLong(Pointer pointer, int offset, long value) throws DMFrameLimitExcededException {
+        EpochReclaimer.Participant reader = epochs.enter(pointer);
+        try {
+            segment.set(LONG, address(pointer, offset, 8), value);
+        } finally {
+            epochs.exit(reader);
+        }
+    }
+
+    /**
+     * Retired, and released right away when no read is in flight, otherwise once the reads in flight are done. Returns the bytes of a retired
+     * block straight away, although <code>used</code> only drops once it is released.
+     * 
+     * @see com.prashant.memory.MemoryBuffer#free(com.prashant.memory.Pointer)
+     */
+    public long free(Pointer pointer2free) {
+        return epochs.retire(pointer2free);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#clear()
+     */
+    public void clear() {
+        epochs.discard();
+        allocator.lock();
+        try {
+            freeRuns.clear();
+            freeBySize.clear();
+            addRun(0, segment.byteSize());
+            used.set(0);
+        } finally {
+            allocator.unlock();
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#store(byte[], int)
+     */
+    public Pointer store(byte[] payload, int capacity) throws DMBufferOverFlowException {
+        return store(payload, capacity, 1);
+    }
+
+    /**
+     * Blocks are 8 byte aligned anyway, a larger alignment skips to the first aligned address of a free run.
+     * 
+     * @see com.prashant.memory.MemoryBuffer#store(byte[], int, int)
+     */
+    public Pointer store(byte[] payload, int capacity, int alignment) throws DMBufferOverFlowException {
+        if (payload.length > capacity) {
+            throw new DMBufferOverFlowException("An attempt to store more than the requested capacity", null);
+        }
+        Pointer fresh = allocate(capacity, alignment);
+        if (capacity > payload.length) {
+            fresh.setReserved(capacity);
+        }
+        used.addAndGet(capacity);
+        MemorySegment.copy(payload, 0, segment, ValueLayout.JAVA_BYTE, address(fresh), payload.length);
+        return fresh;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#store(byte[])
+     */
+    public Pointer store(byte[] payload) throws DMBufferOverFlowException {
+        return store(payload, payload.length);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#store(java.lang.Object)
+     */
+    public <T> Pointer store(T value) throws DMBufferOverFlowException {
+        OffHeapCodec<T> codec = OffHeapCodecs.codec(value.getClass());
+        int size = codec.size(value);
+        Pointer fresh = allocate(size, 1);
+        used.addAndGet(size);
+        codec.write(value, segment.asSlice(address(fresh), size).asByteBuffer());
+        fresh.setClazz(codec.type());
+        return fresh;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#load(com.prashant.memory.Pointer)
+     */
+    public <T> T load(Pointer pointer) throws DMFrameLimitExcededException {
+        EpochReclaimer.Participant reader = epochs.enter(pointer);
+        try {
+            OffHeapCodec<T> codec = AbstractMemoryBuffer.codec(pointer);
+            return codec.read(segment.asSlice(address(pointer), pointer.getEnd() - pointer.getStart()).asByteBuffer());
+        } finally {
+            epochs.exit(reader);
+        }
+    }
+
+    /**
+     * The block is reserved before anything is read, and freed again when reading fails.
+     * 
+     * @see com.prashant.memory.MemoryBuffer#store(java.nio.channels.ReadableByteChannel, long)
+     */
+    public Pointer store(ReadableByteChannel src, long length) throws DMBufferOverFlowException, IOException {
+        if (length < 0 || length > maxBlock) {
+            throw new DMBufferOverFlowException("An attempt to store more than a block of this buffer holds", null);
+        }
+        Pointer fresh = allocate((int) length, 1);
+        used.addAndGet(length);
+        ByteBuffer buf = segment.asSlice(address(fresh), length).asByteBuffer();
+        try {
+            while (buf.hasRemaining()) {
+                if (src.read(buf) < 0) {
+                    throw new EOFException("Channel ended " + buf.remaining() + " bytes short of " + length);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            free(fresh);
+            throw e;
+        }
+        return fresh;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#store(java.io.InputStream, long)
+     */
+    public Pointer store(InputStream src, long length) throws DMBufferOverFlowException, IOException {
+        return store(Channels.newChannel(src), length);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#transferTo(com.prashant.memory.Pointer, java.nio.channels.WritableByteChannel)
+     */
+    public long transferTo(Pointer pointer, WritableByteChannel target) throws IOException {
+        EpochReclaimer.Participant reader;
+        try {
+            reader = epochs.enter(pointer);
+        } catch (DMFrameLimitExcededException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        try {
+            ByteBuffer buf = segment.asSlice(address(pointer), pointer.getEnd() - pointer.getStart()).asByteBuffer();
+            long written = 0;
+            while (buf.hasRemaining()) {
+                written += target.write(buf);
+            }
+            return written;
+        } finally {
+            epochs.exit(reader);
+        }
+    }
+
+    /**
+     * Reserves all the blocks under a single acquisition of the allocator lock.
+     * 
+     * @see com.prashant.memory.MemoryBuffer#storeAll(byte[][])
+     */
+    public Pointer[] storeAll(byte[][] payloads) throws DMBufferOverFlowException {
+        Pointer[] pointers = new Pointer[payloads.length];
+        long total = 0;
+        epochs.reclaim();
+        allocator.lock();
+        try {
+            int i = 0;
+            try {
+                for (; i < payloads.length; i++) {
+                    pointers[i] = pointer(reserve(payloads[i].length, 1), payloads[i].length);
+                    total += payloads[i].length;
+                }
+            } catch (DMBufferOverFlowException e) {
+                for (int j = 0; j < i; j++) {
+                    release(pointers[j]);
+                }
+                throw e;
+            }
+        } finally {
+            allocator.unlock();
+        }
+        used.addAndGet(total);
+        for (int i = 0; i < payloads.length; i++) {
+            MemorySegment.copy(payloads[i], 0, segment, ValueLayout.JAVA_BYTE, address(pointers[i]), payloads[i].length);
+        }
+        return pointers;
+    }
+
+    /**
+     * Retires all the blocks at once, so the ones released right away are released together.
+     * 
+     * @see com.prashant.memory.MemoryBuffer#freeAll(java.util.Collection)
+     */
+    public long freeAll(Collection<Pointer> pointers) {
+        return epochs.retireAll(pointers);
+    }
+
+    /**
+     * Releases all the blocks under a single acquisition of the allocator lock, once no read can see them.
+     * 
+     * @return bytes freed
+     */
+    private long releaseAll(Collection<Pointer> pointers) {
+        long freed = 0;
+        allocator.lock();
+        try {
+            for (Pointer pointer : pointers) {
+                freed += release(pointer);
+            }
+        } finally {
+            allocator.unlock();
+        }
+        used.addAndGet(-freed);
+        return freed;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#retrieveAll(com.prashant.memory.Pointer[], java.nio.ByteBuffer)
+     */
+    public void retrieveAll(Pointer[] pointers, ByteBuffer dst) throws DMFrameLimitExcededException {
+        EpochReclaimer.Participant reader = epochs.enter();
+        try {
+            long total = 0;
+            for (Pointer pointer : pointers) {
+                EpochReclaimer.checkLive(pointer);
+                total += pointer.getEnd() - pointer.getStart();
+            }
+            if (total > dst.remaining()) {
+                throw new BufferOverflowException();
+            }
+            MemorySegment target = MemorySegment.ofBuffer(dst);
+            long offset = 0;
+            for (Pointer pointer : pointers) {
+                int len = pointer.getEnd() - pointer.getStart();
+                MemorySegment.copy(segment, address(pointer, 0, len), target, offset, len);
+                offset += len;
+            }
+            dst.position(dst.position() + (int) total);
+        } finally {
+            epochs.exit(reader);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#update(com.prashant.memory.Pointer, byte[], int)
+     */
+    public void update(Pointer pointer, byte[] payload, int offset) throws DMFrameLimitExcededException {
+        EpochReclaimer.Participant reader = epochs.enter(pointer);
+        try {
+            MemorySegment.copy(payload, 0, segment, ValueLayout.JAVA_BYTE, address(pointer, offset, payload.length), payload.length);
+        } finally {
+            epochs.exit(reader);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.prashant.memory.MemoryBuffer#update(com.prashant.memory.Pointer, byte[])
+     */
+    public Pointer update(Pointer pointer, byte[] payload) throws DMBufferOverFlowException {
+        int capacity = Math.max(payload.length, pointer.getReserved());
+        if (resize(pointer, capacity)) {
+            MemorySegment.copy(payload, 0, segment, ValueLayout.JAVA_BYTE, address(pointer), payload.length);
+            pointer.setClazz(null);
+            return pointer;
+        }
+        free(pointer);
+        Pointer fresh = store(payload, capacity, pointer.getAlignment());
+        fresh.setReserved(pointer.getReserved());
+        return fresh;
+    }
+
+    /**
+     * Resizes a live block without moving it, splitting its tail off as a block of its own and freeing that, so the tail is only handed out
+     * again once the reads in flight are done, or taking the start of the free run right after it.
+     * 
+     * @return false when the block has to move
+     */
+    private boolean resize(Pointer pointer, int capacity) {
+        if ((long) pointer.getStart() + capacity > Integer.MAX_VALUE) {
+            return false;
+        }
+        Pointer tail = null;
+        allocator.lock();
+        try {
+            if (pointer.isFree() || pointer.isRetired()) {
+                return false;
+            }
+            long start = address(pointer);
+            int span = pointer.getEnd() - pointer.getStart();
+            long size = align(span);
+            long wanted = align(capacity);
+            Long after = freeRuns.get(start + size);
+            if (wanted < size) {
+                tail = pointer(start + wanted, (int) (size - wanted));
+                // The share of the tail drops once it is released.
+                used.addAndGet(size - wanted);
+            } else if (wanted > size) {
+                if (after == null || after < wanted - size) {
+                    return false;
+                }
+                removeRun(start + size, after);
+                if (after > wanted - size) {
+                    addRun(start + wanted, after - (wanted - size));
+                }
+            }
+            pointer.setEnd(pointer.getStart() + capacity);
+            used.addAndGet(capacity - span);
+        } finally {
+            allocator.unlock();
+        }
+        if (tail != null) {
+            // Outside of the allocator lock, a release takes it after the limbo lock.
+            free(tail);
+        }
+        return true;
+    }
+
+    /**
+     * Frees the memory of the buffer right away. Its pointers and views must not be used afterwards.
+     */
+    public void close() {
+        arena.close();
+    }
+}
@@ -0,0 +1,78 @@
+package com.prashant.memory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.junit.Test;
+
+/**
+ * Runs the <code>MultiThreadedDMBufferTest</code> stress test against the
+ * arena allocator with many more threads than stripes, from one thread up
+ * to N.
+ */
+public class ArenaMultiThreadedTest extends MultiThreadedDMBufferTest {
+
+    private static final Logger logger = Logger.getAnonymousLogger();
+
+    private static final int THREADS = Math.max(8, 4 * Runtime.getRuntime().availableProcessors());
+
+    public ArenaMultiThreadedTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected MemoryBuffer createBuffer() {
+        return ArenaMemoryBuffer.createNew(1024 * 1024, 4096, Runtime.getRuntime().availableProcessors(), 1);
+    }
+
+    @Override
+    protected int threads() {
+        return THREADS;
+    }
+
+    /**
+     * Logs the elapsed time of the stress test from one thread up to N, to
+     * see how the stripes scale.
+     */
+    @Test
+    public void testScaling() throws Throwable {
+        for (int threads = 1; threads <= THREADS; threads <<= 1) {
+            long elapsed = runParallel(threads);
+            logger.info("Arena stress test on " + threads + " threads took " + elapsed / 1000000 + " ms");
+        }
+    }
+
+    /**
+     * Two threads freeing the same blocks release each of them once, so no
+     * chunk is recycled under a block still live in it.
+     */
+    @Test
+    public void testConcurrentDoubleFree() throws Throwable {
+        final MemoryBuffer buffer = ArenaMemoryBuffer.createNew(64 * 1024, 4096, 2, 1);
+        Pointer live = buffer.store("live".getBytes());
+        final List<Pointer> pointers = new ArrayList<Pointer>();
+        for (int i = 0; i < 1000; i++) {
+            pointers.add(buffer.store(new byte[16]));
+        }
+        Thread[] freeing = new Thread[2];
+        for (int t = 0; t < freeing.length; t++) {
+            freeing[t] = new Thread() {
+                public void run() {
+                    for (Pointer pointer : pointers) {
+                        buffer.free(pointer);
+                    }
+                }
+            };
+            freeing[t].start();
+        }
+        for (Thread thread : freeing) {
+            thread.join();
+        }
+        assertEquals(4, buffer.used());
+        for (int i = 0; i < 1000; i++) {
+            buffer.store("reused".getBytes());
+        }
+        assertEquals("live", new String(buffer.retrieve(live)));
+    }
+}
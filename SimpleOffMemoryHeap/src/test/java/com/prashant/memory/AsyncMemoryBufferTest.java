@@ -0,0 +1,88 @@
+package com.prashant.memory;
+
+import com.prashant.exception.DMBufferOverFlowException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+public class AsyncMemoryBufferTest extends TestCase {
+
+    /**
+     * Requests from many threads are answered, and a retrieve submitted before the free of its block still reads it.
+     */
+    @Test
+    public void testStoreRetrieveFree() throws Exception {
+        MemoryBuffer buffer = DirectMemoryBuffer.createNew(1 << 20, 1);
+        final AsyncMemoryBuffer async = new AsyncMemoryBuffer(buffer, 16);
+        final List<String> failures = new ArrayList<String>();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            final String name = "thread-" + t;
+            threads[t] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < 500; i++) {
+                        String payload = name + ":" + i;
+                        Pointer pointer = async.storeAsync(payload.getBytes()).join();
+                        CompletableFuture<byte[]> read = async.retrieveAsync(pointer);
+                        CompletableFuture<Void> freed = async.freeAsync(pointer);
+                        if (!payload.equals(new String(read.join()))) {
+                            synchronized (failures) {
+                                failures.add(payload);
+                            }
+                        }
+                        freed.join();
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        async.stop();
+        assertTrue(failures.toString(), failures.isEmpty());
+        assertEquals(0, buffer.used());
+    }
+
+    /**
+     * When a batch does not fit as a whole, the stores that fit on their own still succeed.
+     */
+    @Test
+    public void testOverflow() throws Exception {
+        AsyncMemoryBuffer async = new AsyncMemoryBuffer(DirectMemoryBuffer.createNew(1000, 1));
+        CompletableFuture<Pointer> large = async.storeAsync(new byte[2000]);
+        CompletableFuture<Pointer> small = async.storeAsync(new byte[100]);
+        assertEquals(100, small.get().getEnd() - small.get().getStart());
+        try {
+            large.get();
+            fail("stored more than the buffer holds");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof DMBufferOverFlowException);
+        }
+        async.stop();
+    }
+
+    /**
+     * Requests submitted after stop fail instead of waiting forever.
+     */
+    @Test
+    public void testStop() throws Exception {
+        AsyncMemoryBuffer async = new AsyncMemoryBuffer(DirectMemoryBuffer.createNew(1000, 1));
+        CompletableFuture<Pointer> before = async.storeAsync("TestString".getBytes());
+        async.stop();
+        assertTrue(before.isDone());
+        try {
+            async.storeAsync("TestString".getBytes()).get();
+            fail("ran a request after stop");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.prashant.memory;
+
+import com.prashant.exception.DMBufferOverFlowException;
+import com.prashant.exception.DMFrameLimitExcededException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Runs the <code>DirectMemoryBufferTest</code> suite against the buddy
+ * allocator, plus buddy specific checks.
+ */
+public class BuddyMemoryBufferTest extends DirectMemoryBufferTest {
+
+    @Override
+    protected MemoryBuffer createBuffer(int capacity, int bufferNumber) {
+        return BuddyMemoryBuffer.createNew(capacity, bufferNumber);
+    }
+
+    @Test
+    public void testCapacityRoundedToPowerOfTwo() {
+        assertEquals(1024, createBuffer(1000, 10).capacity());
+        assertEquals(8, createBuffer(1, 11).capacity());
+    }
+
+    /**
+     * Filling the buffer with smallest blocks and freeing them in a scattered
+     * order should merge all the buddies back into the whole buffer.
+     */
+    @Test
+    public void testBuddiesMergeBack() throws DMBufferOverFlowException, DMFrameLimitExcededException {
+        MemoryBuffer tempBuffer = createBuffer(256, 12);
+        List<Pointer> pointers = new ArrayList<Pointer>();
+        for (int i = 0; i < 32; i++) {
+            pointers.add(tempBuffer.store("1234567".getBytes()));
+        }
+        try {
+            tempBuffer.store("1".getBytes());
+            fail("buffer should be full");
+        } catch (DMBufferOverFlowException e) {
+            // expected
+        }
+        for (int i = 0; i < 32; i += 2) {
+            tempBuffer.free(pointers.get(i));
+        }
+        for (int i = 1; i < 32; i += 2) {
+            tempBuffer.free(pointers.get(i));
+        }
+        assertEquals(0, tempBuffer.used());
+        byte[] whole = new byte[255];
+        Pointer pointer = tempBuffer.store(whole);
+        assertEquals(0, pointer.getStart());
+        assertEquals(255, tempBuffer.retrieve(pointer).length);
+    }
+
+    @Test
+    public void testHandleEncoding() {
+        long handle = Handles.encode(Handles.MAX_SEGMENT, Integer.MAX_VALUE, Handles.MAX_LENGTH);
+        assertEquals(Handles.MAX_SEGMENT, Handles.segment(handle));
+        assertEquals(Integer.MAX_VALUE, Handles.offset(handle));
+        assertEquals(Handles.MAX_LENGTH, Handles.length(handle));
+    }
+
+    /**
+     * Store, retrieve and free through handles, a handle freed twice must not
+     * release memory twice.
+     */
+    @Test
+    public void testStoreHandle() throws DMBufferOverFlowException, DMFrameLimitExcededException {
+        HandleMemoryBuffer tempBuffer = (HandleMemoryBuffer) createBuffer(64, 13);
+        long h1 = tempBuffer.storeHandle("TestString".getBytes());
+        long h2 = tempBuffer.storeHandle("Test".getBytes());
+        assertEquals(13, Handles.segment(h1));
+        assertEquals("TestString", new String(tempBuffer.retrieve(h1)));
+        assertEquals("Test", new String(tempBuffer.retrieve(h2)));
+        assertEquals(14, tempBuffer.used());
+
+        assertEquals(10, tempBuffer.free(h1));
+        assertEquals(0, tempBuffer.free(h1));
+        assertEquals(4, tempBuffer.free(h2));
+        assertEquals(0, tempBuffer.used());
+
+        // Everything merged back, the whole buffer is available again.
+        long whole = tempBuffer.storeHandle(new byte[63]);
+        assertEquals(0, Handles.offset(whole));
+    }
+}
@@ -0,0 +1,157 @@
+package com.prashant.memory;
+
+import com.prashant.exception.DMBufferOverFlowException;
+import com.prashant.exception.DMFrameLimitExcededException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+public class CompactorTest extends TestCase {
+
+    private DirectMemoryBuffer buffer;
+    private List<Pointer> live;
+
+    /**
+     * Fills the buffer with 20 blocks of 10 bytes and frees every other one,
+     * leaving 10 holes none of which holds 20 bytes.
+     */
+    @Override
+    public void setUp() throws Exception {
+        buffer = (DirectMemoryBuffer) DirectMemoryBuffer.createNew(220, 1);
+        live = new ArrayList<Pointer>();
+        List<Pointer> all = new ArrayList<Pointer>();
+        for (int i = 0; i < 20; i++) {
+            all.add(buffer.store(("Test" + (100000 + i)).getBytes()));
+        }
+        for (int i = 0; i < 20; i++) {
+            if (i % 2 == 0) {
+                buffer.free(all.get(i));
+            } else {
+                live.add(all.get(i));
+            }
+        }
+    }
+
+    private void assertLiveIntact() throws DMFrameLimitExcededException {
+        for (int i = 0; i < live.size(); i++) {
+            assertEquals("Test" + (100000 + 2 * i + 1), new String(buffer.retrieve(live.get(i))));
+        }
+    }
+
+    @Test
+    public void testCompact() throws DMBufferOverFlowException, DMFrameLimitExcededException {
+        assertTrue(buffer.fragmentation() > 0.5);
+        try {
+            buffer.store(new byte[30]);
+            fail("no hole should hold 30 bytes");
+        } catch (DMBufferOverFlowException e) {
+            // expected
+        }
+
+        int moves = buffer.compact(Long.MAX_VALUE);
+        assertEquals(10, moves);
+        assertEquals(0.0, buffer.fragmentation());
+        assertLiveIntact();
+        assertEquals(100, buffer.used());
+
+        Pointer large = buffer.store(new byte[100]);
+        assertEquals(110, large.getStart());
+    }
+
+    /**
+     * A zero time slice still makes progress, one step at a time. The free
+     * space is in one block once the first 9 live blocks moved.
+     */
+    @Test
+    public void testCompactInSlices() throws DMFrameLimitExcededException {
+        int moves = 0;
+        for (int i = 0; i < 100 && buffer.fragmentation() > 0; i++) {
+            moves += buffer.compact(0);
+        }
+        assertEquals(9, moves);
+        assertLiveIntact();
+    }
+
+    /**
+     * With a zero threshold the compactor keeps going until the free space is
+     * in one block, however the work falls into slices.
+     */
+    @Test
+    public void testBackgroundCompactor() throws Exception {
+        Compactor compactor = new Compactor(buffer, 0.0, 100000, 1);
+        compactor.start();
+        try {
+            for (int i = 0; i < 500 && buffer.fragmentation() > 0; i++) {
+                Thread.sleep(10);
+            }
+        } finally {
+            compactor.stop();
+        }
+        assertEquals(0.0, buffer.fragmentation());
+        assertLiveIntact();
+    }
+
+    /**
+     * Readers must always see their own payload while blocks move under them.
+     */
+    @Test
+    public void testCompactWhileStoring() throws Throwable {
+        final DirectMemoryBuffer shared = (DirectMemoryBuffer) DirectMemoryBuffer.createNew(64 * 1024, 2);
+        final Throwable[] failure = new Throwable[1];
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int seed = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    try {
+                        List<Pointer> mine = new ArrayList<Pointer>();
+                        List<String> values = new ArrayList<String>();
+                        for (int i = 0; i < 20000; i++) {
+                            String value = seed + ":" + i + "::::::::::::".substring(i % 12);
+                            mine.add(shared.store(value.getBytes()));
+                            values.add(value);
+                            if (mine.size() > 50) {
+                                int victim = (i * 7) % mine.size();
+                                assertEquals(values.get(victim), new String(shared.retrieve(mine.get(victim))));
+                                shared.free(mine.remove(victim));
+                                values.remove(victim);
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure[0] = e;
+                    }
+                }
+            };
+        }
+        Compactor compactor = new Compactor(shared, 0.0, 50000, 0);
+        compactor.start();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        compactor.stop();
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+    }
+
+    /**
+     * An aligned block is only moved to an address aligned alike.
+     */
+    @Test
+    public void testCompactKeepsAlignment() throws DMBufferOverFlowException, DMFrameLimitExcededException {
+        DirectMemoryBuffer aligned = (DirectMemoryBuffer) DirectMemoryBuffer.createNew(1024, 2);
+        Pointer hole = aligned.store("TestString".getBytes());
+        Pointer block = aligned.store("Aligned".getBytes(), 7, 64);
+        aligned.free(hole);
+        aligned.compact(Long.MAX_VALUE);
+        assertEquals(0, aligned.buffer.alignmentOffset(block.getStart(), 64));
+        assertEquals("Aligned", new String(aligned.retrieve(block)));
+    }
+}
@@ -0,0 +1,180 @@
+package com.prashant.memory;
+
+import com.prashant.exception.DMBufferOverFlowException;
+import com.prashant.exception.DMFrameLimitExcededException;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+public class CompressingMemoryBufferTest extends TestCase {
+
+    private static byte[] json(int records) {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < records; i++) {
+            json.append(i == 0 ? "" : ",").append("{\"id\":").append(i).append(",\"name\":\"customer-").append(i % 50)
+                    .append("\",\"active\":").append(i % 3 == 0).append(",\"tags\":[\"retail\",\"priority\"]}");
+        }
+        return json.append(']').toString().getBytes();
+    }
+
+    /**
+     * Whatever the input, decompressing gives back exactly what was compressed.
+     */
+    @Test
+    public void testLz4RoundTrip() {
+        Lz4Compressor lz4 = new Lz4Compressor();
+        Random random = new Random(7);
+        byte[] runs = new byte[70000];
+        for (int i = 0; i < runs.length; i++) {
+            runs[i] = (byte) (i / 1000);
+        }
+        byte[] noise = new byte[5000];
+        random.nextBytes(noise);
+        byte[] mixed = new byte[20000];
+        for (int i = 0; i < mixed.length; i++) {
+            mixed[i] = (byte) (random.nextInt(4) == 0 ? random.nextInt() : i % 17);
+        }
+        byte[][] inputs = { new byte[0], { 1 }, "thirteen char".getBytes(), runs, noise, mixed, json(200) };
+        for (byte[] input : inputs) {
+            byte[] compressed = new byte[3 + lz4.maxCompressedLength(input.length)];
+            int length = lz4.compress(input, 0, input.length, compressed, 3);
+            assertTrue(length <= lz4.maxCompressedLength(input.length));
+            byte[] output = new byte[input.length + 2];
+            lz4.decompress(compressed, 3, length, output, 2, input.length);
+            assertTrue(Arrays.equals(input, Arrays.copyOfRange(output, 2, output.length)));
+        }
+        assertTrue(lz4.compress(runs, 0, runs.length, new byte[lz4.maxCompressedLength(runs.length)], 0) < runs.length / 50);
+
+        try {
+            lz4.decompress(new byte[] { 0x1F, 1, 0, 9, 9 }, 0, 5, new byte[100], 0, 100);
+            fail("decompressed a match before the start of the output");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Payloads above the threshold are compressed, and read back whole, in parts or field by field.
+     */
+    @Test
+    public void testStoreAndRetrieve() throws DMBufferOverFlowException, DMFrameLimitExcededException {
+        MemoryBuffer delegate = DirectMemoryBuffer.createNew(1 << 20, 1);
+        CompressingMemoryBuffer buffer = new CompressingMemoryBuffer(delegate);
+        byte[] payload = json(500);
+        Pointer pointer = buffer.store(payload);
+        assertEquals(payload.length, buffer.logicalUsed());
+        assertTrue("ratio " + payload.length / buffer.used(), buffer.used() * 4 < payload.length);
+
+        assertTrue(Arrays.equals(payload, buffer.retrieve(pointer)));
+        assertTrue(Arrays.equals(Arrays.copyOfRange(payload, 100, 150), buffer.retrieve(pointer, 100, 50)));
+        assertEquals(payload[10], buffer.getByte(pointer, 10));
+        assertEquals(ByteBuffer.wrap(payload).getLong(40), buffer.getLong(pointer, 40));
+        ByteBuffer view = buffer.view(pointer);
+        assertEquals(payload.length, view.remaining());
+        assertTrue(view.isReadOnly());
+        try {
+            buffer.putInt(pointer, 0, 1);
+            fail("wrote into a compressed block");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        try {
+            buffer.retrieve(pointer, payload.length - 2, 3);
+            fail("read past the end of the payload");
+        } catch (DMFrameLimitExcededException e) {
+            // expected
+        }
+
+        byte[] small = "below the threshold".getBytes();
+        Pointer plain = buffer.store(small);
+        assertEquals(CompressingMemoryBuffer.HEADER + small.length, plain.getEnd() - plain.getStart());
+        buffer.putInt(plain, 0, 0x41424344);
+        assertEquals("ABCD", new String(buffer.retrieve(plain, 0, 4)));
+        assertEquals('A', buffer.view(plain).get(0));
+
+        Pointer replaced = buffer.update(plain, payload);
+        assertTrue(Arrays.equals(payload, buffer.retrieve(replaced)));
+        assertEquals(2 * payload.length, buffer.logicalUsed());
+        assertSame(replaced, buffer.update(replaced, small));
+        assertTrue(Arrays.equals(small, buffer.retrieve(replaced)));
+        assertEquals(payload.length + small.length, buffer.logicalUsed());
+        buffer.free(pointer);
+        buffer.free(replaced);
+        assertEquals(0, buffer.logicalUsed());
+        assertEquals(0, buffer.used());
+    }
+
+    /**
+     * Payloads that do not compress, or are below the threshold, are kept as they are.
+     */
+    @Test
+    public void testIncompressible() throws DMBufferOverFlowException, DMFrameLimitExcededException {
+        CompressingMemoryBuffer buffer = new CompressingMemoryBuffer(BuddyMemoryBuffer.createNew(1 << 16, 1), new Lz4Compressor(), 64);
+        byte[] noise = new byte[1000];
+        new Random(3).nextBytes(noise);
+        Pointer pointer = buffer.store(noise);
+        assertEquals(CompressingMemoryBuffer.HEADER + noise.length, pointer.getEnd() - pointer.getStart());
+        assertTrue(Arrays.equals(noise, buffer.retrieve(pointer)));
+
+        Pointer reserved = buffer.store(new byte[100], 200);
+        buffer.update(reserved, "grown".getBytes(), 150);
+        assertEquals("grown", new String(buffer.retrieve(reserved, 150, 5)));
+        assertEquals(1100, buffer.logicalUsed());
+    }
+
+    /**
+     * A block freed twice is only freed once, like in the wrapped buffer, even though its header can not be read anymore.
+     */
+    @Test
+    public void testDoubleFree() throws DMBufferOverFlowException, DMFrameLimitExcededException {
+        MemoryBuffer delegate = DirectMemoryBuffer.createNew(1 << 16, 1);
+        CompressingMemoryBuffer buffer = new CompressingMemoryBuffer(delegate);
+        byte[] payload = json(100);
+        Pointer compressed = buffer.store(payload);
+        Pointer plain = buffer.store("below the threshold".getBytes());
+        assertTrue(buffer.free(compressed) > 0);
+        assertEquals(0, buffer.free(compressed));
+        assertEquals(0, buffer.freeAll(Arrays.asList(compressed)));
+        assertSame(compressed, buffer.compressIfCold(compressed, 0));
+        assertEquals(19, buffer.logicalUsed());
+
+        Pointer stored = buffer.update(compressed, payload);
+        assertTrue(Arrays.equals(payload, buffer.retrieve(stored)));
+        assertEquals(payload.length + 19, buffer.logicalUsed());
+        buffer.free(stored);
+        buffer.free(plain);
+        assertEquals(0, buffer.free(plain));
+        assertEquals(0, buffer.logicalUsed());
+        assertEquals(0, buffer.used());
+        assertEquals(0, delegate.used());
+    }
+
+    /**
+     * A block not read for a while is compressed into a new one, one read recently is left alone.
+     */
+    @Test
+    public void testCompressIfCold() throws DMBufferOverFlowException, DMFrameLimitExcededException {
+        CompressingMemoryBuffer buffer = new CompressingMemoryBuffer(DirectMemoryBuffer.createNew(1 << 16, 1), new Lz4Compressor(),
+                Integer.MAX_VALUE);
+        byte[] payload = json(50);
+        Pointer pointer = buffer.store(payload);
+        int stored = buffer.used();
+        assertSame(pointer, buffer.compressIfCold(pointer, 3600));
+
+        Pointer cold = buffer.compressIfCold(pointer, 0);
+        assertNotSame(pointer, cold);
+        assertTrue(buffer.used() < stored / 2);
+        assertEquals(payload.length, buffer.logicalUsed());
+        assertTrue(Arrays.equals(payload, buffer.retrieve(cold)));
+        assertSame(cold, buffer.compressIfCold(cold, 0));
+
+        buffer.clear();
+        assertEquals(0, buffer.logicalUsed());
+        assertEquals(0, buffer.used());
+    }
+}
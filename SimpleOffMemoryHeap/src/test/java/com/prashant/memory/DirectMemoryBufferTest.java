@@ -3,6 +3,17 @@ package com.prashant.memory;
 import com.prashant.exception.DMBufferOverFlowException;
 import com.prashant.exception.DMFrameLimitExcededException;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import org.junit.BeforeClass;
 import org.junit.Test;
 
@@ -12,9 +23,25 @@ public class DirectMemoryBufferTest extends TestCase {
 
     private MemoryBuffer buffer;
 
+    /**
+     * Creates the buffer under test, overridden to run this suite against
+     * other <code>MemoryBuffer</code> implementations.
+     */
+    protected MemoryBuffer createBuffer(int capacity, int bufferNumber) {
+        return DirectMemoryBuffer.createNew(capacity, bufferNumber);
+    }
+
+    /**
+     * @return the reclaimer the reads of the buffer under test announce
+     *         themselves to
+     */
+    protected EpochReclaimer epochs(MemoryBuffer buffer) {
+        return ((AbstractMemoryBuffer) buffer).epochs;
+    }
+
     @BeforeClass
     public void setUp() throws Exception {
-        buffer = DirectMemoryBuffer.createNew(1024, 1);
+        buffer = createBuffer(1024, 1);
     }
 
     /**
@@ -35,7 +62,7 @@ public class DirectMemoryBufferTest extends TestCase {
     @Test
     public void testfree() throws DMBufferOverFlowException, DMFrameLimitExcededException {
         // Creating a buffer of limited capacity.
-        MemoryBuffer tempBuffer = DirectMemoryBuffer.createNew(15, 2);
+        MemoryBuffer tempBuffer = createBuffer(15, 2);
         String expected = "TestString";
         Pointer pointer = tempBuffer.store(expected.getBytes());
         String actual = new String(tempBuffer.retrieve(pointer));
@@ -60,7 +87,7 @@ public class DirectMemoryBufferTest extends TestCase {
 
     @Test
     public void testUsedTrivial() throws DMBufferOverFlowException {
-        MemoryBuffer tempBuffer = DirectMemoryBuffer.createNew(150, 4);
+        MemoryBuffer tempBuffer = createBuffer(150, 4);
         tempBuffer.store("TestString".getBytes());
         assertEquals(10, tempBuffer.used());
 
@@ -73,7 +100,7 @@ public class DirectMemoryBufferTest extends TestCase {
 
     @Test
     public void testUsedNonTrivial() throws DMBufferOverFlowException {
-        MemoryBuffer tempBuffer = DirectMemoryBuffer.createNew(330, 5);
+        MemoryBuffer tempBuffer = createBuffer(330, 5);
         int expectedUsed = 0;
         tempBuffer.store("TestString".getBytes());
         expectedUsed += 10;
@@ -113,7 +140,7 @@ public class DirectMemoryBufferTest extends TestCase {
     @Test
     public void testBufferOverFlow() {
 
-        MemoryBuffer tempBuffer = buffer = DirectMemoryBuffer.createNew(5, 3);
+        MemoryBuffer tempBuffer = buffer = createBuffer(5, 3);
         boolean flagCaught = false;
         try {
             tempBuffer.store("TestString".getBytes());
@@ -157,4 +184,304 @@ public class DirectMemoryBufferTest extends TestCase {
         assertEquals(expected1, actual1);
         assertEquals(expected2, actual2);
     }
+
+    /**
+     * An update shrinks the block, or grows it into the free space after it,
+     * where it is, and only moves it when a live block is in the way.
+     */
+    @Test
+    public void testUpdateInPlace() throws DMBufferOverFlowException, DMFrameLimitExcededException {
+        Pointer pointer = buffer.store("TestString".getBytes());
+        Pointer grown = buffer.update(pointer, "TestString++++".getBytes());
+        assertSame(pointer, grown);
+        assertEquals("TestString++++", new String(buffer.retrieve(grown)));
+        assertEquals(14, buffer.used());
+
+        Pointer shrunk = buffer.update(grown, "Test".getBytes());
+        assertSame(pointer, shrunk);
+        assertEquals("Test", new String(buffer.retrieve(shrunk)));
+        assertEquals(4, buffer.used());
+
+        Pointer neighbour = buffer.store("Neighbour".getBytes());
+        Pointer moved = buffer.update(shrunk, new byte[200]);
+        assertNotSame(shrunk, moved);
+        assertEquals(200, buffer.retrieve(moved).length);
+        assertEquals("Neighbour", new String(buffer.retrieve(neighbour)));
+        assertEquals(209, buffer.used());
+
+        buffer.free(moved);
+        buffer.free(neighbour);
+        assertEquals(0, buffer.used());
+        // The space given back on shrinking merged with the rest again
+        buffer.store(new byte[1000]);
+    }
+
+    /**
+     * The tail given back by a shrink is only handed out again once the
+     * reads in flight are done.
+     */
+    @Test
+    public void testShrinkDuringRead() throws DMBufferOverFlowException, DMFrameLimitExcededException {
+        MemoryBuffer tempBuffer = createBuffer(256, 8);
+        Pointer pointer = tempBuffer.store(new byte[200]);
+        EpochReclaimer.Participant reader = epochs(tempBuffer).enter();
+        Pointer shrunk = tempBuffer.update(pointer, "TestString".getBytes());
+        assertSame(pointer, shrunk);
+        try {
+            tempBuffer.store(new byte[100]);
+            fail("handed out the tail of a block while it was read");
+        } catch (DMBufferOverFlowException e) {
+            // expected
+        }
+        epochs(tempBuffer).exit(reader);
+
+        Pointer fresh = tempBuffer.store(new byte[100]);
+        assertEquals("TestString", new String(tempBuffer.retrieve(shrunk)));
+        assertEquals(110, tempBuffer.used());
+        tempBuffer.free(fresh);
+        tempBuffer.free(shrunk);
+        assertEquals(0, tempBuffer.used());
+    }
+
+    /**
+     * A block stored with room to spare keeps it across updates with smaller
+     * payloads, and the room is counted as used.
+     */
+    @Test
+    public void testUpdateKeepsReservedCapacity() throws DMBufferOverFlowException, DMFrameLimitExcededException {
+        Pointer reserved = buffer.store("Test".getBytes(), 64);
+        assertEquals(64, reserved.getReserved());
+        assertEquals(64, buffer.used());
+
+        Pointer updated = buffer.update(reserved, "TestString".getBytes());
+        assertSame(reserved, updated);
+        assertEquals(64, updated.getEnd() - updated.getStart());
+        assertEquals("TestString", new String(buffer.retrieve(updated, 0, 10)));
+        assertEquals(64, buffer.used());
+
+        Pointer larger = buffer.update(updated, new byte[100]);
+        assertEquals(100, larger.getEnd() - larger.getStart());
+        assertEquals(100, buffer.used());
+
+        Pointer smaller = buffer.update(larger, "Test".getBytes());
+        assertEquals(64, smaller.getEnd() - smaller.getStart());
+        assertEquals("Test", new String(buffer.retrieve(smaller, 0, 4)));
+        assertEquals(64, buffer.used());
+
+        buffer.free(smaller);
+        assertEquals(0, buffer.used());
+    }
+
+    /**
+     * Freeing the blocks around a hole should merge them back into a single
+     * block large enough for the whole buffer.
+     */
+    @Test
+    public void testFreeAndMergeNeighbours() throws DMBufferOverFlowException, DMFrameLimitExcededException {
+        MemoryBuffer tempBuffer = createBuffer(30, 6);
+        Pointer p1 = tempBuffer.store("0123456789".getBytes());
+        Pointer p2 = tempBuffer.store("0123456789".getBytes());
+        tempBuffer.free(p1);
+        tempBuffer.free(p2);
+        String expected = "0123456789012345678901234567";
+        Pointer p3 = tempBuffer.store(expected.getBytes());
+        assertEquals(expected, new String(tempBuffer.retrieve(p3)));
+    }
+
+    /**
+     * A second free of the same pointer must not release the memory twice.
+     */
+    @Test
+    public void testDoubleFree() throws DMBufferOverFlowException {
+        MemoryBuffer tempBuffer = createBuffer(100, 7);
+        Pointer p1 = tempBuffer.store("TestString".getBytes());
+        tempBuffer.store("TestString".getBytes());
+        assertEquals(10, tempBuffer.free(p1));
+        assertEquals(0, tempBuffer.free(p1));
+        assertEquals(10, tempBuffer.used());
+    }
+
+    /**
+     * A view shares the memory of the block and can not write to it.
+     */
+    @Test
+    public void testView() throws DMBufferOverFlowException, DMFrameLimitExcededException {
+        Pointer pointer = buffer.store("TestString".getBytes());
+        ByteBuffer view = buffer.view(pointer);
+        assertTrue(view.isReadOnly());
+        assertEquals(10, view.remaining());
+        assertEquals('T', view.get(0));
+        buffer.update(pointer, "Best".getBytes(), 0);
+        assertEquals('B', view.get(0));
+    }
+
+    /**
+     * Reads into caller supplied arrays and buffers, and typed reads.
+     */
+    @Test
+    public void testRetrieveInto() throws DMBufferOverFlowException, DMFrameLimitExcededException {
+        ByteBuffer payload = ByteBuffer.allocate(16);
+        payload.putLong(0x0102030405060708L).putInt(42).putShort((short) 7).put((byte) 9).put((byte) -1);
+        Pointer pointer = buffer.store(payload.array());
+
+        assertEquals(0x0102030405060708L, buffer.getLong(pointer, 0));
+        assertEquals(42, buffer.getInt(pointer, 8));
+        assertEquals(7, buffer.getShort(pointer, 12));
+        assertEquals(9, buffer.getByte(pointer, 14));
+
+        byte[] dst = new byte[6];
+        buffer.retrieve(pointer, 8, dst, 2, 4);
+        assertEquals(42, ByteBuffer.wrap(dst, 2, 4).getInt());
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(8);
+        buffer.retrieve(pointer, 0, direct);
+        assertEquals(0, direct.remaining());
+        assertEquals(0x0102030405060708L, direct.getLong(0));
+
+        try {
+            buffer.getLong(pointer, 10);
+            fail("read past the end of the block");
+        } catch (DMFrameLimitExcededException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Test storing, reading back and freeing a batch.
+     */
+    @Test
+    public void testStoreAll() throws DMBufferOverFlowException, DMFrameLimitExcededException {
+        byte[][] payloads = { "first".getBytes(), "second".getBytes(), "third".getBytes() };
+        Pointer[] pointers = buffer.storeAll(payloads);
+        assertEquals(3, pointers.length);
+        assertEquals(16, buffer.used());
+        if (buffer instanceof DirectMemoryBuffer) {
+            // A batch is carved out of one free block.
+            assertEquals(pointers[0].getEnd() + 1, pointers[1].getStart());
+            assertEquals(pointers[1].getEnd() + 1, pointers[2].getStart());
+        }
+
+        ByteBuffer dst = ByteBuffer.allocate(20);
+        buffer.retrieveAll(pointers, dst);
+        assertEquals(16, dst.position());
+        assertEquals("firstsecondthird", new String(dst.array(), 0, 16));
+
+        try {
+            buffer.retrieveAll(pointers, ByteBuffer.allocate(10));
+            fail("gathered more than the destination holds");
+        } catch (BufferOverflowException e) {
+            // expected
+        }
+
+        assertEquals(16, buffer.freeAll(Arrays.asList(pointers)));
+        assertEquals(0, buffer.used());
+        assertEquals(0, buffer.freeAll(Arrays.asList(pointers)));
+        buffer.store(new byte[1000]);
+    }
+
+    /**
+     * Test a batch that does not fit stores nothing.
+     */
+    @Test
+    public void testStoreAllOverflow() throws DMBufferOverFlowException {
+        buffer.store(new byte[100]);
+        try {
+            buffer.storeAll(new byte[][] { new byte[200], new byte[200], new byte[600] });
+            fail("stored more than the buffer holds");
+        } catch (DMBufferOverFlowException e) {
+            // expected
+        }
+        assertEquals(100, buffer.used());
+        buffer.storeAll(new byte[][] { new byte[200], new byte[200] });
+    }
+
+    /**
+     * Test streaming a payload in from a stream and out to a channel.
+     */
+    @Test
+    public void testStreaming() throws DMBufferOverFlowException, DMFrameLimitExcededException, IOException {
+        byte[] payload = new byte[600];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) i;
+        }
+        Pointer pointer = buffer.store(new ByteArrayInputStream(payload), payload.length);
+        assertEquals(600, buffer.used());
+        assertTrue(Arrays.equals(payload, buffer.retrieve(pointer)));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(600, buffer.transferTo(pointer, Channels.newChannel(out)));
+        assertTrue(Arrays.equals(payload, out.toByteArray()));
+    }
+
+    /**
+     * Test a stream that ends early stores nothing.
+     */
+    @Test
+    public void testStreamingEndsEarly() throws DMBufferOverFlowException, IOException {
+        try {
+            buffer.store(new ByteArrayInputStream(new byte[100]), 200);
+            fail("stored more than the stream held");
+        } catch (EOFException e) {
+            // expected
+        }
+        assertEquals(0, buffer.used());
+        buffer.store(new byte[1000]);
+    }
+
+    /**
+     * Aligned blocks start at aligned addresses, and the bytes skipped to
+     * reach them merge back once the blocks are freed.
+     */
+    @Test
+    public void testAlignedStore() throws DMBufferOverFlowException, DMFrameLimitExcededException {
+        Pointer odd = buffer.store("Odd".getBytes());
+        List<Pointer> pointers = new ArrayList<Pointer>();
+        for (int i = 0; i < 3; i++) {
+            byte[] payload = ("TestString" + i).getBytes();
+            Pointer pointer = buffer.store(payload, payload.length, 64);
+            assertEquals(0, buffer.view(pointer).alignmentOffset(0, 64));
+            assertEquals(64, pointer.getAlignment());
+            pointers.add(pointer);
+        }
+        Pointer page = buffer.store("TestString".getBytes(), 10, 256);
+        assertEquals(0, buffer.view(page).alignmentOffset(0, 256));
+        pointers.add(page);
+        for (int i = 0; i < 3; i++) {
+            assertEquals("TestString" + i, new String(buffer.retrieve(pointers.get(i))));
+        }
+        try {
+            buffer.store(new byte[8], 8, 48);
+            fail("aligned to a non power of two");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        buffer.free(odd);
+        for (Pointer pointer : pointers) {
+            buffer.free(pointer);
+        }
+        assertEquals(0, buffer.used());
+        // Everything merged back, the whole buffer is available again.
+        buffer.store(new byte[1000]);
+    }
+
+    /**
+     * Blocks stored without an alignment take the default one of the buffer.
+     */
+    @Test
+    public void testDefaultAlignment() throws DMBufferOverFlowException {
+        AbstractMemoryBuffer aligned = (AbstractMemoryBuffer) buffer;
+        assertEquals(1, aligned.getDefaultAlignment());
+        aligned.setDefaultAlignment(128);
+        Pointer first = buffer.store("Test".getBytes());
+        Pointer second = buffer.store("TestString".getBytes());
+        assertEquals(0, buffer.view(first).alignmentOffset(0, 128));
+        assertEquals(0, buffer.view(second).alignmentOffset(0, 128));
+        try {
+            aligned.setDefaultAlignment(1 << 20);
+            fail("aligned to more than the capacity");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
 }
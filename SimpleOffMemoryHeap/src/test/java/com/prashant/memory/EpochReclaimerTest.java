@@ -0,0 +1,194 @@
+package com.prashant.memory;
+
+import com.prashant.exception.DMBufferOverFlowException;
+import com.prashant.exception.DMFrameLimitExcededException;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+public class EpochReclaimerTest extends TestCase {
+
+    /**
+     * A block freed while a read is in flight is only handed out again once the read is done.
+     */
+    @Test
+    public void testFreeDuringRead() throws DMBufferOverFlowException {
+        DirectMemoryBuffer buffer = (DirectMemoryBuffer) DirectMemoryBuffer.createNew(100, 1);
+        Pointer pointer = buffer.store(new byte[10]);
+
+        EpochReclaimer.Participant reader = buffer.epochs.enter();
+        assertEquals(10, buffer.free(pointer));
+        assertEquals(0, buffer.free(pointer));
+        assertFalse(pointer.isFree());
+        assertEquals(10, buffer.used());
+        try {
+            buffer.store(new byte[95]);
+            fail("reused a block while it was read");
+        } catch (DMBufferOverFlowException e) {
+            // expected
+        }
+        buffer.epochs.exit(reader);
+
+        buffer.store(new byte[95]);
+        assertTrue(pointer.isFree());
+        assertEquals(95, buffer.used());
+    }
+
+    /**
+     * A read of another thread holds the block back, and the next store after the read releases it.
+     */
+    @Test
+    public void testReadOfAnotherThread() throws Exception {
+        final BuddyMemoryBuffer buffer = (BuddyMemoryBuffer) BuddyMemoryBuffer.createNew(1024, 1);
+        final CountDownLatch reading = new CountDownLatch(1);
+        final CountDownLatch freed = new CountDownLatch(1);
+        Thread thread = new Thread() {
+            public void run() {
+                EpochReclaimer.Participant reader = buffer.epochs.enter();
+                try {
+                    reading.countDown();
+                    freed.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    buffer.epochs.exit(reader);
+                }
+            }
+        };
+        Pointer pointer = buffer.store(new byte[100]);
+        long handle = buffer.storeHandle(new byte[100]);
+        thread.start();
+        reading.await();
+
+        assertEquals(100, buffer.free(pointer));
+        assertEquals(100, buffer.free(handle));
+        Pointer fresh = buffer.store(new byte[100]);
+        assertTrue(fresh.getStart() != pointer.getStart());
+        assertEquals(300, buffer.used());
+
+        freed.countDown();
+        thread.join();
+        buffer.free(fresh);
+        assertEquals(0, buffer.used());
+    }
+
+    /**
+     * A read starting after the free is refused, whether the block is still held back by an earlier read or released already.
+     */
+    @Test
+    public void testReadAfterFree() throws Exception {
+        final DirectMemoryBuffer buffer = (DirectMemoryBuffer) DirectMemoryBuffer.createNew(100, 1);
+        final CountDownLatch reading = new CountDownLatch(1);
+        final CountDownLatch freed = new CountDownLatch(1);
+        Thread thread = new Thread() {
+            public void run() {
+                EpochReclaimer.Participant reader = buffer.epochs.enter();
+                try {
+                    reading.countDown();
+                    freed.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    buffer.epochs.exit(reader);
+                }
+            }
+        };
+        Pointer pointer = buffer.store("TestString".getBytes());
+        Pointer other = buffer.store("Other".getBytes());
+        thread.start();
+        reading.await();
+
+        assertEquals(15, buffer.freeAll(Arrays.asList(pointer, other, pointer)));
+        assertFalse(pointer.isFree());
+        try {
+            buffer.retrieve(pointer);
+            fail("read a block freed before the read started");
+        } catch (DMFrameLimitExcededException e) {
+            // expected
+        }
+        freed.countDown();
+        thread.join();
+
+        buffer.store(new byte[1]);
+        assertTrue(pointer.isFree());
+        assertEquals(1, buffer.used());
+        try {
+            buffer.getByte(other, 0);
+            fail("read a released block");
+        } catch (DMFrameLimitExcededException e) {
+            // expected
+        }
+        assertEquals(0, buffer.free(other));
+    }
+
+    /**
+     * Readers never see a payload torn by a free and a store racing with them.
+     */
+    @Test
+    public void testConcurrentReadAndFree() throws Exception {
+        final SlabMemoryBuffer buffer = SlabMemoryBuffer.createNew(1 << 16, new int[] { 64 }, 1);
+        final AtomicReferenceArray<Pointer> slots = new AtomicReferenceArray<Pointer>(16);
+        for (int i = 0; i < slots.length(); i++) {
+            slots.set(i, buffer.store(fill(i, 64)));
+        }
+        final Throwable[] failure = new Throwable[1];
+        final long deadline = System.currentTimeMillis() + 300;
+        Thread[] readers = new Thread[3];
+        for (int t = 0; t < readers.length; t++) {
+            readers[t] = new Thread() {
+                public void run() {
+                    byte[] dst = new byte[64];
+                    int i = 0;
+                    while (System.currentTimeMillis() < deadline) {
+                        EpochReclaimer.Participant reader = buffer.epochs.enter();
+                        Pointer slot = slots.get(i++ & 15);
+                        try {
+                            buffer.retrieve(slot, 0, dst, 0, 64);
+                            for (byte b : dst) {
+                                if (b != dst[0]) {
+                                    throw new AssertionError("torn payload " + Arrays.toString(dst));
+                                }
+                            }
+                        } catch (DMFrameLimitExcededException e) {
+                            // Only a block freed since it was taken from its slot may be refused
+                            if (!slot.isRetired()) {
+                                failure[0] = e;
+                                return;
+                            }
+                        } catch (AssertionError e) {
+                            failure[0] = e;
+                            return;
+                        } finally {
+                            buffer.epochs.exit(reader);
+                        }
+                    }
+                }
+            };
+            readers[t].start();
+        }
+        for (int round = 0; System.currentTimeMillis() < deadline; round++) {
+            int i = round & 15;
+            Pointer old = slots.getAndSet(i, buffer.store(fill(round, 64)));
+            buffer.free(old);
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertNull(failure[0]);
+        for (int i = 0; i < slots.length(); i++) {
+            buffer.free(slots.get(i));
+        }
+        assertEquals(0, buffer.used());
+    }
+
+    private static byte[] fill(int value, int len) {
+        byte[] payload = new byte[len];
+        Arrays.fill(payload, (byte) value);
+        return payload;
+    }
+}
@@ -0,0 +1,170 @@
+package com.prashant.memory;
+
+import com.prashant.exception.DMBufferOverFlowException;
+import com.prashant.exception.DMFrameLimitExcededException;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+public class MappedMemoryBufferTest extends TestCase {
+
+    private File file;
+
+    @Override
+    public void setUp() throws Exception {
+        file = File.createTempFile("mapped", ".buffer");
+        file.delete();
+    }
+
+    @Override
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testStoreAndRetrieve() throws IOException, DMBufferOverFlowException, DMFrameLimitExcededException {
+        MappedMemoryBuffer buffer = MappedMemoryBuffer.open(file, 4096, 1);
+        Pointer pointer = buffer.store("TestString".getBytes());
+        assertEquals("TestString", new String(buffer.retrieve(pointer)));
+        assertEquals(10, buffer.used());
+        assertEquals(4096, file.length());
+        buffer.close();
+    }
+
+    /**
+     * Blocks, the root and the used bytes survive closing and reopening the file, and freed space is reused.
+     */
+    @Test
+    public void testReopen() throws IOException, DMBufferOverFlowException, DMFrameLimitExcededException {
+        MappedMemoryBuffer buffer = MappedMemoryBuffer.open(file, 4096, 1);
+        List<Pointer> pointers = new ArrayList<Pointer>();
+        for (int i = 0; i < 10; i++) {
+            pointers.add(buffer.store(("TestString" + i).getBytes()));
+        }
+        buffer.free(pointers.get(3));
+        buffer.free(pointers.get(4));
+        buffer.setRoot(pointers.get(7));
+        buffer.close();
+
+        MappedMemoryBuffer reopened = MappedMemoryBuffer.open(file, 1024, 2);
+        assertEquals(4096, reopened.capacity());
+        assertEquals(88, reopened.used());
+        List<Pointer> blocks = reopened.blocks();
+        assertEquals(8, blocks.size());
+        assertEquals("TestString0", new String(reopened.retrieve(blocks.get(0))));
+        assertEquals("TestString9", new String(reopened.retrieve(blocks.get(7))));
+        assertEquals(2, blocks.get(0).getBlockNumber());
+        assertEquals("TestString7", new String(reopened.retrieve(reopened.getRoot())));
+
+        // The two merged holes take a block larger than either of them.
+        Pointer refill = reopened.store(new byte[30]);
+        assertEquals(pointers.get(3).getStart(), refill.getStart());
+        reopened.close();
+    }
+
+    /**
+     * A write one byte past the capacity of a block is rejected, rather than overwriting the header of the next block and losing every block
+     * after it on reopen.
+     */
+    @Test
+    public void testUpdatePastCapacity() throws IOException, DMBufferOverFlowException, DMFrameLimitExcededException {
+        MappedMemoryBuffer buffer = MappedMemoryBuffer.open(file, 4096, 1);
+        Pointer first = buffer.store("01234567".getBytes());
+        buffer.store("ABCDEFGH".getBytes());
+        try {
+            buffer.update(first, new byte[9], 0);
+            fail("wrote past the capacity of the block");
+        } catch (DMFrameLimitExcededException e) {
+            // expected
+        }
+        buffer.update(first, "76543210".getBytes(), 0);
+        buffer.close();
+
+        MappedMemoryBuffer reopened = MappedMemoryBuffer.open(file, 4096, 1);
+        List<Pointer> blocks = reopened.blocks();
+        assertEquals(2, blocks.size());
+        assertEquals("76543210", new String(reopened.retrieve(blocks.get(0))));
+        assertEquals("ABCDEFGH", new String(reopened.retrieve(blocks.get(1))));
+        reopened.close();
+    }
+
+    /**
+     * A block freed while a read is in flight is free in the file at once, its space only goes back to the free list once the read is done.
+     */
+    @Test
+    public void testFreeDuringRead() throws IOException, DMBufferOverFlowException, DMFrameLimitExcededException {
+        MappedMemoryBuffer buffer = MappedMemoryBuffer.open(file, 4096, 1);
+        Pointer first = buffer.store("TestString".getBytes());
+        buffer.store("TestString".getBytes());
+
+        EpochReclaimer.Participant reader = buffer.epochs.enter();
+        assertEquals(10, buffer.free(first));
+        assertEquals(0, buffer.free(first));
+        assertEquals(1, buffer.blocks().size());
+        Pointer third = buffer.store("TestString".getBytes());
+        assertTrue(third.getStart() != first.getStart());
+        try {
+            buffer.retrieve(first);
+            fail("read a freed block");
+        } catch (DMFrameLimitExcededException e) {
+            // expected
+        }
+        buffer.force();
+        MappedMemoryBuffer reopened = MappedMemoryBuffer.open(file, 4096, 2);
+        assertEquals(2, reopened.blocks().size());
+        assertEquals(20, reopened.used());
+        reopened.close();
+
+        assertFalse(first.isFree());
+        assertEquals(30, buffer.used());
+        buffer.epochs.exit(reader);
+        buffer.store("TestString".getBytes());
+        assertTrue(first.isFree());
+        assertEquals(30, buffer.used());
+        buffer.close();
+    }
+
+    /**
+     * Freeing every block merges the whole file back into one free block.
+     */
+    @Test
+    public void testFreeMergesNeighbours() throws IOException, DMBufferOverFlowException {
+        MappedMemoryBuffer buffer = MappedMemoryBuffer.open(file, 1024, 1);
+        List<Pointer> pointers = new ArrayList<Pointer>();
+        for (int i = 0; i < 20; i++) {
+            pointers.add(buffer.store(new byte[20]));
+        }
+        for (int i = 0; i < 20; i += 2) {
+            buffer.free(pointers.get(i));
+        }
+        for (int i = 19; i > 0; i -= 2) {
+            buffer.free(pointers.get(i));
+        }
+        assertEquals(0, buffer.free(pointers.get(5)));
+        assertEquals(0, buffer.used());
+        assertTrue(buffer.blocks().isEmpty());
+        Pointer whole = buffer.store(new byte[1024 - MappedMemoryBuffer.FILE_HEADER - MappedMemoryBuffer.BLOCK_HEADER]);
+        assertEquals(MappedMemoryBuffer.FILE_HEADER + MappedMemoryBuffer.BLOCK_HEADER, whole.getStart());
+        buffer.close();
+    }
+
+    @Test
+    public void testRejectsForeignFile() throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[128]);
+        out.close();
+        try {
+            MappedMemoryBuffer.open(file, 4096, 1);
+            fail("not a memory buffer file");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
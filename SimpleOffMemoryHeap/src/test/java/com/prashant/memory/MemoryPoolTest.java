@@ -0,0 +1,105 @@
+package com.prashant.memory;
+
+import com.prashant.exception.DMBufferOverFlowException;
+import com.prashant.exception.DMFrameLimitExcededException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+public class MemoryPoolTest extends TestCase {
+
+    /**
+     * Storing more than a segment holds should add segments, and every
+     * pointer should read back from the segment it was stored in.
+     */
+    @Test
+    public void testGrowAcrossSegments() throws DMBufferOverFlowException, DMFrameLimitExcededException {
+        MemoryPool pool = MemoryPool.createNew(100, 1000);
+        List<Pointer> pointers = new ArrayList<Pointer>();
+        for (int i = 0; i < 20; i++) {
+            pointers.add(pool.store(("TestString" + (char) ('a' + i)).getBytes()));
+        }
+        assertTrue(pool.segments() > 1);
+        assertEquals(220, pool.usedBytes());
+        for (int i = 0; i < 20; i++) {
+            assertEquals("TestString" + (char) ('a' + i), new String(pool.retrieve(pointers.get(i))));
+        }
+    }
+
+    /**
+     * Segments emptied by free are released, the first one stays.
+     */
+    @Test
+    public void testReleaseEmptySegments() throws DMBufferOverFlowException {
+        MemoryPool pool = MemoryPool.createNew(100, 1000);
+        List<Pointer> pointers = new ArrayList<Pointer>();
+        for (int i = 0; i < 20; i++) {
+            pointers.add(pool.store("TestString".getBytes()));
+        }
+        int grown = pool.segments();
+        for (Pointer pointer : pointers) {
+            pool.free(pointer);
+        }
+        assertTrue(grown > 1);
+        assertEquals(1, pool.segments());
+        assertEquals(0, pool.used());
+        assertEquals(100, pool.capacity());
+    }
+
+    /**
+     * An update that overflows its segment has already freed the block there,
+     * so the segment is released once empty and the block moves to another one.
+     */
+    @Test
+    public void testUpdateReleasesEmptySegment() throws DMBufferOverFlowException, DMFrameLimitExcededException {
+        MemoryPool pool = MemoryPool.createNew(100, 1000, new MemoryPool.SegmentFactory() {
+            public MemoryBuffer create(int capacity, int bufferNumber) {
+                return DirectMemoryBuffer.createNew(bufferNumber == 0 ? 2 * capacity : capacity, bufferNumber);
+            }
+        });
+        Pointer first = pool.store(new byte[180]);
+        Pointer pointer = pool.store(new byte[80]);
+        assertEquals(1, pointer.getBlockNumber());
+        pool.free(first);
+        pointer = pool.update(pointer, new byte[150]);
+        assertEquals(0, pointer.getBlockNumber());
+        assertEquals(1, pool.segments());
+    }
+
+    @Test
+    public void testLimit() throws DMBufferOverFlowException {
+        MemoryPool pool = MemoryPool.createNew(100, 200);
+        pool.store(new byte[90]);
+        pool.store(new byte[90]);
+        try {
+            pool.store(new byte[90]);
+            fail("pool should be at its limit");
+        } catch (DMBufferOverFlowException e) {
+            assertEquals(2, pool.segments());
+        }
+    }
+
+    /**
+     * Handles carry the segment they were stored in.
+     */
+    @Test
+    public void testHandlesOverBuddySegments() throws DMBufferOverFlowException, DMFrameLimitExcededException {
+        MemoryPool pool = MemoryPool.createNew(64, 256, new MemoryPool.SegmentFactory() {
+            public MemoryBuffer create(int capacity, int bufferNumber) {
+                return BuddyMemoryBuffer.createNew(capacity, bufferNumber);
+            }
+        });
+        HandleMemoryBuffer handles = (HandleMemoryBuffer) pool;
+        long h1 = handles.storeHandle(new byte[40]);
+        long h2 = handles.storeHandle("TestString".getBytes());
+        assertEquals(1, Handles.segment(h2) - Handles.segment(h1));
+        assertEquals("TestString", new String(handles.retrieve(h2)));
+        handles.free(h2);
+        assertEquals(1, pool.segments());
+        assertFalse(MemoryPool.createNew(64, 256) instanceof HandleMemoryBuffer);
+    }
+}
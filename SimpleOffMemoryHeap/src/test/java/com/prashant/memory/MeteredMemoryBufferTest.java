@@ -0,0 +1,113 @@
+package com.prashant.memory;
+
+import com.prashant.exception.DMBufferOverFlowException;
+import com.prashant.exception.DMFrameLimitExcededException;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+public class MeteredMemoryBufferTest extends TestCase {
+
+    @Test
+    public void testCounters() throws DMBufferOverFlowException, DMFrameLimitExcededException {
+        MeteredMemoryBuffer buffer = new MeteredMemoryBuffer(DirectMemoryBuffer.createNew(100, 1));
+        Pointer p1 = buffer.store("TestString".getBytes());
+        Pointer p2 = buffer.store(new byte[40]);
+        buffer.retrieve(p1);
+        buffer.update(p1, "Best".getBytes(), 0);
+        buffer.free(p1);
+        try {
+            buffer.store(new byte[80]);
+            fail("buffer should be full");
+        } catch (DMBufferOverFlowException e) {
+            // expected
+        }
+
+        MemoryBufferStats stats = buffer.snapshot();
+        assertEquals(2, stats.getStores());
+        assertEquals(50, stats.getStoredBytes());
+        assertEquals(1, stats.getRetrieves());
+        assertEquals(1, stats.getUpdates());
+        assertEquals(1, stats.getFrees());
+        assertEquals(10, stats.getFreedBytes());
+        assertEquals(1, stats.getOverflows());
+        assertEquals(1, stats.getSizeDistribution()[4]);
+        assertEquals(1, stats.getSizeDistribution()[6]);
+        assertTrue(stats.getStoreLatencyNanos()[1] > 0);
+        assertTrue(stats.getLockWaits() >= 4);
+
+        // The hole left by p1 and the space after p2.
+        assertEquals(2, stats.getFreeBlockCount());
+        assertEquals(100 - 11 - 41, stats.getLargestFreeBlock());
+        assertTrue(stats.getFragmentation() > 0);
+        assertEquals(40, buffer.retrieve(p2).length);
+    }
+
+    @Test
+    public void testDisabled() throws DMBufferOverFlowException {
+        MeteredMemoryBuffer buffer = new MeteredMemoryBuffer(BuddyMemoryBuffer.createNew(64, 1));
+        buffer.setEnabled(false);
+        buffer.free(buffer.store("TestString".getBytes()));
+        assertEquals(0, buffer.getStores());
+        assertEquals(0, buffer.getLockWaits());
+        assertEquals(-1, buffer.getFreeBlockCount());
+
+        buffer.setEnabled(true);
+        buffer.store("TestString".getBytes());
+        assertEquals(1, buffer.getStores());
+        buffer.reset();
+        assertEquals(0, buffer.getStores());
+    }
+
+    /**
+     * Only a handle buffer is wrapped with handles, and stores, reads and frees by handle are metered like the others.
+     */
+    @Test
+    public void testHandles() throws DMBufferOverFlowException, DMFrameLimitExcededException {
+        assertFalse(new MeteredMemoryBuffer(DirectMemoryBuffer.createNew(100, 1)) instanceof HandleMemoryBuffer);
+        MeteredMemoryBuffer.WithHandles buffer = new MeteredMemoryBuffer.WithHandles(BuddyMemoryBuffer.createNew(64, 1));
+        long handle = buffer.storeHandle("TestString".getBytes());
+        assertEquals("TestString", new String(buffer.retrieve(handle)));
+        assertEquals(10, buffer.free(handle));
+        assertEquals(1, buffer.getStores());
+        assertEquals(1, buffer.getRetrieves());
+        assertEquals(1, buffer.getFrees());
+        assertEquals(10, buffer.getFreedBytes());
+    }
+
+    @Test
+    public void testHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 1000; value++) {
+            histogram.record(value * 1000);
+        }
+        assertEquals(1000, histogram.count());
+        long median = histogram.percentile(50);
+        assertTrue(median <= 500000 && median > 500000 * 7 / 8);
+        assertTrue(histogram.percentile(100) > 1000000 * 7 / 8);
+        for (int bucket = 0; bucket < LatencyHistogram.BUCKETS; bucket++) {
+            assertEquals(bucket, LatencyHistogram.bucket(LatencyHistogram.lowest(bucket)));
+        }
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.bucket(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testJmx() throws JMException, DMBufferOverFlowException {
+        MeteredMemoryBuffer buffer = new MeteredMemoryBuffer(DirectMemoryBuffer.createNew(100, 1));
+        buffer.register("test");
+        try {
+            buffer.store("TestString".getBytes());
+            ObjectName name = new ObjectName("com.prashant.memory:type=MemoryBuffer,name=\"test\"");
+            assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Stores"));
+            assertEquals(10, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Used"));
+        } finally {
+            buffer.unregister();
+        }
+    }
+}
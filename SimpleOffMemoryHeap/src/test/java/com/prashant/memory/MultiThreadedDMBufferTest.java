@@ -5,6 +5,7 @@ import com.prashant.exception.DMFrameLimitExcededException;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import junit.framework.*;
@@ -16,11 +17,26 @@ public class MultiThreadedDMBufferTest extends TestCase {
     private static final Logger logger = Logger.getAnonymousLogger();
 
     private final static int THREADS = 2;
-    Thread[] thread = new Thread[THREADS];
+    private volatile Throwable failure;
 
     public MultiThreadedDMBufferTest(String testName) {
         super(testName);
-        buffer = DirectMemoryBuffer.createNew(102400, 1);
+        buffer = createBuffer();
+    }
+
+    /**
+     * Creates the buffer shared by all the threads, overridden to stress
+     * other <code>MemoryBuffer</code> implementations.
+     */
+    protected MemoryBuffer createBuffer() {
+        return DirectMemoryBuffer.createNew(102400, 1);
+    }
+
+    /**
+     * @return Number of threads storing in parallel
+     */
+    protected int threads() {
+        return THREADS;
     }
 
 //    public static Test suite() {
@@ -59,29 +75,42 @@ public class MultiThreadedDMBufferTest extends TestCase {
         public void run() {
             try {
                 stressTestStoreRetrieveAndFree();
-            } catch (Exception e) {
-                e.printStackTrace();
-                fail();
+            } catch (Throwable e) {
+                logger.log(Level.FINE, "Stress test thread failed", e);
+                failure = e;
             }
         }
     }
 
+    /**
+     * Runs the stress test on the given number of threads at once and
+     * rethrows the first failure of any of them.
+     * 
+     * @return elapsed time in nanoseconds
+     */
+    protected long runParallel(int threads) throws Throwable {
+        Thread[] thread = new Thread[threads];
+        for (int i = 0; i < thread.length; i++) {
+            thread[i] = new StoreThread();
+        }
+        long begin = System.nanoTime();
+        for (int i = 0; i < thread.length; i++) {
+            thread[i].start();
+        }
+        for (int i = 0; i < thread.length; i++) {
+            thread[i].join();
+        }
+        long elapsed = System.nanoTime() - begin;
+        if (failure != null) {
+            throw failure;
+        }
+        return elapsed;
+    }
+
     @Test
     public void testParallelStore() throws Throwable {
         System.out.println("parallel add");
-        try {
-            for (int i = 0; i < THREADS; i++) {
-                thread[i] = new StoreThread();
-            }
-            for (int i = 0; i < THREADS; i++) {
-                thread[i].start();
-            }
-            for (int i = 0; i < THREADS; i++) {
-                thread[i].join();
-            }
-        } catch (Throwable t) {
-            throw t;
-        }
+        runParallel(threads());
     }
 
 }
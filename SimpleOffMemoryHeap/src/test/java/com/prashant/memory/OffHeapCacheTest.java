@@ -0,0 +1,91 @@
+package com.prashant.memory;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+public class OffHeapCacheTest extends TestCase {
+
+    @Test
+    public void testPutGetRemove() {
+        OffHeapCache cache = OffHeapCache.createNew(4096, 100);
+        assertTrue(cache.put("key".getBytes(), "TestString".getBytes()));
+        assertEquals("TestString", new String(cache.get("key".getBytes())));
+        assertNull(cache.get("other".getBytes()));
+
+        assertTrue(cache.put("key".getBytes(), "Replaced".getBytes()));
+        assertEquals("Replaced", new String(cache.get("key".getBytes())));
+        assertEquals(1, cache.size());
+
+        assertTrue(cache.remove("key".getBytes()));
+        assertFalse(cache.remove("key".getBytes()));
+        assertNull(cache.get("key".getBytes()));
+        assertEquals(0, cache.size());
+    }
+
+    /**
+     * Removing from the middle of colliding probe sequences must keep every
+     * other key reachable.
+     */
+    @Test
+    public void testManyKeys() {
+        OffHeapCache cache = OffHeapCache.createNew(1 << 20, 10000);
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(cache.put(("key" + i).getBytes(), ("value" + i).getBytes()));
+        }
+        for (int i = 0; i < 10000; i += 3) {
+            assertTrue(cache.remove(("key" + i).getBytes()));
+        }
+        for (int i = 0; i < 10000; i++) {
+            byte[] value = cache.get(("key" + i).getBytes());
+            if (i % 3 == 0) {
+                assertNull(value);
+            } else {
+                assertEquals("value" + i, new String(value));
+            }
+        }
+        assertEquals(0, cache.evictions());
+    }
+
+    /**
+     * A full cache evicts instead of failing, and entries read since the last
+     * sweep of the clock hand survive.
+     */
+    @Test
+    public void testEviction() {
+        OffHeapCache cache = OffHeapCache.createNew(1024, 1000);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(cache.put(("key" + i).getBytes(), new byte[20]));
+            assertNotNull(cache.get("key0".getBytes()));
+        }
+        assertTrue(cache.evictions() > 0);
+        assertTrue(cache.size() < 1000);
+        assertNotNull(cache.get("key999".getBytes()));
+
+        assertFalse(cache.put("large".getBytes(), new byte[2048]));
+    }
+
+    @Test
+    public void testMaxEntries() {
+        OffHeapCache cache = OffHeapCache.createNew(4096, 4);
+        for (int i = 0; i < 10; i++) {
+            cache.put(("key" + i).getBytes(), "TestString".getBytes());
+        }
+        assertEquals(4, cache.size());
+        assertEquals(6, cache.evictions());
+    }
+
+    @Test
+    public void testExpiry() throws InterruptedException {
+        OffHeapCache cache = OffHeapCache.createNew(4096, 100);
+        cache.put("short".getBytes(), "TestString".getBytes(), 20, TimeUnit.MILLISECONDS);
+        cache.put("long".getBytes(), "TestString".getBytes(), 1, TimeUnit.HOURS);
+        assertNotNull(cache.get("short".getBytes()));
+        Thread.sleep(50);
+        assertNull(cache.get("short".getBytes()));
+        assertNotNull(cache.get("long".getBytes()));
+        assertEquals(1, cache.size());
+    }
+}
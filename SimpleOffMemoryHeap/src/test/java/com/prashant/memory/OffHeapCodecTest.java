@@ -0,0 +1,115 @@
+package com.prashant.memory;
+
+import com.prashant.exception.DMBufferOverFlowException;
+import com.prashant.exception.DMFrameLimitExcededException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+public class OffHeapCodecTest extends TestCase {
+
+    static class Trade {
+        long id;
+        double price;
+        int quantity;
+        boolean buy;
+        char side;
+        String symbol;
+        transient String cached;
+
+        private Trade() {
+        }
+
+        Trade(long id, double price, int quantity, String symbol) {
+            this.id = id;
+            this.price = price;
+            this.quantity = quantity;
+            this.buy = true;
+            this.side = 'B';
+            this.symbol = symbol;
+            this.cached = "not stored";
+        }
+    }
+
+    static class Nested {
+        Trade trade;
+    }
+
+    private final MemoryBuffer buffer = DirectMemoryBuffer.createNew(1024, 1);
+
+    @Test
+    public void testPrimitives() throws DMBufferOverFlowException, DMFrameLimitExcededException {
+        Pointer pointer = buffer.store(Long.valueOf(0x0102030405060708L));
+        assertEquals(Long.class, pointer.getClazz());
+        assertEquals(8, buffer.used());
+        assertEquals(Long.valueOf(0x0102030405060708L), buffer.<Long> load(pointer));
+        assertEquals(0x0102030405060708L, buffer.getLong(pointer, 0));
+
+        assertEquals(Integer.valueOf(-7), buffer.<Integer> load(buffer.store(-7)));
+        assertEquals(Double.valueOf(2.5), buffer.<Double> load(buffer.store(2.5)));
+        assertEquals(Boolean.TRUE, buffer.<Boolean> load(buffer.store(true)));
+        assertEquals(Character.valueOf('x'), buffer.<Character> load(buffer.store('x')));
+    }
+
+    /**
+     * Strings must be encoded exactly as the JDK encodes UTF-8.
+     */
+    @Test
+    public void testString() throws DMBufferOverFlowException, DMFrameLimitExcededException {
+        String value = "ascii, été, € and 😀";
+        Pointer pointer = buffer.store(value);
+        assertEquals(String.class, pointer.getClazz());
+        assertTrue(Arrays.equals(value.getBytes(StandardCharsets.UTF_8), buffer.retrieve(pointer)));
+        assertEquals(value, buffer.load(pointer));
+
+        assertEquals("", buffer.load(buffer.store("")));
+    }
+
+    @Test
+    public void testFlatCodec() throws DMBufferOverFlowException, DMFrameLimitExcededException {
+        OffHeapCodecs.register(FlatCodec.of(Trade.class));
+        Pointer pointer = buffer.store(new Trade(42, 99.5, 300, "ACME"));
+        assertEquals(Trade.class, pointer.getClazz());
+        // 8 + 8 + 4 + 1 + 2 + 4 + 4 bytes of the symbol
+        assertEquals(31, pointer.getEnd() - pointer.getStart());
+
+        Trade trade = buffer.load(pointer);
+        assertEquals(42, trade.id);
+        assertEquals(99.5, trade.price);
+        assertEquals(300, trade.quantity);
+        assertTrue(trade.buy);
+        assertEquals('B', trade.side);
+        assertEquals("ACME", trade.symbol);
+        assertNull(trade.cached);
+
+        Trade noSymbol = new Trade(1, 1, 1, null);
+        assertNull(buffer.<Trade> load(buffer.store(noSymbol)).symbol);
+    }
+
+    @Test
+    public void testUnsupported() throws DMBufferOverFlowException, DMFrameLimitExcededException {
+        try {
+            FlatCodec.of(Nested.class);
+            fail("a class with an object field is not flat");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            buffer.store(new Nested());
+            fail("stored a class without a codec");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            buffer.load(buffer.store("raw".getBytes()));
+            fail("loaded a pointer that records no class");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertEquals(3, buffer.used());
+    }
+}
@@ -0,0 +1,98 @@
+package com.prashant.memory;
+
+import com.prashant.exception.DMBufferOverFlowException;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+public class OffHeapCollectionsTest extends TestCase {
+
+    private final MemoryBuffer buffer = DirectMemoryBuffer.createNew(1 << 20, 1);
+
+    @Test
+    public void testLongArray() throws DMBufferOverFlowException {
+        OffHeapLongArray array = new OffHeapLongArray(buffer, 100);
+        assertEquals(800, buffer.used());
+        assertEquals(0, array.get(99));
+        for (int i = 0; i < 100; i++) {
+            array.set(i, i * 1000000007L);
+        }
+        array.resize(1000);
+        assertEquals(8000, buffer.used());
+        assertEquals(99 * 1000000007L, array.get(99));
+        assertEquals(0, array.get(100));
+        array.resize(10);
+        assertEquals(9 * 1000000007L, array.get(9));
+        try {
+            array.get(10);
+            fail("read past the end of the array");
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+        array.free();
+        assertEquals(0, buffer.used());
+    }
+
+    @Test
+    public void testIntList() throws DMBufferOverFlowException {
+        OffHeapIntList list = new OffHeapIntList(buffer, 0);
+        for (int i = 0; i < 10000; i++) {
+            list.add(-i);
+        }
+        assertEquals(10000, list.size());
+        assertTrue(list.capacity() >= 10000);
+        assertEquals(list.capacity() * 4, buffer.used());
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(-i, list.get(i));
+        }
+        list.set(5, 5);
+        assertEquals(5, list.get(5));
+        list.clear();
+        assertEquals(0, list.size());
+        list.free();
+        assertEquals(0, buffer.used());
+    }
+
+    /**
+     * Random puts and removes must agree with a <code>HashMap</code>, through growth and backward shifts.
+     */
+    @Test
+    public void testLongLongMap() throws DMBufferOverFlowException {
+        OffHeapLongLongMap map = new OffHeapLongLongMap(buffer, 4);
+        Map<Long, Long> expected = new HashMap<Long, Long>();
+        Random random = new Random(42);
+        for (int n = 0; n < 20000; n++) {
+            long key = random.nextInt(2000) - 1000;
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key) != null, map.remove(key));
+            } else {
+                long value = random.nextLong();
+                map.put(key, value);
+                expected.put(key, value);
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        for (long key = -1000; key < 1000; key++) {
+            assertEquals(expected.containsKey(key), map.containsKey(key));
+            assertEquals(expected.containsKey(key) ? expected.get(key) : -1L, map.get(key, -1L));
+        }
+        final Map<Long, Long> visited = new HashMap<Long, Long>();
+        map.forEach(new OffHeapLongLongMap.EntryVisitor() {
+            public void visit(long key, long value) {
+                visited.put(key, value);
+            }
+        });
+        assertEquals(expected, visited);
+
+        map.clear();
+        assertEquals(0, map.size());
+        assertFalse(map.containsKey(0));
+        map.free();
+        assertEquals(0, buffer.used());
+    }
+}
@@ -0,0 +1,161 @@
+package com.prashant.memory;
+
+import com.prashant.exception.DMBufferOverFlowException;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+public class OffHeapRingBufferTest extends TestCase {
+
+    private static OffHeapRingBuffer.RecordHandler collect(final List<byte[]> into) {
+        return new OffHeapRingBuffer.RecordHandler() {
+            public void onRecord(ByteBuffer records, int offset, int length) {
+                byte[] payload = new byte[length];
+                ByteBuffer view = records.duplicate();
+                view.position(offset);
+                view.get(payload);
+                into.add(payload);
+            }
+        };
+    }
+
+    /**
+     * Records of every length come out in order across many laps of the ring, including the ones padded past its end.
+     */
+    @Test
+    public void testOfferAndDrain() throws DMBufferOverFlowException {
+        MemoryBuffer buffer = DirectMemoryBuffer.createNew(4096, 1);
+        OffHeapRingBuffer ring = new OffHeapRingBuffer(buffer, 256, false);
+        assertEquals(120, ring.maxLength());
+        assertTrue(ring.isEmpty());
+        assertNull(ring.poll());
+
+        List<byte[]> drained = new ArrayList<byte[]>();
+        for (int lap = 0; lap < 50; lap++) {
+            for (int len = 0; len <= 40; len += 13) {
+                byte[] payload = new byte[len];
+                for (int i = 0; i < len; i++) {
+                    payload[i] = (byte) (lap + len + i);
+                }
+                assertTrue(ring.offer(payload));
+            }
+            drained.clear();
+            assertEquals(4, ring.drain(collect(drained), 10));
+            for (int r = 0; r < 4; r++) {
+                byte[] payload = drained.get(r);
+                assertEquals(r * 13, payload.length);
+                for (int i = 0; i < payload.length; i++) {
+                    assertEquals((byte) (lap + payload.length + i), payload[i]);
+                }
+            }
+            assertTrue(ring.isEmpty());
+        }
+
+        while (ring.offer(new byte[20])) {
+            // fill it up
+        }
+        assertFalse(ring.isEmpty());
+        assertEquals(2, ring.drain(collect(drained), 2));
+        assertTrue(ring.offer(ByteBuffer.wrap(new byte[20])));
+        try {
+            ring.offer(new byte[121]);
+            fail("offered a record larger than the ring allows");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        ring.free();
+        assertEquals(0, buffer.used());
+    }
+
+    /**
+     * A claimed record holds the consumer back until it is published.
+     */
+    @Test
+    public void testClaimAndPublish() throws DMBufferOverFlowException {
+        OffHeapRingBuffer ring = new OffHeapRingBuffer(BuddyMemoryBuffer.createNew(4096, 1), 1024, true);
+        int first = ring.claim(8);
+        int second = ring.claim(4);
+        ring.buffer().putInt(second, 7);
+        ring.publish(second);
+        assertNull(ring.poll());
+
+        ring.buffer().putLong(first, 42);
+        ring.publish(first);
+        assertEquals(42, ByteBuffer.wrap(ring.poll()).order(ring.buffer().order()).getLong());
+        assertEquals(7, ByteBuffer.wrap(ring.poll()).order(ring.buffer().order()).getInt());
+        assertNull(ring.poll());
+    }
+
+    /**
+     * Compaction leaves the block of the ring where it is.
+     */
+    @Test
+    public void testPinned() throws DMBufferOverFlowException {
+        DirectMemoryBuffer buffer = (DirectMemoryBuffer) DirectMemoryBuffer.createNew(4096, 1);
+        Pointer hole = buffer.store(new byte[100]);
+        OffHeapRingBuffer ring = new OffHeapRingBuffer(buffer, 512, false);
+        ByteBuffer before = ring.buffer();
+        buffer.free(hole);
+        buffer.compact(Long.MAX_VALUE >> 1);
+        assertTrue(ring.offer("still here".getBytes()));
+        assertSame(before, ring.buffer());
+        assertEquals("still here", new String(ring.poll()));
+        assertEquals(2, buffer.freeBlockCount());
+    }
+
+    /**
+     * Every message of every producer arrives once, and in the order its producer offered it.
+     */
+    @Test
+    public void testMultiProducer() throws Exception {
+        final OffHeapRingBuffer ring = new OffHeapRingBuffer(DirectMemoryBuffer.createNew(1 << 16, 1), 4096, true);
+        final int producers = 4;
+        final int messages = 100000;
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            threads[p] = new Thread() {
+                public void run() {
+                    byte[] payload = new byte[12 + producer];
+                    ByteBuffer message = ByteBuffer.wrap(payload).order(ring.buffer().order());
+                    for (int i = 0; i < messages; i++) {
+                        message.putInt(0, producer).putLong(4, i);
+                        while (!ring.offer(payload)) {
+                            Thread.yield();
+                        }
+                    }
+                }
+            };
+            threads[p].start();
+        }
+        final long[] next = new long[producers];
+        final String[] failure = new String[1];
+        OffHeapRingBuffer.RecordHandler check = new OffHeapRingBuffer.RecordHandler() {
+            public void onRecord(ByteBuffer records, int offset, int length) {
+                int producer = records.getInt(offset);
+                long sequence = records.getLong(offset + 4);
+                if (length != 12 + producer || sequence != next[producer]++) {
+                    failure[0] = "producer " + producer + " sent " + sequence + " of length " + length;
+                }
+            }
+        };
+        int received = 0;
+        while (received < producers * messages) {
+            int drained = ring.drain(check, 256);
+            if (drained == 0) {
+                Thread.yield();
+            }
+            received += drained;
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(failure[0], failure[0]);
+        assertTrue(ring.isEmpty());
+    }
+}
@@ -0,0 +1,152 @@
+package com.prashant.memory;
+
+import com.prashant.exception.DMBufferOverFlowException;
+import com.prashant.exception.DMFrameLimitExcededException;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+public class SlabMemoryBufferTest extends TestCase {
+
+    @Test
+    public void testStoreAndRetrieve() throws DMBufferOverFlowException, DMFrameLimitExcededException {
+        SlabMemoryBuffer buffer = SlabMemoryBuffer.createNew(4096, new int[] { 128, 48 }, 1);
+        Pointer pointer = buffer.store("TestString".getBytes());
+        assertEquals("TestString", new String(buffer.retrieve(pointer)));
+        long handle = buffer.storeHandle(new byte[100]);
+        assertEquals(42 * 48, Handles.offset(handle));
+        assertEquals(110, buffer.used());
+
+        assertEquals(10, buffer.free(pointer));
+        assertEquals(0, buffer.free(pointer));
+        assertEquals(100, buffer.free(handle));
+        assertEquals(0, buffer.free(handle));
+        assertEquals(0, buffer.used());
+    }
+
+    /**
+     * Once the slab of the best fitting size is full, payloads go to the next
+     * larger one, and freed slots are handed out again.
+     */
+    /**
+     * Updates and reads stay within the record, the neighbouring record is left alone.
+     */
+    @Test
+    public void testBoundedToRecord() throws DMBufferOverFlowException, DMFrameLimitExcededException {
+        SlabMemoryBuffer buffer = SlabMemoryBuffer.createNew(4096, new int[] { 8 }, 1);
+        Pointer first = buffer.store("01234567".getBytes());
+        Pointer second = buffer.store("ABCDEFGH".getBytes());
+        assertEquals(first.getStart() + 8, second.getStart());
+        try {
+            buffer.update(first, "ZZZZZZZZZ".getBytes(), 0);
+            fail("wrote into the next record");
+        } catch (DMFrameLimitExcededException e) {
+            // expected
+        }
+        try {
+            buffer.retrieve(first, 0, 9);
+            fail("read from the next record");
+        } catch (DMFrameLimitExcededException e) {
+            // expected
+        }
+        buffer.update(first, "Z".getBytes(), 7);
+        assertEquals("0123456Z", new String(buffer.retrieve(first)));
+        assertEquals("ABCDEFGH", new String(buffer.retrieve(second)));
+    }
+
+    @Test
+    public void testFillAndReuse() throws DMBufferOverFlowException {
+        SlabMemoryBuffer buffer = SlabMemoryBuffer.createNew(2 * 48 * 70, new int[] { 48, 96 }, 1);
+        assertEquals(70, buffer.slots(48));
+        assertEquals(35, buffer.slots(96));
+        List<Long> handles = new ArrayList<Long>();
+        for (int i = 0; i < 105; i++) {
+            handles.add(buffer.storeHandle(new byte[48]));
+        }
+        try {
+            buffer.storeHandle(new byte[1]);
+            fail("buffer should be full");
+        } catch (DMBufferOverFlowException e) {
+            // expected
+        }
+        buffer.free(handles.get(69));
+        assertEquals(Handles.offset(handles.get(69)), Handles.offset(buffer.storeHandle(new byte[10])));
+    }
+
+    @Test
+    public void testForEach() throws DMBufferOverFlowException {
+        SlabMemoryBuffer buffer = SlabMemoryBuffer.createNew(8192, new int[] { 16 }, 1);
+        List<Long> handles = new ArrayList<Long>();
+        for (int i = 0; i < 200; i++) {
+            handles.add(buffer.storeHandle(ByteBuffer.allocate(8).putLong(i).array()));
+        }
+        for (int i = 0; i < 200; i += 2) {
+            buffer.free(handles.get(i));
+        }
+        final List<Long> seen = new ArrayList<Long>();
+        buffer.forEach(new SlabMemoryBuffer.RecordVisitor() {
+            public void visit(ByteBuffer records, int offset, int recordSize) {
+                assertEquals(16, recordSize);
+                seen.add(records.getLong(offset));
+            }
+        });
+        assertEquals(100, seen.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(2 * i + 1, seen.get(i).longValue());
+        }
+    }
+
+    /**
+     * Every slot is handed out exactly once while threads race for them.
+     */
+    @Test
+    public void testConcurrentAllocation() throws Throwable {
+        final SlabMemoryBuffer buffer = SlabMemoryBuffer.createNew(64 * 4096, new int[] { 64 }, 1);
+        final long[][] taken = new long[4][1024];
+        final Throwable[] failure = new Throwable[1];
+        Thread[] threads = new Thread[taken.length];
+        for (int t = 0; t < threads.length; t++) {
+            final long[] mine = taken[t];
+            threads[t] = new Thread() {
+                public void run() {
+                    try {
+                        for (int round = 0; round < 50; round++) {
+                            for (int i = 0; i < mine.length; i++) {
+                                mine[i] = buffer.storeHandle(new byte[64]);
+                            }
+                            for (int i = 0; i < mine.length; i++) {
+                                assertEquals(64, buffer.free(mine[i]));
+                            }
+                        }
+                        for (int i = 0; i < mine.length; i++) {
+                            mine[i] = buffer.storeHandle(new byte[64]);
+                        }
+                    } catch (Throwable e) {
+                        failure[0] = e;
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        assertEquals(64 * 4096, buffer.used());
+        boolean[] slots = new boolean[4096];
+        for (long[] mine : taken) {
+            for (long handle : mine) {
+                int slot = Handles.offset(handle) / 64;
+                assertFalse(slots[slot]);
+                slots[slot] = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.prashant.memory;
+
+import com.prashant.exception.DMBufferOverFlowException;
+import com.prashant.exception.DMFrameLimitExcededException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+public class StripedMemoryBufferTest extends TestCase {
+
+    /**
+     * A thread fills its home shard first, then spills to the others, and every pointer reads back from the shard it names.
+     */
+    @Test
+    public void testSpill() throws DMBufferOverFlowException, DMFrameLimitExcededException {
+        StripedMemoryBuffer buffer = StripedMemoryBuffer.createNew(400, 4);
+        assertEquals(4, buffer.shards());
+        assertEquals(400, buffer.capacity());
+        List<Pointer> pointers = new ArrayList<Pointer>();
+        for (int i = 0; i < 12; i++) {
+            pointers.add(buffer.store(("TestString" + (char) ('a' + i)).getBytes()));
+        }
+        int home = pointers.get(0).getBlockNumber();
+        assertEquals(home, pointers.get(1).getBlockNumber());
+        assertTrue(pointers.get(11).getBlockNumber() != home);
+        assertEquals(132, buffer.used());
+        for (int i = 0; i < 12; i++) {
+            assertEquals("TestString" + (char) ('a' + i), new String(buffer.retrieve(pointers.get(i))));
+        }
+        try {
+            buffer.store(new byte[101]);
+            fail("stored more than a shard holds");
+        } catch (DMBufferOverFlowException e) {
+            // expected
+        }
+        assertEquals(132, buffer.freeAll(pointers));
+        assertEquals(0, buffer.used());
+    }
+
+    /**
+     * Handles carry the shard they were stored in.
+     */
+    @Test
+    public void testHandlesOverBuddyShards() throws DMBufferOverFlowException, DMFrameLimitExcededException {
+        StripedMemoryBuffer buffer = StripedMemoryBuffer.createNew(256, 2, new MemoryPool.SegmentFactory() {
+            public MemoryBuffer create(int capacity, int bufferNumber) {
+                return BuddyMemoryBuffer.createNew(capacity, bufferNumber);
+            }
+        });
+        HandleMemoryBuffer handles = (HandleMemoryBuffer) buffer;
+        long h1 = handles.storeHandle(new byte[100]);
+        long h2 = handles.storeHandle("TestString".getBytes());
+        assertTrue(Handles.segment(h1) != Handles.segment(h2));
+        assertEquals("TestString", new String(handles.retrieve(h2)));
+        handles.free(h1);
+        handles.free(h2);
+        assertEquals(0, buffer.used());
+        assertFalse(StripedMemoryBuffer.createNew(256, 2) instanceof HandleMemoryBuffer);
+    }
+
+    /**
+     * Threads store into their own shards, and free blocks stored by the others.
+     */
+    @Test
+    public void testConcurrentStoreAndFree() throws Exception {
+        final StripedMemoryBuffer buffer = StripedMemoryBuffer.createNew(1 << 20, 4);
+        final int threads = 8;
+        final List<List<Pointer>> stored = new ArrayList<List<Pointer>>();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final List<Pointer> mine = new ArrayList<Pointer>();
+            stored.add(mine);
+            final byte[] payload = new byte[64];
+            Arrays.fill(payload, (byte) t);
+            workers[t] = new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < 1000; i++) {
+                            mine.add(buffer.store(payload));
+                            if (i % 3 == 0) {
+                                buffer.free(mine.remove(mine.size() / 2));
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure.set(e);
+                    }
+                }
+            };
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertNull(failure.get());
+        boolean[] shards = new boolean[buffer.shards()];
+        for (int t = 0; t < threads; t++) {
+            for (Pointer pointer : stored.get(t)) {
+                shards[pointer.getBlockNumber()] = true;
+                byte[] payload = buffer.retrieve(pointer);
+                assertEquals((byte) t, payload[0]);
+                assertEquals((byte) t, payload[63]);
+            }
+        }
+        for (boolean used : shards) {
+            assertTrue(used);
+        }
+        for (int t = 0; t < threads; t++) {
+            buffer.freeAll(stored.get((t + 1) % threads));
+        }
+        assertEquals(0, buffer.used());
+    }
+}
@@ -0,0 +1,193 @@
+package com.prashant.memory;
+
+import com.prashant.exception.DMBufferOverFlowException;
+import com.prashant.exception.DMFrameLimitExcededException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+public class TrackingMemoryBufferTest extends TestCase {
+
+    private static Pointer storeSmall(MemoryBuffer buffer) throws DMBufferOverFlowException {
+        return buffer.store("TestString".getBytes());
+    }
+
+    private static Pointer storeLarge(MemoryBuffer buffer) throws DMBufferOverFlowException {
+        return buffer.store(new byte[100]);
+    }
+
+    private static long storeHandle(HandleMemoryBuffer buffer) throws DMBufferOverFlowException {
+        return buffer.storeHandle("TestString".getBytes());
+    }
+
+    private static void leak(MemoryBuffer buffer) throws DMBufferOverFlowException {
+        storeLarge(buffer);
+    }
+
+    /**
+     * Collects garbage until the cleaner found <code>leaks</code> leaked blocks, or gives up after a few seconds.
+     */
+    private static void awaitLeaks(TrackingMemoryBuffer buffer, long leaks) throws InterruptedException {
+        for (int i = 0; i < 100 && buffer.leaks() < leaks; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+    }
+
+    /**
+     * Sampled blocks are summed up by the stack they were stored from, and read, updated and freed through the pointer handed out.
+     */
+    @Test
+    public void testSites() throws DMBufferOverFlowException, DMFrameLimitExcededException {
+        TrackingMemoryBuffer buffer = new TrackingMemoryBuffer(DirectMemoryBuffer.createNew(1024, 1), 1, 1);
+        Pointer small1 = storeSmall(buffer);
+        Pointer small2 = storeSmall(buffer);
+        Pointer large = storeLarge(buffer);
+        assertEquals("TestString", new String(buffer.retrieve(small1)));
+        assertEquals(10, small1.getEnd() - small1.getStart());
+
+        List<AllocationSite> sites = buffer.sites(10);
+        assertEquals(2, sites.size());
+        assertEquals(100, sites.get(0).getLiveBytes());
+        assertEquals(1, sites.get(0).getLiveBlocks());
+        assertEquals("storeLarge", sites.get(0).getFrames()[0].getMethodName());
+        assertEquals(20, sites.get(1).getLiveBytes());
+        assertEquals(2, sites.get(1).getLiveBlocks());
+        assertEquals("storeSmall", sites.get(1).getFrames()[0].getMethodName());
+        assertEquals(1, sites.get(1).getFrames().length);
+        assertEquals(1, buffer.sites(1).size());
+        assertTrue(buffer.report(10).contains("storeSmall"));
+
+        Pointer shrunk = buffer.update(small1, "Test".getBytes());
+        assertSame(small1, shrunk);
+        assertEquals(14, buffer.sites(10).get(1).getLiveBytes());
+        Pointer moved = buffer.update(small2, new byte[600]);
+        assertNotSame(small2, moved);
+        assertEquals(600, buffer.retrieve(moved).length);
+        assertEquals(604, buffer.sites(10).get(0).getLiveBytes());
+
+        buffer.free(shrunk);
+        buffer.free(moved);
+        buffer.free(large);
+        buffer.free(large);
+        assertEquals(0, buffer.used());
+        assertEquals(0, buffer.sites(10).size());
+        assertEquals(0, buffer.leaks());
+    }
+
+    /**
+     * A sampled block retired by an update that fits nowhere, while a read is open, is released rather than found leaking later.
+     */
+    @Test
+    public void testFailedUpdateDuringRead() throws DMBufferOverFlowException, InterruptedException {
+        DirectMemoryBuffer delegate = (DirectMemoryBuffer) DirectMemoryBuffer.createNew(1024, 1);
+        TrackingMemoryBuffer buffer = new TrackingMemoryBuffer(delegate, 1, 1);
+        buffer.setFreeLeaks(true);
+        Pointer pointer = storeLarge(buffer);
+        // Keeps the block from growing in place
+        Pointer next = storeSmall(buffer);
+
+        EpochReclaimer.Participant reader = delegate.epochs.enter();
+        try {
+            buffer.update(pointer, new byte[950]);
+            fail("updated into space still held by the read");
+        } catch (DMBufferOverFlowException e) {
+            List<AllocationSite> sites = buffer.sites(10);
+            assertEquals(1, sites.size());
+            assertEquals("storeSmall", sites.get(0).getFrames()[0].getMethodName());
+        }
+        delegate.epochs.exit(reader);
+
+        pointer = null;
+        System.gc();
+        Thread.sleep(100);
+        assertEquals(0, buffer.leaks());
+        buffer.free(next);
+        Pointer stored = buffer.store(new byte[1000]);
+        assertEquals(1000, buffer.used());
+        buffer.free(stored);
+    }
+
+    /**
+     * A block whose pointer is dropped without freeing it is found leaking, and freed when asked to.
+     */
+    @Test
+    public void testLeak() throws DMBufferOverFlowException, InterruptedException {
+        TrackingMemoryBuffer buffer = new TrackingMemoryBuffer(DirectMemoryBuffer.createNew(1024, 1), 1, 8);
+        Pointer kept = storeSmall(buffer);
+        leak(buffer);
+        awaitLeaks(buffer, 1);
+        assertEquals(1, buffer.leaks());
+        List<AllocationSite> sites = buffer.sites(10);
+        assertEquals(100, sites.get(0).getLeakedBytes());
+        assertEquals(0, sites.get(0).getLiveBytes());
+        assertEquals("leak", sites.get(0).getFrames()[1].getMethodName());
+        assertEquals(10, sites.get(1).getLiveBytes());
+        assertEquals(110, buffer.used());
+
+        buffer.setFreeLeaks(true);
+        leak(buffer);
+        awaitLeaks(buffer, 2);
+        assertEquals(2, buffer.leaks());
+        // Leaked from another line of the test, which makes it another site
+        assertEquals(3, buffer.sites(10).size());
+        assertEquals(110, buffer.used());
+        buffer.free(kept);
+    }
+
+    /**
+     * Blocks stored by handle are counted from the stack they were stored from until freed.
+     */
+    @Test
+    public void testHandles() throws DMBufferOverFlowException, DMFrameLimitExcededException {
+        TrackingMemoryBuffer.WithHandles buffer = new TrackingMemoryBuffer.WithHandles(BuddyMemoryBuffer.createNew(1024, 1), 1, 1);
+        long handle = storeHandle(buffer);
+        assertEquals("TestString", new String(buffer.retrieve(handle)));
+        List<AllocationSite> sites = buffer.sites(10);
+        assertEquals(1, sites.size());
+        assertEquals(10, sites.get(0).getLiveBytes());
+        assertEquals("storeHandle", sites.get(0).getFrames()[0].getMethodName());
+        assertEquals(TrackingMemoryBufferTest.class.getName(), sites.get(0).getFrames()[0].getClassName());
+
+        assertEquals(10, buffer.free(handle));
+        assertEquals(0, buffer.sites(10).size());
+        assertEquals(0, buffer.used());
+    }
+
+    /**
+     * Only the given fraction of the stores is tracked, and blocks released by a clear are not leaks.
+     */
+    @Test
+    public void testSampling() throws DMBufferOverFlowException, InterruptedException {
+        TrackingMemoryBuffer buffer = new TrackingMemoryBuffer(BuddyMemoryBuffer.createNew(1 << 16, 1), 0, 8);
+        Pointer pointer = storeSmall(buffer);
+        assertEquals(Pointer.class, pointer.getClass());
+        assertEquals(0, buffer.sites(10).size());
+
+        buffer.setSampleRate(0.5);
+        // Kept reachable until the clear, or a collection meanwhile would find them leaking
+        List<Pointer> pointers = new ArrayList<Pointer>();
+        for (int i = 0; i < 1000; i++) {
+            pointers.add(buffer.store(new byte[8]));
+        }
+        long sampled = buffer.sites(10).get(0).getLiveBlocks();
+        assertTrue("sampled " + sampled, sampled > 400 && sampled < 600);
+
+        buffer.clear();
+        assertEquals(0, buffer.sites(10).size());
+        pointers.clear();
+        System.gc();
+        Thread.sleep(100);
+        assertEquals(0, buffer.leaks());
+        try {
+            buffer.setSampleRate(2);
+            fail("sampled more than all the stores");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
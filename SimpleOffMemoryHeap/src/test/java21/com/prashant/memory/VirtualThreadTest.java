@@ -0,0 +1,95 @@
+package com.prashant.memory;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+public class VirtualThreadTest extends TestCase {
+
+    private interface Task {
+        void run(int i) throws Exception;
+    }
+
+    /**
+     * Runs the task on as many virtual threads, and returns the pinning events recorded meanwhile.
+     */
+    private static List<RecordedEvent> onVirtualThreads(int threads, Task task, AtomicInteger failures) throws Exception {
+        Path file = Files.createTempFile("pinned", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("jdk.VirtualThreadPinned").withThreshold(Duration.ZERO).withStackTrace();
+            recording.start();
+            try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                for (int t = 0; t < threads; t++) {
+                    final int i = t;
+                    executor.submit(() -> {
+                        try {
+                            task.run(i);
+                        } catch (Exception e) {
+                            failures.incrementAndGet();
+                        }
+                    });
+                }
+            }
+            recording.stop();
+            recording.dump(file);
+            return RecordingFile.readAllEvents(file);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * 100k virtual threads store, read back and free a block each through the allocator thread, and none pins its carrier.
+     */
+    @Test
+    public void testAsyncFromVirtualThreads() throws Exception {
+        MemoryBuffer buffer = DirectMemoryBuffer.createNew(16 * 1024 * 1024, 1);
+        AsyncMemoryBuffer async = new AsyncMemoryBuffer(buffer);
+        AtomicInteger failures = new AtomicInteger();
+        List<RecordedEvent> pinned = onVirtualThreads(100_000, i -> {
+            byte[] payload = ByteBuffer.allocate(64).putInt(i).putInt(60, i).array();
+            Pointer pointer = async.storeAsync(payload).join();
+            if (!Arrays.equals(payload, async.retrieveAsync(pointer).join())) {
+                throw new IllegalStateException("Read back another payload than stored by " + i);
+            }
+            async.freeAsync(pointer).join();
+        }, failures);
+        async.stop();
+        assertEquals(0, failures.get());
+        assertEquals(pinned.toString(), 0, pinned.size());
+        assertEquals(0, buffer.used());
+    }
+
+    /**
+     * Virtual threads contending for the allocator lock of the buffer wait without pinning their carrier.
+     */
+    @Test
+    public void testAllocatorLockFromVirtualThreads() throws Exception {
+        MemoryBuffer buffer = DirectMemoryBuffer.createNew(1024 * 1024, 1);
+        AtomicInteger failures = new AtomicInteger();
+        List<RecordedEvent> pinned = onVirtualThreads(10_000, i -> {
+            for (int j = 0; j < 10; j++) {
+                Pointer pointer = buffer.store(new byte[16 + j * 8]);
+                Thread.yield();
+                buffer.free(pointer);
+            }
+        }, failures);
+        assertEquals(0, failures.get());
+        assertEquals(pinned.toString(), 0, pinned.size());
+        assertEquals(0, buffer.used());
+    }
+}
@@ -0,0 +1,61 @@
+package com.prashant.memory;
+
+import com.prashant.exception.DMBufferOverFlowException;
+import com.prashant.exception.DMFrameLimitExcededException;
+
+import org.junit.Test;
+
+/**
+ * Runs the <code>DirectMemoryBufferTest</code> suite against the foreign
+ * memory buffer, with windows small enough that most blocks have a base.
+ */
+public class ForeignMemoryBufferTest extends DirectMemoryBufferTest {
+
+    @Override
+    protected MemoryBuffer createBuffer(int capacity, int bufferNumber) {
+        return ForeignMemoryBuffer.createNew(capacity, bufferNumber, 8);
+    }
+
+    @Override
+    protected EpochReclaimer epochs(MemoryBuffer buffer) {
+        return ((ForeignMemoryBuffer) buffer).epochs;
+    }
+
+    /**
+     * Blocks are 8 byte aligned, there is no other default alignment.
+     */
+    @Override
+    public void testDefaultAlignment() throws DMBufferOverFlowException {
+        ForeignMemoryBuffer tempBuffer = ForeignMemoryBuffer.createNew(1024, 22);
+        tempBuffer.store("Odd".getBytes());
+        Pointer pointer = tempBuffer.store("TestString".getBytes());
+        assertEquals(0, tempBuffer.view(pointer).alignmentOffset(0, 8));
+        tempBuffer.close();
+    }
+
+    @Test
+    public void testWindows() throws DMBufferOverFlowException, DMFrameLimitExcededException {
+        ForeignMemoryBuffer tempBuffer = ForeignMemoryBuffer.createNew(4096, 20, 8);
+        tempBuffer.store(new byte[1000]);
+        Pointer pointer = tempBuffer.store("TestString".getBytes());
+        assertEquals(768, pointer.getBase());
+        assertEquals(232, pointer.getStart());
+        assertEquals(242, pointer.getEnd());
+        assertEquals("TestString", new String(tempBuffer.retrieve(pointer)));
+        tempBuffer.close();
+    }
+
+    @Test
+    public void testClose() throws DMBufferOverFlowException, DMFrameLimitExcededException {
+        ForeignMemoryBuffer tempBuffer = ForeignMemoryBuffer.createNew(1024, 21);
+        Pointer pointer = tempBuffer.store("TestString".getBytes());
+        assertEquals(1024L, tempBuffer.capacityBytes());
+        tempBuffer.close();
+        try {
+            tempBuffer.retrieve(pointer);
+            fail("read memory that was freed");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.prashant.memory.benchmarks;
+
+import com.prashant.exception.DMBufferOverFlowException;
+import com.prashant.exception.DMFrameLimitExcededException;
+import com.prashant.memory.MemoryBuffer;
+import com.prashant.memory.Pointer;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of reading and updating a stored block, across payload sizes and fill levels, with one thread and with several threads sharing the
+ * buffer, each on its own block.
+ * 
+ * @see BaselineBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AccessBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Shared {
+        @Param({ "direct", "buddy", "arena", "slab" })
+        public String buffer;
+
+        /** Percent of the buffer used before measuring. */
+        @Param({ "0", "90" })
+        public int fill;
+
+        MemoryBuffer memoryBuffer;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            memoryBuffer = Buffers.create(buffer);
+            Buffers.fill(memoryBuffer, fill, true);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            memoryBuffer.clear();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Block {
+        @Param({ "16", "256", "4096" })
+        public int size;
+
+        byte[] payload;
+        byte[] target;
+        Pointer pointer;
+
+        @Setup(Level.Trial)
+        public void setUp(Shared shared) throws DMBufferOverFlowException {
+            payload = new byte[size];
+            target = new byte[size];
+            pointer = shared.memoryBuffer.store(payload);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public byte[] retrieve(Shared shared, Block block) throws DMFrameLimitExcededException {
+        return shared.memoryBuffer.retrieve(block.pointer);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public byte[] retrieve4Threads(Shared shared, Block block) throws DMFrameLimitExcededException {
+        return shared.memoryBuffer.retrieve(block.pointer);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public byte[] retrieveInto(Shared shared, Block block) throws DMFrameLimitExcededException {
+        shared.memoryBuffer.retrieve(block.pointer, 0, block.target, 0, block.size);
+        return block.target;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public long getLong(Shared shared, Block block) throws DMFrameLimitExcededException {
+        return shared.memoryBuffer.getLong(block.pointer, 0);
+    }
+
+    /** Overwrites the block in place. */
+    @Benchmark
+    @Threads(1)
+    public Pointer updateInPlace(Shared shared, Block block) throws DMFrameLimitExcededException {
+        shared.memoryBuffer.update(block.pointer, block.payload, 0);
+        return block.pointer;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Pointer updateInPlace4Threads(Shared shared, Block block) throws DMFrameLimitExcededException {
+        shared.memoryBuffer.update(block.pointer, block.payload, 0);
+        return block.pointer;
+    }
+
+    /** Replaces the block, which may move it. */
+    @Benchmark
+    @Threads(1)
+    public Pointer update(Shared shared, Block block) throws DMBufferOverFlowException {
+        block.pointer = shared.memoryBuffer.update(block.pointer, block.payload);
+        return block.pointer;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Pointer update4Threads(Shared shared, Block block) throws DMBufferOverFlowException {
+        block.pointer = shared.memoryBuffer.update(block.pointer, block.payload);
+        return block.pointer;
+    }
+}
@@ -0,0 +1,98 @@
+package com.prashant.memory.benchmarks;
+
+import com.prashant.exception.DMBufferOverFlowException;
+import com.prashant.exception.DMFrameLimitExcededException;
+import com.prashant.memory.MemoryBuffer;
+import com.prashant.memory.Pointer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Small records stored one after the other at 8, 64 and 4096 byte alignment. Threads updating records next to each other share cache lines
+ * at 8 bytes and stop doing so at 64, while a sequential scan over all the records pays for the padding in cache and TLB misses.
+ * 
+ * @see AccessBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AlignmentBenchmark {
+
+    static final int RECORDS = 4096;
+    static final int RECORD_SIZE = 16;
+
+    @State(Scope.Benchmark)
+    public static class Shared {
+        @Param({ "direct", "buddy" })
+        public String buffer;
+
+        @Param({ "8", "64", "4096" })
+        public int alignment;
+
+        MemoryBuffer memoryBuffer;
+        Pointer[] records;
+        final AtomicInteger threads = new AtomicInteger();
+
+        @Setup(Level.Trial)
+        public void setUp() throws DMBufferOverFlowException {
+            memoryBuffer = Buffers.create(buffer);
+            records = new Pointer[RECORDS];
+            for (int i = 0; i < RECORDS; i++) {
+                records[i] = memoryBuffer.store(new byte[RECORD_SIZE], RECORD_SIZE, alignment);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            memoryBuffer.clear();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Record {
+        byte[] payload = new byte[8];
+        Pointer pointer;
+
+        @Setup(Level.Trial)
+        public void setUp(Shared shared) {
+            // Each thread takes the record stored right after the one of the previous thread.
+            pointer = shared.records[shared.threads.getAndIncrement() % RECORDS];
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void update4Threads(Shared shared, Record record) throws DMFrameLimitExcededException {
+        record.payload[0]++;
+        shared.memoryBuffer.update(record.pointer, record.payload, 0);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public long scan(Shared shared) throws DMFrameLimitExcededException {
+        MemoryBuffer memoryBuffer = shared.memoryBuffer;
+        long sum = 0;
+        for (Pointer pointer : shared.records) {
+            sum += memoryBuffer.getLong(pointer, 0) + memoryBuffer.getLong(pointer, 8);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,87 @@
+package com.prashant.memory.benchmarks;
+
+import com.prashant.exception.DMBufferOverFlowException;
+import com.prashant.memory.MemoryBuffer;
+import com.prashant.memory.Pointer;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of a store followed by a free of the same block, across payload sizes, fill levels and fragmentation, with one thread and with
+ * several threads sharing the buffer. The block is freed right away so the buffer stays in the state set up for the trial. The striped
+ * buffer gives each thread its own shard, so its multi-threaded runs should scale where the others contend.
+ * 
+ * @see BaselineBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AllocatorBenchmark {
+
+    @Param({ "direct", "buddy", "arena", "slab", "striped" })
+    public String buffer;
+
+    @Param({ "16", "256", "4096" })
+    public int size;
+
+    /** Percent of the buffer used before measuring. */
+    @Param({ "0", "50", "90" })
+    public int fill;
+
+    @Param({ "false", "true" })
+    public boolean fragmented;
+
+    private MemoryBuffer memoryBuffer;
+    private byte[] payload;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        memoryBuffer = Buffers.create(buffer);
+        Buffers.fill(memoryBuffer, fill, fragmented);
+        payload = new byte[size];
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        memoryBuffer.clear();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public long storeFree() throws DMBufferOverFlowException {
+        Pointer pointer = memoryBuffer.store(payload);
+        return memoryBuffer.free(pointer);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long storeFree4Threads() throws DMBufferOverFlowException {
+        Pointer pointer = memoryBuffer.store(payload);
+        return memoryBuffer.free(pointer);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public long storeFreeAllThreads() throws DMBufferOverFlowException {
+        Pointer pointer = memoryBuffer.store(payload);
+        return memoryBuffer.free(pointer);
+    }
+}
@@ -0,0 +1,90 @@
+package com.prashant.memory.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * What the memory buffers are measured against: a new direct <code>ByteBuffer</code> or a new <code>byte[]</code> per payload, left to
+ * the garbage collector, and reads out of a payload already held in either.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BaselineBenchmark {
+
+    @Param({ "16", "256", "4096" })
+    public int size;
+
+    private byte[] payload;
+    private byte[] heapStored;
+    private ByteBuffer directStored;
+    private byte[] target;
+
+    @Setup
+    public void setUp() {
+        payload = new byte[size];
+        heapStored = new byte[size];
+        directStored = ByteBuffer.allocateDirect(size);
+        target = new byte[size];
+    }
+
+    @Benchmark
+    public ByteBuffer allocateDirect() {
+        ByteBuffer direct = ByteBuffer.allocateDirect(size);
+        direct.put(payload);
+        return direct;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public ByteBuffer allocateDirect4Threads() {
+        ByteBuffer direct = ByteBuffer.allocateDirect(size);
+        direct.put(payload);
+        return direct;
+    }
+
+    @Benchmark
+    public byte[] heap() {
+        return payload.clone();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public byte[] heap4Threads() {
+        return payload.clone();
+    }
+
+    @Benchmark
+    public byte[] retrieveDirect() {
+        byte[] bytes = new byte[size];
+        directStored.duplicate().get(bytes);
+        return bytes;
+    }
+
+    @Benchmark
+    public byte[] retrieveHeap() {
+        return heapStored.clone();
+    }
+
+    @Benchmark
+    public byte[] retrieveHeapInto() {
+        System.arraycopy(heapStored, 0, target, 0, size);
+        return target;
+    }
+}
@@ -0,0 +1,127 @@
+package com.prashant.memory.benchmarks;
+
+import com.prashant.exception.DMBufferOverFlowException;
+import com.prashant.exception.DMFrameLimitExcededException;
+import com.prashant.memory.MemoryBuffer;
+import com.prashant.memory.Pointer;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Batch calls against the same work done one payload at a time, reported per payload. Every invocation stores {@link #BATCH} payloads,
+ * reads them back and frees them, so the buffer stays in the state set up for the trial.
+ * 
+ * @see AllocatorBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BatchBenchmark {
+
+    static final int BATCH = 1000;
+
+    @Param({ "direct", "buddy", "arena", "slab" })
+    public String buffer;
+
+    @Param({ "64" })
+    public int size;
+
+    private MemoryBuffer memoryBuffer;
+    private byte[][] payloads;
+
+    /**
+     * Destination of the reads, one per thread.
+     */
+    @State(Scope.Thread)
+    public static class Gather {
+        ByteBuffer dst;
+
+        @Setup(Level.Trial)
+        public void setUp(BatchBenchmark benchmark) {
+            dst = ByteBuffer.allocateDirect(BATCH * benchmark.size);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        memoryBuffer = Buffers.create(buffer);
+        payloads = new byte[BATCH][size];
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        memoryBuffer.clear();
+    }
+
+    private long storeRetrieveFreeAll(Gather gather) throws DMBufferOverFlowException, DMFrameLimitExcededException {
+        Pointer[] pointers = memoryBuffer.storeAll(payloads);
+        gather.dst.clear();
+        memoryBuffer.retrieveAll(pointers, gather.dst);
+        return memoryBuffer.freeAll(Arrays.asList(pointers));
+    }
+
+    private long storeRetrieveFreeEach(Gather gather) throws DMBufferOverFlowException, DMFrameLimitExcededException {
+        Pointer[] pointers = new Pointer[BATCH];
+        for (int i = 0; i < BATCH; i++) {
+            pointers[i] = memoryBuffer.store(payloads[i]);
+        }
+        gather.dst.clear();
+        for (Pointer pointer : pointers) {
+            gather.dst.put(memoryBuffer.retrieve(pointer));
+        }
+        long freed = 0;
+        for (Pointer pointer : pointers) {
+            freed += memoryBuffer.free(pointer);
+        }
+        return freed;
+    }
+
+    @Benchmark
+    @Threads(1)
+    @OperationsPerInvocation(BATCH)
+    public long batch(Gather gather) throws DMBufferOverFlowException, DMFrameLimitExcededException {
+        return storeRetrieveFreeAll(gather);
+    }
+
+    @Benchmark
+    @Threads(4)
+    @OperationsPerInvocation(BATCH)
+    public long batch4Threads(Gather gather) throws DMBufferOverFlowException, DMFrameLimitExcededException {
+        return storeRetrieveFreeAll(gather);
+    }
+
+    @Benchmark
+    @Threads(1)
+    @OperationsPerInvocation(BATCH)
+    public long single(Gather gather) throws DMBufferOverFlowException, DMFrameLimitExcededException {
+        return storeRetrieveFreeEach(gather);
+    }
+
+    @Benchmark
+    @Threads(4)
+    @OperationsPerInvocation(BATCH)
+    public long single4Threads(Gather gather) throws DMBufferOverFlowException, DMFrameLimitExcededException {
+        return storeRetrieveFreeEach(gather);
+    }
+}
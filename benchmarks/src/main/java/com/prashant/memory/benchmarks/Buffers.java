@@ -0,0 +1,70 @@
+package com.prashant.memory.benchmarks;
+
+import com.prashant.exception.DMBufferOverFlowException;
+import com.prashant.memory.ArenaMemoryBuffer;
+import com.prashant.memory.BuddyMemoryBuffer;
+import com.prashant.memory.DirectMemoryBuffer;
+import com.prashant.memory.MemoryBuffer;
+import com.prashant.memory.Pointer;
+import com.prashant.memory.SlabMemoryBuffer;
+import com.prashant.memory.StripedMemoryBuffer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Creates the buffers under benchmark and brings them to a given state.
+ */
+final class Buffers {
+
+    /** Large enough that no benchmark runs out of space, a power of two so the buddy buffer wastes nothing. */
+    static final int CAPACITY = 64 * 1024 * 1024;
+
+    private Buffers() {
+    }
+
+    static MemoryBuffer create(String implementation) {
+        if ("direct".equals(implementation)) {
+            return DirectMemoryBuffer.createNew(CAPACITY, 1);
+        } else if ("buddy".equals(implementation)) {
+            return BuddyMemoryBuffer.createNew(CAPACITY, 1);
+        } else if ("arena".equals(implementation)) {
+            return ArenaMemoryBuffer.createNew(CAPACITY, 1);
+        } else if ("slab".equals(implementation)) {
+            return SlabMemoryBuffer.createNew(CAPACITY, new int[] { 16, 32, 64, 128, 256, 512, 1024, 2048, 4096 }, 1);
+        } else if ("striped".equals(implementation)) {
+            return StripedMemoryBuffer.createNew(CAPACITY);
+        }
+        throw new IllegalArgumentException("Unknown buffer " + implementation);
+    }
+
+    /**
+     * Stores blocks of random sizes between 16 and 1024 bytes until <code>fill</code> percent of the buffer is used, then frees every
+     * other one when <code>fragmented</code>, leaving holes of all sizes.
+     * <p>
+     * A buffer whose blocks take more room than their payload, like the buddy buffer, may be full before. It is then filled to
+     * <code>fill</code> percent of what it could hold, by freeing the last blocks stored.
+     * </p>
+     */
+    static void fill(MemoryBuffer buffer, int fill, boolean fragmented) {
+        Random random = new Random(42);
+        List<Pointer> pointers = new ArrayList<Pointer>();
+        long target = (long) buffer.capacity() * fill / 100;
+        try {
+            while (buffer.used() < target) {
+                pointers.add(buffer.store(new byte[16 + random.nextInt(1009)]));
+            }
+        } catch (DMBufferOverFlowException e) {
+            target = (long) buffer.used() * fill / 100;
+            while (buffer.used() > target) {
+                buffer.free(pointers.remove(pointers.size() - 1));
+            }
+        }
+        if (fragmented) {
+            for (int i = 0; i < pointers.size(); i += 2) {
+                buffer.free(pointers.get(i));
+            }
+        }
+    }
+}
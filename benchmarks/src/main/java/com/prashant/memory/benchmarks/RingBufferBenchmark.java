@@ -0,0 +1,131 @@
+package com.prashant.memory.benchmarks;
+
+import com.prashant.exception.DMBufferOverFlowException;
+import com.prashant.exception.DMFrameLimitExcededException;
+import com.prashant.memory.DirectMemoryBuffer;
+import com.prashant.memory.MemoryBuffer;
+import com.prashant.memory.OffHeapRingBuffer;
+import com.prashant.memory.Pointer;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Messages handed from producers to one consumer through an {@link OffHeapRingBuffer}, against storing each message, passing its
+ * <code>Pointer</code> through a <code>LinkedBlockingQueue</code> and freeing it once consumed. Each group runs one consumer with one or
+ * three producers, the throughput of the producers is the message rate. A producer waits while the ring or the queue is full.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class RingBufferBenchmark {
+
+    static final int RING = 1 << 20;
+    static final int BATCH = 256;
+
+    @Param({ "64" })
+    public int size;
+
+    private MemoryBuffer memoryBuffer;
+    private OffHeapRingBuffer spsc;
+    private OffHeapRingBuffer mpsc;
+    private LinkedBlockingQueue<Pointer> queue;
+    private byte[] payload;
+
+    /** Sum of the first long of the consumed messages, only touched by the consumer. */
+    private long checksum;
+
+    private final OffHeapRingBuffer.RecordHandler handler = new OffHeapRingBuffer.RecordHandler() {
+        public void onRecord(ByteBuffer records, int offset, int length) {
+            checksum += records.getLong(offset);
+        }
+    };
+
+    @Setup(Level.Trial)
+    public void setUp() throws DMBufferOverFlowException {
+        memoryBuffer = DirectMemoryBuffer.createNew(Buffers.CAPACITY, 1);
+        spsc = new OffHeapRingBuffer(memoryBuffer, RING, false);
+        mpsc = new OffHeapRingBuffer(memoryBuffer, RING, true);
+        queue = new LinkedBlockingQueue<Pointer>(RING / size);
+        payload = new byte[size];
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        memoryBuffer.clear();
+    }
+
+    @Benchmark
+    @Group("ring")
+    @GroupThreads(1)
+    public void ringOffer() {
+        while (!spsc.offer(payload)) {
+            Thread.yield();
+        }
+    }
+
+    @Benchmark
+    @Group("ring")
+    @GroupThreads(1)
+    public long ringDrain() {
+        spsc.drain(handler, BATCH);
+        return checksum;
+    }
+
+    @Benchmark
+    @Group("ring3Producers")
+    @GroupThreads(3)
+    public void ring3ProducersOffer() {
+        while (!mpsc.offer(payload)) {
+            Thread.yield();
+        }
+    }
+
+    @Benchmark
+    @Group("ring3Producers")
+    @GroupThreads(1)
+    public long ring3ProducersDrain() {
+        mpsc.drain(handler, BATCH);
+        return checksum;
+    }
+
+    @Benchmark
+    @Group("queue")
+    @GroupThreads(1)
+    public void queueOffer() throws DMBufferOverFlowException, InterruptedException {
+        queue.put(memoryBuffer.store(payload));
+    }
+
+    @Benchmark
+    @Group("queue")
+    @GroupThreads(1)
+    public long queueDrain() throws DMFrameLimitExcededException {
+        Pointer pointer = queue.poll();
+        if (pointer == null) {
+            return 0;
+        }
+        long value = memoryBuffer.getLong(pointer, 0);
+        memoryBuffer.free(pointer);
+        return value;
+    }
+}
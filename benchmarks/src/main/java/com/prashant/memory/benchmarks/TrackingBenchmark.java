@@ -0,0 +1,58 @@
+package com.prashant.memory.benchmarks;
+
+import com.prashant.exception.DMBufferOverFlowException;
+import com.prashant.memory.MemoryBuffer;
+import com.prashant.memory.TrackingMemoryBuffer;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of tracking the stores, a store and a free of a small block on a plain buffer against one wrapped in a
+ * <code>TrackingMemoryBuffer</code> sampling 1% and all of the stores.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TrackingBenchmark {
+
+    @Param({ "off", "0.01", "1" })
+    public String sampleRate;
+
+    private MemoryBuffer buffer;
+    private final byte[] payload = new byte[64];
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        buffer = Buffers.create("direct");
+        if (!"off".equals(sampleRate)) {
+            buffer = new TrackingMemoryBuffer(buffer, Double.parseDouble(sampleRate), TrackingMemoryBuffer.DEFAULT_DEPTH);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        buffer.clear();
+    }
+
+    @Benchmark
+    public long storeAndFree() throws DMBufferOverFlowException {
+        return buffer.free(buffer.store(payload));
+    }
+}